@@ -1,5 +1,7 @@
 package com.weather.report;
 
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.format.DateTimeFormatter;
 
 import com.weather.report.model.UserType;
@@ -11,15 +13,66 @@ import com.weather.report.operations.SensorOperations;
 import com.weather.report.operations.TopologyOperations;
 import com.weather.report.repositories.CRUDRepository;
 import com.weather.report.services.DataImportingService;
+import com.weather.report.services.ReportServices;
+import com.weather.report.services.RetentionPolicy;
+import com.weather.report.services.RetentionService;
 
-public class WeatherReport {
+public class WeatherReport implements AutoCloseable {
   public static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
   public static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern(DATE_FORMAT);
+  //stato in memoria di questa istanza, condiviso da operazioni e import
+  private final ReportServices services;
+  private final DataImportingService importer;
+  private final RetentionService retention;
   private final NetworkOperations networks = OperationsFactory.getNetworkOperations();
-  private final GatewayOperations gateways = OperationsFactory.getGatewayOperations();
+  private final GatewayOperations gateways;
   private final SensorOperations sensors = OperationsFactory.getSensorOperations();
   private final TopologyOperations topology = OperationsFactory.getTopologyOperations();
 
+  /**
+   * Creates the system without a retention policy: raw measurements are kept
+   * forever, in the main database.
+   */
+  public WeatherReport() {
+    this(1);
+  }
+
+  /**
+   * Creates the system with measurements spread across several databases by
+   * network, see {@link com.weather.report.persistence.Shards}.
+   *
+   * @param shardCount number of databases, at least 1
+   */
+  public WeatherReport(int shardCount) {
+    this.services = new ReportServices(shardCount);
+    this.importer = new DataImportingService(services);
+    this.retention = new RetentionService(services);
+    this.gateways = OperationsFactory.getGatewayOperations(services);
+  }
+
+  /**
+   * Creates the system and applies the given retention policy in the
+   * background, every {@code retentionPeriod}, until {@link #close()}.
+   *
+   * @param retentionPolicy raw measurements to roll up into aggregates
+   * @param retentionPeriod time between two runs of the policy
+   */
+  public WeatherReport(RetentionPolicy retentionPolicy, Duration retentionPeriod) {
+    this(1);
+    retention.start(retentionPolicy, retentionPeriod);
+  }
+
+  /**
+   * Stops the background work of the system (the retention schedule) and
+   * closes its shard databases. The main database stays available to the
+   * other systems of the process.
+   */
+  @Override
+  public void close() {
+    retention.stop();
+    services.close();
+  }
+
   /*********************************
    ****** COMMON REQUIREMENTS ******
    *********************************/
@@ -29,7 +82,27 @@ public class WeatherReport {
    * @param filePath the path of the file
    */
   public void importDataFromFile(String filePath) {
-    DataImportingService.storeMeasurements(filePath);
+    importer.storeMeasurements(filePath);
+  }
+
+  /**
+   * Saves the current content of the system into a snapshot file.
+   * 
+   * @param filePath the path of the snapshot file
+   */
+  public void saveSnapshot(String filePath) {
+    services.getShards().createSnapshot(Path.of(filePath));
+  }
+
+  /**
+   * Replaces the content of the system with a snapshot file, as a faster
+   * alternative to importing again all the measurement files at startup.
+   * 
+   * @param filePath the path of the snapshot file
+   */
+  public void restoreSnapshot(String filePath) {
+    services.getShards().restoreSnapshot(Path.of(filePath));
+    services.clear();
   }
 
   /**
@@ -64,4 +137,12 @@ public class WeatherReport {
   public TopologyOperations topology() {
     return topology;
   }
+
+  /**
+   * @return the in-memory state kept by this instance next to the database,
+   *         such as the cached reports
+   */
+  public ReportServices services() {
+    return services;
+  }
 }
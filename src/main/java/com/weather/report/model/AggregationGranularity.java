@@ -0,0 +1,36 @@
+package com.weather.report.model;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/// Width of the time buckets into which measurements are summarised: old
+/// measurements rolled up by the
+/// [RetentionService][com.weather.report.services.RetentionService], and the
+/// levels of the [count pyramid][com.weather.report.model.entities.MeasurementCount].
+public enum AggregationGranularity {
+  MINUTE(ChronoUnit.MINUTES),
+  HOUR(ChronoUnit.HOURS),
+  DAY(ChronoUnit.DAYS);
+
+  private final ChronoUnit unit;
+
+  AggregationGranularity(ChronoUnit unit) {
+    this.unit = unit;
+  }
+
+  /// Start of the bucket the given timestamp belongs to.
+  public LocalDateTime truncate(LocalDateTime timestamp) {
+    return timestamp.truncatedTo(unit);
+  }
+
+  /// Exclusive end of the bucket starting at the given instant.
+  public LocalDateTime bucketEnd(LocalDateTime bucketStart) {
+    return bucketStart.plus(1, unit);
+  }
+
+  /// Width of a bucket in seconds; timestamps are UTC, so it is the same for
+  /// every bucket.
+  public long getSeconds() {
+    return unit.getDuration().getSeconds();
+  }
+}
@@ -0,0 +1,12 @@
+package com.weather.report.model;
+
+/// Encoding of the reports and measurements written by the
+/// [ReportExportService][com.weather.report.services.ReportExportService].
+public enum ExportFormat {
+  /// Comma-separated rows with a header line. Measurements use the same
+  /// columns as the import files, reports one `code,section,key,value` row
+  /// per entry.
+  CSV,
+  /// A JSON array with one object per report or measurement.
+  JSON
+}
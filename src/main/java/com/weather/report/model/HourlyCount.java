@@ -0,0 +1,9 @@
+package com.weather.report.model;
+
+import java.time.LocalDateTime;
+
+/// Number of measurements of a sensor or gateway in one hour, read from the
+/// counts of the [hourly sketches][com.weather.report.model.entities.MeasurementSketch]
+/// without loading them.
+public record HourlyCount(LocalDateTime hourStart, String code, long count) {
+}
@@ -0,0 +1,11 @@
+package com.weather.report.model;
+
+import java.time.LocalDateTime;
+
+/// Read-only projection of a [measurement][com.weather.report.model.entities.Measurement]
+/// holding only what the reports need.
+///
+/// It is built directly by the query, so reading it does not go through the
+/// persistence context: no snapshot copy, no dirty checking, no identity map.
+public record MeasurementValue(String sensorCode, double value, LocalDateTime timestamp) {
+}
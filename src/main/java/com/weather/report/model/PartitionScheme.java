@@ -0,0 +1,29 @@
+package com.weather.report.model;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.TemporalAdjusters;
+
+/// Width of the time buckets ("partitions") that lead the indexes of the
+/// [measurements][com.weather.report.model.entities.Measurement]. A partition is
+/// identified by the date it starts on.
+///
+/// The scheme is set by the persistence unit
+/// ([PersistenceManager#PARTITION_SCHEME_PROPERTY][com.weather.report.persistence.PersistenceManager#PARTITION_SCHEME_PROPERTY])
+/// and fixed for the life of the database, since stored measurements keep the
+/// partition they were written with.
+public enum PartitionScheme {
+  DAY,
+  MONTH,
+  YEAR;
+
+  /// First day of the partition containing the given timestamp.
+  public LocalDate partitionOf(LocalDateTime timestamp) {
+    LocalDate date = timestamp.toLocalDate();
+    return switch (this) {
+      case DAY -> date;
+      case MONTH -> date.with(TemporalAdjusters.firstDayOfMonth());
+      case YEAR -> date.with(TemporalAdjusters.firstDayOfYear());
+    };
+  }
+}
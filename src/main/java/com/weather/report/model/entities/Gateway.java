@@ -1,23 +1,39 @@
 package com.weather.report.model.entities;
 
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import com.weather.report.model.Timestamped;
 
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Entity;
 import jakarta.persistence.FetchType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
+import jakarta.persistence.MapKey;
+import jakarta.persistence.NamedQuery;
 import jakarta.persistence.OneToMany;
 
 /// A _gateway_ groups multiple devices that monitor the same physical quantity.  
 /// 
 /// It can be configured through parameters that provide information about its state or values needed for interpreting the measurements.
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "gateways")
+@NamedQuery(name = "Gateway.findAll", query = "SELECT e FROM Gateway e")
+@NamedQuery(name = "Gateway.count", query = "SELECT COUNT(e) FROM Gateway e")
+@NamedQuery(name = Gateway.UPDATE_MODIFIED, query = "UPDATE Gateway g SET g.modifiedBy = :username,"
+    + " g.modifiedAt = :modifiedAt WHERE g.code = :gatewayCode")
 public class Gateway extends Timestamped {
+
+  public static final String UPDATE_MODIFIED = "Gateway.updateModified";
   @Id
   private String code; 
 
@@ -25,10 +41,14 @@ public class Gateway extends Timestamped {
   private String description;
 
   //tutti i salvataggi applicati al gateway sono applicati anche ai parametri -> cascade
-  //quando carico un gateway, carica anche tutti i suoi parametri figli -> fetch
-  @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.EAGER)
+  //i parametri sono caricati solo quando servono, a blocchi di più gateway per volta -> fetch + batch
+  //la mappa è indicizzata sul codice del parametro, così la ricerca per codice è immediata
+  @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.LAZY)
+  @BatchSize(size = 32)
+  @MapKey(name = "code")
+  @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "gateway-parameters")
   @JoinColumn(name = "gateway_code") //inserisce colonna di riferimento a gateway per sapere a chi si riferiscono i parametri
-  private Collection<Parameter> parameters = new ArrayList<>();
+  private Map<String, Parameter> parameters = new LinkedHashMap<>();
 
   public Gateway() {
     // default constructor is needed by JPA
@@ -46,17 +66,15 @@ public class Gateway extends Timestamped {
   }
 
   public Collection<Parameter> getParameters() {
-    return parameters;
+    return parameters.values();
   }
 
   public Parameter getParameter(String codeParameter) {
-    return this.parameters.stream()
-      .filter(p -> p.getCode().equals(codeParameter))
-      .findFirst().orElse(null);
+    return this.parameters.get(codeParameter);
   }
 
   public void addParameter(Parameter parameter) {
-    this.parameters.add(parameter);
+    this.parameters.put(parameter.getCode(), parameter);
   }
 
   public String getCode() {
@@ -1,5 +1,6 @@
 package com.weather.report.model.entities;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 
 import jakarta.persistence.Column;
@@ -7,14 +8,78 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
 
 /// Represnts a measurement taken by a sensor in the weather report system
+///
+/// Measurements record the start of the time bucket they fall in (see
+/// [com.weather.report.model.PartitionScheme]), used as a clustering key: every
+/// index starts with it, so that queries on a time window seek straight to the
+/// buckets that overlap it and retention finds the expired buckets without a
+/// scan. All measurements still live in one table: retention pages an expired
+/// bucket by id and deletes it one bounded chunk per transaction.
+///
+/// They are also spread across database shards by network code
+/// (see [com.weather.report.persistence.Shards#shardOf(String)]).
 @Entity
+@Table(indexes = {
+    @Index(name = "idx_measurement_partition", columnList = "partitionStart"),
+    @Index(name = "idx_measurement_gateway", columnList = "gatewayCode, partitionStart, measurement_timestamp"),
+    @Index(name = "idx_measurement_network", columnList = "networkCode, partitionStart, measurement_timestamp")
+})
+@NamedQuery(name = "Measurement.findAll", query = "SELECT e FROM Measurement e")
+@NamedQuery(name = "Measurement.count", query = "SELECT COUNT(e) FROM Measurement e")
+@NamedQuery(name = Measurement.BY_GATEWAY, query = "SELECT m FROM Measurement m WHERE m.gatewayCode = :gatewayCode"
+    + " AND m.partitionStart BETWEEN :firstPartition AND :lastPartition"
+    + " AND m.timestamp BETWEEN :startDate AND :endDate")
+@NamedQuery(name = Measurement.VALUES_BY_GATEWAY, query = "SELECT new com.weather.report.model.MeasurementValue("
+    + "m.sensorCode, m.value, m.timestamp) FROM Measurement m WHERE m.gatewayCode = :gatewayCode"
+    + " AND m.partitionStart BETWEEN :firstPartition AND :lastPartition"
+    + " AND m.timestamp BETWEEN :startDate AND :endDate")
+@NamedQuery(name = Measurement.VALUES_BY_GATEWAYS, query = "SELECT m.gatewayCode, m.sensorCode, m.value, m.timestamp"
+    + " FROM Measurement m WHERE m.gatewayCode IN :gatewayCodes"
+    + " AND m.partitionStart BETWEEN :firstPartition AND :lastPartition"
+    + " AND m.timestamp BETWEEN :startDate AND :endDate")
+@NamedQuery(name = Measurement.VALUES_BY_NETWORK, query = "SELECT new com.weather.report.model.MeasurementValue("
+    + "m.sensorCode, m.value, m.timestamp) FROM Measurement m WHERE m.networkCode = :networkCode"
+    + " AND m.partitionStart BETWEEN :firstPartition AND :lastPartition"
+    + " AND m.timestamp BETWEEN :startDate AND :endDate")
+@NamedQuery(name = Measurement.COUNT_BY_GATEWAY, query = "SELECT COUNT(m) FROM Measurement m"
+    + " WHERE m.gatewayCode = :gatewayCode AND m.partitionStart BETWEEN :firstPartition AND :lastPartition"
+    + " AND m.timestamp BETWEEN :startDate AND :endDate")
+@NamedQuery(name = Measurement.CHUNK_BY_GATEWAY, query = "SELECT m FROM Measurement m WHERE m.gatewayCode = :gatewayCode"
+    + " AND m.partitionStart BETWEEN :firstPartition AND :lastPartition"
+    + " AND (m.timestamp, m.id) > (:afterTimestamp, :afterId)"
+    + " AND m.timestamp <= :endDate ORDER BY m.timestamp, m.id")
+@NamedQuery(name = Measurement.OLDER_THAN, query = "SELECT m FROM Measurement m WHERE m.partitionStart <= :lastPartition"
+    + " AND m.timestamp < :cutoff ORDER BY m.id")
+@NamedQuery(name = Measurement.DELETE_BY_IDS, query = "DELETE FROM Measurement m WHERE m.id IN :ids")
+@NamedQuery(name = Measurement.PARTITIONS_BEFORE, query = "SELECT DISTINCT m.partitionStart FROM Measurement m"
+    + " WHERE m.partitionStart < :partitionStart ORDER BY m.partitionStart")
+@NamedQuery(name = Measurement.PARTITION, query = "SELECT m FROM Measurement m"
+    + " WHERE m.partitionStart = :partitionStart AND m.id > :afterId ORDER BY m.id")
 public class Measurement {
 
+  public static final String BY_GATEWAY = "Measurement.byGateway";
+  public static final String VALUES_BY_GATEWAY = "Measurement.valuesByGateway";
+  public static final String VALUES_BY_GATEWAYS = "Measurement.valuesByGateways";
+  public static final String VALUES_BY_NETWORK = "Measurement.valuesByNetwork";
+  public static final String COUNT_BY_GATEWAY = "Measurement.countByGateway";
+  public static final String CHUNK_BY_GATEWAY = "Measurement.chunkByGateway";
+  public static final String OLDER_THAN = "Measurement.olderThan";
+  public static final String DELETE_BY_IDS = "Measurement.deleteByIds";
+  public static final String PARTITIONS_BEFORE = "Measurement.partitionsBefore";
+  public static final String PARTITION = "Measurement.partition";
+
+  //la sequence (a differenza di IDENTITY) assegna gli id a blocchi e permette gli insert in batch
   @Id
-  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "measurement_seq")
+  @SequenceGenerator(name = "measurement_seq", sequenceName = "measurement_seq", allocationSize = 500)
   private Long id;
+  private LocalDate partitionStart;
   private String sensorCode;
   private String gatewayCode;
   private String networkCode;
@@ -34,6 +99,16 @@ public class Measurement {
     this.timestamp = timestamp;
   }
 
+  /// Assigns the measurement to the time partition starting on the given date
+  public void setPartitionStart(LocalDate partitionStart) {
+    this.partitionStart = partitionStart;
+  }
+
+  /// First day of the time partition the measurement belongs to
+  public LocalDate getPartitionStart() {
+    return this.partitionStart;
+  }
+
   /// Id of the measurement
   public Long getId() {
     return this.id;
@@ -0,0 +1,162 @@
+package com.weather.report.model.entities;
+
+import java.time.LocalDateTime;
+
+import com.weather.report.model.AggregationGranularity;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.Table;
+
+/// Summary of the measurements taken by a sensor in one hour or one day,
+/// written by the retention policy in place of the raw [Measurement] rows.
+///
+/// Besides count, minimum and maximum it keeps the mean and the sum of squared
+/// deviations from the mean, so that two aggregates can be merged without losing
+/// precision (Chan et al. parallel variance).
+///
+/// The raw measurements of a bucket are no longer available once rolled up, so
+/// range lookups only return the aggregates whose bucket lies entirely in the
+/// range: a range starting or ending in the middle of a bucket does not count
+/// any of its measurements.
+@Entity
+@Table(indexes = {
+    @Index(name = "idx_aggregate_bucket", columnList = "sensorCode, granularity, bucketStart", unique = true),
+    @Index(name = "idx_aggregate_gateway", columnList = "gatewayCode, bucketStart")
+})
+@NamedQuery(name = "MeasurementAggregate.findAll", query = "SELECT e FROM MeasurementAggregate e")
+@NamedQuery(name = "MeasurementAggregate.count", query = "SELECT COUNT(e) FROM MeasurementAggregate e")
+@NamedQuery(name = MeasurementAggregate.BUCKET, query = "SELECT a FROM MeasurementAggregate a"
+    + " WHERE a.sensorCode = :sensorCode AND a.granularity = :granularity AND a.bucketStart = :bucketStart")
+@NamedQuery(name = MeasurementAggregate.BY_GATEWAY, query = "SELECT a FROM MeasurementAggregate a"
+    + " WHERE a.gatewayCode = :gatewayCode AND a.bucketStart >= :startDate AND a.bucketEnd <= :endDate")
+@NamedQuery(name = MeasurementAggregate.COUNT_BY_GATEWAY, query = "SELECT COALESCE(SUM(a.count), 0)"
+    + " FROM MeasurementAggregate a WHERE a.gatewayCode = :gatewayCode AND a.bucketStart >= :startDate"
+    + " AND a.bucketEnd <= :endDate")
+@NamedQuery(name = MeasurementAggregate.BY_GATEWAYS, query = "SELECT a FROM MeasurementAggregate a"
+    + " WHERE a.gatewayCode IN :gatewayCodes AND a.bucketStart >= :startDate AND a.bucketEnd <= :endDate")
+public class MeasurementAggregate {
+
+  public static final String BUCKET = "MeasurementAggregate.bucket";
+  public static final String BY_GATEWAY = "MeasurementAggregate.byGateway";
+  public static final String BY_GATEWAYS = "MeasurementAggregate.byGateways";
+  public static final String COUNT_BY_GATEWAY = "MeasurementAggregate.countByGateway";
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+  private String networkCode;
+  private String gatewayCode;
+  private String sensorCode;
+  @Enumerated(EnumType.STRING)
+  private AggregationGranularity granularity;
+  private LocalDateTime bucketStart;
+  private LocalDateTime bucketEnd;
+  private long count;
+  private double mean;
+  private double sumOfSquaredDeviations;
+  private double minimum;
+  private double maximum;
+
+  public MeasurementAggregate() { // JPA Compliance
+  }
+
+  public MeasurementAggregate(String networkCode, String gatewayCode, String sensorCode,
+      AggregationGranularity granularity, LocalDateTime bucketStart) {
+    this.networkCode = networkCode;
+    this.gatewayCode = gatewayCode;
+    this.sensorCode = sensorCode;
+    this.granularity = granularity;
+    this.bucketStart = bucketStart;
+    this.bucketEnd = granularity.bucketEnd(bucketStart);
+    this.minimum = Double.POSITIVE_INFINITY;
+    this.maximum = Double.NEGATIVE_INFINITY;
+  }
+
+  /// Adds a single measured value to the aggregate (Welford update).
+  public void add(double value) {
+    count++;
+    double delta = value - mean;
+    mean += delta / count;
+    sumOfSquaredDeviations += delta * (value - mean);
+    minimum = Math.min(minimum, value);
+    maximum = Math.max(maximum, value);
+  }
+
+  /// Merges another aggregate of the same sensor and bucket into this one.
+  public void merge(MeasurementAggregate other) {
+    if (other.count == 0) {
+      return;
+    }
+    long total = count + other.count;
+    double delta = other.mean - mean;
+    sumOfSquaredDeviations += other.sumOfSquaredDeviations + delta * delta * count * other.count / total;
+    mean += delta * other.count / total;
+    count = total;
+    minimum = Math.min(minimum, other.minimum);
+    maximum = Math.max(maximum, other.maximum);
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public String getNetworkCode() {
+    return networkCode;
+  }
+
+  public String getGatewayCode() {
+    return gatewayCode;
+  }
+
+  public String getSensorCode() {
+    return sensorCode;
+  }
+
+  public AggregationGranularity getGranularity() {
+    return granularity;
+  }
+
+  /// Inclusive start of the bucket, truncated to the granularity
+  public LocalDateTime getBucketStart() {
+    return bucketStart;
+  }
+
+  /// Exclusive end of the bucket
+  public LocalDateTime getBucketEnd() {
+    return bucketEnd;
+  }
+
+  /// Number of raw measurements rolled into the aggregate
+  public long getCount() {
+    return count;
+  }
+
+  public double getMean() {
+    return mean;
+  }
+
+  /// Sum of the values, derived from mean and count
+  public double getSum() {
+    return mean * count;
+  }
+
+  /// Sum of the squared deviations from the mean (M2), used to derive the variance
+  public double getSumOfSquaredDeviations() {
+    return sumOfSquaredDeviations;
+  }
+
+  public double getMinimum() {
+    return minimum;
+  }
+
+  public double getMaximum() {
+    return maximum;
+  }
+}
@@ -0,0 +1,114 @@
+package com.weather.report.model.entities;
+
+import java.time.LocalDateTime;
+
+import com.weather.report.model.AggregationGranularity;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.Table;
+
+/// Number of measurements taken by the sensors of a gateway in one minute,
+/// hour or day: the levels of the count pyramid read by the
+/// [TimePyramidService][com.weather.report.services.TimePyramidService].
+///
+/// Counts are written together with the measurements, on their shard, and are
+/// not touched by the retention policy. Each bucket also keeps the first and
+/// last timestamp it counted, so that the exact span of the measurements of a
+/// gateway is known from its daily buckets once the raw rows are rolled up.
+@Entity
+@Table(indexes = {
+    @Index(name = "idx_count_bucket", columnList = "gatewayCode, granularity, bucketStart", unique = true)
+})
+@NamedQuery(name = "MeasurementCount.findAll", query = "SELECT e FROM MeasurementCount e")
+@NamedQuery(name = MeasurementCount.BUCKETS, query = "SELECT c FROM MeasurementCount c"
+    + " WHERE c.gatewayCode IN :gatewayCodes AND c.granularity = :granularity"
+    + " AND c.bucketStart BETWEEN :startDate AND :endDate")
+@NamedQuery(name = MeasurementCount.COUNTS_BY_GATEWAYS, query = "SELECT c.gatewayCode, c.bucketStart, c.count"
+    + " FROM MeasurementCount c WHERE c.gatewayCode IN :gatewayCodes AND c.granularity = :granularity"
+    + " AND c.bucketStart >= :startDate AND c.bucketStart < :endDate")
+@NamedQuery(name = MeasurementCount.SPANS_BY_GATEWAYS, query = "SELECT c.gatewayCode, MIN(c.firstTimestamp),"
+    + " MAX(c.lastTimestamp) FROM MeasurementCount c WHERE c.gatewayCode IN :gatewayCodes"
+    + " AND c.granularity = :granularity GROUP BY c.gatewayCode")
+public class MeasurementCount {
+
+  public static final String BUCKETS = "MeasurementCount.buckets";
+  public static final String COUNTS_BY_GATEWAYS = "MeasurementCount.countsByGateways";
+  public static final String SPANS_BY_GATEWAYS = "MeasurementCount.spansByGateways";
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+  private String networkCode;
+  private String gatewayCode;
+  @Enumerated(EnumType.STRING)
+  private AggregationGranularity granularity;
+  private LocalDateTime bucketStart;
+  private long count;
+  private LocalDateTime firstTimestamp;
+  private LocalDateTime lastTimestamp;
+
+  public MeasurementCount() { // JPA Compliance
+  }
+
+  public MeasurementCount(String networkCode, String gatewayCode, AggregationGranularity granularity,
+      LocalDateTime bucketStart) {
+    this.networkCode = networkCode;
+    this.gatewayCode = gatewayCode;
+    this.granularity = granularity;
+    this.bucketStart = bucketStart;
+  }
+
+  /// Adds a measurement taken at the given instant to the bucket.
+  public void add(LocalDateTime timestamp) {
+    count++;
+    if (firstTimestamp == null || timestamp.isBefore(firstTimestamp)) {
+      firstTimestamp = timestamp;
+    }
+    if (lastTimestamp == null || timestamp.isAfter(lastTimestamp)) {
+      lastTimestamp = timestamp;
+    }
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public String getNetworkCode() {
+    return networkCode;
+  }
+
+  public String getGatewayCode() {
+    return gatewayCode;
+  }
+
+  public AggregationGranularity getGranularity() {
+    return granularity;
+  }
+
+  /// Inclusive start of the bucket, truncated to the granularity
+  public LocalDateTime getBucketStart() {
+    return bucketStart;
+  }
+
+  /// Number of measurements taken in the bucket
+  public long getCount() {
+    return count;
+  }
+
+  /// Timestamp of the earliest measurement counted
+  public LocalDateTime getFirstTimestamp() {
+    return firstTimestamp;
+  }
+
+  /// Timestamp of the latest measurement counted
+  public LocalDateTime getLastTimestamp() {
+    return lastTimestamp;
+  }
+}
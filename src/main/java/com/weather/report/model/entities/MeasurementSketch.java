@@ -0,0 +1,117 @@
+package com.weather.report.model.entities;
+
+import java.time.LocalDateTime;
+
+import com.weather.report.reports.QuantileSketch;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Lob;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.Table;
+
+/// Distribution of the values measured by a sensor in one hour, kept as a
+/// serialised [QuantileSketch] so that reports can estimate percentiles by
+/// merging a few sketches per hour instead of sorting the raw values.
+///
+/// Sketches are written together with the measurements and are not touched
+/// by the retention policy, so percentiles remain available for rolled-up
+/// hours and the [Shards][com.weather.report.persistence.Shards] holding data
+/// of a gateway can be found from them. Their counts also seed the approximate
+/// activity of the [ActivityService][com.weather.report.services.ActivityService].
+@Entity
+@Table(indexes = {
+    @Index(name = "idx_sketch_bucket", columnList = "sensorCode, hourStart", unique = true),
+    @Index(name = "idx_sketch_gateway", columnList = "gatewayCode, hourStart"),
+    @Index(name = "idx_sketch_network", columnList = "networkCode, hourStart")
+})
+@NamedQuery(name = "MeasurementSketch.findAll", query = "SELECT e FROM MeasurementSketch e")
+@NamedQuery(name = MeasurementSketch.BUCKET, query = "SELECT s FROM MeasurementSketch s"
+    + " WHERE s.sensorCode = :sensorCode AND s.hourStart = :hourStart")
+@NamedQuery(name = MeasurementSketch.BY_GATEWAY, query = "SELECT s FROM MeasurementSketch s"
+    + " WHERE s.gatewayCode = :gatewayCode AND s.hourStart BETWEEN :startDate AND :endDate")
+@NamedQuery(name = MeasurementSketch.BY_GATEWAYS, query = "SELECT s FROM MeasurementSketch s"
+    + " WHERE s.gatewayCode IN :gatewayCodes AND s.hourStart BETWEEN :startDate AND :endDate")
+@NamedQuery(name = MeasurementSketch.SENSOR_COUNTS_BY_GATEWAY, query = "SELECT"
+    + " new com.weather.report.model.HourlyCount(s.hourStart, s.sensorCode, s.count) FROM MeasurementSketch s"
+    + " WHERE s.gatewayCode = :gatewayCode")
+@NamedQuery(name = MeasurementSketch.SENSOR_COUNTS_BY_NETWORK, query = "SELECT"
+    + " new com.weather.report.model.HourlyCount(s.hourStart, s.sensorCode, s.count) FROM MeasurementSketch s"
+    + " WHERE s.networkCode = :networkCode")
+@NamedQuery(name = MeasurementSketch.GATEWAY_COUNTS_BY_NETWORK, query = "SELECT"
+    + " new com.weather.report.model.HourlyCount(s.hourStart, s.gatewayCode, s.count) FROM MeasurementSketch s"
+    + " WHERE s.networkCode = :networkCode")
+@NamedQuery(name = MeasurementSketch.GATEWAY_CODES, query = "SELECT DISTINCT s.gatewayCode FROM MeasurementSketch s")
+public class MeasurementSketch {
+
+  public static final String BUCKET = "MeasurementSketch.bucket";
+  public static final String BY_GATEWAY = "MeasurementSketch.byGateway";
+  public static final String BY_GATEWAYS = "MeasurementSketch.byGateways";
+  public static final String SENSOR_COUNTS_BY_GATEWAY = "MeasurementSketch.sensorCountsByGateway";
+  public static final String SENSOR_COUNTS_BY_NETWORK = "MeasurementSketch.sensorCountsByNetwork";
+  public static final String GATEWAY_COUNTS_BY_NETWORK = "MeasurementSketch.gatewayCountsByNetwork";
+  public static final String GATEWAY_CODES = "MeasurementSketch.gatewayCodes";
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+  private String networkCode;
+  private String gatewayCode;
+  private String sensorCode;
+  private LocalDateTime hourStart;
+  private long count;
+  @Lob
+  private byte[] digest;
+
+  public MeasurementSketch() { // JPA Compliance
+  }
+
+  public MeasurementSketch(String networkCode, String gatewayCode, String sensorCode, LocalDateTime hourStart) {
+    this.networkCode = networkCode;
+    this.gatewayCode = gatewayCode;
+    this.sensorCode = sensorCode;
+    this.hourStart = hourStart;
+    this.digest = new QuantileSketch().toBytes();
+  }
+
+  /// Merges a sketch of further values of the same sensor and hour into this one.
+  public void merge(QuantileSketch sketch) {
+    QuantileSketch merged = getSketch().merge(sketch);
+    count = merged.getCount();
+    digest = merged.toBytes();
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public String getNetworkCode() {
+    return networkCode;
+  }
+
+  public String getGatewayCode() {
+    return gatewayCode;
+  }
+
+  public String getSensorCode() {
+    return sensorCode;
+  }
+
+  /// Inclusive start of the hour, truncated
+  public LocalDateTime getHourStart() {
+    return hourStart;
+  }
+
+  /// Number of measurements summarised by the sketch
+  public long getCount() {
+    return count;
+  }
+
+  /// Deserialised copy of the sketch
+  public QuantileSketch getSketch() {
+    return QuantileSketch.fromBytes(digest);
+  }
+}
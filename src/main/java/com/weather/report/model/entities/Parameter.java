@@ -1,17 +1,32 @@
 package com.weather.report.model.entities;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.NamedQuery;
 
 /// A _parameter_ is a value associated with the gateway it belongs to.
 /// 
 /// It allows storing state or configuration information.
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "parameters")
+@NamedQuery(name = "Parameter.findAll", query = "SELECT e FROM Parameter e")
+@NamedQuery(name = "Parameter.count", query = "SELECT COUNT(e) FROM Parameter e")
+@NamedQuery(name = Parameter.BY_GATEWAY_AND_CODE, query = "SELECT p FROM Gateway g JOIN g.parameters p"
+    + " WHERE g.code = :gatewayCode AND p.code = :code")
+@NamedQuery(name = Parameter.UPDATE_VALUE, query = "UPDATE Parameter p SET p.value = :value WHERE p.id = :id")
 public class Parameter {
 
+  public static final String BY_GATEWAY_AND_CODE = "Parameter.byGatewayAndCode";
+  public static final String UPDATE_VALUE = "Parameter.updateValue";
+
   public static final String EXPECTED_MEAN_CODE = "EXPECTED_MEAN";
   public static final String EXPECTED_STD_DEV_CODE = "EXPECTED_STD_DEV";
   public static final String BATTERY_CHARGE_PERCENTAGE_CODE = "BATTERY_CHARGE";
@@ -44,6 +59,10 @@ public class Parameter {
     this.value = value;
   }
 
+  public Long getId() {
+    return id;
+  }
+
   public String getCode() {
     return code;
   }
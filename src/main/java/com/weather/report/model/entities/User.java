@@ -2,12 +2,21 @@ package com.weather.report.model.entities;
 
 import com.weather.report.model.UserType;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Enumerated;
 import jakarta.persistence.Id;
+import jakarta.persistence.NamedQuery;
 
 /// Represents a user in the weather report system
 @Entity(name = "WR_USER")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "users")
+@NamedQuery(name = "WR_USER.findAll", query = "SELECT e FROM WR_USER e")
+@NamedQuery(name = "WR_USER.count", query = "SELECT COUNT(e) FROM WR_USER e")
 public class User {
 
   @Id
@@ -1,6 +1,9 @@
 package com.weather.report.operations;
 
+import java.time.Duration;
 import java.util.Collection;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import com.weather.report.exceptions.ElementNotFoundException;
 import com.weather.report.exceptions.IdAlreadyInUseException;
@@ -9,6 +12,8 @@ import com.weather.report.exceptions.UnauthorizedException;
 import com.weather.report.model.entities.Gateway;
 import com.weather.report.model.entities.Parameter;
 import com.weather.report.reports.GatewayReport;
+import com.weather.report.reports.RollingGatewayReport;
+import com.weather.report.services.RollingWindowService.Registration;
 
 /**
  * Operations for managing gateways and their parameters (R2), plus generation
@@ -128,4 +133,102 @@ public interface GatewayOperations {
    */
   public GatewayReport getGatewayReport(String code, String startDate, String endDate)
       throws ElementNotFoundException, InvalidInputDataException;
+
+  /**
+   * Builds the reports for several gateways in the given interval. The
+   * measurements of all the gateways are read together, instead of once per
+   * gateway, and the reports are then built in parallel.
+   *
+   * @param codes     gateway codes (mandatory, none of them null)
+   * @param startDate inclusive lower bound in {@code WeatherReport.DATE_FORMAT}
+   *                  (null for no bound)
+   * @param endDate   inclusive upper bound in {@code WeatherReport.DATE_FORMAT}
+   *                  (null for no bound)
+   * @return computed gateway reports by gateway code, in the order of
+   *         {@code codes}
+   * @throws ElementNotFoundException  when one of the gateways does not exist
+   * @throws InvalidInputDataException when mandatory data are invalid
+   */
+  public Map<String, GatewayReport> getGatewayReports(Collection<String> codes, String startDate, String endDate)
+      throws ElementNotFoundException, InvalidInputDataException;
+
+  /**
+   * Approximate most active sensors of a gateway in the given interval,
+   * answered in constant memory from the hourly counts stored by the import
+   * (see {@code ActivityService} for the error bounds).
+   * <p>
+   * Unlike {@link #getGatewayReport}, the answer:
+   * <ul>
+   * <li>covers the interval widened to whole hours, so measurements of its
+   * first and last hour that fall outside the bounds are counted;</li>
+   * <li>counts only imported measurements, not data written directly through
+   * the repositories;</li>
+   * <li>may swap sensors whose counts differ by less than the error
+   * bound.</li>
+   * </ul>
+   *
+   * @param code      gateway code (mandatory)
+   * @param startDate inclusive lower bound in {@code WeatherReport.DATE_FORMAT}
+   *                  (null for no bound)
+   * @param endDate   inclusive upper bound in {@code WeatherReport.DATE_FORMAT}
+   *                  (null for no bound)
+   * @return sensor codes sharing the highest estimated count, empty if no
+   *         measurement of the gateway was imported in the interval
+   * @throws ElementNotFoundException  when the gateway does not exist
+   * @throws InvalidInputDataException when mandatory data are invalid
+   */
+  public Collection<String> getApproximateMostActiveSensors(String code, String startDate, String endDate)
+      throws ElementNotFoundException, InvalidInputDataException;
+
+  /**
+   * Approximate least active sensors of a gateway in the given interval, among
+   * the given sensors, with the same limits as
+   * {@link #getApproximateMostActiveSensors}. Sensors without imported
+   * measurements in the interval have an estimate of 0.
+   *
+   * @param code        gateway code (mandatory)
+   * @param startDate   inclusive lower bound in
+   *                    {@code WeatherReport.DATE_FORMAT} (null for no bound)
+   * @param endDate     inclusive upper bound in
+   *                    {@code WeatherReport.DATE_FORMAT} (null for no bound)
+   * @param sensorCodes sensors to rank, {@code null} for the ones counted in
+   *                    the interval
+   * @return sensor codes sharing the lowest estimated count
+   * @throws ElementNotFoundException  when the gateway does not exist
+   * @throws InvalidInputDataException when mandatory data are invalid
+   */
+  public Collection<String> getApproximateLeastActiveSensors(String code, String startDate, String endDate,
+      Collection<String> sensorCodes) throws ElementNotFoundException, InvalidInputDataException;
+
+  /**
+   * Activity of a gateway over the last minutes of imported data, assembled
+   * from per-minute aggregates kept during the import (see
+   * {@code RollingWindowService}) instead of reading the measurements.
+   *
+   * @param code   gateway code (mandatory)
+   * @param window length of the window, a whole number of minutes up to 24
+   *               hours by default
+   * @return the report of the window ending with the latest imported minute
+   * @throws ElementNotFoundException  when the gateway does not exist
+   * @throws InvalidInputDataException when mandatory data are invalid or the
+   *                                   window is not supported
+   */
+  public RollingGatewayReport getRollingGatewayReport(String code, Duration window)
+      throws ElementNotFoundException, InvalidInputDataException;
+
+  /**
+   * Calls a listener with the new rolling report of a gateway after each
+   * import that changes its window.
+   *
+   * @param code     gateway code (mandatory)
+   * @param window   length of the window, as for
+   *                 {@link #getRollingGatewayReport(String, Duration)}
+   * @param listener listener, called on the importing thread
+   * @return the registration, to be closed to stop the notifications
+   * @throws ElementNotFoundException  when the gateway does not exist
+   * @throws InvalidInputDataException when mandatory data are invalid or the
+   *                                   window is not supported
+   */
+  public Registration subscribeToRollingGatewayReport(String code, Duration window,
+      Consumer<RollingGatewayReport> listener) throws ElementNotFoundException, InvalidInputDataException;
 }
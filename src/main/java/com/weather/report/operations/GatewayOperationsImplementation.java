@@ -6,13 +6,16 @@ import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import com.weather.report.WeatherReport;
@@ -20,76 +23,131 @@ import com.weather.report.exceptions.ElementNotFoundException;
 import com.weather.report.exceptions.IdAlreadyInUseException;
 import com.weather.report.exceptions.InvalidInputDataException;
 import com.weather.report.exceptions.UnauthorizedException;
+import com.weather.report.model.AggregationGranularity;
+import com.weather.report.model.MeasurementValue;
 import com.weather.report.model.UserType;
 import com.weather.report.model.entities.Gateway;
-import com.weather.report.model.entities.Measurement;
+import com.weather.report.model.entities.MeasurementAggregate;
+import com.weather.report.model.entities.MeasurementSketch;
 import com.weather.report.model.entities.Parameter;
 import com.weather.report.model.entities.User;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.persistence.UnitOfWork;
+import com.weather.report.reports.CompactHistogram;
 import com.weather.report.reports.GatewayReport;
 import com.weather.report.reports.GatewayReportImplementation;
-import com.weather.report.reports.RangeImplementation;
-import com.weather.report.reports.Report.Range;
+import com.weather.report.reports.GatewayStatistics;
+import com.weather.report.reports.Memoized;
+import com.weather.report.reports.QuantileSketch;
+import com.weather.report.reports.RollingGatewayReport;
 import com.weather.report.repositories.GatewayRepository;
+import com.weather.report.repositories.MeasurementAggregateRepository;
 import com.weather.report.repositories.MeasurementRepository;
+import com.weather.report.repositories.MeasurementSketchRepository;
 import com.weather.report.repositories.UserRepository;
+import com.weather.report.services.ActivityService;
 import com.weather.report.services.AlertingService;
+import com.weather.report.services.LiveStatisticsService;
+import com.weather.report.services.ReportCache;
+import com.weather.report.services.ReportServices;
+import com.weather.report.services.RollingWindowService;
+import com.weather.report.services.TimePyramidService;
+import com.weather.report.services.RollingWindowService.Registration;
 
 public class GatewayOperationsImplementation implements GatewayOperations{
 
     private static final int BUCKETS_NUMBER = 20;
+    //letture di un report ripetute al massimo per questo numero di volte se una scrittura vi si sovrappone
+    private static final int SNAPSHOT_ATTEMPTS = 3;
     private static final String GATEWAY_CODE_FORMAT = "GW_\\d{4}";
+    //parametri letti dal report del gateway: solo la loro modifica ne invalida la cache
+    private static final Set<String> REPORT_PARAMETERS = Set.of(Parameter.EXPECTED_MEAN_CODE,
+        Parameter.EXPECTED_STD_DEV_CODE, Parameter.BATTERY_CHARGE_PERCENTAGE_CODE);
 
     private final GatewayRepository gatewayRepository = new GatewayRepository();
     //non serve invece una repo di parameter, perchè i parametri esistono solo in relazione ai gateway non indipendentemente
     private final UserRepository userRepository = new UserRepository(); //utile per controllare i ruoli
-    private final MeasurementRepository measurementRepository = new MeasurementRepository();
+    private final MeasurementRepository measurementRepository;
+    private final MeasurementAggregateRepository aggregateRepository;
+    private final MeasurementSketchRepository sketchRepository;
+    private final ActivityService activityService;
+    private final TimePyramidService timePyramid;
+    private final ReportCache reportCache;
+    private final LiveStatisticsService liveStatistics;
+    private final RollingWindowService rollingWindows;
+
+    /**
+     * @param services in-memory state of the system, read and updated by the reports
+     */
+    public GatewayOperationsImplementation(ReportServices services) {
+        this.measurementRepository = new MeasurementRepository(services.getShards());
+        this.aggregateRepository = new MeasurementAggregateRepository(services.getShards());
+        this.sketchRepository = new MeasurementSketchRepository(services.getShards());
+        this.activityService = services.getActivity();
+        this.timePyramid = new TimePyramidService(services.getShards());
+        this.reportCache = services.getReportCache();
+        this.liveStatistics = services.getLiveStatistics();
+        this.rollingWindows = services.getRollingWindows();
+    }
 
     @Override
     public Gateway createGateway(String code, String name, String description, String username)
             throws IdAlreadyInUseException, InvalidInputDataException, UnauthorizedException {
-        checkMaintainerUser(username);
-        checkGatewayCodeNotNull(code);
-        checkCodeFormat(code);
-
-        //verifico unicità Gateway
-        if (gatewayRepository.read(code) != null) {
-            throw new IdAlreadyInUseException("Il gateway " + code + " esiste già");
+        try (UnitOfWork unitOfWork = PersistenceManager.beginUnitOfWork()) {
+            checkMaintainerUser(username);
+            checkGatewayCodeNotNull(code);
+            checkCodeFormat(code);
+
+            //verifico unicità Gateway
+            if (gatewayRepository.read(code) != null) {
+                throw new IdAlreadyInUseException("Il gateway " + code + " esiste già");
+            }
+
+            //creo nuovo Gateway
+            Gateway gateway = new Gateway(code, name, description, username);
+            gatewayRepository.create(gateway);
+            unitOfWork.commit();
+            return gateway;
         }
-        
-        //creo nuovo Gateway
-        Gateway gateway = new Gateway(code, name, description, username);
-        gatewayRepository.create(gateway);
-        return gateway;
     }
 
     @Override
     public Gateway updateGateway(String code, String name, String description, String username)
             throws InvalidInputDataException, ElementNotFoundException, UnauthorizedException {
-        checkMaintainerUser(username);
-        checkGatewayCodeNotNull(code);
+        try (UnitOfWork unitOfWork = PersistenceManager.beginUnitOfWork()) {
+            checkMaintainerUser(username);
+            checkGatewayCodeNotNull(code);
 
-        Gateway gateway = getGatewayIfExist(code);
+            //il gateway letto è gestito dall'unit of work: le modifiche vengono salvate al commit senza merge
+            Gateway gateway = getGatewayIfExist(code);
 
-        //aggiorno campi Gateway
-        gateway.setName(name);
-        gateway.setDescription(description);
-        gateway.setModifiedBy(username);
-        gateway.setModifiedAt(LocalDateTime.now());
+            //aggiorno campi Gateway
+            gateway.setName(name);
+            gateway.setDescription(description);
+            gateway.setModifiedBy(username);
+            gateway.setModifiedAt(LocalDateTime.now());
 
-        gatewayRepository.update(gateway);
-        return gateway;        
+            unitOfWork.commit();
+            return gateway;
+        }
     }
 
     @Override
     public Gateway deleteGateway(String code, String username)
             throws InvalidInputDataException, ElementNotFoundException, UnauthorizedException {
-        checkMaintainerUser(username);
-        checkGatewayCodeNotNull(code);
+        Gateway gateway;
+        try (UnitOfWork unitOfWork = PersistenceManager.beginUnitOfWork()) {
+            checkMaintainerUser(username);
+            checkGatewayCodeNotNull(code);
 
-        Gateway gateway = getGatewayIfExist(code);
+            gateway = getGatewayIfExist(code);
 
-        // elimino Gateway esistente
-        gatewayRepository.delete(code);
+            // elimino Gateway esistente
+            gatewayRepository.delete(code);
+            unitOfWork.commit();
+        }
+        reportCache.invalidate(code);
+        liveStatistics.invalidate(code);
         AlertingService.notifyDeletion(username, code, Gateway.class);
 
         return gateway;
@@ -112,81 +170,334 @@ public class GatewayOperationsImplementation implements GatewayOperations{
     public Parameter createParameter(String gatewayCode, String code, String name, String description, double value,
             String username)
             throws IdAlreadyInUseException, InvalidInputDataException, ElementNotFoundException, UnauthorizedException {
-        checkMaintainerUser(username);
-        checkGatewayCodeNotNull(gatewayCode);
-        checkParameterCodeNotNull(code);
-
-        Gateway gateway = getGatewayIfExist(gatewayCode);
-
-        //verifico unicità Parameter all'interno del Gateway
-        if (gateway.getParameter(code) != null) {
-            throw new IdAlreadyInUseException("Il parameter " + code + " associato al gateway " + gatewayCode + " esiste già");
+        Parameter parameter;
+        try (UnitOfWork unitOfWork = PersistenceManager.beginUnitOfWork()) {
+            checkMaintainerUser(username);
+            checkGatewayCodeNotNull(gatewayCode);
+            checkParameterCodeNotNull(code);
+
+            Gateway gateway = getGatewayIfExist(gatewayCode);
+
+            //verifico unicità Parameter all'interno del Gateway
+            if (gateway.getParameter(code) != null) {
+                throw new IdAlreadyInUseException("Il parameter " + code + " associato al gateway " + gatewayCode + " esiste già");
+            }
+
+            //creo nuovo Parameter, salvato in cascata dal gateway gestito al commit
+            parameter = new Parameter(code, name, description, value);
+            gateway.addParameter(parameter);
+            gateway.setModifiedBy(username);
+            gateway.setModifiedAt(LocalDateTime.now());
+
+            unitOfWork.commit();
         }
-
-        //creo nuovo Parameter
-        Parameter parameter = new Parameter(code, name, description, value);
-        gateway.addParameter(parameter);
-        gateway.setModifiedBy(username);
-        gateway.setModifiedAt(LocalDateTime.now());
-
-        gatewayRepository.update(gateway);
+        invalidateReports(gatewayCode, code);
         return parameter;
     }
 
     @Override
     public Parameter updateParameter(String gatewayCode, String code, double value, String username)
             throws InvalidInputDataException, ElementNotFoundException, UnauthorizedException {
-        checkMaintainerUser(username);
-        checkGatewayCodeNotNull(gatewayCode);
-        checkParameterCodeNotNull(code);
+        Parameter parameter;
+        try (UnitOfWork unitOfWork = PersistenceManager.beginUnitOfWork()) {
+            checkMaintainerUser(username);
+            checkGatewayCodeNotNull(gatewayCode);
+            checkParameterCodeNotNull(code);
+
+            //aggiorno solo il valore del Parameter e i metadati del Gateway, senza il merge di tutti i parametri
+            parameter = gatewayRepository.updateParameterValue(gatewayCode, code, value, username, LocalDateTime.now());
+            if (parameter == null) {
+                //nessun parametro trovato: manca il Gateway oppure il Parameter al suo interno
+                getGatewayIfExist(gatewayCode);
+                throw new ElementNotFoundException("Il parameter " + code + " relativo al gateway " + gatewayCode + " non esiste");
+            }
+
+            unitOfWork.commit();
+        }
+        invalidateReports(gatewayCode, code);
+        return parameter;
+    }
 
-        Gateway gateway = getGatewayIfExist(gatewayCode);
+    @Override
+    public GatewayReport getGatewayReport(String code, String startDate, String endDate)
+            throws ElementNotFoundException, InvalidInputDataException {
+        checkGatewayCodeNotNull(code);
+        //un gateway inesistente va segnalato anche se le date sono malformate
+        Gateway gateway = getGatewayIfExist(code);
+        LocalDateTime startLocalDate = parseLocalDateTime(startDate);
+        LocalDateTime endLocalDate = parseLocalDateTime(endDate);
 
-        //verifico esistenza Parameter all'interno del Gateway
-        Parameter parameter = gateway.getParameter(code);
-        if (parameter == null) {
-            throw new ElementNotFoundException("Il parameter " + code + " relativo al gateway " + gatewayCode + " non esiste");
+        //le stesse richieste ripetute (es. dashboard) non rileggono tutte le misurazioni
+        GatewayReport cached = reportCache.get(GatewayReport.class, code, startDate, endDate);
+        if (cached != null) {
+            return cached;
         }
+        long generation = reportCache.generation();
+        GatewayReport report = computeGatewayReports(Map.of(code, gateway), startDate, endDate, startLocalDate, endLocalDate)
+            .get(code);
+        reportCache.put(GatewayReport.class, code, startDate, endDate, startLocalDate, endLocalDate, report, generation);
+        return report;
+    }
 
-        //aggiorno campi Parameter
-        parameter.setValue(value);
-        gateway.setModifiedBy(username);
-        gateway.setModifiedAt(LocalDateTime.now());
+    @Override
+    public Map<String, GatewayReport> getGatewayReports(Collection<String> codes, String startDate, String endDate)
+            throws ElementNotFoundException, InvalidInputDataException {
+        if (codes == null) {
+            throw new InvalidInputDataException("Codici gateway mancanti");
+        }
+        Map<String, Gateway> known = new HashMap<>();
+        for (String code : codes) {
+            checkGatewayCodeNotNull(code);
+            known.put(code, getGatewayIfExist(code));
+        }
+        LocalDateTime startLocalDate = parseLocalDateTime(startDate);
+        LocalDateTime endLocalDate = parseLocalDateTime(endDate);
+
+        //i report già in cache evitano la lettura delle misurazioni
+        Map<String, GatewayReport> reports = new LinkedHashMap<>();
+        Map<String, Gateway> gateways = new HashMap<>();
+        for (String code : codes) {
+            GatewayReport cached = reportCache.get(GatewayReport.class, code, startDate, endDate);
+            reports.put(code, cached);
+            if (cached == null) {
+                gateways.put(code, known.get(code));
+            }
+        }
 
-        gatewayRepository.update(gateway);
-        return parameter;
+        long reportGeneration = reportCache.generation();
+        Map<String, GatewayReport> built = computeGatewayReports(gateways, startDate, endDate, startLocalDate, endLocalDate);
+        built.forEach((code, report) -> {
+            reports.put(code, report);
+            reportCache.put(GatewayReport.class, code, startDate, endDate, startLocalDate, endLocalDate, report, reportGeneration);
+        });
+        return reports;
     }
 
     @Override
-    public GatewayReport getGatewayReport(String code, String startDate, String endDate)
+    public Collection<String> getApproximateMostActiveSensors(String code, String startDate, String endDate)
             throws ElementNotFoundException, InvalidInputDataException {
         checkGatewayCodeNotNull(code);
-        Gateway gateway = getGatewayIfExist(code);
+        getGatewayIfExist(code);
+        return activityService.sensorsOfGateway(code, parseLocalDateTime(startDate), parseLocalDateTime(endDate))
+            .getMostActive();
+    }
 
-        LocalDateTime startLocalDate = parseLocalDateTime(startDate, LocalDateTime.MIN);
-        LocalDateTime endLocalDate = parseLocalDateTime(endDate, LocalDateTime.MAX);
+    @Override
+    public Collection<String> getApproximateLeastActiveSensors(String code, String startDate, String endDate,
+            Collection<String> sensorCodes) throws ElementNotFoundException, InvalidInputDataException {
+        checkGatewayCodeNotNull(code);
+        getGatewayIfExist(code);
+        //senza misurazioni nell'intervallo tutti i sensori richiesti hanno stima 0 e sono a pari merito
+        return activityService.sensorsOfGateway(code, parseLocalDateTime(startDate), parseLocalDateTime(endDate))
+            .getLeastActive(sensorCodes);
+    }
 
-        List<Measurement> measurements = getFilteredMeasurements(code, startLocalDate, endLocalDate);
-        int numberOfMeasurements = measurements.size(); //numero totale di misurazioni del Gateway nell’intervallo richiesto
+    @Override
+    public RollingGatewayReport getRollingGatewayReport(String code, Duration window)
+            throws ElementNotFoundException, InvalidInputDataException {
+        checkGatewayCodeNotNull(code);
+        getGatewayIfExist(code);
+        try {
+            return rollingWindows.getGatewayReport(code, window);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidInputDataException("Finestra non valida: " + window);
+        }
+    }
 
-        Parameter batteryChargePercentageP = gateway.getParameter(Parameter.BATTERY_CHARGE_PERCENTAGE_CODE);
-        double batteryChargePercentage = (batteryChargePercentageP != null) ? batteryChargePercentageP.getValue() : 0.0;
+    @Override
+    public Registration subscribeToRollingGatewayReport(String code, Duration window,
+            Consumer<RollingGatewayReport> listener) throws ElementNotFoundException, InvalidInputDataException {
+        checkGatewayCodeNotNull(code);
+        getGatewayIfExist(code);
+        if (listener == null) {
+            throw new InvalidInputDataException("Listener mancante");
+        }
+        try {
+            return rollingWindows.subscribeToGateway(code, window, listener);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidInputDataException("Finestra non valida: " + window);
+        }
+    }
+
+    /**
+     * Prepare the reports of some gateways from one snapshot of their data: live counters, measurements, aggregates,
+     * sketches and time counts in the requested interval are all read before returning, so every section of a
+     * report describes the same measurements and a report, cached or not, never reads the database again. The
+     * sections are derived from the snapshot on first access
+     * @param gateways gateways by code, with their parameters
+     * @param startDate lower bound as received
+     * @param endDate upper bound as received
+     * @param startLocalDate parsed lower bound, null if there is no limit
+     * @param endLocalDate parsed upper bound, null if there is no limit
+     * @return the reports by gateway code
+     */
+    private Map<String, GatewayReport> computeGatewayReports(Map<String, Gateway> gateways, String startDate, String endDate,
+            LocalDateTime startLocalDate, LocalDateTime endLocalDate) {
+        //senza limiti di data il report si ricava dai contatori tenuti aggiornati dall'import
+        boolean allTime = startLocalDate == null && endLocalDate == null;
+        ReportData data = readConsistently(liveGeneration -> {
+            Map<String, GatewayStatistics> statistics = new ConcurrentHashMap<>();
+            Set<String> toScan = new HashSet<>();
+            for (String code : gateways.keySet()) {
+                GatewayStatistics live = allTime ? liveStatistics.get(code) : null;
+                if (live != null) {
+                    statistics.put(code, live);
+                } else {
+                    toScan.add(code);
+                }
+            }
+            //una sola lettura per tutti i gateway, suddivisa per codice
+            //le misurazioni più vecchie della retention sono disponibili solo come aggregati, lette come proiezioni
+            Map<String, List<MeasurementValue>> measurements = measurementRepository.readValuesByGateways(toScan, startLocalDate, endLocalDate);
+            Map<String, List<MeasurementAggregate>> aggregates = aggregateRepository.readByGateways(toScan, startLocalDate, endLocalDate);
+            //gli sketch servono anche ai gateway con contatori in tempo reale: solo le ore interamente nell'intervallo
+            LocalDateTime firstHour = firstFullHour(startLocalDate);
+            LocalDateTime hoursEnd = fullHoursEnd(endLocalDate);
+            Map<String, List<MeasurementSketch>> sketches = sketchRepository.readByGateways(gateways.keySet(), firstHour,
+                hoursEnd == null ? null : hoursEnd.minusHours(1));
+            //le ore tagliate dai limiti entrano nei percentili con i loro valori esatti
+            Map<String, List<MeasurementValue>> edges = new HashMap<>();
+            for (Map.Entry<String, List<MeasurementValue>> entry : measurements.entrySet()) {
+                List<MeasurementValue> gatewayEdges = entry.getValue().stream()
+                    .filter(value -> (firstHour != null && value.timestamp().isBefore(firstHour))
+                        || (hoursEnd != null && !value.timestamp().isBefore(hoursEnd)))
+                    .toList();
+                if (!gatewayEdges.isEmpty()) {
+                    edges.put(entry.getKey(), gatewayEdges);
+                }
+            }
+
+            //l'istogramma temporale legge i conteggi della piramide: le misurazioni servono solo ai limiti
+            Map<String, CompactHistogram<LocalDateTime>> timeHistograms = timePyramid.histograms(gateways.keySet(),
+                startLocalDate, endLocalDate, measurements);
+
+            //i gateway sono elaborati in parallelo sul pool fork-join comune, senza accessi al database
+            statistics.putAll(toScan.parallelStream().collect(Collectors.toConcurrentMap(code -> code,
+                code -> GatewayStatistics.of(measurements.getOrDefault(code, List.of()),
+                    aggregates.getOrDefault(code, List.of())))));
+            if (allTime) {
+                toScan.forEach(code -> liveStatistics.seed(code, statistics.get(code), liveGeneration));
+            }
+            return new ReportData(statistics, sketches, edges, timeHistograms);
+        });
+
+        Map<String, GatewayReport> reports = new HashMap<>();
+        for (Gateway gateway : gateways.values()) {
+            List<MeasurementSketch> gatewaySketches = data.sketches().getOrDefault(gateway.getCode(), List.of());
+            List<MeasurementValue> gatewayEdges = data.edges().getOrDefault(gateway.getCode(), List.of());
+            reports.put(gateway.getCode(), assembleReport(gateway, startDate, endDate, data.statistics().get(gateway.getCode()),
+                data.timeHistograms().get(gateway.getCode()), () -> mergeSketches(gatewaySketches, gatewayEdges)));
+        }
+        return reports;
+    }
+
+    /**
+     * Run the reads of the reports in one unit of work, repeating them if an import or a retention run wrote the
+     * measurements meanwhile, so that counters, measurements, aggregates and sketches come from the same data. After
+     * {@value #SNAPSHOT_ATTEMPTS} overlapping attempts the last one is kept: its reports are not cached
+     * @param read reads, given the value of {@link LiveStatisticsService#generation()} taken before them
+     * @return the result of the reads
+     */
+    private <T> T readConsistently(LongFunction<T> read) {
+        T result = null;
+        for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+            long generation = liveStatistics.generation();
+            result = PersistenceManager.inTransaction(() -> read.apply(generation));
+            if (liveStatistics.isUnchangedSince(generation)) {
+                return result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Data read for the reports of some gateways
+     * @param statistics counters of the measurements of each gateway in the requested interval
+     * @param sketches hourly sketches of each gateway, for the hours entirely within the requested interval
+     * @param edges raw values of each gateway in the hours cut by the bounds of the interval
+     * @param timeHistograms hourly or daily counts of the measurements of each gateway
+     */
+    private record ReportData(Map<String, GatewayStatistics> statistics, Map<String, List<MeasurementSketch>> sketches,
+            Map<String, List<MeasurementValue>> edges, Map<String, CompactHistogram<LocalDateTime>> timeHistograms) {
+    }
+
+    /**
+     * First hour that starts at or after the lower bound, so that it lies entirely within the interval
+     * @param start lower bound, null if there is no limit
+     * @return the start of the first whole hour, null if there is no limit
+     */
+    private static LocalDateTime firstFullHour(LocalDateTime start) {
+        if (start == null) {
+            return null;
+        }
+        LocalDateTime hour = AggregationGranularity.HOUR.truncate(start);
+        return hour.equals(start) ? hour : hour.plusHours(1);
+    }
 
-        /* se non ci sono misurazioni ritorno immediatamente liste e mappe vuote */
-        if (numberOfMeasurements == 0) {
-            return new GatewayReportImplementation(code, startDate, endDate, numberOfMeasurements, new ArrayList<>(), new ArrayList<>(), new HashMap<>(), new ArrayList<>(), batteryChargePercentage, new TreeMap<>());
+    /**
+     * End of the last hour that lies entirely within the interval; the inclusive upper bound covers its whole second
+     * @param end upper bound, null if there is no limit
+     * @return exclusive end of the whole hours, null if there is no limit
+     */
+    private static LocalDateTime fullHoursEnd(LocalDateTime end) {
+        return end == null ? null : AggregationGranularity.HOUR.truncate(end.plusSeconds(1));
+    }
+
+    /**
+     * Merge the hourly sketches of the gateway's sensors with the values of the partial hours at the bounds into the
+     * sketch of the whole interval
+     * @param sketches stored sketches of the whole hours
+     * @param edges raw values of the hours cut by the bounds
+     * @return the merged sketch, empty if there are no values
+     */
+    private static QuantileSketch mergeSketches(List<MeasurementSketch> sketches, List<MeasurementValue> edges) {
+        QuantileSketch quantiles = new QuantileSketch();
+        for (MeasurementSketch sketch : sketches) {
+            quantiles.merge(sketch.getSketch());
         }
+        for (MeasurementValue edge : edges) {
+            quantiles.add(edge.value());
+        }
+        return quantiles;
+    }
 
-        Collection<String> mostActiveSensors = new ArrayList<>();
-        Collection<String> leastActiveSensors = new ArrayList<>();
-        Map<String, Double> sensorsLoadRatio = new HashMap<>();
-        setCollectionOfSensors(measurements, numberOfMeasurements, mostActiveSensors, leastActiveSensors, sensorsLoadRatio);
+    /**
+     * Assemble the gateway report from the counters of its measurements: each section is computed on first access
+     * @param gateway gateway, with its parameters
+     * @param startDate lower bound as received
+     * @param endDate upper bound as received
+     * @param statistics counters of the gateway's measurements in the requested interval, shared by the sections
+     * @param timeHistogram hourly or daily counts of the gateway's measurements, read with the snapshot
+     * @param quantiles sketch of the values measured in the requested interval, widened to whole hours
+     * @return the gateway report
+     */
+    private GatewayReport assembleReport(Gateway gateway, String startDate, String endDate, GatewayStatistics statistics,
+            CompactHistogram<LocalDateTime> timeHistogram, Supplier<QuantileSketch> quantiles) {
+        Parameter batteryChargePercentageP = gateway.getParameter(Parameter.BATTERY_CHARGE_PERCENTAGE_CODE);
+        double batteryChargePercentage = (batteryChargePercentageP != null) ? batteryChargePercentageP.getValue() : 0.0;
 
-        Collection<String> outlierSensors = getOutlierSensors(measurements, gateway);
+        //sensori più e meno attivi e rapporto di carico si ricavano insieme, con un solo passaggio sui contatori
+        Memoized<SensorActivity> activity = Memoized.of(() -> {
+            SensorActivity sensorActivity = new SensorActivity(new ArrayList<>(), new ArrayList<>(), new HashMap<>());
+            setCollectionOfSensors(statistics, sensorActivity.mostActive(), sensorActivity.leastActive(), sensorActivity.loadRatio());
+            return sensorActivity;
+        });
 
-        SortedMap<Range<Duration>, Long> histogram = getHistogram(measurements, numberOfMeasurements);
-        
-        return new GatewayReportImplementation(code, startDate, endDate, numberOfMeasurements, mostActiveSensors, leastActiveSensors, sensorsLoadRatio, outlierSensors, batteryChargePercentage, histogram);
+        return new GatewayReportImplementation(gateway.getCode(), startDate, endDate, batteryChargePercentage, statistics::getNumberOfMeasurements,
+            () -> activity.get().mostActive(), () -> activity.get().leastActive(), () -> activity.get().loadRatio(),
+            () -> getOutlierSensors(statistics, gateway),
+            //i tempi di interarrivo richiedono i timestamp: sono calcolati solo sulle misurazioni non aggregate
+            () -> statistics.getInterArrivalHistogram(BUCKETS_NUMBER),
+            () -> timeHistogram, quantiles);
+    }
+
+    /**
+     * Sensor sections of a gateway report, computed together
+     * @param mostActive sensors with the highest number of measurements
+     * @param leastActive sensors with the lowest number of measurements
+     * @param loadRatio share of the measurements of each sensor
+     */
+    private record SensorActivity(Collection<String> mostActive, Collection<String> leastActive, Map<String, Double> loadRatio) {
     }
 
     //helper di validazione per rendere il codice più leggibile
@@ -254,17 +565,27 @@ public class GatewayOperationsImplementation implements GatewayOperations{
         }
     }
 
+    /**
+     * Evict the cached reports of the gateway if the parameter is used by the gateway report
+     * @param gatewayCode gateway code
+     * @param parameterCode code of the created or updated parameter
+     */
+    private void invalidateReports(String gatewayCode, String parameterCode) {
+        if (REPORT_PARAMETERS.contains(parameterCode)) {
+            reportCache.invalidate(gatewayCode);
+        }
+    }
+
     //metodi helper per rendere il metodo getGatewayReport più leggibile
 
     /**
      * Retrieve an instance of LocalDateTime from a text string using a specific formatter
      * @param date date with string format
-     * @param defaultDate if date is null, there is no limit
-     * @return date in LocalDateTime format
+     * @return date in LocalDateTime format, null if date is null (there is no limit)
      * @throws InvalidInputDataException if date is not in correct format "yyyy-MM-dd HH:mm:ss"
      */
-    private LocalDateTime parseLocalDateTime(String date, LocalDateTime defaultDate) throws InvalidInputDataException {
-        if (date == null) return defaultDate; //max ~ +inf | min ~ -inf
+    private LocalDateTime parseLocalDateTime(String date) throws InvalidInputDataException {
+        if (date == null) return null;
         try {
             return LocalDateTime.parse(date, WeatherReport.DATE_TIME_FORMATTER);
         } catch (DateTimeParseException e) {
@@ -272,53 +593,35 @@ public class GatewayOperationsImplementation implements GatewayOperations{
         }
     }
 
-    /**
-     * Retrieve a list of gateway measurements in the requested time interval
-     * @param gatewayCode the code of the gateway
-     * @param startDate the start date
-     * @param endDate the end date
-     * @return a list of gateway measurements between startDate and endDate
-     */
-    private List<Measurement> getFilteredMeasurements(String gatewayCode, LocalDateTime startDate, LocalDateTime endDate) {
-        return measurementRepository.read().stream()
-                .filter(m -> m.getGatewayCode().equals(gatewayCode)) //filtra solo le misurazioni di quel gateway
-                .filter(m -> !m.getTimestamp().isBefore(startDate)) //filtra solo le misurazioni avvenute a partire da [start,..
-                .filter(m -> !m.getTimestamp().isAfter(endDate)) //filtra solo le misurazioni avvenute fino a ...end]
-                .toList();
-    }
-
     /**
      * Analyze sensor data and collect it into related collections according to requests
-     * @param measurements gateway's measurement
-     * @param numberOfMeasurements number of gateway's measurement
+     * @param statistics counters of the gateway's measurements in the requested interval
      * @param mostActiveSensors list containing the sensors with the highest number of measurements
      * @param leastActiveSensors list containing the sensors with the least number of measurements
      * @param sensorsLoadRatio map containing the sensors with the relative percentage of measurements taken by the single sensor compared to the total of the gateway
      */
-    private void setCollectionOfSensors(List<Measurement> measurements, int numberOfMeasurements, Collection<String> mostActiveSensors, Collection<String> leastActiveSensors, Map<String, Double> sensorsLoadRatio) {
-        //ricavo una map che raggruppa le misurazioni per sensore e le conta
-        Map<String, Long> countMeasurementsForSensor = measurements.stream()
-                .collect(Collectors.groupingBy(Measurement::getSensorCode, Collectors.counting()));
-
+    private void setCollectionOfSensors(GatewayStatistics statistics, Collection<String> mostActiveSensors, Collection<String> leastActiveSensors, Map<String, Double> sensorsLoadRatio) {
         //ricavo il massimo e il minimo numero di misurazioni per i sensori
-        long maxCount = countMeasurementsForSensor.values().stream().max(Long::compareTo).orElse((long)0);
-        long minCount = countMeasurementsForSensor.values().stream().min(Long::compareTo).orElse((long)0);
+        long maxCount = statistics.getSensorCodes().stream().mapToLong(statistics::getCount).max().orElse(0);
+        long minCount = statistics.getSensorCodes().stream().mapToLong(statistics::getCount).min().orElse(0);
+        long numberOfMeasurements = statistics.getNumberOfMeasurements();
 
-        countMeasurementsForSensor.forEach((sensorCode, measurementCount) -> {
+        for (String sensorCode : statistics.getSensorCodes()) {
+            long measurementCount = statistics.getCount(sensorCode);
             if (measurementCount == maxCount) mostActiveSensors.add(sensorCode);
             if (measurementCount == minCount) leastActiveSensors.add(sensorCode);
             double ratio = (double) measurementCount / numberOfMeasurements;
             sensorsLoadRatio.put(sensorCode, ratio);
-        });
+        }
     }
 
     /**
      * Retrieve a list of sensorCodes whose average detected values ​​are anomalous, comparing the real average with the gateway's expected values
-     * @param measurements gateway's measurement
+     * @param statistics counters of the gateway's measurements in the requested interval
      * @param gateway gateway
      * @return a list of outlier sensors
      */
-    private Collection<String> getOutlierSensors(List<Measurement> measurements, Gateway gateway) {
+    private Collection<String> getOutlierSensors(GatewayStatistics statistics, Gateway gateway) {
         Collection<String> outlierSensors = new ArrayList<>();
 
         Parameter expectedMeanP = gateway.getParameter(Parameter.EXPECTED_MEAN_CODE);
@@ -327,13 +630,10 @@ public class GatewayOperationsImplementation implements GatewayOperations{
         if (expectedMeanP!=null && expectedStdDevP!= null) {
             double expectedMean = expectedMeanP.getValue();
             double expectedStdDev = expectedStdDevP.getValue();
-            //raggruppo misurazioni per sensore e ne calcolo la media
-            Map<String, Double> meanMeasurementsForSensor = measurements.stream()
-                .collect(Collectors.groupingBy(Measurement::getSensorCode, Collectors.averagingDouble(Measurement::getValue)));
-
-            meanMeasurementsForSensor.forEach((sensorCode, sensorMean) -> {
-                if (checkIfOutlier(expectedMean, expectedStdDev, sensorMean)) outlierSensors.add(sensorCode);
-            });
+            //la media di ogni sensore è mantenuta dai contatori
+            for (String sensorCode : statistics.getSensorCodes()) {
+                if (checkIfOutlier(expectedMean, expectedStdDev, statistics.getMean(sensorCode))) outlierSensors.add(sensorCode);
+            }
         }
 
         return outlierSensors;
@@ -350,49 +650,4 @@ public class GatewayOperationsImplementation implements GatewayOperations{
         return Math.abs(sensor_mean - expected_mean) >= 2.0 * expected_std_dev;
     }
 
-    /**
-     * Retrieve the histogram of the inter-arrival times between consecutive gateway measurements in the requested interval.
-     * @param measurements gateway's measurement
-     * @param numberOfMeasurements number of gateway's measurement
-     * @return histogram with the duration count for each bucket
-     */
-    private SortedMap<Range<Duration>, Long> getHistogram(List<Measurement> measurements, int numberOfMeasurements) {
-        SortedMap<Range<Duration>, Long> histogram = new TreeMap<>();
-
-        if (numberOfMeasurements < 2) return histogram;
-
-        //ordino le misurazioni in ordine cronologico
-        List<Measurement> sortedMeasurements = measurements.stream().sorted(Comparator.comparing(Measurement::getTimestamp)).toList();
-
-        //calcolo tutte le differenze temporali tra misurazioni consecutive
-        List<Duration> interArrivalDurations = new ArrayList<>();
-        for (int i=0; i<numberOfMeasurements-1; i++) {
-            LocalDateTime start = sortedMeasurements.get(i).getTimestamp();
-            LocalDateTime end = sortedMeasurements.get(i+1).getTimestamp();
-            interArrivalDurations.add(Duration.between(start, end));
-        }
-
-        //calcolo i 20 intervalli contigui in cui suddividere il range di Duration
-        Duration minDuration = interArrivalDurations.stream().min(Duration::compareTo).orElse(Duration.ZERO);
-        Duration maxDuration = interArrivalDurations.stream().max(Duration::compareTo).orElse(Duration.ZERO);
-        Duration range = maxDuration.minus(minDuration);
-        Duration bucketRange = range.dividedBy(BUCKETS_NUMBER);
-
-        for (int i=0; i<BUCKETS_NUMBER; i++) {
-            //creo i 20 bucket impostando start e end di ogni bucket e un flag che dice se è l'ultimo bucket (end coincide con maxDuration)
-            Duration start = minDuration.plus(bucketRange.multipliedBy(i)); //min + (bucketRange * i)
-            boolean isLast = (i == BUCKETS_NUMBER - 1);
-            Duration end = (isLast) ? maxDuration : minDuration.plus(bucketRange.multipliedBy(i+1)); //min + (bucketRange * (i+1)) se non è l'ultimo
-
-            RangeImplementation<Duration> bucket = new RangeImplementation<>(start, end, isLast);
-
-            //ogni bucket è un intervallo dell'istogramm -> count è il numero di duration di quel bucket
-            long count = interArrivalDurations.stream().filter(d -> bucket.contains(d)).count();
-
-            histogram.put(bucket, count);
-        }
-        
-        return histogram;
-    }
-
 }
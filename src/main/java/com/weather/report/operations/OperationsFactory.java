@@ -1,5 +1,7 @@
 package com.weather.report.operations;
 
+import com.weather.report.services.ReportServices;
+
 /**
  * Central factory providing concrete implementations of the operations
  * interfaces.
@@ -20,10 +22,11 @@ public final class OperationsFactory {
   }
 
   /**
+   * @param services in-memory state of the system the operations belong to
    * @return implementation of {@link GatewayOperations} configured for R2/R4
    */
-  public static GatewayOperations getGatewayOperations() {
-    return new GatewayOperationsImplementation();
+  public static GatewayOperations getGatewayOperations(ReportServices services) {
+    return new GatewayOperationsImplementation(services);
   }
 
   /**
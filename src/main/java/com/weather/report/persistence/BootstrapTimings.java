@@ -0,0 +1,61 @@
+package com.weather.report.persistence;
+
+/**
+ * Durations, in milliseconds, of the phases of an {@code EntityManagerFactory}
+ * bootstrap performed by {@link PersistenceManager#startBootstrap()}.
+ */
+public class BootstrapTimings {
+
+  private final long factoryMillis;
+  private final long metamodelMillis;
+  private final long queriesMillis;
+  private final long cachesMillis;
+
+  BootstrapTimings(long factoryMillis, long metamodelMillis, long queriesMillis, long cachesMillis) {
+    this.factoryMillis = factoryMillis;
+    this.metamodelMillis = metamodelMillis;
+    this.queriesMillis = queriesMillis;
+    this.cachesMillis = cachesMillis;
+  }
+
+  /**
+   * @return time spent building the factory (mapping, schema generation)
+   */
+  public long getFactoryMillis() {
+    return factoryMillis;
+  }
+
+  /**
+   * @return time spent resolving the metamodel of every entity
+   */
+  public long getMetamodelMillis() {
+    return metamodelMillis;
+  }
+
+  /**
+   * @return time spent compiling the named and per-entity queries
+   */
+  public long getQueriesMillis() {
+    return queriesMillis;
+  }
+
+  /**
+   * @return time spent loading the cacheable entities in the second-level cache
+   */
+  public long getCachesMillis() {
+    return cachesMillis;
+  }
+
+  /**
+   * @return overall duration of the bootstrap
+   */
+  public long getTotalMillis() {
+    return factoryMillis + metamodelMillis + queriesMillis + cachesMillis;
+  }
+
+  @Override
+  public String toString() {
+    return "factory=" + factoryMillis + "ms, metamodel=" + metamodelMillis + "ms, queries=" + queriesMillis
+        + "ms, caches=" + cachesMillis + "ms, total=" + getTotalMillis() + "ms";
+  }
+}
@@ -0,0 +1,84 @@
+package com.weather.report.persistence;
+
+/**
+ * Hit/miss counters of the second-level cache (entities and collections) and
+ * of the query cache, as returned by {@link PersistenceManager#getCacheStatistics()}.
+ */
+public class CacheStatistics {
+
+  private final long secondLevelCacheHits;
+  private final long secondLevelCacheMisses;
+  private final long secondLevelCachePuts;
+  private final long queryCacheHits;
+  private final long queryCacheMisses;
+  private final long queryCachePuts;
+
+  CacheStatistics(long secondLevelCacheHits, long secondLevelCacheMisses, long secondLevelCachePuts,
+      long queryCacheHits, long queryCacheMisses, long queryCachePuts) {
+    this.secondLevelCacheHits = secondLevelCacheHits;
+    this.secondLevelCacheMisses = secondLevelCacheMisses;
+    this.secondLevelCachePuts = secondLevelCachePuts;
+    this.queryCacheHits = queryCacheHits;
+    this.queryCacheMisses = queryCacheMisses;
+    this.queryCachePuts = queryCachePuts;
+  }
+
+  /**
+   * @return lookups of entities and collections served by the second-level cache
+   */
+  public long getSecondLevelCacheHits() {
+    return secondLevelCacheHits;
+  }
+
+  /**
+   * @return lookups of entities and collections that had to reach the database
+   */
+  public long getSecondLevelCacheMisses() {
+    return secondLevelCacheMisses;
+  }
+
+  /**
+   * @return entries stored in the second-level cache
+   */
+  public long getSecondLevelCachePuts() {
+    return secondLevelCachePuts;
+  }
+
+  /**
+   * @return cacheable queries answered from the query cache
+   */
+  public long getQueryCacheHits() {
+    return queryCacheHits;
+  }
+
+  /**
+   * @return cacheable queries executed on the database
+   */
+  public long getQueryCacheMisses() {
+    return queryCacheMisses;
+  }
+
+  /**
+   * @return query results stored in the query cache
+   */
+  public long getQueryCachePuts() {
+    return queryCachePuts;
+  }
+
+  /**
+   * @return fraction of second-level cache lookups that were hits, 0 when no
+   *         lookup has been performed
+   */
+  public double getSecondLevelCacheHitRatio() {
+    long lookups = secondLevelCacheHits + secondLevelCacheMisses;
+    return lookups == 0 ? 0 : (double) secondLevelCacheHits / lookups;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("L2 hits=%d misses=%d puts=%d, query hits=%d misses=%d puts=%d",
+        secondLevelCacheHits, secondLevelCacheMisses, secondLevelCachePuts,
+        queryCacheHits, queryCacheMisses, queryCachePuts);
+  }
+
+}
@@ -0,0 +1,75 @@
+package com.weather.report.persistence;
+
+import java.nio.file.Path;
+import java.sql.Statement;
+
+import org.hibernate.Session;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Writes and loads database snapshots with the {@code SCRIPT} and
+ * {@code RUNSCRIPT} commands of H2.
+ * <p>
+ * This is the only class of the application that executes SQL directly
+ * instead of JPQL: dumping and reloading a whole database (schema, rows and
+ * sequence values) has no JPA equivalent, and doing it entity by entity would
+ * defeat the purpose of a snapshot, which is to skip the CSV import. The
+ * commands only exist in H2, so the database product is checked before running
+ * them; any other database needs its own implementation of this class.
+ * <p>
+ * The methods work on the database of the {@link EntityManager} of the current
+ * thread, and {@link Shards} calls them once per shard.
+ */
+final class H2SnapshotStore {
+
+  private static final String H2_PRODUCT_NAME = "H2";
+
+  private H2SnapshotStore() {
+    // utility class
+  }
+
+  /**
+   * Writes a compressed snapshot of the current database to the given file,
+   * replacing it if it exists.
+   *
+   * @param file destination of the snapshot
+   */
+  static Void write(Path file) {
+    execute("SCRIPT DROP TO " + quote(file) + " COMPRESSION DEFLATE");
+    return null;
+  }
+
+  /**
+   * Drops every object of the current database and loads the given snapshot.
+   *
+   * @param file snapshot written by {@link #write(Path)}
+   */
+  static Void load(Path file) {
+    execute("DROP ALL OBJECTS", "RUNSCRIPT FROM " + quote(file) + " COMPRESSION DEFLATE");
+    return null;
+  }
+
+  private static void execute(String... statements) {
+    EntityManager em = PersistenceManager.getEntityManager();
+    try {
+      em.unwrap(Session.class).doWork(connection -> {
+        String product = connection.getMetaData().getDatabaseProductName();
+        if (!H2_PRODUCT_NAME.equals(product)) {
+          throw new UnsupportedOperationException("Snapshots are not supported on " + product);
+        }
+        try (Statement statement = connection.createStatement()) {
+          for (String sql : statements) {
+            statement.execute(sql);
+          }
+        }
+      });
+    } finally {
+      PersistenceManager.closeEntityManager();
+    }
+  }
+
+  private static String quote(Path file) {
+    return "'" + file.toAbsolutePath().toString().replace("'", "''") + "'";
+  }
+}
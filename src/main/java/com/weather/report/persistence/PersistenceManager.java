@@ -1,38 +1,239 @@
 package com.weather.report.persistence;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.SessionFactory;
+import org.hibernate.jpa.HibernateHints;
+import org.hibernate.stat.Statistics;
+
+import com.weather.report.model.PartitionScheme;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.EntityTransaction;
+import jakarta.persistence.NamedQuery;
 import jakarta.persistence.Persistence;
+import jakarta.persistence.metamodel.EntityType;
 
 public class PersistenceManager {
+  private static final Logger logger = LogManager.getLogger(PersistenceManager.class);
   private static final String TEST_PU_NAME = "weatherReportTestPU";
   private static final String PU_NAME = "weatherReportPU";
 
-  private static EntityManagerFactory factory;
-  private static String currentPUName = PersistenceManager.PU_NAME;
+  private static volatile EntityManagerFactory factory;
+  private static volatile String currentPUName = PersistenceManager.PU_NAME;
+  private static CompletableFuture<EntityManagerFactory> bootstrap;
+  private static volatile BootstrapTimings bootstrapTimings;
+
+  //proprietà del persistence unit con l'url dei database degli shard, "{shard}" è sostituito dal numero
+  private static final String SHARD_URL_PROPERTY = "weatherreport.shard.url";
+  private static final String JDBC_URL_PROPERTY = "jakarta.persistence.jdbc.url";
+
+  /**
+   * Property of the persistence unit with the {@link PartitionScheme} of the
+   * measurements, {@code MONTH} if missing.
+   */
+  public static final String PARTITION_SCHEME_PROPERTY = "weatherreport.measurement.partition";
+  private static volatile PartitionScheme partitionScheme;
 
   private static final ThreadLocal<Boolean> inTransaction = ThreadLocal.withInitial(()->false);
   private static final ThreadLocal<EntityManager> currentManager = ThreadLocal.withInitial(()->null);
+  //factory dello shard su cui lavora il thread, null per il database principale
+  private static final ThreadLocal<EntityManagerFactory> boundFactory = new ThreadLocal<>();
 
-  public static void setTestMode() {
-    if (factory != null && factory.isOpen()) {
-      factory.close();
-      factory = null;
-    }
+  public static synchronized void setTestMode() {
+    close();
     currentPUName = PersistenceManager.TEST_PU_NAME;
+    //il persistence unit è deciso: il factory viene preparato in background mentre il chiamante prosegue
+    startBootstrap();
   }
 
   private static EntityManagerFactory getCurrentFactory() {
-    if (factory == null || !factory.isOpen()) {
-      factory = Persistence.createEntityManagerFactory(currentPUName);
+    EntityManagerFactory bound = boundFactory.get();
+    return bound == null ? getMainFactory() : bound;
+  }
+
+  private static EntityManagerFactory getMainFactory() {
+    EntityManagerFactory current = factory;
+    if (current != null && current.isOpen()) {
+      return current;
+    }
+    try {
+      return startBootstrap().join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Width of the time buckets measurements are keyed by, read from the
+   * {@value #PARTITION_SCHEME_PROPERTY} property when the factory is built. It
+   * is a setting of the database rather than of the application: stored
+   * measurements keep the bucket they were written with, so it cannot change
+   * once the first measurement is stored.
+   *
+   * @return the partition scheme of the measurements
+   */
+  public static PartitionScheme getPartitionScheme() {
+    PartitionScheme scheme = partitionScheme;
+    if (scheme == null) {
+      getMainFactory();
+      scheme = partitionScheme;
     }
-    return factory;
+    return scheme;
+  }
+
+  /**
+   * Runs the given work against another factory of the same persistence unit,
+   * such as the database of a shard (see {@link Shards#onShard}). The entity
+   * manager and unit of work of the caller are set aside meanwhile and
+   * restored afterwards.
+   *
+   * @param <T>    type of the result
+   * @param target factory to work on, {@code null} for the main database
+   * @param work   work to execute
+   * @return the value returned by the work
+   */
+  static <T> T onFactory(EntityManagerFactory target, Supplier<T> work) {
+    EntityManagerFactory previousFactory = boundFactory.get();
+    if (previousFactory == target) {
+      return work.get();
+    }
+    EntityManager previousManager = currentManager.get();
+    boolean previousInTransaction = inTransaction.get();
+    boundFactory.set(target);
+    currentManager.remove();
+    inTransaction.set(false);
+    try {
+      return work.get();
+    } finally {
+      closeEntityManager();
+      boundFactory.set(previousFactory);
+      currentManager.set(previousManager);
+      inTransaction.set(previousInTransaction);
+    }
+  }
+
+  /**
+   * Builds the factory of an additional shard, on the database configured by
+   * the {@value #SHARD_URL_PROPERTY} property of the current persistence unit.
+   *
+   * @param shard shard index, at least 1
+   * @return the new factory, to be closed by the caller
+   */
+  static EntityManagerFactory createShardFactory(int shard) {
+    Object url = getMainFactory().getProperties().get(SHARD_URL_PROPERTY);
+    if (url == null) {
+      throw new IllegalStateException("Property " + SHARD_URL_PROPERTY + " is not set in " + currentPUName);
+    }
+    //gli shard contengono solo misurazioni: nessuna cache di secondo livello da condividere con il database principale
+    return Persistence.createEntityManagerFactory(currentPUName, Map.of(
+        JDBC_URL_PROPERTY, url.toString().replace("{shard}", Integer.toString(shard)),
+        "jakarta.persistence.sharedCache.mode", "NONE",
+        "hibernate.cache.use_second_level_cache", "false",
+        "hibernate.cache.use_query_cache", "false"));
+  }
+
+  /**
+   * Starts building the {@link EntityManagerFactory} of the current persistence
+   * unit on a background thread, unless a bootstrap is already running or the
+   * factory is already open. The first caller needing an entity manager waits
+   * for the same bootstrap, so only one factory is ever built.
+   * <p>
+   * The bootstrap is started by {@link #setTestMode()} once the persistence
+   * unit is chosen, or by the first request for an entity manager; creating a
+   * {@link com.weather.report.WeatherReport} does not start it, so it never
+   * boots a persistence unit that is about to be replaced.
+   * <p>
+   * Besides building the factory, the bootstrap resolves the metamodel,
+   * compiles the named queries and a query per entity, and loads the
+   * cacheable entities in the second-level cache, so that the first request
+   * does not pay for any of it. The duration of each phase is available from
+   * {@link #getBootstrapTimings()}.
+   *
+   * @return the pending or completed bootstrap
+   */
+  public static synchronized CompletableFuture<EntityManagerFactory> startBootstrap() {
+    if (bootstrap == null || bootstrap.isCompletedExceptionally()
+        || (bootstrap.isDone() && !bootstrap.join().isOpen())) {
+      String puName = currentPUName;
+      bootstrap = CompletableFuture.supplyAsync(() -> bootstrap(puName), runnable -> {
+        Thread thread = new Thread(runnable, "persistence-bootstrap");
+        thread.setDaemon(true);
+        thread.start();
+      });
+    }
+    return bootstrap;
+  }
+
+  /**
+   * @return phase timings of the last completed bootstrap, or {@code null} if
+   *         no bootstrap has completed yet
+   */
+  public static BootstrapTimings getBootstrapTimings() {
+    return bootstrapTimings;
+  }
+
+  private static EntityManagerFactory bootstrap(String puName) {
+    long start = System.nanoTime();
+    EntityManagerFactory emf = Persistence.createEntityManagerFactory(puName);
+    long factoryEnd = System.nanoTime();
+
+    //risolvo una volta sola i metadati di tutte le entità
+    for (EntityType<?> entity : emf.getMetamodel().getEntities()) {
+      entity.getAttributes();
+      entity.getIdType();
+    }
+    long metamodelEnd = System.nanoTime();
+
+    EntityManager em = emf.createEntityManager();
+    long queriesEnd;
+    try {
+      //compilo le query con nome e una query per entità senza eseguirle
+      for (EntityType<?> entity : emf.getMetamodel().getEntities()) {
+        for (NamedQuery namedQuery : entity.getJavaType().getAnnotationsByType(NamedQuery.class)) {
+          em.createNamedQuery(namedQuery.name());
+        }
+        em.createQuery("SELECT e FROM " + entity.getName() + " e", entity.getJavaType());
+      }
+      queriesEnd = System.nanoTime();
+
+      //le entità di riferimento sono caricate nella cache di secondo livello con la stessa query dei repository
+      for (EntityType<?> entity : emf.getMetamodel().getEntities()) {
+        if (entity.getJavaType().isAnnotationPresent(Cacheable.class)) {
+          em.createQuery("SELECT e FROM " + entity.getName() + " e", entity.getJavaType())
+              .setHint(HibernateHints.HINT_CACHEABLE, true)
+              .getResultList();
+        }
+      }
+    } finally {
+      em.close();
+    }
+    long end = System.nanoTime();
+
+    BootstrapTimings timings = new BootstrapTimings((factoryEnd - start) / 1_000_000,
+        (metamodelEnd - factoryEnd) / 1_000_000, (queriesEnd - metamodelEnd) / 1_000_000,
+        (end - queriesEnd) / 1_000_000);
+    bootstrapTimings = timings;
+    partitionScheme = PartitionScheme.valueOf(
+        emf.getProperties().getOrDefault(PARTITION_SCHEME_PROPERTY, PartitionScheme.MONTH.name()).toString());
+    factory = emf;
+    logger.debug(String.format("EntityManagerFactory %s ready: %s", puName, timings));
+    return emf;
   }
 
   public static EntityManager getEntityManager() {
     EntityManager currentEm = currentManager.get();
     if(currentEm == null || !currentEm.isOpen()){
-      IO.println("*** new EntityManager");
       currentEm = getCurrentFactory().createEntityManager();
       currentManager.set(currentEm);
     }
@@ -47,9 +248,115 @@ public class PersistenceManager {
     }
   }
 
-  public static void close() {
+  /**
+   * Opens a unit of work on the current thread. Every repository call made
+   * until the returned scope is closed shares the same {@link EntityManager}
+   * and transaction; if a unit of work is already open the new scope joins it.
+   *
+   * <pre>
+   * try (UnitOfWork unitOfWork = PersistenceManager.beginUnitOfWork()) {
+   *   ...
+   *   unitOfWork.commit();
+   * }
+   * </pre>
+   *
+   * @return the scope to commit and close
+   */
+  public static UnitOfWork beginUnitOfWork() {
+    if (inTransaction.get()) {
+      return new UnitOfWork(currentManager.get().getTransaction(), false);
+    }
+    EntityManager em = getEntityManager();
+    EntityTransaction transaction = em.getTransaction();
+    transaction.begin();
+    inTransaction.set(true);
+    return new UnitOfWork(transaction, true);
+  }
+
+  /**
+   * Runs the given work inside a unit of work, joining the one already open on
+   * the current thread if any.
+   *
+   * @param <T>  type of the result
+   * @param work work to execute
+   * @return the value returned by the work
+   */
+  public static <T> T inTransaction(Supplier<T> work) {
+    try (UnitOfWork unitOfWork = beginUnitOfWork()) {
+      T result = work.get();
+      unitOfWork.commit();
+      return result;
+    }
+  }
+
+  /**
+   * Runs the given work inside a unit of work, joining the one already open on
+   * the current thread if any.
+   *
+   * @param work work to execute
+   */
+  public static void inTransaction(Runnable work) {
+    inTransaction(() -> {
+      work.run();
+      return null;
+    });
+  }
+
+  /**
+   * @return {@code true} when a unit of work is open on the current thread
+   */
+  public static boolean isInTransaction() {
+    return inTransaction.get();
+  }
+
+  static void endUnitOfWork() {
+    inTransaction.set(false);
+    closeEntityManager();
+  }
+
+  /**
+   * Snapshot of the second-level and query cache counters collected since the
+   * factory was created.
+   *
+   * @return cache statistics
+   */
+  public static CacheStatistics getCacheStatistics() {
+    Statistics statistics = getMainFactory().unwrap(SessionFactory.class).getStatistics();
+    return new CacheStatistics(
+        statistics.getSecondLevelCacheHitCount(),
+        statistics.getSecondLevelCacheMissCount(),
+        statistics.getSecondLevelCachePutCount(),
+        statistics.getQueryCacheHitCount(),
+        statistics.getQueryCacheMissCount(),
+        statistics.getQueryCachePutCount());
+  }
+
+  /**
+   * Empties the second-level and query caches.
+   */
+  public static void evictCaches() {
+    if (factory != null && factory.isOpen()) {
+      factory.getCache().evictAll();
+      factory.unwrap(SessionFactory.class).getCache().evictQueryRegions();
+    }
+  }
+
+  public static synchronized void close() {
+    if (bootstrap != null) {
+      //un bootstrap ancora in corso va atteso, altrimenti il suo factory resterebbe aperto
+      try {
+        bootstrap.join();
+      } catch (CompletionException e) {
+        //il bootstrap fallito non ha aperto alcun factory
+      }
+      bootstrap = null;
+    }
     if (factory != null && factory.isOpen()) {
+      //le cache sopravvivono al factory: vanno svuotate per non servire dati del database chiuso
+      evictCaches();
       factory.close();
     }
+    factory = null;
+    partitionScheme = null;
   }
 }
@@ -0,0 +1,402 @@
+package com.weather.report.persistence;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import com.weather.report.model.entities.MeasurementSketch;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * The databases measurements are spread across, owned by one
+ * {@link com.weather.report.WeatherReport} and closed with it.
+ * <p>
+ * Shard 0 is the main database of {@link PersistenceManager}, which also
+ * holds users, gateways and parameters; every other shard is a separate
+ * database, configured by the {@code weatherreport.shard.url} property of the
+ * persistence unit, holding only measurements and the aggregates and sketches
+ * derived from them. A network maps to a shard by hashing its code, so all
+ * the measurements of a network live on one shard.
+ * <p>
+ * A gateway may collect measurements of several networks. The shards holding
+ * the data of each gateway are kept in a directory, so gateway reads only
+ * query those shards: the directory is updated by every write of measurements
+ * through this instance and loaded from the hourly sketches of each shard the
+ * first time it is needed, or after a snapshot is restored. Measurements
+ * written to the shard databases by another system of the process are only
+ * seen by gateway reads once the directory is loaded again.
+ * <p>
+ * The shard factories are opened on first use and the work on several shards
+ * runs on a thread pool of this instance; {@link #close()} releases both.
+ */
+public class Shards implements AutoCloseable {
+
+  private final int count;
+  private final Map<Integer, EntityManagerFactory> factories = new ConcurrentHashMap<>();
+  private final ExecutorService executor;
+  //shard che contengono dati di ogni gateway: solo aggiunte, una voce in più costa al massimo una query vuota
+  private final Map<String, Set<Integer>> gatewayShards = new ConcurrentHashMap<>();
+  private volatile boolean directoryLoaded;
+
+  /**
+   * Creates a single shard: everything is stored in the main database.
+   */
+  public Shards() {
+    this(1);
+  }
+
+  /**
+   * To be chosen before storing the first measurement: measurements already
+   * stored are not moved to their new shard.
+   *
+   * @param count number of shards, at least 1
+   */
+  public Shards(int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException("At least one shard is needed");
+    }
+    this.count = count;
+    this.executor = count == 1 ? null : Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "persistence-shard");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * @return the number of shards measurements are spread across
+   */
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Maps a network to the shard holding its measurements, by hashing its code.
+   *
+   * @param networkCode code of the network
+   * @return shard index, between 0 and {@link #getCount()} - 1
+   */
+  public int shardOf(String networkCode) {
+    return networkCode == null ? 0 : Math.floorMod(networkCode.hashCode(), count);
+  }
+
+  /**
+   * Runs the given work against a shard: every entity manager and unit of work
+   * obtained by the work belongs to that shard's database. The entity manager
+   * and unit of work of the caller are set aside meanwhile and restored
+   * afterwards, unless the caller is already working on that shard.
+   *
+   * @param <T>   type of the result
+   * @param shard shard index
+   * @param work  work to execute
+   * @return the value returned by the work
+   */
+  public <T> T onShard(int shard, Supplier<T> work) {
+    return PersistenceManager.onFactory(shard == 0 ? null : factoryOf(shard), work);
+  }
+
+  /**
+   * Runs the given work against every shard in parallel and gathers the
+   * results, in shard order. With a single shard the work runs on the calling
+   * thread, joining its unit of work if any.
+   *
+   * @param <T>  type of the result
+   * @param work work to execute on each shard
+   * @return one result per shard
+   */
+  public <T> List<T> onAllShards(Supplier<T> work) {
+    return onShards(IntStream.range(0, count).boxed().toList(), shard -> work.get());
+  }
+
+  /**
+   * Runs the given work against the shards holding data of some gateways, in
+   * parallel, each time with the gateways found on that shard. Shards without
+   * data of those gateways are not queried at all.
+   *
+   * @param <T>          type of the result
+   * @param gatewayCodes gateway codes
+   * @param work         work to execute, given the gateways of the shard
+   * @return one result per shard queried, in shard order; empty if no shard
+   *         holds data of the gateways
+   */
+  public <T> List<T> onShardsOf(Collection<String> gatewayCodes, Function<Collection<String>, T> work) {
+    if (count == 1) {
+      return List.of(onShard(0, () -> work.apply(gatewayCodes)));
+    }
+    SortedMap<Integer, List<String>> byShard = new TreeMap<>();
+    for (String gatewayCode : gatewayCodes) {
+      for (int shard : shardsOfGateway(gatewayCode)) {
+        byShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(gatewayCode);
+      }
+    }
+    return onShards(byShard.keySet(), shard -> work.apply(byShard.get(shard)));
+  }
+
+  /**
+   * @param gatewayCode gateway code
+   * @return the shards holding measurements, aggregates or sketches of the
+   *         gateway, empty if it has no data
+   */
+  public Set<Integer> shardsOfGateway(String gatewayCode) {
+    if (count == 1) {
+      return Set.of(0);
+    }
+    if (!directoryLoaded) {
+      loadDirectory();
+    }
+    return Set.copyOf(gatewayShards.getOrDefault(gatewayCode, Set.of()));
+  }
+
+  /**
+   * Records that a shard holds data of some gateways, once measurements have
+   * been written there.
+   *
+   * @param shard        shard index
+   * @param gatewayCodes codes of the gateways of the measurements
+   */
+  public void recordGateways(int shard, Collection<String> gatewayCodes) {
+    if (count == 1) {
+      return;
+    }
+    for (String gatewayCode : gatewayCodes) {
+      gatewayShards.computeIfAbsent(gatewayCode, code -> ConcurrentHashMap.newKeySet()).add(shard);
+    }
+  }
+
+  //ogni misurazione scritta ha il suo sketch orario, che la retention non cancella
+  private synchronized void loadDirectory() {
+    if (directoryLoaded) {
+      return;
+    }
+    List<List<String>> perShard = onAllShards(() -> {
+      EntityManager em = PersistenceManager.getEntityManager();
+      try {
+        return em.createNamedQuery(MeasurementSketch.GATEWAY_CODES, String.class).getResultList();
+      } finally {
+        PersistenceManager.closeEntityManager();
+      }
+    });
+    for (int shard = 0; shard < count; shard++) {
+      recordGateways(shard, perShard.get(shard));
+    }
+    directoryLoaded = true;
+  }
+
+  private synchronized void resetDirectory() {
+    gatewayShards.clear();
+    directoryLoaded = false;
+  }
+
+  private <T> List<T> onShards(Collection<Integer> shards, IntFunction<T> work) {
+    if (shards.size() <= 1) {
+      List<T> results = new ArrayList<>(shards.size());
+      for (int shard : shards) {
+        results.add(onShard(shard, () -> work.apply(shard)));
+      }
+      return results;
+    }
+    List<CompletableFuture<T>> futures = new ArrayList<>(shards.size());
+    for (int shard : shards) {
+      futures.add(CompletableFuture.supplyAsync(() -> onShard(shard, () -> work.apply(shard)), executor));
+    }
+    List<T> results = new ArrayList<>(shards.size());
+    try {
+      for (CompletableFuture<T> future : futures) {
+        results.add(future.join());
+      }
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+    return results;
+  }
+
+  private EntityManagerFactory factoryOf(int shard) {
+    EntityManagerFactory factory = factories.get(shard);
+    if (factory != null && factory.isOpen()) {
+      return factory;
+    }
+    synchronized (factories) {
+      factory = factories.get(shard);
+      if (factory == null || !factory.isOpen()) {
+        factory = PersistenceManager.createShardFactory(shard);
+        factories.put(shard, factory);
+      }
+      return factory;
+    }
+  }
+
+  /**
+   * Writes a compressed snapshot of every shard: the main database (schema,
+   * reference entities, measurements, aggregates and sequence values) to the
+   * given file, each additional shard next to it, in a file named after it
+   * with the shard number as suffix.
+   * <p>
+   * The shards are first written to temporary files, which replace the
+   * previous snapshot only once all of them have been written: if a shard
+   * cannot be written, the previous snapshot is left untouched.
+   *
+   * @param file destination of the snapshot
+   * @throws UnsupportedOperationException if the database is not H2
+   * @throws UncheckedIOException          if the files cannot be replaced
+   */
+  public void createSnapshot(Path file) {
+    List<Path> partials = new ArrayList<>(count);
+    try {
+      for (int shard = 0; shard < count; shard++) {
+        Path partial = partialFile(shardFile(file, shard));
+        partials.add(partial);
+        onShard(shard, () -> H2SnapshotStore.write(partial));
+      }
+      for (int shard = 0; shard < count; shard++) {
+        Files.move(partials.get(shard), shardFile(file, shard), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      partials.forEach(Shards::deleteQuietly);
+    }
+  }
+
+  /**
+   * Replaces the content of every shard with a snapshot previously written by
+   * {@link #createSnapshot(Path)}. Loading a snapshot is much faster than
+   * importing the original CSV files again, since the rows are inserted in
+   * bulk by the database itself.
+   * <p>
+   * The shards are loaded one after the other, so the restore is not atomic
+   * across databases. It is checked that the file of every shard exists before
+   * touching any of them, and the current content of each shard is saved to a
+   * temporary file first: if a shard fails to load, the shards already
+   * replaced are loaded back from those files and the failure is rethrown, so
+   * the system is left as it was. Only if that roll back fails too, as
+   * recorded in the suppressed exceptions, the shards are left partially
+   * restored and the restore has to be run again.
+   * <p>
+   * Identifier generators keep their own pool in memory, so the restore is
+   * meant to run at startup, before any entity is persisted through the
+   * current factories, when the copy of the current content costs little.
+   *
+   * @param file snapshot to load
+   * @throws IllegalStateException         if a unit of work is open on the
+   *                                       current thread
+   * @throws IllegalArgumentException      if the file of a shard is missing
+   * @throws UnsupportedOperationException if the database is not H2
+   * @throws UncheckedIOException          if the temporary files cannot be
+   *                                       created
+   */
+  public void restoreSnapshot(Path file) {
+    if (PersistenceManager.isInTransaction()) {
+      throw new IllegalStateException("Cannot restore a snapshot inside a unit of work");
+    }
+    for (int shard = 0; shard < count; shard++) {
+      if (!Files.isReadable(shardFile(file, shard))) {
+        throw new IllegalArgumentException("Missing snapshot of shard " + shard + ": " + shardFile(file, shard));
+      }
+    }
+    Path backupDirectory;
+    try {
+      backupDirectory = Files.createTempDirectory("weather-report-restore");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    List<Path> backups = new ArrayList<>(count);
+    try {
+      for (int shard = 0; shard < count; shard++) {
+        Path backup = backupDirectory.resolve("shard" + shard);
+        backups.add(backup);
+        onShard(shard, () -> H2SnapshotStore.write(backup));
+      }
+      int loading = 0;
+      try {
+        for (; loading < count; loading++) {
+          Path shardFile = shardFile(file, loading);
+          onShard(loading, () -> H2SnapshotStore.load(shardFile));
+        }
+      } catch (RuntimeException e) {
+        //anche lo shard fallito può essere già stato svuotato: torna al contenuto precedente
+        for (int shard = 0; shard <= loading; shard++) {
+          Path backup = backups.get(shard);
+          try {
+            onShard(shard, () -> H2SnapshotStore.load(backup));
+          } catch (RuntimeException rollbackFailure) {
+            e.addSuppressed(rollbackFailure);
+          }
+        }
+        throw e;
+      }
+    } finally {
+      backups.forEach(Shards::deleteQuietly);
+      deleteQuietly(backupDirectory);
+      //le cache e l'elenco dei gateway per shard descrivono il contenuto sostituito
+      PersistenceManager.evictCaches();
+      resetDirectory();
+    }
+  }
+
+  //lo shard 0 usa il file indicato, gli altri un file con il numero dello shard come suffisso
+  private static Path shardFile(Path file, int shard) {
+    return shard == 0 ? file : file.resolveSibling(file.getFileName() + "." + shard);
+  }
+
+  private static Path partialFile(Path file) {
+    return file.resolveSibling(file.getFileName() + ".partial");
+  }
+
+  private static void deleteQuietly(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      //un file temporaneo rimasto non compromette lo stato dei database
+    }
+  }
+
+  /**
+   * Stops the thread pool and closes the factories of the additional shards.
+   * The main database stays open, since it belongs to
+   * {@link PersistenceManager}.
+   */
+  @Override
+  public void close() {
+    if (executor != null) {
+      executor.shutdown();
+      try {
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    synchronized (factories) {
+      for (EntityManagerFactory factory : factories.values()) {
+        if (factory.isOpen()) {
+          factory.close();
+        }
+      }
+      factories.clear();
+    }
+  }
+
+}
@@ -0,0 +1,60 @@
+package com.weather.report.persistence;
+
+import jakarta.persistence.EntityTransaction;
+
+/**
+ * Scope of a unit of work opened through {@link PersistenceManager#beginUnitOfWork()}.
+ * <p>
+ * All the repository calls performed on the same thread while the scope is open
+ * share one {@code EntityManager}, one first-level cache and one transaction,
+ * which is committed by {@link #commit()}. Closing the scope without committing
+ * rolls the work back.
+ * <p>
+ * A scope opened while another one is already active on the thread joins it:
+ * its commit is a no-op and the outer scope decides the outcome, while closing
+ * it without committing marks the whole transaction as rollback-only.
+ */
+public class UnitOfWork implements AutoCloseable {
+
+  private final EntityTransaction transaction;
+  private final boolean owner;
+  private boolean completed;
+
+  UnitOfWork(EntityTransaction transaction, boolean owner) {
+    this.transaction = transaction;
+    this.owner = owner;
+  }
+
+  /**
+   * Commits the work done in this scope. For a joined scope the commit is
+   * deferred to the outermost one.
+   */
+  public void commit() {
+    if (owner) {
+      transaction.commit();
+    }
+    completed = true;
+  }
+
+  /**
+   * Ends the scope, rolling back the transaction when {@link #commit()} has not
+   * been invoked.
+   */
+  @Override
+  public void close() {
+    if (!owner) {
+      if (!completed && transaction.isActive()) {
+        transaction.setRollbackOnly();
+      }
+      return;
+    }
+    try {
+      if (!completed && transaction.isActive()) {
+        transaction.rollback();
+      }
+    } finally {
+      PersistenceManager.endUnitOfWork();
+    }
+  }
+
+}
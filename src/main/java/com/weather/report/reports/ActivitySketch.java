@@ -0,0 +1,340 @@
+package com.weather.report.reports;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Approximate number of measurements per code (sensor or gateway) in constant
+ * memory, to find the most and least active ones among a very large number of
+ * codes.
+ * <p>
+ * The most frequent codes are tracked by Space-Saving (Metwally et al.) with
+ * {@code capacity} counters kept in a min-heap: a code not tracked replaces
+ * the smallest counter and inherits its count as error. With {@code N}
+ * measurements, every code with more than {@code N / capacity} measurements is
+ * tracked and each tracked count exceeds the true one by at most
+ * {@code N / capacity}. As long as no more than {@code capacity} distinct codes
+ * have been seen the counters are exact.
+ * <p>
+ * Once more codes appear, every measurement is also added to a Count-Min
+ * sketch (Cormode and Muthukrishnan) of {@code depth} rows of {@code width}
+ * counters, seeded with the exact counters at that point. Its estimate of a
+ * code is never below the true count and, with probability at least
+ * {@code 1 - delta}, exceeds it by at most {@code epsilon * N}, where
+ * {@code width = ceil(e / epsilon)} and {@code depth = ceil(ln(1 / delta))}.
+ * It tightens the Space-Saving counts and estimates the codes that are not
+ * tracked, which is what the least active query needs.
+ */
+public final class ActivitySketch {
+
+  private final int capacity;
+  private final int width;
+  private final int depth;
+  //Space-Saving: min-heap dei contatori, con la posizione di ogni codice nell'heap
+  private final String[] codes;
+  private final long[] counts;
+  private final long[] errors;
+  private final Map<String, Integer> positions = new HashMap<>();
+  private int tracked;
+  //Count-Min, allocato solo quando i codici superano i contatori disponibili
+  private long[] table;
+  private long total;
+
+  /**
+   * @param capacity number of Space-Saving counters
+   * @param epsilon  relative error of the Count-Min estimates
+   * @param delta    probability of exceeding the error
+   */
+  public ActivitySketch(int capacity, double epsilon, double delta) {
+    if (capacity < 1 || epsilon <= 0 || delta <= 0 || delta >= 1) {
+      throw new IllegalArgumentException("Invalid sketch parameters");
+    }
+    this.capacity = capacity;
+    this.width = (int) Math.ceil(Math.E / epsilon);
+    this.depth = (int) Math.ceil(Math.log(1 / delta));
+    this.codes = new String[capacity];
+    this.counts = new long[capacity];
+    this.errors = new long[capacity];
+  }
+
+  /**
+   * Adds measurements of a code.
+   *
+   * @param code  sensor or gateway code
+   * @param count number of measurements
+   */
+  public void add(String code, long count) {
+    if (count <= 0) {
+      return;
+    }
+    total += count;
+    Integer position = positions.get(code);
+    if (position == null && tracked == capacity && table == null) {
+      //primo codice senza contatore: il Count-Min parte dai conteggi esatti raccolti finora
+      table = new long[width * depth];
+      for (int i = 0; i < tracked; i++) {
+        addToTable(codes[i], counts[i]);
+      }
+    }
+    if (table != null) {
+      addToTable(code, count);
+    }
+
+    if (position != null) {
+      counts[position] += count;
+      siftDown(position);
+    } else if (tracked < capacity) {
+      codes[tracked] = code;
+      counts[tracked] = count;
+      errors[tracked] = 0;
+      positions.put(code, tracked);
+      siftUp(tracked++);
+    } else {
+      //il codice prende il posto del contatore minimo e ne eredita il conteggio come errore
+      positions.remove(codes[0]);
+      codes[0] = code;
+      errors[0] = counts[0];
+      counts[0] += count;
+      positions.put(code, 0);
+      siftDown(0);
+    }
+  }
+
+  /**
+   * Adds the measurements counted by another sketch with the same parameters,
+   * as when the sketches of several hours or shards are combined.
+   * <p>
+   * The Count-Min tables are summed. The Space-Saving counters of a code are
+   * summed too; a code missing from a sketch that has replaced counters gets
+   * the smallest counter of that sketch, which it may have had, as count and
+   * error. The {@code capacity} largest counters are kept, so the merged
+   * sketch keeps the error bounds of a single sketch over all the
+   * measurements (Cafaro et al., parallel Space-Saving).
+   *
+   * @param other sketch to add, not modified
+   * @return this sketch
+   */
+  public ActivitySketch merge(ActivitySketch other) {
+    if (other.capacity != capacity || other.width != width || other.depth != depth) {
+      throw new IllegalArgumentException("Sketches with different parameters cannot be merged");
+    }
+    //finché il Count-Min non esiste i contatori sono esatti: un codice assente ha conteggio 0
+    long missingHere = table == null ? 0 : counts[0];
+    long missingThere = other.table == null ? 0 : other.counts[0];
+    Map<String, long[]> merged = new HashMap<>();
+    for (int i = 0; i < tracked; i++) {
+      merged.put(codes[i], new long[] { counts[i] + missingThere, errors[i] + missingThere });
+    }
+    for (int i = 0; i < other.tracked; i++) {
+      long[] counter = merged.get(other.codes[i]);
+      if (counter == null) {
+        merged.put(other.codes[i], new long[] { other.counts[i] + missingHere, other.errors[i] + missingHere });
+      } else {
+        //il codice è presente in entrambi: il minimo dell'altro sketch non va aggiunto
+        counter[0] += other.counts[i] - missingThere;
+        counter[1] += other.errors[i] - missingThere;
+      }
+    }
+
+    if (table != null || other.table != null || merged.size() > capacity) {
+      if (table == null) {
+        table = new long[width * depth];
+        for (int i = 0; i < tracked; i++) {
+          addToTable(codes[i], counts[i]);
+        }
+      }
+      if (other.table != null) {
+        for (int i = 0; i < table.length; i++) {
+          table[i] += other.table[i];
+        }
+      } else {
+        for (int i = 0; i < other.tracked; i++) {
+          addToTable(other.codes[i], other.counts[i]);
+        }
+      }
+    }
+    total += other.total;
+
+    List<Map.Entry<String, long[]>> ranked = new ArrayList<>(merged.entrySet());
+    ranked.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+    positions.clear();
+    tracked = 0;
+    for (Map.Entry<String, long[]> entry : ranked.subList(0, Math.min(capacity, ranked.size()))) {
+      codes[tracked] = entry.getKey();
+      counts[tracked] = entry.getValue()[0];
+      errors[tracked] = entry.getValue()[1];
+      positions.put(entry.getKey(), tracked);
+      siftUp(tracked++);
+    }
+    return this;
+  }
+
+  /**
+   * Estimated number of measurements of a code, never below the true one.
+   *
+   * @param code sensor or gateway code
+   * @return estimated count, exact while at most {@code capacity} codes have
+   *         been seen
+   */
+  public long estimate(String code) {
+    Integer position = positions.get(code);
+    if (table == null) {
+      return position == null ? 0 : counts[position];
+    }
+    long estimate = Long.MAX_VALUE;
+    int hash1 = mix(code.hashCode());
+    int hash2 = mix(hash1) | 1;
+    for (int row = 0; row < depth; row++) {
+      estimate = Math.min(estimate, table[row * width + Math.floorMod(hash1 + row * hash2, width)]);
+    }
+    return position == null ? estimate : Math.min(estimate, counts[position]);
+  }
+
+  /**
+   * Number of measurements a code certainly has: the Space-Saving count minus
+   * the error inherited when the code took its counter.
+   *
+   * @param code sensor or gateway code
+   * @return guaranteed count, 0 if the code is not tracked
+   */
+  public long lowerBound(String code) {
+    Integer position = positions.get(code);
+    return position == null ? 0 : counts[position] - errors[position];
+  }
+
+  /**
+   * Maximum overestimate of {@link #estimate(String)} for the tracked codes:
+   * {@code N / capacity}, or 0 while the counters are exact. The Count-Min
+   * bound {@code epsilon * N} applies to the other codes.
+   *
+   * @return error bound, in number of measurements
+   */
+  public long getErrorBound() {
+    return table == null ? 0 : total / capacity;
+  }
+
+  /**
+   * @return number of measurements added
+   */
+  public long getTotal() {
+    return total;
+  }
+
+  /**
+   * Tracked codes ordered by decreasing estimated count.
+   *
+   * @param k maximum number of codes
+   * @return at most {@code k} codes
+   */
+  public List<String> topK(int k) {
+    List<String> ranked = new ArrayList<>(Arrays.asList(codes).subList(0, tracked));
+    Map<String, Long> estimates = new HashMap<>();
+    ranked.forEach(code -> estimates.put(code, estimate(code)));
+    ranked.sort((a, b) -> Long.compare(estimates.get(b), estimates.get(a)));
+    return ranked.subList(0, Math.min(k, ranked.size()));
+  }
+
+  /**
+   * Codes with the highest estimated count. Every code whose true count is
+   * above {@code N / capacity} is tracked, so the most active code is among
+   * the candidates whenever it stands out.
+   *
+   * @return codes sharing the highest estimate, empty if nothing was added
+   */
+  public Collection<String> getMostActive() {
+    return extremes(Arrays.asList(codes).subList(0, tracked), true);
+  }
+
+  /**
+   * Codes with the lowest estimated count among the given candidates. The
+   * Space-Saving counters cannot tell apart codes that are not tracked, so
+   * the candidates (for instance all the sensors of a gateway) must be known
+   * by the caller.
+   *
+   * @param candidates codes to rank, {@code null} for the tracked ones
+   * @return codes sharing the lowest estimate
+   */
+  public Collection<String> getLeastActive(Collection<String> candidates) {
+    return extremes(candidates != null ? candidates : Arrays.asList(codes).subList(0, tracked), false);
+  }
+
+  private Collection<String> extremes(Collection<String> candidates, boolean highest) {
+    List<String> result = new ArrayList<>();
+    long best = highest ? Long.MIN_VALUE : Long.MAX_VALUE;
+    for (String code : candidates) {
+      long estimate = estimate(code);
+      if (highest ? estimate > best : estimate < best) {
+        best = estimate;
+        result.clear();
+      }
+      if (estimate == best) {
+        result.add(code);
+      }
+    }
+    return result;
+  }
+
+  private void addToTable(String code, long count) {
+    int hash1 = mix(code.hashCode());
+    int hash2 = mix(hash1) | 1;
+    //due hash bastano per ottenere le funzioni indipendenti delle righe (Kirsch-Mitzenmacher)
+    for (int row = 0; row < depth; row++) {
+      table[row * width + Math.floorMod(hash1 + row * hash2, width)] += count;
+    }
+  }
+
+  //finalizzatore di MurmurHash3: distribuisce i bit degli hash delle stringhe
+  private static int mix(int hash) {
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    return hash ^ (hash >>> 16);
+  }
+
+  private void siftUp(int position) {
+    while (position > 0) {
+      int parent = (position - 1) / 2;
+      if (counts[parent] <= counts[position]) {
+        return;
+      }
+      swap(position, parent);
+      position = parent;
+    }
+  }
+
+  private void siftDown(int position) {
+    while (true) {
+      int smallest = position;
+      for (int child = 2 * position + 1; child <= 2 * position + 2 && child < tracked; child++) {
+        if (counts[child] < counts[smallest]) {
+          smallest = child;
+        }
+      }
+      if (smallest == position) {
+        return;
+      }
+      swap(position, smallest);
+      position = smallest;
+    }
+  }
+
+  private void swap(int i, int j) {
+    String code = codes[i];
+    codes[i] = codes[j];
+    codes[j] = code;
+    long count = counts[i];
+    counts[i] = counts[j];
+    counts[j] = count;
+    long error = errors[i];
+    errors[i] = errors[j];
+    errors[j] = error;
+    positions.put(codes[i], i);
+    positions.put(codes[j], j);
+  }
+
+}
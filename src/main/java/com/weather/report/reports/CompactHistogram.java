@@ -0,0 +1,300 @@
+package com.weather.report.reports;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.function.LongFunction;
+import java.util.function.ToLongFunction;
+
+import com.weather.report.reports.Report.Range;
+
+/**
+ * Read-only histogram stored as two primitive arrays: the {@code n + 1}
+ * ascending bucket edges and the {@code n} counts.
+ * <p>
+ * It is exposed as the {@code SortedMap<Range<T>, Long>} required by
+ * {@link Report#getHistogram()}: range keys and boxed counts are only created
+ * when they are read, and key lookups are binary searches on the edges. Keys
+ * are {@link RangeImplementation} instances, equal to those of a
+ * {@code TreeMap} built bucket by bucket, and so are the map equality and
+ * hash code.
+ * <p>
+ * Edges are kept as {@code long} values: nanoseconds for durations, epoch
+ * seconds for timestamps and an order-preserving encoding for doubles.
+ * Histograms with the same edges can be merged by adding their counts, so
+ * partial histograms computed in parallel, or per hour and per day, can be
+ * combined cheaply.
+ *
+ * @param <T> type of the range bounds
+ */
+public class CompactHistogram<T extends Comparable<? super T>> extends AbstractMap<Range<T>, Long>
+    implements SortedMap<Range<T>, Long> {
+
+  private final long[] edges;
+  private final long[] counts;
+  private final LongFunction<T> toBound;
+  private final ToLongFunction<T> toEdge;
+  //intervallo di bucket visibile: tutto l'istogramma oppure una sua vista (headMap, tailMap, subMap)
+  private final int from;
+  private final int to;
+  //unico bucket chiuso a destra, -1 se la vista da cui deriva l'istogramma non lo contiene
+  private final int lastBucket;
+
+  /**
+   * Builds a histogram from its edges and counts; the arrays are not copied.
+   *
+   * @param edges   strictly ascending bucket edges, one more than the counts
+   * @param counts  number of values in each bucket
+   * @param toBound conversion of an edge to a range bound
+   * @param toEdge  conversion of a range bound to an edge
+   */
+  public CompactHistogram(long[] edges, long[] counts, LongFunction<T> toBound, ToLongFunction<T> toEdge) {
+    this(edges, counts, toBound, toEdge, 0, counts.length, counts.length - 1);
+    if (counts.length > 0 && edges.length != counts.length + 1) {
+      throw new IllegalArgumentException("Expected " + (counts.length + 1) + " edges, got " + edges.length);
+    }
+  }
+
+  private CompactHistogram(long[] edges, long[] counts, LongFunction<T> toBound, ToLongFunction<T> toEdge,
+      int from, int to, int lastBucket) {
+    this.edges = edges;
+    this.counts = counts;
+    this.toBound = toBound;
+    this.toEdge = toEdge;
+    this.from = from;
+    this.to = to;
+    this.lastBucket = lastBucket;
+  }
+
+  /**
+   * Histogram of durations, with edges in nanoseconds.
+   *
+   * @param edgeNanos edges in nanoseconds
+   * @param counts    number of values in each bucket
+   * @return the histogram
+   */
+  public static CompactHistogram<Duration> ofDurations(long[] edgeNanos, long[] counts) {
+    return new CompactHistogram<>(edgeNanos, counts, Duration::ofNanos, Duration::toNanos);
+  }
+
+  /**
+   * Histogram of timestamps, with edges in seconds since the epoch (UTC).
+   *
+   * @param edgeSeconds edges in epoch seconds
+   * @param counts      number of values in each bucket
+   * @return the histogram
+   */
+  public static CompactHistogram<LocalDateTime> ofTimestamps(long[] edgeSeconds, long[] counts) {
+    return new CompactHistogram<>(edgeSeconds, counts, s -> LocalDateTime.ofEpochSecond(s, 0, ZoneOffset.UTC),
+        t -> t.toEpochSecond(ZoneOffset.UTC));
+  }
+
+  /**
+   * Histogram of numeric values.
+   *
+   * @param edges  edges
+   * @param counts number of values in each bucket
+   * @return the histogram
+   */
+  public static CompactHistogram<Double> ofValues(double[] edges, long[] counts) {
+    long[] encoded = new long[edges.length];
+    for (int i = 0; i < edges.length; i++) {
+      encoded[i] = encode(edges[i]);
+    }
+    return ofEncodedValues(encoded, counts);
+  }
+
+  /**
+   * Histogram of numeric values, with edges already encoded by
+   * {@link #encode(double)}.
+   *
+   * @param encodedEdges encoded edges
+   * @param counts       number of values in each bucket
+   * @return the histogram
+   */
+  static CompactHistogram<Double> ofEncodedValues(long[] encodedEdges, long[] counts) {
+    return new CompactHistogram<>(encodedEdges, counts, CompactHistogram::decode, CompactHistogram::encode);
+  }
+
+  //codifica di un double in un long con lo stesso ordinamento di Double.compareTo
+  static long encode(double value) {
+    long bits = Double.doubleToLongBits(value);
+    return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+  }
+
+  private static double decode(long encoded) {
+    return Double.longBitsToDouble(encoded ^ ((encoded >> 63) & Long.MAX_VALUE));
+  }
+
+  /**
+   * Adds the counts of another histogram with the same edges.
+   *
+   * @param other histogram to merge
+   * @return a new histogram with the summed counts
+   * @throws IllegalArgumentException if the two histograms have different
+   *                                  edges
+   */
+  public CompactHistogram<T> merge(CompactHistogram<T> other) {
+    if (!Arrays.equals(edges, from, to + 1, other.edges, other.from, other.to + 1)) {
+      throw new IllegalArgumentException("Histograms with different buckets cannot be merged");
+    }
+    long[] merged = new long[to - from];
+    for (int i = 0; i < merged.length; i++) {
+      merged[i] = counts[from + i] + other.counts[other.from + i];
+    }
+    //una vista che non arriva all'ultimo bucket ha anche l'ultima chiave aperta a destra
+    int mergedLast = lastBucket == to - 1 ? merged.length - 1 : -1;
+    return new CompactHistogram<>(Arrays.copyOfRange(edges, from, to + 1), merged, toBound, toEdge, 0,
+        merged.length, mergedLast);
+  }
+
+  /**
+   * @return total number of values in the histogram
+   */
+  public long getTotal() {
+    long total = 0;
+    for (int i = from; i < to; i++) {
+      total += counts[i];
+    }
+    return total;
+  }
+
+  private boolean isLast(int index) {
+    return index == lastBucket;
+  }
+
+  private RangeImplementation<T> key(int index) {
+    return new RangeImplementation<>(toBound.apply(edges[index]), toBound.apply(edges[index + 1]), isLast(index));
+  }
+
+  //indice del bucket che inizia esattamente da start, oppure -1
+  private int indexOfStart(T start) {
+    int position = Arrays.binarySearch(edges, from, to, toEdge.applyAsLong(start));
+    return position >= 0 ? position : -1;
+  }
+
+  //primo bucket della vista che inizia da start o dopo
+  private int lowerBound(Range<T> key) {
+    int position = Arrays.binarySearch(edges, from, to, toEdge.applyAsLong(key.getStart()));
+    return position >= 0 ? position : -position - 1;
+  }
+
+  @Override
+  public int size() {
+    return to - from;
+  }
+
+  @Override
+  public Long get(Object key) {
+    int index = indexOf(key);
+    return index < 0 ? null : counts[index];
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  private int indexOf(Object key) {
+    if (!(key instanceof Range<?> range) || range.getStart() == null) {
+      return -1;
+    }
+    try {
+      int index = indexOfStart((T) range.getStart());
+      return index >= 0 && key(index).equals(key) ? index : -1;
+    } catch (ClassCastException e) {
+      return -1;
+    }
+  }
+
+  @Override
+  public Set<Entry<Range<T>, Long>> entrySet() {
+    return new AbstractSet<>() {
+      @Override
+      public Iterator<Entry<Range<T>, Long>> iterator() {
+        return new Iterator<>() {
+          private int next = from;
+
+          @Override
+          public boolean hasNext() {
+            return next < to;
+          }
+
+          @Override
+          public Entry<Range<T>, Long> next() {
+            if (next >= to) {
+              throw new NoSuchElementException();
+            }
+            int index = next++;
+            return new AbstractMap.SimpleImmutableEntry<>(key(index), counts[index]);
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return to - from;
+      }
+    };
+  }
+
+  /**
+   * Keys are ordered by their natural ordering (bucket start).
+   *
+   * @return {@code null}
+   */
+  @Override
+  public Comparator<? super Range<T>> comparator() {
+    return null;
+  }
+
+  @Override
+  public SortedMap<Range<T>, Long> subMap(Range<T> fromKey, Range<T> toKey) {
+    int start = lowerBound(fromKey);
+    int end = lowerBound(toKey);
+    if (start > end) {
+      throw new IllegalArgumentException("fromKey > toKey");
+    }
+    return view(start, end);
+  }
+
+  @Override
+  public SortedMap<Range<T>, Long> headMap(Range<T> toKey) {
+    return view(from, lowerBound(toKey));
+  }
+
+  @Override
+  public SortedMap<Range<T>, Long> tailMap(Range<T> fromKey) {
+    return view(lowerBound(fromKey), to);
+  }
+
+  private CompactHistogram<T> view(int start, int end) {
+    return new CompactHistogram<>(edges, counts, toBound, toEdge, start, end, lastBucket);
+  }
+
+  @Override
+  public Range<T> firstKey() {
+    if (from == to) {
+      throw new NoSuchElementException();
+    }
+    return key(from);
+  }
+
+  @Override
+  public Range<T> lastKey() {
+    if (from == to) {
+      throw new NoSuchElementException();
+    }
+    return key(to - 1);
+  }
+
+}
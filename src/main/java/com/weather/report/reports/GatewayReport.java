@@ -1,6 +1,7 @@
 package com.weather.report.reports;
 
 import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.Collection;
 import java.util.Map;
 import java.util.SortedMap;
@@ -67,6 +68,52 @@ public interface GatewayReport extends Report<Duration> {
    */
   public double getBatteryChargePercentage();
 
+  /**
+   * Estimated median of the values measured by the gateway sensors in the
+   * requested interval. Percentiles are merged from the hourly sketches
+   * written with the measurements for the hours entirely within the interval;
+   * the hours cut by its bounds contribute their raw values, so no value
+   * outside the interval is counted. Where those raw values have already been
+   * rolled up by the retention policy, the partial hours are left out, as for
+   * the other counters of the report.
+   *
+   * @return estimated 50th percentile, 0 when no sketch covers the interval
+   */
+  public double getP50();
+
+  /**
+   * Estimated 90th percentile of the measured values, see {@link #getP50()}.
+   *
+   * @return estimated 90th percentile, 0 when no sketch covers the interval
+   */
+  public double getP90();
+
+  /**
+   * Estimated 99th percentile of the measured values, see {@link #getP50()}.
+   *
+   * @return estimated 99th percentile, 0 when no sketch covers the interval
+   */
+  public double getP99();
+
+  /**
+   * Returns the number of measurements of this gateway grouped into
+   * consecutive time buckets, with the effective interval, the hourly or daily
+   * buckets and the bucket convention described by
+   * {@link NetworkReport#getHistogram()} for a network.
+   *
+   * The counts are read from the minute, hour and day counts written with the
+   * measurements, using the coarsest whole units inside each bucket; only the
+   * sub-minute parts at the requested bounds are counted on the raw
+   * measurements. Measurements rolled up by the retention policy keep being
+   * counted, except in a partial minute at a bound.
+   *
+   * @return a sorted map where each key is a {@code Range<LocalDateTime>}
+   *         describing a time bucket and each value is the number of
+   *         measurements in that bucket, empty when there are no measurements
+   *         and a bound is missing
+   */
+  public SortedMap<Range<LocalDateTime>, Long> getTimeHistogram();
+
   /**
    * Returns a histogram of the inter-arrival times between consecutive
    * measurements of this gateway within the requested interval.
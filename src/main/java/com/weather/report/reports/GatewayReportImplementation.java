@@ -1,37 +1,75 @@
 package com.weather.report.reports;
 
 import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.Collection;
 import java.util.Map;
 import java.util.SortedMap;
+import java.util.function.Supplier;
 
+/**
+ * Gateway report whose sections are computed on first access and then kept.
+ * Callers reading only a few getters, such as the battery charge or the
+ * number of measurements, do not pay for the sections they do not read; the
+ * sections derived from the same scan of the measurements share it through
+ * the suppliers given by the caller.
+ * <p>
+ * The suppliers are expected to work on data already read, so that every
+ * section describes the same state of the measurements whenever it is first
+ * accessed.
+ */
 public class GatewayReportImplementation implements GatewayReport{
     //un report deve avere valori non più modificabili, solo leggibili con get
     private final String code;
     private final String startDate;
     private final String endDate;
-    private final long numberOfMeasurements;
-    private final Collection<String> mostActiveSensors;
-    private final Collection<String> leastActiveSensors;
-    private final Map<String, Double> sensorLoadRatio;
-    private final Collection<String> outlierSensors;
     private final double batteryChargePercentage;
-    private final SortedMap<Range<Duration>, Long> histogram;
+    //sezioni calcolate al primo accesso
+    private final Memoized<Long> numberOfMeasurements;
+    private final Memoized<Collection<String>> mostActiveSensors;
+    private final Memoized<Collection<String>> leastActiveSensors;
+    private final Memoized<Map<String, Double>> sensorLoadRatio;
+    private final Memoized<Collection<String>> outlierSensors;
+    private final Memoized<SortedMap<Range<Duration>, Long>> histogram;
+    private final Memoized<SortedMap<Range<LocalDateTime>, Long>> timeHistogram;
+    private final Memoized<double[]> percentiles;
 
     public GatewayReportImplementation(String code, String startDate, String endDate,
         long numberOfMeasurements, Collection<String> mostActiveSensors, Collection<String> leastActiveSensors,
         Map<String, Double> sensorLoadRatio, Collection<String> outlierSensor, double batteryChargePercentage, 
-        SortedMap<Range<Duration>, Long> histogram) {
+        SortedMap<Range<Duration>, Long> histogram, SortedMap<Range<LocalDateTime>, Long> timeHistogram,
+        QuantileSketch quantiles) {
+            this(code, startDate, endDate, batteryChargePercentage, Memoized.ofValue(numberOfMeasurements),
+                Memoized.ofValue(mostActiveSensors), Memoized.ofValue(leastActiveSensors), Memoized.ofValue(sensorLoadRatio),
+                Memoized.ofValue(outlierSensor), Memoized.ofValue(histogram), Memoized.ofValue(timeHistogram),
+                Memoized.ofValue(quantiles));
+        }
+
+    /**
+     * Builds a report whose sections are computed by the given suppliers on
+     * first access, at most once each.
+     */
+    public GatewayReportImplementation(String code, String startDate, String endDate, double batteryChargePercentage,
+        Supplier<Long> numberOfMeasurements, Supplier<Collection<String>> mostActiveSensors,
+        Supplier<Collection<String>> leastActiveSensors, Supplier<Map<String, Double>> sensorLoadRatio,
+        Supplier<Collection<String>> outlierSensors, Supplier<SortedMap<Range<Duration>, Long>> histogram,
+        Supplier<SortedMap<Range<LocalDateTime>, Long>> timeHistogram, Supplier<QuantileSketch> quantiles) {
             this.code = code;
             this.startDate = startDate;
             this.endDate = endDate;
-            this.numberOfMeasurements = numberOfMeasurements;
-            this.mostActiveSensors = mostActiveSensors;
-            this.leastActiveSensors = leastActiveSensors;
-            this.sensorLoadRatio = sensorLoadRatio;
-            this.outlierSensors = outlierSensor;
             this.batteryChargePercentage = batteryChargePercentage;
-            this.histogram = histogram;
+            this.numberOfMeasurements = Memoized.of(numberOfMeasurements);
+            this.mostActiveSensors = Memoized.of(mostActiveSensors);
+            this.leastActiveSensors = Memoized.of(leastActiveSensors);
+            this.sensorLoadRatio = Memoized.of(sensorLoadRatio);
+            this.outlierSensors = Memoized.of(outlierSensors);
+            this.histogram = Memoized.of(histogram);
+            this.timeHistogram = Memoized.of(timeHistogram);
+            //lo sketch viene interrogato una volta sola, dentro la memoizzazione: non è thread-safe
+            this.percentiles = Memoized.of(() -> {
+                QuantileSketch sketch = quantiles.get();
+                return new double[] { sketch.quantile(0.5), sketch.quantile(0.9), sketch.quantile(0.99) };
+            });
         }
 
 
@@ -52,27 +90,27 @@ public class GatewayReportImplementation implements GatewayReport{
 
     @Override
     public long getNumberOfMeasurements() {
-        return numberOfMeasurements;
+        return numberOfMeasurements.get();
     }
 
     @Override
     public Collection<String> getMostActiveSensors() {
-        return mostActiveSensors;
+        return mostActiveSensors.get();
     }
 
     @Override
     public Collection<String> getLeastActiveSensors() {
-        return leastActiveSensors;
+        return leastActiveSensors.get();
     }
 
     @Override
     public Map<String, Double> getSensorsLoadRatio() {
-        return sensorLoadRatio;
+        return sensorLoadRatio.get();
     }
 
     @Override
     public Collection<String> getOutlierSensors() {
-        return outlierSensors;
+        return outlierSensors.get();
     }
 
     @Override
@@ -82,7 +120,27 @@ public class GatewayReportImplementation implements GatewayReport{
 
     @Override
     public SortedMap<Range<Duration>, Long> getHistogram() {
-        return histogram;
+        return histogram.get();
+    }
+
+    @Override
+    public SortedMap<Range<LocalDateTime>, Long> getTimeHistogram() {
+        return timeHistogram.get();
+    }
+
+    @Override
+    public double getP50() {
+        return percentiles.get()[0];
+    }
+
+    @Override
+    public double getP90() {
+        return percentiles.get()[1];
+    }
+
+    @Override
+    public double getP99() {
+        return percentiles.get()[2];
     }
 
 }
@@ -0,0 +1,167 @@
+package com.weather.report.reports;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.weather.report.model.MeasurementValue;
+import com.weather.report.model.entities.MeasurementAggregate;
+
+/**
+ * Counters from which a gateway report is assembled: number of measurements
+ * and running mean of each sensor, plus the inter-arrival times between
+ * consecutive raw measurements, kept as the number of occurrences of each
+ * distinct duration.
+ * <p>
+ * The counters can be built from the measurements of an interval, or kept up
+ * to date by appending measurements in chronological order (see
+ * {@link #append(String, double, LocalDateTime)}), so that the all-time report
+ * does not need to read the measurements again.
+ */
+public final class GatewayStatistics {
+
+  private static final class SensorCounter {
+    private long count;
+    private double mean;
+
+    private void add(long otherCount, double otherMean) {
+      count += otherCount;
+      mean += (otherMean - mean) * otherCount / count;
+    }
+  }
+
+  private final Map<String, SensorCounter> sensors = new HashMap<>();
+  //durata in nanosecondi -> numero di occorrenze: gli intervalli tra le misurazioni si ripetono quasi sempre
+  private final Map<Long, Long> interArrivals = new HashMap<>();
+  private long numberOfMeasurements;
+  private long lastInstant;
+  private boolean hasLastInstant;
+
+  /**
+   * Builds the counters of an interval.
+   *
+   * @param measurements raw measurements in the interval, in any order
+   * @param aggregates   aggregates in the interval; they contribute to counts
+   *                     and means, not to the inter-arrival times
+   * @return the counters
+   */
+  public static GatewayStatistics of(List<MeasurementValue> measurements, List<MeasurementAggregate> aggregates) {
+    GatewayStatistics statistics = new GatewayStatistics();
+    long[] instants = new long[measurements.size()];
+    for (int i = 0; i < instants.length; i++) {
+      MeasurementValue measurement = measurements.get(i);
+      statistics.addValues(measurement.sensorCode(), 1, measurement.value());
+      instants[i] = toEpochNanos(measurement.timestamp());
+    }
+    for (MeasurementAggregate aggregate : aggregates) {
+      statistics.addValues(aggregate.getSensorCode(), aggregate.getCount(), aggregate.getMean());
+    }
+    Arrays.sort(instants);
+    for (long instant : instants) {
+      statistics.appendInstant(instant);
+    }
+    return statistics;
+  }
+
+  /**
+   * @return a copy of the counters, independent of later updates
+   */
+  public GatewayStatistics copy() {
+    GatewayStatistics copy = new GatewayStatistics();
+    sensors.forEach((code, counter) -> copy.addValues(code, counter.count, counter.mean));
+    copy.interArrivals.putAll(interArrivals);
+    copy.lastInstant = lastInstant;
+    copy.hasLastInstant = hasLastInstant;
+    return copy;
+  }
+
+  /**
+   * Adds a raw measurement taken at or after the last one added.
+   *
+   * @param sensorCode sensor code
+   * @param value      measured value
+   * @param timestamp  measurement timestamp
+   * @return {@code false}, leaving the counters unchanged, if the measurement
+   *         is older than the last one: its inter-arrival times cannot be
+   *         derived from the counters
+   */
+  public boolean append(String sensorCode, double value, LocalDateTime timestamp) {
+    long instant = toEpochNanos(timestamp);
+    if (hasLastInstant && instant < lastInstant) {
+      return false;
+    }
+    addValues(sensorCode, 1, value);
+    appendInstant(instant);
+    return true;
+  }
+
+  private void addValues(String sensorCode, long count, double mean) {
+    if (count == 0) {
+      return;
+    }
+    sensors.computeIfAbsent(sensorCode, code -> new SensorCounter()).add(count, mean);
+    numberOfMeasurements += count;
+  }
+
+  private void appendInstant(long instant) {
+    if (hasLastInstant) {
+      interArrivals.merge(instant - lastInstant, 1L, Long::sum);
+    }
+    lastInstant = instant;
+    hasLastInstant = true;
+  }
+
+  private static long toEpochNanos(LocalDateTime timestamp) {
+    return timestamp.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + timestamp.getNano();
+  }
+
+  public long getNumberOfMeasurements() {
+    return numberOfMeasurements;
+  }
+
+  public Set<String> getSensorCodes() {
+    return sensors.keySet();
+  }
+
+  /**
+   * @param sensorCode sensor code
+   * @return number of measurements of the sensor, 0 if unknown
+   */
+  public long getCount(String sensorCode) {
+    SensorCounter counter = sensors.get(sensorCode);
+    return counter == null ? 0 : counter.count;
+  }
+
+  /**
+   * @param sensorCode sensor code
+   * @return mean value measured by the sensor, 0 if unknown
+   */
+  public double getMean(String sensorCode) {
+    SensorCounter counter = sensors.get(sensorCode);
+    return counter == null ? 0 : counter.mean;
+  }
+
+  /**
+   * Histogram of the inter-arrival times between consecutive raw measurements.
+   *
+   * @param buckets number of buckets
+   * @return histogram, empty with fewer than two raw measurements
+   */
+  public CompactHistogram<Duration> getInterArrivalHistogram(int buckets) {
+    long[] nanos = new long[interArrivals.size()];
+    long[] weights = new long[nanos.length];
+    int i = 0;
+    for (Map.Entry<Long, Long> entry : interArrivals.entrySet()) {
+      nanos[i] = entry.getKey();
+      weights[i] = entry.getValue();
+      i++;
+    }
+    return HistogramBuilder.ofDurations(nanos, weights, nanos.length, buckets);
+  }
+
+}
@@ -0,0 +1,329 @@
+package com.weather.report.reports;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import com.weather.report.model.AggregationGranularity;
+import com.weather.report.reports.Report.Range;
+
+/**
+ * Builds the histograms of the reports in a single pass over primitive values.
+ * <p>
+ * The bucket of each value is computed arithmetically (or by binary search for
+ * buckets of different widths) instead of testing every bucket with
+ * {@link Range#contains(Object)}, so the cost is one pass over the values plus
+ * one pass over the buckets, with no boxing.
+ * <p>
+ * Buckets follow the {@link Range} convention: {@code [start, end)}, except
+ * the last one which is {@code [start, end]}. Histograms are returned as
+ * {@link CompactHistogram}s, with the same keys and counts as those built by
+ * testing every bucket. Buckets whose start equals their end are dropped,
+ * since no value can fall in them.
+ */
+public final class HistogramBuilder {
+
+  //intervallo massimo coperto da bucket orari nel report di rete, oltre si usano bucket giornalieri
+  private static final long HOURLY_SPAN_SECONDS = 48 * 3600L;
+
+  private HistogramBuilder() {
+    // utility class
+  }
+
+  /**
+   * Builds a histogram of durations with {@code buckets} equal-width buckets
+   * spanning {@code [min, max]} of the values.
+   *
+   * @param nanos   durations, in nanoseconds, not negative
+   * @param count   number of values to consider, from the start of the array
+   * @param buckets number of buckets
+   * @return histogram sorted by bucket start, empty if {@code count} is 0
+   */
+  public static CompactHistogram<Duration> ofDurations(long[] nanos, int count, int buckets) {
+    return ofDurations(nanos, null, count, buckets);
+  }
+
+  /**
+   * Builds a histogram of durations given as distinct values with their number
+   * of occurrences, with {@code buckets} equal-width buckets spanning
+   * {@code [min, max]} of the values. The result is the same as repeating each
+   * value as many times as its weight.
+   *
+   * @param nanos   durations, in nanoseconds, not negative
+   * @param weights occurrences of each duration, or {@code null} for one each
+   * @param count   number of values to consider, from the start of the arrays
+   * @param buckets number of buckets
+   * @return histogram sorted by bucket start, empty if {@code count} is 0
+   */
+  public static CompactHistogram<Duration> ofDurations(long[] nanos, long[] weights, int count, int buckets) {
+    if (count == 0) {
+      return CompactHistogram.ofDurations(new long[0], new long[0]);
+    }
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    for (int i = 0; i < count; i++) {
+      min = Math.min(min, nanos[i]);
+      max = Math.max(max, nanos[i]);
+    }
+    //larghezza troncata al nanosecondo, come Duration.dividedBy
+    long width = (max - min) / buckets;
+
+    long[] counts = new long[buckets];
+    for (int i = 0; i < count; i++) {
+      //con larghezza nulla tutti i bucket tranne l'ultimo sono vuoti
+      int index = width == 0 ? buckets - 1 : (int) Math.min((nanos[i] - min) / width, buckets - 1);
+      counts[index] += weights == null ? 1 : weights[i];
+    }
+
+    long[] edges = new long[buckets + 1];
+    for (int i = 0; i < buckets; i++) {
+      edges[i] = min + width * i;
+    }
+    edges[buckets] = max;
+    return withoutEmptyBuckets(edges, counts, CompactHistogram::ofDurations);
+  }
+
+  /**
+   * Builds a histogram of numeric values with {@code buckets} equal-width
+   * buckets spanning {@code [min, max]} of the values.
+   *
+   * @param values  values
+   * @param count   number of values to consider, from the start of the array
+   * @param buckets number of buckets
+   * @return histogram sorted by bucket start, empty if {@code count} is 0
+   */
+  public static CompactHistogram<Double> ofValues(double[] values, int count, int buckets) {
+    if (count == 0) {
+      return CompactHistogram.ofValues(new double[0], new long[0]);
+    }
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < count; i++) {
+      min = Math.min(min, values[i]);
+      max = Math.max(max, values[i]);
+    }
+    double width = (max - min) / buckets;
+
+    //estremi calcolati una volta sola: sono gli stessi usati come chiavi
+    double[] edges = new double[buckets + 1];
+    for (int i = 0; i < buckets; i++) {
+      edges[i] = min + width * i;
+    }
+    edges[buckets] = max;
+
+    long[] counts = new long[buckets];
+    for (int i = 0; i < count; i++) {
+      double value = values[i];
+      int index = width == 0 ? buckets - 1 : (int) Math.min((value - min) / width, buckets - 1);
+      //l'arrotondamento può spostare di un bucket i valori sui bordi: li riallineo agli estremi delle chiavi
+      while (index > 0 && value < edges[index]) {
+        index--;
+      }
+      while (index < buckets - 1 && value >= edges[index + 1]) {
+        index++;
+      }
+      counts[index]++;
+    }
+
+    //la codifica conserva ordine e uguaglianza degli estremi
+    long[] encodedEdges = new long[buckets + 1];
+    for (int i = 0; i <= buckets; i++) {
+      encodedEdges[i] = CompactHistogram.encode(edges[i]);
+    }
+    return withoutEmptyBuckets(encodedEdges, counts, CompactHistogram::ofEncodedValues);
+  }
+
+  /**
+   * Builds a histogram over buckets of possibly different widths, such as
+   * calendar hours or days truncated to the requested interval, with edges in
+   * epoch seconds. Bucket {@code i} is {@code [edges[i], edges[i + 1])}, the
+   * last one includes its end; values outside {@code [edges[0], edges[n]]} are
+   * ignored.
+   *
+   * @param epochSeconds timestamps, in seconds since the epoch (UTC)
+   * @param count        number of values to consider, from the start of the
+   *                     array
+   * @param edges        strictly ascending bucket edges, one more than the
+   *                     buckets
+   * @return histogram sorted by bucket start
+   */
+  public static CompactHistogram<LocalDateTime> ofTimestamps(long[] epochSeconds, int count, long[] edges) {
+    return CompactHistogram.ofTimestamps(edges, countTimestamps(epochSeconds, count, edges, 0));
+  }
+
+  /**
+   * Builds the hourly or daily histogram of a network report from the
+   * timestamps of its gateways, as described by
+   * {@link NetworkReport#getHistogram()}.
+   * <p>
+   * The effective interval is {@code [start, end]}, with missing bounds taken
+   * from the earliest and latest timestamp. Spans up to 48 hours get hourly
+   * buckets, longer ones daily buckets; the first and last bucket are
+   * truncated to the interval. The timestamps are counted as in
+   * {@link #ofTimestamps}, but since they are in UTC, where every hour and day
+   * has a fixed length, the bucket of a timestamp is
+   * {@code floor(t / unit) - floor(start / unit)} instead of a binary search:
+   * each gateway is counted in one pass into a dense {@code long[]}, gateways
+   * in parallel, and the arrays are then added up.
+   *
+   * @param epochSecondsByGateway timestamps of each gateway, in seconds since
+   *                              the epoch (UTC); values outside the interval
+   *                              are ignored
+   * @param start                 inclusive lower bound, {@code null} for the
+   *                              earliest timestamp
+   * @param end                   inclusive upper bound, {@code null} for the
+   *                              latest timestamp
+   * @return histogram sorted by bucket start, empty if a bound is missing and
+   *         there are no timestamps, or if {@code start} is after {@code end}
+   */
+  public static CompactHistogram<LocalDateTime> ofCalendarBuckets(List<long[]> epochSecondsByGateway,
+      LocalDateTime start, LocalDateTime end) {
+    long first;
+    long last;
+    if (start != null && end != null) {
+      first = start.toEpochSecond(ZoneOffset.UTC);
+      last = end.toEpochSecond(ZoneOffset.UTC);
+    } else {
+      //estremi effettivi: il primo passaggio serve solo se manca almeno un limite
+      long[] span = epochSecondsByGateway.parallelStream()
+          .map(seconds -> new long[] { Arrays.stream(seconds).min().orElse(Long.MAX_VALUE),
+              Arrays.stream(seconds).max().orElse(Long.MIN_VALUE) })
+          .reduce(new long[] { Long.MAX_VALUE, Long.MIN_VALUE },
+              (a, b) -> new long[] { Math.min(a[0], b[0]), Math.max(a[1], b[1]) });
+      if (span[0] > span[1]) {
+        return CompactHistogram.ofTimestamps(new long[0], new long[0]);
+      }
+      first = start != null ? start.toEpochSecond(ZoneOffset.UTC) : span[0];
+      last = end != null ? end.toEpochSecond(ZoneOffset.UTC) : span[1];
+    }
+    if (first > last) {
+      return CompactHistogram.ofTimestamps(new long[0], new long[0]);
+    }
+
+    long unit = granularityOf(first, last).getSeconds();
+    long[] edges = calendarEdges(first, last, unit);
+    long[] counts = epochSecondsByGateway.parallelStream()
+        .map(seconds -> countTimestamps(seconds, seconds.length, edges, unit))
+        .reduce((a, b) -> {
+          for (int i = 0; i < a.length; i++) {
+            a[i] += b[i];
+          }
+          return a;
+        })
+        .orElseGet(() -> new long[edges.length - 1]);
+    return CompactHistogram.ofTimestamps(edges, counts);
+  }
+
+  /**
+   * Granularity of the buckets {@link #ofCalendarBuckets} uses for an
+   * effective interval.
+   *
+   * @param start effective lower bound
+   * @param end   effective upper bound
+   * @return {@code HOUR} up to 48 hours, {@code DAY} otherwise
+   */
+  public static AggregationGranularity granularityOf(LocalDateTime start, LocalDateTime end) {
+    return granularityOf(start.toEpochSecond(ZoneOffset.UTC), end.toEpochSecond(ZoneOffset.UTC));
+  }
+
+  private static AggregationGranularity granularityOf(long first, long last) {
+    return last - first <= HOURLY_SPAN_SECONDS ? AggregationGranularity.HOUR : AggregationGranularity.DAY;
+  }
+
+  /**
+   * Edges of the buckets {@link #ofCalendarBuckets} uses for an effective
+   * interval: the interval bounds plus every hour or day start strictly
+   * inside it.
+   *
+   * @param start effective lower bound
+   * @param end   effective upper bound, not before {@code start}
+   * @return ascending edges in epoch seconds, one more than the buckets
+   */
+  public static long[] calendarEdges(LocalDateTime start, LocalDateTime end) {
+    long first = start.toEpochSecond(ZoneOffset.UTC);
+    long last = end.toEpochSecond(ZoneOffset.UTC);
+    return calendarEdges(first, last, granularityOf(first, last).getSeconds());
+  }
+
+  /**
+   * Edges of the calendar units intersecting {@code [first, last]}: the
+   * interval bounds plus every unit start strictly inside it.
+   */
+  private static long[] calendarEdges(long first, long last, long unit) {
+    long firstBoundary = Math.floorDiv(first, unit) * unit + unit;
+    int inner = firstBoundary >= last ? 0 : (int) ((last - firstBoundary - 1) / unit + 1);
+    long[] edges = new long[inner + 2];
+    edges[0] = first;
+    for (int i = 0; i < inner; i++) {
+      edges[i + 1] = firstBoundary + unit * i;
+    }
+    edges[inner + 1] = last;
+    return edges;
+  }
+
+  /**
+   * Counts the timestamps in each bucket of {@code edges}, with the last
+   * bucket including its end; values outside {@code [edges[0], edges[n]]} are
+   * ignored.
+   *
+   * @param unit length, in seconds, of the calendar units the inner edges fall
+   *             on, so that the bucket of a value is found by division, or 0
+   *             for arbitrary edges, searched in the array
+   */
+  private static long[] countTimestamps(long[] epochSeconds, int count, long[] edges, long unit) {
+    int buckets = Math.max(edges.length - 1, 0);
+    long[] counts = new long[buckets];
+    if (buckets == 0) {
+      return counts;
+    }
+    long first = edges[0];
+    long last = edges[buckets];
+    long firstUnit = unit == 0 ? 0 : Math.floorDiv(first, unit);
+    for (int i = 0; i < count; i++) {
+      long value = epochSeconds[i];
+      if (value < first || value > last) {
+        continue;
+      }
+      long index;
+      if (unit == 0) {
+        //indice del bucket con l'ultimo inizio <= value
+        int position = Arrays.binarySearch(edges, value);
+        index = position >= 0 ? position : -position - 2;
+      } else {
+        index = Math.floorDiv(value, unit) - firstUnit;
+      }
+      //l'estremo finale può coincidere con l'inizio di un bucket: resta nell'ultimo
+      counts[(int) Math.min(index, buckets - 1)]++;
+    }
+    return counts;
+  }
+
+  /**
+   * Removes the buckets that cannot hold any value because their start equals
+   * their end (only possible when the span is narrower than the bucket
+   * count), then builds the histogram from the remaining ones.
+   *
+   * @param edges   bucket edges, compacted in place
+   * @param counts  bucket counts, compacted in place
+   * @param factory histogram of the kept edges and counts
+   */
+  private static <T extends Comparable<? super T>> CompactHistogram<T> withoutEmptyBuckets(long[] edges,
+      long[] counts, BiFunction<long[], long[], CompactHistogram<T>> factory) {
+    int kept = 0;
+    for (int i = 0; i < counts.length; i++) {
+      boolean isLast = i == counts.length - 1;
+      if (!isLast && edges[i] == edges[i + 1]) {
+        continue;
+      }
+      edges[kept] = edges[i];
+      counts[kept] = counts[i];
+      kept++;
+    }
+    edges[kept] = edges[counts.length];
+    return factory.apply(Arrays.copyOf(edges, kept + 1), Arrays.copyOf(counts, kept));
+  }
+
+}
@@ -0,0 +1,64 @@
+package com.weather.report.reports;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Value computed on first access and then kept, so that the sections of a
+ * report that are never read cost nothing. Safe to share between threads:
+ * the value is computed at most once.
+ *
+ * @param <T> type of the value
+ */
+public final class Memoized<T> implements Supplier<T> {
+
+  private Supplier<T> supplier;
+  private volatile T value;
+  private volatile boolean computed;
+
+  private Memoized(Supplier<T> supplier) {
+    this.supplier = supplier;
+  }
+
+  /**
+   * @param supplier computation of the value, run at most once
+   * @return the memoized value
+   */
+  public static <T> Memoized<T> of(Supplier<T> supplier) {
+    return supplier instanceof Memoized<T> memoized ? memoized : new Memoized<>(Objects.requireNonNull(supplier));
+  }
+
+  /**
+   * @param value value already available
+   * @return a memoized value that needs no computation
+   */
+  public static <T> Memoized<T> ofValue(T value) {
+    Memoized<T> memoized = new Memoized<>(null);
+    memoized.value = value;
+    memoized.computed = true;
+    return memoized;
+  }
+
+  @Override
+  public T get() {
+    if (!computed) {
+      synchronized (this) {
+        if (!computed) {
+          value = supplier.get();
+          computed = true;
+          //la computazione può trattenere dati voluminosi: non serve più
+          supplier = null;
+        }
+      }
+    }
+    return value;
+  }
+
+  /**
+   * @return {@code true} if the value has already been computed
+   */
+  public boolean isComputed() {
+    return computed;
+  }
+
+}
@@ -0,0 +1,114 @@
+package com.weather.report.reports;
+
+import java.util.Arrays;
+
+/**
+ * Ring buffer of per-minute aggregates (count, mean, sum of squared
+ * deviations, minimum and maximum) over the last {@code capacity} minutes,
+ * for the rolling-window reports.
+ * <p>
+ * Minutes are numbered from the epoch and minute {@code m} lives in slot
+ * {@code m mod capacity}, tagged with {@code m}: a value of a later minute
+ * reuses the slot, a value of an earlier minute than the one in its slot has
+ * left the buffer and is dropped. Any window of at most {@code capacity}
+ * minutes is therefore summarised by merging at most {@code capacity} slots,
+ * whatever the number of measurements, and slots whose tag is outside the
+ * window are skipped, so the buffer never needs to be cleared as time moves
+ * on.
+ */
+public final class MinuteRing {
+
+  private static final long EMPTY = Long.MIN_VALUE;
+
+  private final long[] minutes;
+  private final long[] counts;
+  private final double[] means;
+  private final double[] sumsOfSquaredDeviations;
+  private final double[] minimums;
+  private final double[] maximums;
+
+  /**
+   * @param capacity number of minutes kept
+   */
+  public MinuteRing(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least one minute");
+    }
+    this.minutes = new long[capacity];
+    Arrays.fill(minutes, EMPTY);
+    this.counts = new long[capacity];
+    this.means = new double[capacity];
+    this.sumsOfSquaredDeviations = new double[capacity];
+    this.minimums = new double[capacity];
+    this.maximums = new double[capacity];
+  }
+
+  /**
+   * Adds a value to its minute.
+   *
+   * @param minute minutes since the epoch
+   * @param value  value to add
+   * @return {@code false} if the minute has already left the buffer
+   */
+  public boolean add(long minute, double value) {
+    int slot = (int) Math.floorMod(minute, (long) minutes.length);
+    if (minutes[slot] != minute) {
+      if (minutes[slot] > minute) {
+        return false;
+      }
+      minutes[slot] = minute;
+      counts[slot] = 0;
+      means[slot] = 0;
+      sumsOfSquaredDeviations[slot] = 0;
+      minimums[slot] = value;
+      maximums[slot] = value;
+    }
+    //aggiornamento di Welford, come in RunningStatistics
+    long count = ++counts[slot];
+    double delta = value - means[slot];
+    means[slot] += delta / count;
+    sumsOfSquaredDeviations[slot] += delta * (value - means[slot]);
+    minimums[slot] = Math.min(minimums[slot], value);
+    maximums[slot] = Math.max(maximums[slot], value);
+    return true;
+  }
+
+  /**
+   * Number of values added in the minutes {@code [first, last]}.
+   *
+   * @param first first minute of the window, inclusive
+   * @param last  last minute of the window, inclusive; at most
+   *              {@code capacity} minutes after {@code first}
+   * @return number of values
+   */
+  public long count(long first, long last) {
+    long total = 0;
+    for (long minute = Math.max(first, last - minutes.length + 1); minute <= last; minute++) {
+      int slot = (int) Math.floorMod(minute, (long) minutes.length);
+      if (minutes[slot] == minute) {
+        total += counts[slot];
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Statistics of the values added in the minutes {@code [first, last]}.
+   *
+   * @param first first minute of the window, inclusive
+   * @param last  last minute of the window, inclusive; at most
+   *              {@code capacity} minutes after {@code first}
+   * @return the statistics of the window
+   */
+  public RunningStatistics summarize(long first, long last) {
+    RunningStatistics statistics = new RunningStatistics();
+    for (long minute = Math.max(first, last - minutes.length + 1); minute <= last; minute++) {
+      int slot = (int) Math.floorMod(minute, (long) minutes.length);
+      if (minutes[slot] == minute) {
+        statistics.merge(counts[slot], means[slot], sumsOfSquaredDeviations[slot], minimums[slot], maximums[slot]);
+      }
+    }
+    return statistics;
+  }
+
+}
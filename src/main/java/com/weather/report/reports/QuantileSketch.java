@@ -0,0 +1,272 @@
+package com.weather.report.reports;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Mergeable sketch of a distribution of values, answering approximate quantile
+ * queries (merging t-digest, Dunning and Ertl).
+ * <p>
+ * Values are summarised by centroids (mean and weight), kept sorted by mean.
+ * Centroids near the median may hold many values, those in the tails only a
+ * few, so extreme quantiles such as p99 stay accurate: the size of a centroid
+ * is bounded by the {@code k1} scale function
+ * {@code k(q) = compression / (2 pi) * asin(2q - 1)}, which allows at most one
+ * unit of {@code k} per centroid. With the default compression of
+ * {@value #DEFAULT_COMPRESSION} a sketch has at most about 100 centroids,
+ * whatever the number of values, and the quantile error is typically well
+ * under 1% of rank in the middle and much less in the tails.
+ * <p>
+ * Sketches of disjoint sets of values merge into the sketch of their union,
+ * so the quantiles of a window are computed by merging the sketches of its
+ * hours instead of sorting the raw values. Sketches are serialised with
+ * {@link #toBytes()} to be stored.
+ */
+public final class QuantileSketch {
+
+  public static final double DEFAULT_COMPRESSION = 100;
+
+  private final double compression;
+  //centroidi ordinati per media
+  private double[] means;
+  private double[] weights;
+  private int centroids;
+  //valori (o centroidi di altri sketch) non ancora fusi
+  private double[] bufferMeans;
+  private double[] bufferWeights;
+  private int buffered;
+  private double totalWeight;
+  private double minimum = Double.POSITIVE_INFINITY;
+  private double maximum = Double.NEGATIVE_INFINITY;
+
+  public QuantileSketch() {
+    this(DEFAULT_COMPRESSION);
+  }
+
+  public QuantileSketch(double compression) {
+    this.compression = compression;
+    int capacity = (int) Math.ceil(compression) + 8;
+    this.means = new double[capacity];
+    this.weights = new double[capacity];
+    this.bufferMeans = new double[capacity * 5];
+    this.bufferWeights = new double[capacity * 5];
+  }
+
+  /**
+   * Adds a value.
+   *
+   * @param value value to add
+   * @return this sketch
+   */
+  public QuantileSketch add(double value) {
+    return add(value, 1);
+  }
+
+  private QuantileSketch add(double mean, double weight) {
+    if (buffered == bufferMeans.length) {
+      compress();
+    }
+    bufferMeans[buffered] = mean;
+    bufferWeights[buffered] = weight;
+    buffered++;
+    totalWeight += weight;
+    minimum = Math.min(minimum, mean);
+    maximum = Math.max(maximum, mean);
+    return this;
+  }
+
+  /**
+   * Adds the values summarised by another sketch.
+   *
+   * @param other sketch to merge, left unchanged
+   * @return this sketch
+   */
+  public QuantileSketch merge(QuantileSketch other) {
+    other.compress();
+    for (int i = 0; i < other.centroids; i++) {
+      add(other.means[i], other.weights[i]);
+    }
+    //gli estremi esatti dell'altro sketch possono non coincidere con le medie dei suoi centroidi
+    minimum = Math.min(minimum, other.minimum);
+    maximum = Math.max(maximum, other.maximum);
+    return this;
+  }
+
+  /**
+   * @return number of values summarised
+   */
+  public long getCount() {
+    return Math.round(totalWeight);
+  }
+
+  /**
+   * Estimates a quantile of the values.
+   *
+   * @param q quantile, between 0 and 1
+   * @return estimated value at quantile {@code q}, 0 if the sketch is empty
+   */
+  public double quantile(double q) {
+    if (q < 0 || q > 1) {
+      throw new IllegalArgumentException("Quantile must be between 0 and 1: " + q);
+    }
+    compress();
+    if (centroids == 0) {
+      return 0;
+    }
+    if (centroids == 1) {
+      return means[0];
+    }
+    double index = q * totalWeight;
+    //il primo e l'ultimo valore sono noti esattamente
+    if (index <= 0.5) {
+      return minimum;
+    }
+    if (index >= totalWeight - 0.5) {
+      return maximum;
+    }
+    //ogni centroide è centrato a metà del proprio peso: si interpola tra centri consecutivi
+    double weightSoFar = weights[0] / 2;
+    if (index < weightSoFar) {
+      return minimum + (means[0] - minimum) * (index - 0.5) / (weightSoFar - 0.5);
+    }
+    for (int i = 0; i < centroids - 1; i++) {
+      double step = (weights[i] + weights[i + 1]) / 2;
+      if (weightSoFar + step > index) {
+        double left = index - weightSoFar;
+        double right = weightSoFar + step - index;
+        return (means[i] * right + means[i + 1] * left) / step;
+      }
+      weightSoFar += step;
+    }
+    double last = means[centroids - 1];
+    double tail = totalWeight - 0.5 - weightSoFar;
+    return tail <= 0 ? last : last + (maximum - last) * (index - weightSoFar) / tail;
+  }
+
+  /**
+   * Merges the buffered values into the centroids.
+   */
+  private void compress() {
+    if (buffered == 0) {
+      return;
+    }
+    int total = centroids + buffered;
+    double[] allMeans = new double[total];
+    double[] allWeights = new double[total];
+    System.arraycopy(means, 0, allMeans, 0, centroids);
+    System.arraycopy(weights, 0, allWeights, 0, centroids);
+    System.arraycopy(bufferMeans, 0, allMeans, centroids, buffered);
+    System.arraycopy(bufferWeights, 0, allWeights, centroids, buffered);
+    sort(allMeans, allWeights, 0, total - 1);
+    buffered = 0;
+
+    //fusione greedy da sinistra: un centroide cresce finché copre al più un'unità di k
+    centroids = 0;
+    double currentMean = allMeans[0];
+    double currentWeight = allWeights[0];
+    double weightSoFar = 0;
+    double kLeft = scale(0);
+    for (int i = 1; i < total; i++) {
+      double proposed = currentWeight + allWeights[i];
+      if (scale((weightSoFar + proposed) / totalWeight) - kLeft <= 1) {
+        currentMean += (allMeans[i] - currentMean) * allWeights[i] / proposed;
+        currentWeight = proposed;
+      } else {
+        append(currentMean, currentWeight);
+        weightSoFar += currentWeight;
+        kLeft = scale(weightSoFar / totalWeight);
+        currentMean = allMeans[i];
+        currentWeight = allWeights[i];
+      }
+    }
+    append(currentMean, currentWeight);
+  }
+
+  private void append(double mean, double weight) {
+    if (centroids == means.length) {
+      means = java.util.Arrays.copyOf(means, centroids * 2);
+      weights = java.util.Arrays.copyOf(weights, centroids * 2);
+    }
+    means[centroids] = mean;
+    weights[centroids] = weight;
+    centroids++;
+  }
+
+  private double scale(double q) {
+    return compression / (2 * Math.PI) * Math.asin(2 * Math.min(1, q) - 1);
+  }
+
+  //quicksort dei centroidi per media, spostando insieme i pesi
+  private static void sort(double[] keys, double[] values, int low, int high) {
+    while (low < high) {
+      double pivot = keys[(low + high) >>> 1];
+      int i = low;
+      int j = high;
+      while (i <= j) {
+        while (keys[i] < pivot) {
+          i++;
+        }
+        while (keys[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          swap(keys, i, j);
+          swap(values, i, j);
+          i++;
+          j--;
+        }
+      }
+      //ricorsione sulla parte più piccola, iterazione sull'altra
+      if (j - low < high - i) {
+        sort(keys, values, low, j);
+        low = i;
+      } else {
+        sort(keys, values, i, high);
+        high = j;
+      }
+    }
+  }
+
+  private static void swap(double[] array, int i, int j) {
+    double tmp = array[i];
+    array[i] = array[j];
+    array[j] = tmp;
+  }
+
+  /**
+   * Serialises the sketch: compression, minimum, maximum, then the centroids
+   * as (mean, weight) pairs.
+   *
+   * @return serialised sketch
+   */
+  public byte[] toBytes() {
+    compress();
+    ByteBuffer buffer = ByteBuffer.allocate(Double.BYTES * 3 + Integer.BYTES + centroids * Double.BYTES * 2);
+    buffer.putDouble(compression).putDouble(minimum).putDouble(maximum).putInt(centroids);
+    for (int i = 0; i < centroids; i++) {
+      buffer.putDouble(means[i]).putDouble(weights[i]);
+    }
+    return buffer.array();
+  }
+
+  /**
+   * Reads a sketch serialised with {@link #toBytes()}.
+   *
+   * @param bytes serialised sketch
+   * @return the sketch
+   */
+  public static QuantileSketch fromBytes(byte[] bytes) {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    QuantileSketch sketch = new QuantileSketch(buffer.getDouble());
+    double minimum = buffer.getDouble();
+    double maximum = buffer.getDouble();
+    int centroids = buffer.getInt();
+    for (int i = 0; i < centroids; i++) {
+      sketch.append(buffer.getDouble(), buffer.getDouble());
+      sketch.totalWeight += sketch.weights[i];
+    }
+    sketch.minimum = minimum;
+    sketch.maximum = maximum;
+    return sketch;
+  }
+
+}
@@ -0,0 +1,17 @@
+package com.weather.report.reports;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Map;
+
+/// Activity of a gateway over the last minutes of imported data, maintained by
+/// the [RollingWindowService][com.weather.report.services.RollingWindowService].
+///
+/// The window covers the whole minutes in `[start, end)`, as for
+/// [RollingSensorReport]. Only the sensors with measurements in the window
+/// are ranked, and the load ratio of each sensor is its share of the
+/// measurements of the gateway, as in [GatewayReport].
+public record RollingGatewayReport(String code, LocalDateTime start, LocalDateTime end, long numberOfMeasurements,
+    double mean, double minimumMeasuredValue, double maximumMeasuredValue, Collection<String> mostActiveSensors,
+    Collection<String> leastActiveSensors, Map<String, Double> sensorsLoadRatio) {
+}
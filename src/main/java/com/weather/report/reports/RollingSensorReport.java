@@ -0,0 +1,14 @@
+package com.weather.report.reports;
+
+import java.time.LocalDateTime;
+
+/// Statistics of a sensor over the last minutes of imported data, maintained by
+/// the [RollingWindowService][com.weather.report.services.RollingWindowService].
+///
+/// The window covers the whole minutes in `[start, end)`, ending with the
+/// minute of the latest imported measurement; both bounds are `null` while no
+/// measurement has been imported. Mean, variance and standard deviation
+/// follow the conventions of [SensorReport].
+public record RollingSensorReport(String code, LocalDateTime start, LocalDateTime end, long numberOfMeasurements,
+    double mean, double variance, double stdDev, double minimumMeasuredValue, double maximumMeasuredValue) {
+}
@@ -0,0 +1,158 @@
+package com.weather.report.reports;
+
+import java.util.stream.IntStream;
+
+import com.weather.report.model.entities.MeasurementAggregate;
+
+/**
+ * One-pass accumulator of count, mean, sample variance, minimum and maximum.
+ * <p>
+ * Values are added with Welford's update and partial accumulators are combined
+ * with Chan's parallel formula, the same algorithms used by
+ * {@link MeasurementAggregate}: the sum of squared deviations from the running
+ * mean is kept instead of the sum of squares, so the variance does not suffer
+ * from cancellation when the values are large and close to each other.
+ */
+public final class RunningStatistics {
+
+  //sotto questa soglia dividere l'array in parti non ripaga il costo dei thread
+  private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+  private long count;
+  private double mean;
+  private double sumOfSquaredDeviations;
+  private double minimum = Double.POSITIVE_INFINITY;
+  private double maximum = Double.NEGATIVE_INFINITY;
+
+  /**
+   * Accumulates the first {@code count} values of an array with the
+   * {@link StatisticsKernel}, which needs two passes on the array but no
+   * division per value. Large arrays are split into chunks accumulated in
+   * parallel and then merged.
+   *
+   * @param values values
+   * @param count  number of values to consider, from the start of the array
+   * @return the statistics of the values
+   */
+  public static RunningStatistics of(double[] values, int count) {
+    if (count < PARALLEL_THRESHOLD) {
+      return StatisticsKernel.summarize(values, 0, count);
+    }
+    int chunks = (count + PARALLEL_THRESHOLD - 1) / PARALLEL_THRESHOLD;
+    return IntStream.range(0, chunks).parallel()
+        .mapToObj(chunk -> StatisticsKernel.summarize(values, chunk * PARALLEL_THRESHOLD,
+            Math.min(count, (chunk + 1) * PARALLEL_THRESHOLD)))
+        .reduce(RunningStatistics::merge)
+        .orElseGet(RunningStatistics::new);
+  }
+
+  /**
+   * Adds a single value (Welford update).
+   *
+   * @param value value to add
+   * @return this accumulator
+   */
+  public RunningStatistics add(double value) {
+    count++;
+    double delta = value - mean;
+    mean += delta / count;
+    sumOfSquaredDeviations += delta * (value - mean);
+    minimum = Math.min(minimum, value);
+    maximum = Math.max(maximum, value);
+    return this;
+  }
+
+  /**
+   * Adds the values in {@code [from, to)} of an array.
+   *
+   * @param values values
+   * @param from   first index, inclusive
+   * @param to     last index, exclusive
+   * @return this accumulator
+   */
+  public RunningStatistics addAll(double[] values, int from, int to) {
+    for (int i = from; i < to; i++) {
+      add(values[i]);
+    }
+    return this;
+  }
+
+  /**
+   * Merges another accumulator into this one (Chan et al.).
+   *
+   * @param other accumulator to merge, left unchanged
+   * @return this accumulator
+   */
+  public RunningStatistics merge(RunningStatistics other) {
+    return merge(other.count, other.mean, other.sumOfSquaredDeviations, other.minimum, other.maximum);
+  }
+
+  /**
+   * Merges the values summarised by an aggregate into this accumulator.
+   *
+   * @param aggregate aggregate to merge
+   * @return this accumulator
+   */
+  public RunningStatistics merge(MeasurementAggregate aggregate) {
+    return merge(aggregate.getCount(), aggregate.getMean(), aggregate.getSumOfSquaredDeviations(),
+        aggregate.getMinimum(), aggregate.getMaximum());
+  }
+
+  //usato anche da MinuteRing e StatisticsKernel, che producono gli stessi contatori
+  RunningStatistics merge(long otherCount, double otherMean, double otherSumOfSquaredDeviations,
+      double otherMinimum, double otherMaximum) {
+    if (otherCount == 0) {
+      return this;
+    }
+    long total = count + otherCount;
+    double delta = otherMean - mean;
+    sumOfSquaredDeviations += otherSumOfSquaredDeviations + delta * delta * count * otherCount / total;
+    mean += delta * otherCount / total;
+    count = total;
+    minimum = Math.min(minimum, otherMinimum);
+    maximum = Math.max(maximum, otherMaximum);
+    return this;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @return mean of the values, 0 when no value was added
+   */
+  public double getMean() {
+    return count == 0 ? 0 : mean;
+  }
+
+  /**
+   * @return sample variance of the values, 0 when fewer than two values were
+   *         added
+   */
+  public double getVariance() {
+    return count < 2 ? 0 : sumOfSquaredDeviations / (count - 1);
+  }
+
+  /**
+   * @return sample standard deviation of the values, 0 when fewer than two
+   *         values were added
+   */
+  public double getStdDev() {
+    return Math.sqrt(getVariance());
+  }
+
+  /**
+   * @return minimum value, 0 when no value was added
+   */
+  public double getMinimum() {
+    return count == 0 ? 0 : minimum;
+  }
+
+  /**
+   * @return maximum value, 0 when no value was added
+   */
+  public double getMaximum() {
+    return count == 0 ? 0 : maximum;
+  }
+
+}
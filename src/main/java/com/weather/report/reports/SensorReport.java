@@ -56,6 +56,28 @@ public interface SensorReport extends Report<Double> {
    */
   public double getMaximumMeasuredValue();
 
+  /**
+   * Estimated median of the measurements in the requested interval, from a
+   * {@link QuantileSketch} of the values.
+   *
+   * @return estimated 50th percentile, 0 when no measurements are available
+   */
+  public double getP50();
+
+  /**
+   * Estimated 90th percentile of the measurements in the requested interval.
+   *
+   * @return estimated 90th percentile, 0 when no measurements are available
+   */
+  public double getP90();
+
+  /**
+   * Estimated 99th percentile of the measurements in the requested interval.
+   *
+   * @return estimated 99th percentile, 0 when no measurements are available
+   */
+  public double getP99();
+
   /**
    * Measurements considered outliers in the requested interval.
    *
@@ -0,0 +1,177 @@
+package com.weather.report.reports;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+
+import com.weather.report.model.entities.Measurement;
+
+public class SensorReportImplementation implements SensorReport {
+  private static final int BUCKETS_NUMBER = 20;
+
+  //un report deve avere valori non più modificabili, solo leggibili con get
+  private final String code;
+  private final String startDate;
+  private final String endDate;
+  private final RunningStatistics statistics;
+  private final List<Measurement> outliers;
+  private final SortedMap<Range<Double>, Long> histogram;
+  private final double p50;
+  private final double p90;
+  private final double p99;
+
+  public SensorReportImplementation(String code, String startDate, String endDate, RunningStatistics statistics,
+      List<Measurement> outliers, SortedMap<Range<Double>, Long> histogram, QuantileSketch quantiles) {
+    this.code = code;
+    this.startDate = startDate;
+    this.endDate = endDate;
+    this.statistics = statistics;
+    this.outliers = outliers;
+    this.histogram = histogram;
+    //i percentili sono calcolati subito: il report può essere condiviso tra più thread
+    this.p50 = quantiles.quantile(0.5);
+    this.p90 = quantiles.quantile(0.9);
+    this.p99 = quantiles.quantile(0.99);
+  }
+
+  /**
+   * Computes the report of a sensor from its measurements in two passes.
+   * <p>
+   * The first pass copies the values into a {@code double[]}; count, mean,
+   * variance, minimum and maximum are then computed on the array by the
+   * {@link StatisticsKernel}, which also marks the outliers in a bitset. Only
+   * when some are marked does a second pass collect them and compact the
+   * remaining values in place for the histogram. The percentiles come from a
+   * sketch of the values, built in the first pass.
+   *
+   * @param code         sensor code
+   * @param startDate    lower bound as received, or {@code null}
+   * @param endDate      upper bound as received, or {@code null}
+   * @param measurements measurements of the sensor in the interval
+   * @return the report
+   */
+  public static SensorReportImplementation of(String code, String startDate, String endDate,
+      List<Measurement> measurements) {
+    return of(code, startDate, endDate, measurements, null);
+  }
+
+  /**
+   * Computes the report of a sensor as {@link #of(String, String, String, List)},
+   * taking the percentiles from a sketch already available, such as the merge
+   * of the stored hourly sketches of the interval.
+   *
+   * @param code         sensor code
+   * @param startDate    lower bound as received, or {@code null}
+   * @param endDate      upper bound as received, or {@code null}
+   * @param measurements measurements of the sensor in the interval
+   * @param quantiles    sketch of the values in the interval, or {@code null} to
+   *                     build it from the measurements
+   * @return the report
+   */
+  public static SensorReportImplementation of(String code, String startDate, String endDate,
+      List<Measurement> measurements, QuantileSketch quantiles) {
+    int count = measurements.size();
+    double[] values = new double[count];
+    QuantileSketch sketch = quantiles != null ? quantiles : new QuantileSketch();
+    for (int i = 0; i < count; i++) {
+      values[i] = measurements.get(i).getValue();
+      if (quantiles == null) {
+        sketch.add(values[i]);
+      }
+    }
+    RunningStatistics statistics = RunningStatistics.of(values, count);
+
+    double threshold = 2.0 * statistics.getStdDev();
+    List<Measurement> outliers = new ArrayList<>();
+    int kept = count;
+    //con deviazione standard nulla (meno di due misurazioni o valori tutti uguali) non ci sono outlier
+    if (threshold > 0) {
+      long[] mask = new long[StatisticsKernel.maskLength(count)];
+      if (StatisticsKernel.thresholdMask(values, 0, count, statistics.getMean(), threshold, mask) > 0) {
+        //solo se ci sono outlier i valori restanti vengono compattati per l'istogramma
+        kept = 0;
+        for (int i = 0; i < count; i++) {
+          if (StatisticsKernel.isSet(mask, i)) {
+            outliers.add(measurements.get(i));
+          } else {
+            values[kept++] = values[i];
+          }
+        }
+      }
+    }
+
+    return new SensorReportImplementation(code, startDate, endDate, statistics, outliers,
+        HistogramBuilder.ofValues(values, kept, BUCKETS_NUMBER), sketch);
+  }
+
+  @Override
+  public String getCode() {
+    return code;
+  }
+
+  @Override
+  public String getStartDate() {
+    return startDate;
+  }
+
+  @Override
+  public String getEndDate() {
+    return endDate;
+  }
+
+  @Override
+  public long getNumberOfMeasurements() {
+    return statistics.getCount();
+  }
+
+  @Override
+  public double getMean() {
+    return statistics.getMean();
+  }
+
+  @Override
+  public double getVariance() {
+    return statistics.getVariance();
+  }
+
+  @Override
+  public double getStdDev() {
+    return statistics.getStdDev();
+  }
+
+  @Override
+  public double getMinimumMeasuredValue() {
+    return statistics.getMinimum();
+  }
+
+  @Override
+  public double getMaximumMeasuredValue() {
+    return statistics.getMaximum();
+  }
+
+  @Override
+  public double getP50() {
+    return p50;
+  }
+
+  @Override
+  public double getP90() {
+    return p90;
+  }
+
+  @Override
+  public double getP99() {
+    return p99;
+  }
+
+  @Override
+  public List<Measurement> getOutliers() {
+    return outliers;
+  }
+
+  @Override
+  public SortedMap<Range<Double>, Long> getHistogram() {
+    return histogram;
+  }
+
+}
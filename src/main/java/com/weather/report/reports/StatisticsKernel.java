@@ -0,0 +1,177 @@
+package com.weather.report.reports;
+
+import java.util.Arrays;
+
+/**
+ * Numeric kernels over {@code double[]} columns of values: sum, sum of
+ * squares around a centre, minimum, maximum and threshold masks, the loops
+ * behind the sensor statistics and the outlier checks.
+ * <p>
+ * Each kernel has two implementations with the same results up to the
+ * rounding of the sums: explicit SIMD code written with the Vector API
+ * ({@link VectorStatisticsKernel}) and plain scalar loops. The Vector API is
+ * an incubator module, so the SIMD path is used only when the JVM is started
+ * with {@code --add-modules jdk.incubator.vector} and the
+ * {@value #VECTOR_PROPERTY} system property is not {@code false}; otherwise
+ * the scalar loops are used.
+ * <p>
+ * Masks are bitsets with one bit per value, bit {@code i mod 64} of word
+ * {@code i / 64} for the value at offset {@code i} from the start of the
+ * range, see {@link #maskLength(int)} and {@link #isSet(long[], int)}.
+ */
+public final class StatisticsKernel {
+
+  /**
+   * System property that disables the SIMD kernels when set to {@code false}.
+   */
+  public static final String VECTOR_PROPERTY = "weatherreport.kernel.vector";
+
+  private static final boolean VECTORIZED = Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true"))
+      && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+  private StatisticsKernel() {
+    // utility class
+  }
+
+  /**
+   * @return {@code true} if the kernels run on the Vector API, {@code false}
+   *         if they fall back to the scalar loops
+   */
+  public static boolean isVectorized() {
+    return VECTORIZED;
+  }
+
+  /**
+   * Count, mean, sample variance, minimum and maximum of the values in
+   * {@code [from, to)}, with the corrected two-pass algorithm: the first pass
+   * sums the values and finds the extremes, the second sums the squared
+   * deviations from the mean, corrected by the rounding error of the mean.
+   *
+   * @param values values
+   * @param from   first index, inclusive
+   * @param to     last index, exclusive
+   * @return the statistics of the values
+   */
+  public static RunningStatistics summarize(double[] values, int from, int to) {
+    RunningStatistics statistics = new RunningStatistics();
+    int count = to - from;
+    if (count <= 0) {
+      return statistics;
+    }
+    double[] sumMinMax = VECTORIZED ? VectorStatisticsKernel.sumMinMax(values, from, to)
+        : scalarSumMinMax(values, from, to);
+    double mean = sumMinMax[0] / count;
+
+    //la somma degli scarti sarebbe 0 in aritmetica esatta: il suo resto corregge l'errore della media
+    double residual = sum(values, from, to, mean);
+    double sumOfSquaredDeviations = Math.max(0, sumOfSquares(values, from, to, mean) - residual * residual / count);
+    return statistics.merge(count, mean, sumOfSquaredDeviations, sumMinMax[1], sumMinMax[2]);
+  }
+
+  private static double[] scalarSumMinMax(double[] values, int from, int to) {
+    double sum = 0;
+    double minimum = Double.POSITIVE_INFINITY;
+    double maximum = Double.NEGATIVE_INFINITY;
+    for (int i = from; i < to; i++) {
+      sum += values[i];
+      minimum = Math.min(minimum, values[i]);
+      maximum = Math.max(maximum, values[i]);
+    }
+    return new double[] { sum, minimum, maximum };
+  }
+
+  /**
+   * @param values values
+   * @param from   first index, inclusive
+   * @param to     last index, exclusive
+   * @return sum of the values in {@code [from, to)}
+   */
+  public static double sum(double[] values, int from, int to) {
+    return sum(values, from, to, 0);
+  }
+
+  /**
+   * @param values values
+   * @param from   first index, inclusive
+   * @param to     last index, exclusive
+   * @param centre value subtracted from each value
+   * @return sum of {@code values[i] - centre} over {@code [from, to)}
+   */
+  public static double sum(double[] values, int from, int to, double centre) {
+    if (VECTORIZED) {
+      return VectorStatisticsKernel.sum(values, from, to, centre);
+    }
+    double sum = 0;
+    for (int i = from; i < to; i++) {
+      sum += values[i] - centre;
+    }
+    return sum;
+  }
+
+  /**
+   * @param values values
+   * @param from   first index, inclusive
+   * @param to     last index, exclusive
+   * @param centre value subtracted from each value before squaring, such as
+   *               the mean to get the sum of squared deviations
+   * @return sum of {@code (values[i] - centre)^2} over {@code [from, to)}
+   */
+  public static double sumOfSquares(double[] values, int from, int to, double centre) {
+    if (VECTORIZED) {
+      return VectorStatisticsKernel.sumOfSquares(values, from, to, centre);
+    }
+    double sum = 0;
+    for (int i = from; i < to; i++) {
+      double deviation = values[i] - centre;
+      sum += deviation * deviation;
+    }
+    return sum;
+  }
+
+  /**
+   * Marks the values that differ from a centre by at least a threshold, as
+   * the outliers of a sensor ({@code |x - mean| >= 2 stdDev}) or the outlier
+   * sensors of a gateway.
+   *
+   * @param values    values
+   * @param from      first index, inclusive
+   * @param to        last index, exclusive
+   * @param centre    reference value
+   * @param threshold minimum distance from the centre
+   * @param mask      bitset of at least {@link #maskLength(int)} words for
+   *                  {@code to - from} values, overwritten
+   * @return number of values marked
+   */
+  public static int thresholdMask(double[] values, int from, int to, double centre, double threshold, long[] mask) {
+    if (VECTORIZED) {
+      return VectorStatisticsKernel.thresholdMask(values, from, to, centre, threshold, mask);
+    }
+    Arrays.fill(mask, 0, maskLength(to - from), 0L);
+    int marked = 0;
+    for (int i = from; i < to; i++) {
+      if (Math.abs(values[i] - centre) >= threshold) {
+        mask[(i - from) >>> 6] |= 1L << (i - from);
+        marked++;
+      }
+    }
+    return marked;
+  }
+
+  /**
+   * @param count number of values
+   * @return number of words of the mask of {@code count} values
+   */
+  public static int maskLength(int count) {
+    return (count + Long.SIZE - 1) / Long.SIZE;
+  }
+
+  /**
+   * @param mask  bitset filled by {@link #thresholdMask}
+   * @param index offset of the value from the start of the range
+   * @return {@code true} if the value is marked
+   */
+  public static boolean isSet(long[] mask, int index) {
+    return (mask[index >>> 6] & (1L << index)) != 0;
+  }
+
+}
@@ -0,0 +1,102 @@
+package com.weather.report.reports;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD implementation of the {@link StatisticsKernel} loops with the Vector
+ * API, on the widest vectors the processor supports. Each loop processes one
+ * vector of values per iteration into lane-wise accumulators, reduced at the
+ * end; the last {@code length mod lanes} values go through a scalar loop.
+ * <p>
+ * Only loaded when {@link StatisticsKernel#isVectorized()} holds, so the
+ * incubator module is never needed by the scalar path.
+ */
+final class VectorStatisticsKernel {
+
+  private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+  private VectorStatisticsKernel() {
+    // utility class
+  }
+
+  /**
+   * @return sum, minimum and maximum of the values in {@code [from, to)}
+   */
+  static double[] sumMinMax(double[] values, int from, int to) {
+    DoubleVector sums = DoubleVector.zero(SPECIES);
+    DoubleVector minima = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+    DoubleVector maxima = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+    int i = from;
+    for (int upper = from + SPECIES.loopBound(to - from); i < upper; i += SPECIES.length()) {
+      DoubleVector vector = DoubleVector.fromArray(SPECIES, values, i);
+      sums = sums.add(vector);
+      minima = minima.min(vector);
+      maxima = maxima.max(vector);
+    }
+    double sum = sums.reduceLanes(VectorOperators.ADD);
+    double minimum = minima.reduceLanes(VectorOperators.MIN);
+    double maximum = maxima.reduceLanes(VectorOperators.MAX);
+    for (; i < to; i++) {
+      sum += values[i];
+      minimum = Math.min(minimum, values[i]);
+      maximum = Math.max(maximum, values[i]);
+    }
+    return new double[] { sum, minimum, maximum };
+  }
+
+  static double sum(double[] values, int from, int to, double centre) {
+    DoubleVector sums = DoubleVector.zero(SPECIES);
+    int i = from;
+    for (int upper = from + SPECIES.loopBound(to - from); i < upper; i += SPECIES.length()) {
+      sums = sums.add(DoubleVector.fromArray(SPECIES, values, i).sub(centre));
+    }
+    double sum = sums.reduceLanes(VectorOperators.ADD);
+    for (; i < to; i++) {
+      sum += values[i] - centre;
+    }
+    return sum;
+  }
+
+  static double sumOfSquares(double[] values, int from, int to, double centre) {
+    DoubleVector sums = DoubleVector.zero(SPECIES);
+    int i = from;
+    for (int upper = from + SPECIES.loopBound(to - from); i < upper; i += SPECIES.length()) {
+      DoubleVector deviations = DoubleVector.fromArray(SPECIES, values, i).sub(centre);
+      sums = sums.add(deviations.mul(deviations));
+    }
+    double sum = sums.reduceLanes(VectorOperators.ADD);
+    for (; i < to; i++) {
+      double deviation = values[i] - centre;
+      sum += deviation * deviation;
+    }
+    return sum;
+  }
+
+  static int thresholdMask(double[] values, int from, int to, double centre, double threshold, long[] mask) {
+    int marked = 0;
+    int word = 0;
+    int start = from;
+    //le corsie sono una potenza di due non oltre 64: ogni parola della maschera raccoglie vettori interi
+    for (; start <= to - Long.SIZE; start += Long.SIZE) {
+      long bits = 0;
+      for (int j = 0; j < Long.SIZE; j += SPECIES.length()) {
+        bits |= DoubleVector.fromArray(SPECIES, values, start + j).sub(centre).abs()
+            .compare(VectorOperators.GE, threshold).toLong() << j;
+      }
+      mask[word++] = bits;
+      marked += Long.bitCount(bits);
+    }
+    if (start < to) {
+      long bits = 0;
+      for (int i = start; i < to; i++) {
+        bits |= (Math.abs(values[i] - centre) >= threshold ? 1L : 0L) << (i - start);
+      }
+      mask[word] = bits;
+      marked += Long.bitCount(bits);
+    }
+    return marked;
+  }
+
+}
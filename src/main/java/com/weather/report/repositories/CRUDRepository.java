@@ -1,12 +1,18 @@
 package com.weather.report.repositories;
 
+import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
+import org.hibernate.jpa.HibernateHints;
+
 import com.weather.report.persistence.PersistenceManager;
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EntityManager;
-import jakarta.persistence.EntityTransaction;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.TypedQuery;
 
 /**
  * Generic repository exposing basic CRUD operations backed by the persistence
@@ -21,8 +27,39 @@ import jakarta.persistence.EntityTransaction;
  */
 public class CRUDRepository<T, ID> {
 
+  /**
+   * Suffix of the name of the query, declared on the entity with
+   * {@link NamedQuery}, that returns all the instances of the entity.
+   */
+  public static final String FIND_ALL = ".findAll";
+
+  /**
+   * Suffix of the name of the query, declared on the entity with
+   * {@link NamedQuery}, that counts the instances of the entity.
+   */
+  public static final String COUNT = ".count";
+
+  /**
+   * Lower bound used in place of a missing start of a time range, so that
+   * every time range lookup can run the same named query.
+   */
+  protected static final LocalDateTime MIN_TIMESTAMP = LocalDateTime.of(1, 1, 1, 0, 0);
+
+  /**
+   * Upper bound used in place of a missing end of a time range.
+   */
+  protected static final LocalDateTime MAX_TIMESTAMP = LocalDateTime.of(9999, 12, 31, 23, 59, 59);
+
   protected Class<T> entityClass;
 
+  //metadati dell'entità risolti una sola volta alla costruzione del repository
+  private final String entityName;
+  private final boolean cacheable;
+  private final boolean namedFindAll;
+  private final boolean namedCount;
+  private final String findAllQuery;
+  private final String countQuery;
+
   /**
    * Builds a repository for the given entity class.
    *
@@ -31,6 +68,23 @@ public class CRUDRepository<T, ID> {
   public CRUDRepository(Class<T> entityClass) {
     Objects.requireNonNull(entityClass);
     this.entityClass = entityClass;
+    Entity ea = entityClass.getAnnotation(jakarta.persistence.Entity.class);
+    if (ea == null) {
+      this.entityName = null;
+    } else {
+      this.entityName = ea.name().isEmpty() ? entityClass.getSimpleName() : ea.name();
+    }
+    this.cacheable = entityClass.isAnnotationPresent(Cacheable.class);
+    //se l'entità non dichiara le query con nome si usa una query costruita una sola volta
+    this.namedFindAll = declaresNamedQuery(entityName + FIND_ALL);
+    this.namedCount = declaresNamedQuery(entityName + COUNT);
+    this.findAllQuery = "SELECT e FROM " + entityName + " e";
+    this.countQuery = "SELECT COUNT(e) FROM " + entityName + " e";
+  }
+
+  private boolean declaresNamedQuery(String name) {
+    return Arrays.stream(entityClass.getAnnotationsByType(NamedQuery.class))
+        .anyMatch(namedQuery -> namedQuery.name().equals(name));
   }
 
   /**
@@ -40,34 +94,74 @@ public class CRUDRepository<T, ID> {
    * @return the name of the entity (to be used in queries)
    */
   protected String getEntityName() {
-    Entity ea = entityClass.getAnnotation(jakarta.persistence.Entity.class);
-    if (ea == null)
+    if (entityName == null)
       throw new IllegalArgumentException("Class " + this.entityClass.getName() + " must be annotated as @Entity");
-    if (ea.name().isEmpty())
-      return this.entityClass.getSimpleName();
-    return ea.name();
+    return entityName;
   }
 
   /**
-   * Persists a new entity instance.
+   * Tells whether the managed entity is stored in the second-level cache, in
+   * which case the lookups of this repository also use the query cache.
+   *
+   * @return {@code true} if the entity class is annotated as {@link Cacheable}
+   */
+  protected boolean isCacheable() {
+    return cacheable;
+  }
+
+  /**
+   * Creates the query registered under the given name, as declared with
+   * {@link NamedQuery} on the entity. Named queries are checked and compiled
+   * once when the persistence unit starts.
+   *
+   * @param <R>         type of the result
+   * @param em          entity manager to create the query with
+   * @param name        name of the query
+   * @param resultClass type of the result
+   * @return the query, ready to be bound
+   */
+  protected <R> TypedQuery<R> namedQuery(EntityManager em, String name, Class<R> resultClass) {
+    return em.createNamedQuery(name, resultClass);
+  }
+
+  /**
+   * Hook invoked on every entity returned by the read operations while its
+   * entity manager is still open, so that lazy associations needed by callers
+   * of a detached entity can be initialised. Does nothing by default.
+   *
+   * @param entity entity just read
+   */
+  protected void loadAssociations(T entity) {
+    // no lazy associations to initialise by default
+  }
+
+  /**
+   * Persists a new entity instance. When a unit of work is open on the current
+   * thread the entity joins it, otherwise it is committed immediately.
    *
    * @param entity entity to persist
    * @return persisted entity
    */
   public T create(T entity) {
-    EntityManager em = PersistenceManager.getEntityManager();
-    EntityTransaction tx = em.getTransaction();
-    try {
-        tx.begin();
-        em.persist(entity);
-        tx.commit();
-        return entity;
-    } catch (Exception e) {
-        if (tx.isActive()) tx.rollback();
-        throw e;
-    } finally {
-        PersistenceManager.closeEntityManager();
-    }
+    return PersistenceManager.inTransaction(() -> {
+      PersistenceManager.getEntityManager().persist(entity);
+      return entity;
+    });
+  }
+
+  /**
+   * Creates the query registered under the given name for a read-only use:
+   * entities it returns are not snapshotted nor dirty checked, since they are
+   * never written back. Queries returning projections do not need it.
+   *
+   * @param <R>         type of the result
+   * @param em          entity manager to create the query with
+   * @param name        name of the query
+   * @param resultClass type of the result
+   * @return the query, ready to be bound
+   */
+  protected <R> TypedQuery<R> readOnlyQuery(EntityManager em, String name, Class<R> resultClass) {
+    return namedQuery(em, name, resultClass).setHint(HibernateHints.HINT_READ_ONLY, true);
   }
 
   /**
@@ -80,6 +174,9 @@ public class CRUDRepository<T, ID> {
     EntityManager entityManager = PersistenceManager.getEntityManager();
     try {
       T t = entityManager.find(entityClass, id);
+      if (t != null) {
+        loadAssociations(t);
+      }
       return t;
     } finally {
       PersistenceManager.closeEntityManager();
@@ -94,61 +191,68 @@ public class CRUDRepository<T, ID> {
   public List<T> read() {
     EntityManager em = PersistenceManager.getEntityManager();
     try {
-        return em.createQuery("SELECT e FROM " + getEntityName() + " e", entityClass).getResultList();
+        String name = getEntityName();
+        TypedQuery<T> query = namedFindAll
+            ? namedQuery(em, name + FIND_ALL, entityClass)
+            : em.createQuery(findAllQuery, entityClass);
+        if (isCacheable()) {
+          //le entità di riferimento sono lette molto più spesso di quanto vengano scritte
+          query.setHint(HibernateHints.HINT_CACHEABLE, true);
+        }
+        List<T> result = query.getResultList();
+        result.forEach(this::loadAssociations);
+        return result;
     } finally {
         PersistenceManager.closeEntityManager();
     }
   }
 
   /**
-   * Updates an existing entity.
+   * Counts the entities of the managed type.
    *
-   * @param entity entity with new state
-   * @return updated entity
+   * @return number of entities
    */
-  public T update(T entity) {
-    EntityManager entityManager = PersistenceManager.getEntityManager();
-    EntityTransaction transaction = entityManager.getTransaction();
-
+  public long count() {
+    EntityManager em = PersistenceManager.getEntityManager();
     try {
-      transaction.begin();
-      T mergedEntity = entityManager.merge(entity);
-      transaction.commit();
-      return mergedEntity;
-    } catch (RuntimeException e) {
-      if (transaction.isActive()) {
-        transaction.rollback();
-      }
-      throw e;
+        String name = getEntityName();
+        TypedQuery<Long> query = namedCount
+            ? namedQuery(em, name + COUNT, Long.class)
+            : em.createQuery(countQuery, Long.class);
+        return query.getSingleResult();
     } finally {
-      PersistenceManager.closeEntityManager();
+        PersistenceManager.closeEntityManager();
     }
   }
 
   /**
-   * Deletes an entity by identifier (primary key).
+   * Updates an existing entity. When a unit of work is open on the current
+   * thread the change joins it, otherwise it is committed immediately.
+   *
+   * @param entity entity with new state
+   * @return updated entity
+   */
+  public T update(T entity) {
+    return PersistenceManager.inTransaction(() -> PersistenceManager.getEntityManager().merge(entity));
+  }
+
+  /**
+   * Deletes an entity by identifier (primary key). When a unit of work is open
+   * on the current thread the removal joins it, otherwise it is committed
+   * immediately.
    *
    * @param id entity identifier (primary key)
    * @return deleted entity
    */
   public T delete(ID id) {
-    EntityManager em = PersistenceManager.getEntityManager();
-    EntityTransaction tx = em.getTransaction();
-    T entity = null;
-    try {
-        tx.begin();
-        entity = em.find(entityClass, id);
-        if (entity != null) {
-            em.remove(entity);
-        }
-        tx.commit();
-        return entity;
-    } catch (Exception e) {
-        if (tx.isActive()) tx.rollback();
-        throw e;
-    } finally {
-        PersistenceManager.closeEntityManager();
-    }
+    return PersistenceManager.inTransaction(() -> {
+      EntityManager em = PersistenceManager.getEntityManager();
+      T entity = em.find(entityClass, id);
+      if (entity != null) {
+        em.remove(entity);
+      }
+      return entity;
+    });
   }
 
 }
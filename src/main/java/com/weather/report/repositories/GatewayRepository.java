@@ -1,6 +1,15 @@
 package com.weather.report.repositories;
 
+import java.time.LocalDateTime;
+
+import org.hibernate.SessionFactory;
+
 import com.weather.report.model.entities.Gateway;
+import com.weather.report.model.entities.Parameter;
+import com.weather.report.persistence.PersistenceManager;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
 
 public class GatewayRepository extends CRUDRepository<Gateway, String> {
 
@@ -8,4 +17,68 @@ public class GatewayRepository extends CRUDRepository<Gateway, String> {
         super(Gateway.class);
     }
 
+    /**
+     * Initialises the lazily loaded parameters of a gateway before it is
+     * detached. Thanks to batch fetching, when many gateways are read together
+     * their parameters are loaded with one query per batch of gateways.
+     *
+     * @param gateway gateway just read
+     */
+    @Override
+    protected void loadAssociations(Gateway gateway) {
+        //l'accesso ai valori della mappa persistente ne forza il caricamento
+        gateway.getParameters().size();
+    }
+
+    /**
+     * Updates the value of a single parameter and the modification metadata of
+     * its gateway with one JPQL UPDATE each, after a single query for the
+     * parameter: the gateway row is neither loaded nor flushed. Afterwards the
+     * second-level cache entries of that gateway, of its parameter collection
+     * and of the parameter are evicted. Hibernate also invalidates the regions
+     * of the tables touched by a JPQL update, so other gateways are read again
+     * from the database on their next access.
+     *
+     * @param gatewayCode code of the gateway
+     * @param code        code of the parameter
+     * @param value       new value
+     * @param username    user performing the update
+     * @param modifiedAt  modification timestamp
+     * @return the updated parameter, or {@code null} if the gateway has no
+     *         parameter with the given code
+     */
+    public Parameter updateParameterValue(String gatewayCode, String code, double value, String username,
+            LocalDateTime modifiedAt) {
+        return PersistenceManager.inTransaction(() -> {
+            EntityManager em = PersistenceManager.getEntityManager();
+            Parameter parameter = namedQuery(em, Parameter.BY_GATEWAY_AND_CODE, Parameter.class)
+                .setParameter("gatewayCode", gatewayCode)
+                .setParameter("code", code)
+                .getResultStream().findFirst().orElse(null);
+            if (parameter == null) {
+                return null;
+            }
+            //staccato prima degli update: il nuovo valore non deve essere riscritto dal dirty checking
+            em.detach(parameter);
+            em.createNamedQuery(Parameter.UPDATE_VALUE)
+                .setParameter("value", value)
+                .setParameter("id", parameter.getId())
+                .executeUpdate();
+            em.createNamedQuery(Gateway.UPDATE_MODIFIED)
+                .setParameter("username", username)
+                .setParameter("modifiedAt", modifiedAt)
+                .setParameter("gatewayCode", gatewayCode)
+                .executeUpdate();
+            parameter.setValue(value);
+
+            //le voci da togliere sono note: non dipendo dalla pulizia delle regioni fatta da Hibernate
+            EntityManagerFactory emf = em.getEntityManagerFactory();
+            emf.getCache().evict(Gateway.class, gatewayCode);
+            emf.getCache().evict(Parameter.class, parameter.getId());
+            emf.unwrap(SessionFactory.class).getCache()
+                .evictCollectionData(Gateway.class.getName() + ".parameters", gatewayCode);
+            return parameter;
+        });
+    }
+
 }
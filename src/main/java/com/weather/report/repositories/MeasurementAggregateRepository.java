@@ -0,0 +1,154 @@
+package com.weather.report.repositories;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.weather.report.model.AggregationGranularity;
+import com.weather.report.model.entities.MeasurementAggregate;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.persistence.Shards;
+
+import jakarta.persistence.EntityManager;
+
+public class MeasurementAggregateRepository extends CRUDRepository<MeasurementAggregate, Long> {
+
+  private final Shards shards;
+
+  /**
+   * Creates a repository reading everything from the main database.
+   */
+  public MeasurementAggregateRepository() {
+    this(new Shards());
+  }
+
+  /**
+   * @param shards databases the measurements are spread across
+   */
+  public MeasurementAggregateRepository(Shards shards) {
+    super(MeasurementAggregate.class);
+    this.shards = shards;
+  }
+
+  /**
+   * Exclusive bound the end of a bucket is compared to. Report bounds have a
+   * resolution of one second, so an inclusive upper bound covers its whole
+   * second: a bucket ending exactly one second later is still inside.
+   *
+   * @param endDate inclusive upper bound ({@code null} for no bound)
+   * @return exclusive upper bound
+   */
+  private static LocalDateTime bucketEndBound(LocalDateTime endDate) {
+    return (endDate != null ? endDate : MAX_TIMESTAMP).plusSeconds(1);
+  }
+
+  /**
+   * Reads the aggregate of a sensor for the given bucket.
+   *
+   * @param sensorCode  sensor code
+   * @param granularity bucket width
+   * @param bucketStart bucket start, already truncated to the granularity
+   * @return the aggregate or {@code null} if the bucket has not been rolled up yet
+   */
+  public MeasurementAggregate readBucket(String sensorCode, AggregationGranularity granularity,
+      LocalDateTime bucketStart) {
+    EntityManager em = PersistenceManager.getEntityManager();
+    try {
+      return namedQuery(em, MeasurementAggregate.BUCKET, MeasurementAggregate.class)
+          .setParameter("sensorCode", sensorCode)
+          .setParameter("granularity", granularity)
+          .setParameter("bucketStart", bucketStart)
+          .getResultStream().findFirst().orElse(null);
+    } finally {
+      PersistenceManager.closeEntityManager();
+    }
+  }
+
+  /**
+   * Reads the aggregates of a gateway whose bucket lies entirely within the
+   * given interval.
+   *
+   * @param gatewayCode gateway code
+   * @param startDate   inclusive lower bound ({@code null} for no bound)
+   * @param endDate     inclusive upper bound ({@code null} for no bound)
+   * @return aggregates of the gateway sensors
+   */
+  public List<MeasurementAggregate> readByGateway(String gatewayCode, LocalDateTime startDate,
+      LocalDateTime endDate) {
+    //gli aggregati stanno nello shard delle misurazioni da cui derivano: li raccolgo dagli shard del gateway
+    List<MeasurementAggregate> result = new ArrayList<>();
+    shards.onShardsOf(List.of(gatewayCode), codes -> {
+      EntityManager em = PersistenceManager.getEntityManager();
+      try {
+        return readOnlyQuery(em, MeasurementAggregate.BY_GATEWAY, MeasurementAggregate.class)
+            .setParameter("gatewayCode", gatewayCode)
+            .setParameter("startDate", startDate != null ? startDate : MIN_TIMESTAMP)
+            .setParameter("endDate", bucketEndBound(endDate))
+            .getResultList();
+      } finally {
+        PersistenceManager.closeEntityManager();
+      }
+    }).forEach(result::addAll);
+    return result;
+  }
+
+  /**
+   * Counts the raw measurements rolled into the aggregates of a gateway whose
+   * bucket lies entirely within the given interval, without loading them.
+   *
+   * @param gatewayCode gateway code
+   * @param startDate   inclusive lower bound ({@code null} for no bound)
+   * @param endDate     inclusive upper bound ({@code null} for no bound)
+   * @return number of measurements summarised by the aggregates
+   */
+  public long countByGateway(String gatewayCode, LocalDateTime startDate, LocalDateTime endDate) {
+    return shards.onShardsOf(List.of(gatewayCode), codes -> {
+      EntityManager em = PersistenceManager.getEntityManager();
+      try {
+        return readOnlyQuery(em, MeasurementAggregate.COUNT_BY_GATEWAY, Long.class)
+            .setParameter("gatewayCode", gatewayCode)
+            .setParameter("startDate", startDate != null ? startDate : MIN_TIMESTAMP)
+            .setParameter("endDate", bucketEndBound(endDate))
+            .getSingleResult();
+      } finally {
+        PersistenceManager.closeEntityManager();
+      }
+    }).stream().mapToLong(Long::longValue).sum();
+  }
+
+  /**
+   * Reads the aggregates of several gateways whose bucket lies entirely within
+   * the given interval, with a single query per shard holding data of some of
+   * them, grouped by gateway code.
+   *
+   * @param gatewayCodes gateway codes
+   * @param startDate    inclusive lower bound ({@code null} for no bound)
+   * @param endDate      inclusive upper bound ({@code null} for no bound)
+   * @return aggregates by gateway code; gateways without aggregates are missing
+   */
+  public Map<String, List<MeasurementAggregate>> readByGateways(Collection<String> gatewayCodes,
+      LocalDateTime startDate, LocalDateTime endDate) {
+    Map<String, List<MeasurementAggregate>> result = new HashMap<>();
+    if (gatewayCodes.isEmpty()) {
+      return result;
+    }
+    shards.onShardsOf(gatewayCodes, codes -> {
+      EntityManager em = PersistenceManager.getEntityManager();
+      try {
+        return readOnlyQuery(em, MeasurementAggregate.BY_GATEWAYS, MeasurementAggregate.class)
+            .setParameter("gatewayCodes", codes)
+            .setParameter("startDate", startDate != null ? startDate : MIN_TIMESTAMP)
+            .setParameter("endDate", bucketEndBound(endDate))
+            .getResultList();
+      } finally {
+        PersistenceManager.closeEntityManager();
+      }
+    }).forEach(aggregates -> aggregates.forEach(
+        a -> result.computeIfAbsent(a.getGatewayCode(), code -> new ArrayList<>()).add(a)));
+    return result;
+  }
+
+}
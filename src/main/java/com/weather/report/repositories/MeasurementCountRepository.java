@@ -0,0 +1,161 @@
+package com.weather.report.repositories;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.weather.report.model.AggregationGranularity;
+import com.weather.report.model.entities.Measurement;
+import com.weather.report.model.entities.MeasurementCount;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.persistence.Shards;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.FlushModeType;
+
+public class MeasurementCountRepository extends CRUDRepository<MeasurementCount, Long> {
+
+  private final Shards shards;
+
+  /**
+   * Creates a repository reading everything from the main database.
+   */
+  public MeasurementCountRepository() {
+    this(new Shards());
+  }
+
+  /**
+   * @param shards databases the measurements are spread across
+   */
+  public MeasurementCountRepository(Shards shards) {
+    super(MeasurementCount.class);
+    this.shards = shards;
+  }
+
+  /**
+   * Adds measurements to the minute, hour and day counts of their gateways,
+   * creating the buckets not seen yet. The buckets of each level are read with
+   * a single query. To be run in the unit of work that stores the
+   * measurements, on their shard.
+   *
+   * @param measurements measurements just stored
+   */
+  public void addAll(List<Measurement> measurements) {
+    if (measurements.isEmpty()) {
+      return;
+    }
+    for (AggregationGranularity level : AggregationGranularity.values()) {
+      Map<String, Map<LocalDateTime, MeasurementCount>> buckets = new HashMap<>();
+      LocalDateTime first = null;
+      LocalDateTime last = null;
+      for (Measurement measurement : measurements) {
+        LocalDateTime bucketStart = level.truncate(measurement.getTimestamp());
+        buckets.putIfAbsent(measurement.getGatewayCode(), new HashMap<>());
+        first = first == null || bucketStart.isBefore(first) ? bucketStart : first;
+        last = last == null || bucketStart.isAfter(last) ? bucketStart : last;
+      }
+      for (MeasurementCount stored : readBuckets(buckets.keySet(), level, first, last)) {
+        buckets.get(stored.getGatewayCode()).put(stored.getBucketStart(), stored);
+      }
+
+      for (Measurement measurement : measurements) {
+        LocalDateTime bucketStart = level.truncate(measurement.getTimestamp());
+        Map<LocalDateTime, MeasurementCount> gatewayBuckets = buckets.get(measurement.getGatewayCode());
+        MeasurementCount bucket = gatewayBuckets.get(bucketStart);
+        if (bucket == null) {
+          bucket = new MeasurementCount(measurement.getNetworkCode(), measurement.getGatewayCode(), level,
+              bucketStart);
+          gatewayBuckets.put(bucketStart, bucket);
+        }
+        bucket.add(measurement.getTimestamp());
+      }
+      //i bucket letti sono gestiti dalla unit of work: solo quelli nuovi vanno inseriti
+      buckets.values().forEach(gatewayBuckets -> gatewayBuckets.values().stream()
+          .filter(bucket -> bucket.getId() == null)
+          .forEach(this::create));
+    }
+  }
+
+  private List<MeasurementCount> readBuckets(Collection<String> gatewayCodes, AggregationGranularity level,
+      LocalDateTime first, LocalDateTime last) {
+    EntityManager em = PersistenceManager.getEntityManager();
+    try {
+      //i bucket nuovi sono inseriti subito (IDENTITY): nessun flush delle misurazioni del chiamante
+      return namedQuery(em, MeasurementCount.BUCKETS, MeasurementCount.class)
+          .setFlushMode(FlushModeType.COMMIT)
+          .setParameter("gatewayCodes", gatewayCodes)
+          .setParameter("granularity", level)
+          .setParameter("startDate", first)
+          .setParameter("endDate", last)
+          .getResultList();
+    } finally {
+      PersistenceManager.closeEntityManager();
+    }
+  }
+
+  /**
+   * Reads the counts of several gateways at one level of the pyramid, with a
+   * single query per shard holding data of some of them.
+   *
+   * @param gatewayCodes gateway codes
+   * @param level        level of the pyramid
+   * @param startDate    inclusive lower bound of the bucket start
+   * @param endDate      exclusive upper bound of the bucket start
+   * @return number of measurements by gateway code and bucket start; empty
+   *         buckets are missing
+   */
+  public Map<String, Map<LocalDateTime, Long>> readCounts(Collection<String> gatewayCodes,
+      AggregationGranularity level, LocalDateTime startDate, LocalDateTime endDate) {
+    Map<String, Map<LocalDateTime, Long>> result = new HashMap<>();
+    if (gatewayCodes.isEmpty()) {
+      return result;
+    }
+    shards.onShardsOf(gatewayCodes, codes -> {
+      EntityManager em = PersistenceManager.getEntityManager();
+      try {
+        return namedQuery(em, MeasurementCount.COUNTS_BY_GATEWAYS, Object[].class)
+            .setParameter("gatewayCodes", codes)
+            .setParameter("granularity", level)
+            .setParameter("startDate", startDate)
+            .setParameter("endDate", endDate)
+            .getResultList();
+      } finally {
+        PersistenceManager.closeEntityManager();
+      }
+    }).forEach(rows -> rows.forEach(row -> result.computeIfAbsent((String) row[0], code -> new HashMap<>())
+        .merge((LocalDateTime) row[1], (Long) row[2], Long::sum)));
+    return result;
+  }
+
+  /**
+   * Reads the timestamps of the earliest and latest measurement of several
+   * gateways from their daily counts, which outlive the raw rows.
+   *
+   * @param gatewayCodes gateway codes
+   * @return {@code [first, last]} by gateway code; gateways without
+   *         measurements are missing
+   */
+  public Map<String, LocalDateTime[]> readSpans(Collection<String> gatewayCodes) {
+    Map<String, LocalDateTime[]> result = new HashMap<>();
+    if (gatewayCodes.isEmpty()) {
+      return result;
+    }
+    shards.onShardsOf(gatewayCodes, codes -> {
+      EntityManager em = PersistenceManager.getEntityManager();
+      try {
+        return namedQuery(em, MeasurementCount.SPANS_BY_GATEWAYS, Object[].class)
+            .setParameter("gatewayCodes", codes)
+            .setParameter("granularity", AggregationGranularity.DAY)
+            .getResultList();
+      } finally {
+        PersistenceManager.closeEntityManager();
+      }
+    }).forEach(rows -> rows.forEach(row -> result.merge((String) row[0],
+        new LocalDateTime[] { (LocalDateTime) row[1], (LocalDateTime) row[2] },
+        (a, b) -> new LocalDateTime[] { a[0].isBefore(b[0]) ? a[0] : b[0], a[1].isAfter(b[1]) ? a[1] : b[1] })));
+    return result;
+  }
+
+}
@@ -1,11 +1,325 @@
 package com.weather.report.repositories;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.weather.report.model.MeasurementValue;
+import com.weather.report.model.PartitionScheme;
 import com.weather.report.model.entities.Measurement;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.persistence.Shards;
+
+import jakarta.persistence.EntityManager;
 
 public class MeasurementRepository extends CRUDRepository<Measurement, Long> {
 
+  private final Shards shards;
+  private final MeasurementSketchRepository sketchRepository;
+  private final MeasurementCountRepository countRepository;
+
+  /**
+   * Creates a repository storing everything in the main database.
+   */
   public MeasurementRepository() {
+    this(new Shards());
+  }
+
+  /**
+   * @param shards databases the measurements are spread across
+   */
+  public MeasurementRepository(Shards shards) {
     super(Measurement.class);
+    this.shards = shards;
+    this.sketchRepository = new MeasurementSketchRepository(shards);
+    this.countRepository = new MeasurementCountRepository(shards);
+  }
+
+  //lo schema è fissato dal persistence unit: le partizioni già scritte non vengono mai ricalcolate
+  private static PartitionScheme partitionScheme() {
+    return PersistenceManager.getPartitionScheme();
+  }
+
+  /**
+   * Persists a new measurement, see {@link #createAll(List)}.
+   *
+   * @param measurement measurement to persist
+   * @return persisted measurement
+   */
+  @Override
+  public Measurement create(Measurement measurement) {
+    createAll(List.of(measurement));
+    return measurement;
+  }
+
+  /**
+   * Persists new measurements, each in the time partition of its timestamp and
+   * on the shard of its network (see {@link Shards#shardOf(String)}),
+   * together with the hourly sketches of their sensors (see
+   * {@link MeasurementSketchRepository#addAll(List)}) and the minute, hour and
+   * day counts of their gateways (see
+   * {@link MeasurementCountRepository#addAll(List)}). The measurements of a
+   * shard, their sketches and counts are written in one unit of work, joining
+   * the one of the caller if it is working on that shard.
+   *
+   * @param measurements measurements to persist
+   */
+  public void createAll(List<Measurement> measurements) {
+    Map<Integer, List<Measurement>> byShard = measurements.stream()
+        .collect(Collectors.groupingBy(m -> shards.shardOf(m.getNetworkCode())));
+    byShard.forEach((shard, shardMeasurements) -> shards.onShard(shard, () -> {
+      PersistenceManager.inTransaction(() -> {
+        for (Measurement measurement : shardMeasurements) {
+          measurement.setPartitionStart(partitionScheme().partitionOf(measurement.getTimestamp()));
+          super.create(measurement);
+        }
+        sketchRepository.addAll(shardMeasurements);
+        countRepository.addAll(shardMeasurements);
+      });
+      shards.recordGateways(shard, shardMeasurements.stream().map(Measurement::getGatewayCode).distinct().toList());
+      return null;
+    }));
+  }
+
+  /**
+   * Reads the measurements of a gateway taken within the given interval. Only
+   * the partitions overlapping the interval are scanned, on the shards holding
+   * data of the gateway in parallel.
+   *
+   * @param gatewayCode gateway code
+   * @param startDate   inclusive lower bound ({@code null} for no bound)
+   * @param endDate     inclusive upper bound ({@code null} for no bound)
+   * @return measurements of the gateway in the interval
+   */
+  public List<Measurement> readByGateway(String gatewayCode, LocalDateTime startDate, LocalDateTime endDate) {
+    return gather(shards.onShardsOf(List.of(gatewayCode),
+        codes -> readRange(Measurement.BY_GATEWAY, Measurement.class, "gatewayCode", gatewayCode, startDate, endDate)));
+  }
+
+  /**
+   * Reads sensor, value and timestamp of the measurements of a gateway taken
+   * within the given interval, without loading them as managed entities. This
+   * is the path used by report generation. The gateway may collect
+   * measurements of any network, so the shards holding its data are scanned in
+   * parallel.
+   *
+   * @param gatewayCode gateway code
+   * @param startDate   inclusive lower bound ({@code null} for no bound)
+   * @param endDate     inclusive upper bound ({@code null} for no bound)
+   * @return projections of the measurements of the gateway in the interval
+   */
+  public List<MeasurementValue> readValuesByGateway(String gatewayCode, LocalDateTime startDate,
+      LocalDateTime endDate) {
+    return gather(shards.onShardsOf(List.of(gatewayCode), codes -> readRange(Measurement.VALUES_BY_GATEWAY,
+        MeasurementValue.class, "gatewayCode", gatewayCode, startDate, endDate)));
+  }
+
+  /**
+   * Reads sensor, value and timestamp of the measurements of several gateways
+   * taken within the given interval, with a single query per shard holding
+   * data of some of them, grouped by gateway code.
+   *
+   * @param gatewayCodes gateway codes
+   * @param startDate    inclusive lower bound ({@code null} for no bound)
+   * @param endDate      inclusive upper bound ({@code null} for no bound)
+   * @return projections of the measurements in the interval by gateway code;
+   *         gateways without measurements are missing
+   */
+  public Map<String, List<MeasurementValue>> readValuesByGateways(Collection<String> gatewayCodes,
+      LocalDateTime startDate, LocalDateTime endDate) {
+    Map<String, List<MeasurementValue>> result = new HashMap<>();
+    if (gatewayCodes.isEmpty()) {
+      return result;
+    }
+    for (List<Object[]> rows : shards.onShardsOf(gatewayCodes, codes -> readRange(Measurement.VALUES_BY_GATEWAYS,
+        Object[].class, "gatewayCodes", codes, startDate, endDate))) {
+      for (Object[] row : rows) {
+        result.computeIfAbsent((String) row[0], code -> new ArrayList<>())
+            .add(new MeasurementValue((String) row[1], (Double) row[2], (LocalDateTime) row[3]));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Reads sensor, value and timestamp of the measurements of a network taken
+   * within the given interval. All of them are stored on the shard of the
+   * network, which is the only one queried.
+   *
+   * @param networkCode network code
+   * @param startDate   inclusive lower bound ({@code null} for no bound)
+   * @param endDate     inclusive upper bound ({@code null} for no bound)
+   * @return projections of the measurements of the network in the interval
+   */
+  public List<MeasurementValue> readValuesByNetwork(String networkCode, LocalDateTime startDate,
+      LocalDateTime endDate) {
+    return shards.onShard(shards.shardOf(networkCode), () -> readRange(
+        Measurement.VALUES_BY_NETWORK, MeasurementValue.class, "networkCode", networkCode, startDate, endDate));
+  }
+
+  /**
+   * Reads a chunk of the measurements of a gateway from a single shard, in
+   * order of timestamp and id, resuming after the last measurement of the
+   * previous chunk. Paging on the key of the gateway index keeps the cost of
+   * each chunk independent of how many chunks were read before, so the
+   * measurements can be streamed without holding all of them in memory.
+   *
+   * @param shard          shard index (see {@link Shards#shardsOfGateway(String)})
+   * @param gatewayCode    gateway code
+   * @param afterTimestamp timestamp of the last measurement of the previous
+   *                       chunk, or the inclusive lower bound of the interval
+   *                       for the first chunk
+   * @param afterId        id of the last measurement of the previous chunk, or
+   *                       {@code -1} for the first chunk
+   * @param endDate        inclusive upper bound ({@code null} for no bound)
+   * @param maxResults     maximum number of measurements to return
+   * @return at most {@code maxResults} measurements, ordered by timestamp and id
+   */
+  public List<Measurement> readChunkByGateway(int shard, String gatewayCode, LocalDateTime afterTimestamp,
+      long afterId, LocalDateTime endDate, int maxResults) {
+    return shards.onShard(shard, () -> {
+      EntityManager em = PersistenceManager.getEntityManager();
+      try {
+        LocalDateTime after = afterTimestamp != null ? afterTimestamp : MIN_TIMESTAMP;
+        LocalDateTime end = endDate != null ? endDate : MAX_TIMESTAMP;
+        return readOnlyQuery(em, Measurement.CHUNK_BY_GATEWAY, Measurement.class)
+            .setParameter("gatewayCode", gatewayCode)
+            .setParameter("firstPartition", partitionScheme().partitionOf(after))
+            .setParameter("lastPartition", partitionScheme().partitionOf(end))
+            .setParameter("afterTimestamp", after)
+            .setParameter("afterId", afterId)
+            .setParameter("endDate", end)
+            .setMaxResults(maxResults)
+            .getResultList();
+      } finally {
+        PersistenceManager.closeEntityManager();
+      }
+    });
+  }
+
+  /**
+   * Counts the measurements of a gateway taken within the given interval,
+   * without loading them.
+   *
+   * @param gatewayCode gateway code
+   * @param startDate   inclusive lower bound ({@code null} for no bound)
+   * @param endDate     inclusive upper bound ({@code null} for no bound)
+   * @return number of measurements of the gateway in the interval
+   */
+  public long countByGateway(String gatewayCode, LocalDateTime startDate, LocalDateTime endDate) {
+    return shards.onShardsOf(List.of(gatewayCode), codes -> readRange(Measurement.COUNT_BY_GATEWAY, Long.class,
+        "gatewayCode", gatewayCode, startDate, endDate).get(0)).stream().mapToLong(Long::longValue).sum();
+  }
+
+  private <R> List<R> readRange(String queryName, Class<R> resultClass, String keyName, Object key,
+      LocalDateTime startDate, LocalDateTime endDate) {
+    EntityManager em = PersistenceManager.getEntityManager();
+    try {
+      //i limiti mancanti sono sostituiti dagli estremi, così la query resta una sola
+      LocalDateTime start = startDate != null ? startDate : MIN_TIMESTAMP;
+      LocalDateTime end = endDate != null ? endDate : MAX_TIMESTAMP;
+      return namedQuery(em, queryName, resultClass)
+          .setParameter(keyName, key)
+          .setParameter("firstPartition", partitionScheme().partitionOf(start))
+          .setParameter("lastPartition", partitionScheme().partitionOf(end))
+          .setParameter("startDate", start)
+          .setParameter("endDate", end)
+          .getResultList();
+    } finally {
+      PersistenceManager.closeEntityManager();
+    }
+  }
+
+  private static <R> List<R> gather(List<List<R>> perShard) {
+    if (perShard.size() == 1) {
+      return perShard.get(0);
+    }
+    List<R> result = new ArrayList<>();
+    perShard.forEach(result::addAll);
+    return result;
+  }
+
+  /**
+   * Reads the oldest-inserted measurements taken before the given instant.
+   *
+   * @param cutoff     exclusive upper bound of the timestamps
+   * @param maxResults maximum number of measurements to return
+   * @return at most {@code maxResults} measurements, ordered by id
+   */
+  public List<Measurement> readOlderThan(LocalDateTime cutoff, int maxResults) {
+    EntityManager em = PersistenceManager.getEntityManager();
+    try {
+      return readOnlyQuery(em, Measurement.OLDER_THAN, Measurement.class)
+          .setParameter("lastPartition", partitionScheme().partitionOf(cutoff))
+          .setParameter("cutoff", cutoff)
+          .setMaxResults(maxResults)
+          .getResultList();
+    } finally {
+      PersistenceManager.closeEntityManager();
+    }
+  }
+
+  /**
+   * Deletes the given measurements with a single bulk statement. Only the
+   * listed ids are removed, so measurements committed meanwhile by another
+   * transaction are never deleted without having been read.
+   *
+   * @param ids ids of the measurements to delete
+   * @return number of deleted measurements
+   */
+  public int deleteByIds(Collection<Long> ids) {
+    if (ids.isEmpty()) {
+      return 0;
+    }
+    return PersistenceManager.inTransaction(() -> PersistenceManager.getEntityManager()
+        .createNamedQuery(Measurement.DELETE_BY_IDS)
+        .setParameter("ids", ids)
+        .executeUpdate());
+  }
+
+  /**
+   * Reads the partitions that start before the given date and still contain
+   * measurements.
+   *
+   * @param partitionStart exclusive upper bound of the partition start
+   * @return partition start dates, in ascending order
+   */
+  public List<LocalDate> readPartitionsBefore(LocalDate partitionStart) {
+    EntityManager em = PersistenceManager.getEntityManager();
+    try {
+      return namedQuery(em, Measurement.PARTITIONS_BEFORE, LocalDate.class)
+          .setParameter("partitionStart", partitionStart)
+          .getResultList();
+    } finally {
+      PersistenceManager.closeEntityManager();
+    }
+  }
+
+  /**
+   * Reads a chunk of the measurements of a partition, paging on the id.
+   *
+   * @param partitionStart start of the partition
+   * @param afterId        exclusive lower bound of the ids (id of the last
+   *                       measurement of the previous chunk)
+   * @param maxResults     maximum number of measurements to return
+   * @return at most {@code maxResults} measurements, ordered by id
+   */
+  public List<Measurement> readPartition(LocalDate partitionStart, long afterId, int maxResults) {
+    EntityManager em = PersistenceManager.getEntityManager();
+    try {
+      return readOnlyQuery(em, Measurement.PARTITION, Measurement.class)
+          .setParameter("partitionStart", partitionStart)
+          .setParameter("afterId", afterId)
+          .setMaxResults(maxResults)
+          .getResultList();
+    } finally {
+      PersistenceManager.closeEntityManager();
+    }
   }
 
 }
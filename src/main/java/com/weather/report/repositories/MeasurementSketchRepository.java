@@ -0,0 +1,216 @@
+package com.weather.report.repositories;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import com.weather.report.model.AggregationGranularity;
+import com.weather.report.model.HourlyCount;
+import com.weather.report.model.entities.Measurement;
+import com.weather.report.model.entities.MeasurementSketch;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.persistence.Shards;
+import com.weather.report.reports.QuantileSketch;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.FlushModeType;
+
+public class MeasurementSketchRepository extends CRUDRepository<MeasurementSketch, Long> {
+
+  private final Shards shards;
+
+  /**
+   * Creates a repository reading everything from the main database.
+   */
+  public MeasurementSketchRepository() {
+    this(new Shards());
+  }
+
+  /**
+   * @param shards databases the measurements are spread across
+   */
+  public MeasurementSketchRepository(Shards shards) {
+    super(MeasurementSketch.class);
+    this.shards = shards;
+  }
+
+  /**
+   * Reads the sketch of a sensor for the given hour.
+   *
+   * @param sensorCode sensor code
+   * @param hourStart  start of the hour, already truncated
+   * @return the sketch or {@code null} if no measurement was imported for that
+   *         hour yet
+   */
+  public MeasurementSketch readBucket(String sensorCode, LocalDateTime hourStart) {
+    EntityManager em = PersistenceManager.getEntityManager();
+    try {
+      //gli sketch nuovi sono inseriti subito (IDENTITY) e quelli modificati tornano dal contesto di persistenza:
+      //nessun flush, che controllerebbe ogni misurazione gestita dalla unit of work del chiamante
+      return namedQuery(em, MeasurementSketch.BUCKET, MeasurementSketch.class)
+          .setFlushMode(FlushModeType.COMMIT)
+          .setParameter("sensorCode", sensorCode)
+          .setParameter("hourStart", hourStart)
+          .getResultStream().findFirst().orElse(null);
+    } finally {
+      PersistenceManager.closeEntityManager();
+    }
+  }
+
+  /**
+   * Adds measurements to the hourly sketches of their sensors, creating the
+   * sketches of the hours not seen yet. Each sketch touched is read and
+   * written once. To be run in the unit of work that stores the measurements,
+   * on their shard.
+   *
+   * @param measurements measurements just stored
+   */
+  public void addAll(List<Measurement> measurements) {
+    //uno sketch per sensore e ora: ogni bucket viene letto e scritto una sola volta
+    Map<String, Map<LocalDateTime, QuantileSketch>> sketches = new HashMap<>();
+    Map<String, Measurement> samples = new HashMap<>();
+    for (Measurement measurement : measurements) {
+      sketches.computeIfAbsent(measurement.getSensorCode(), sensorCode -> new HashMap<>())
+          .computeIfAbsent(AggregationGranularity.HOUR.truncate(measurement.getTimestamp()),
+              hour -> new QuantileSketch())
+          .add(measurement.getValue());
+      samples.putIfAbsent(measurement.getSensorCode(), measurement);
+    }
+    sketches.forEach((sensorCode, hours) -> hours.forEach((hourStart, sketch) -> {
+      MeasurementSketch stored = readBucket(sensorCode, hourStart);
+      if (stored == null) {
+        Measurement sample = samples.get(sensorCode);
+        stored = new MeasurementSketch(sample.getNetworkCode(), sample.getGatewayCode(), sensorCode, hourStart);
+        stored.merge(sketch);
+        create(stored);
+      } else {
+        stored.merge(sketch);
+      }
+    }));
+  }
+
+  /**
+   * Reads the sketches of a gateway whose hour starts within the given
+   * interval.
+   *
+   * @param gatewayCode gateway code
+   * @param startDate   inclusive lower bound ({@code null} for no bound)
+   * @param endDate     inclusive upper bound ({@code null} for no bound)
+   * @return the sketches of the gateway sensors
+   */
+  public List<MeasurementSketch> readByGateway(String gatewayCode, LocalDateTime startDate, LocalDateTime endDate) {
+    //gli sketch stanno nello shard delle misurazioni da cui derivano: li raccolgo dagli shard del gateway
+    List<MeasurementSketch> result = new ArrayList<>();
+    shards.onShardsOf(List.of(gatewayCode), codes -> {
+      EntityManager em = PersistenceManager.getEntityManager();
+      try {
+        return readOnlyQuery(em, MeasurementSketch.BY_GATEWAY, MeasurementSketch.class)
+            .setParameter("gatewayCode", gatewayCode)
+            .setParameter("startDate", startDate != null ? startDate : MIN_TIMESTAMP)
+            .setParameter("endDate", endDate != null ? endDate : MAX_TIMESTAMP)
+            .getResultList();
+      } finally {
+        PersistenceManager.closeEntityManager();
+      }
+    }).forEach(result::addAll);
+    return result;
+  }
+
+  /**
+   * Reads the sketches of several gateways whose hour starts within the given
+   * interval, with a single query per shard holding data of some of them,
+   * grouped by gateway code.
+   *
+   * @param gatewayCodes gateway codes
+   * @param startDate    inclusive lower bound ({@code null} for no bound)
+   * @param endDate      inclusive upper bound ({@code null} for no bound)
+   * @return sketches by gateway code; gateways without sketches are missing
+   */
+  public Map<String, List<MeasurementSketch>> readByGateways(Collection<String> gatewayCodes,
+      LocalDateTime startDate, LocalDateTime endDate) {
+    Map<String, List<MeasurementSketch>> result = new HashMap<>();
+    if (gatewayCodes.isEmpty()) {
+      return result;
+    }
+    shards.onShardsOf(gatewayCodes, codes -> {
+      EntityManager em = PersistenceManager.getEntityManager();
+      try {
+        return readOnlyQuery(em, MeasurementSketch.BY_GATEWAYS, MeasurementSketch.class)
+            .setParameter("gatewayCodes", codes)
+            .setParameter("startDate", startDate != null ? startDate : MIN_TIMESTAMP)
+            .setParameter("endDate", endDate != null ? endDate : MAX_TIMESTAMP)
+            .getResultList();
+      } finally {
+        PersistenceManager.closeEntityManager();
+      }
+    }).forEach(sketches -> sketches.forEach(
+        s -> result.computeIfAbsent(s.getGatewayCode(), code -> new ArrayList<>()).add(s)));
+    return result;
+  }
+
+  /**
+   * Reads the hourly measurement counts of each sensor of a gateway, from the
+   * sketches of every shard holding data of the gateway. The rows of each
+   * shard are streamed into an accumulator of their own, so the shards can be
+   * read in parallel and only the accumulators stay in memory.
+   *
+   * @param <A>         type of the accumulator
+   * @param gatewayCode gateway code
+   * @param factory     creates one empty accumulator per shard
+   * @return the accumulators of the shards read
+   */
+  public <A extends Consumer<HourlyCount>> List<A> readSensorCountsOfGateway(String gatewayCode,
+      Supplier<A> factory) {
+    return shards.onShardsOf(List.of(gatewayCode), codes -> readCounts(
+        MeasurementSketch.SENSOR_COUNTS_BY_GATEWAY, "gatewayCode", gatewayCode, factory.get()));
+  }
+
+  /**
+   * Reads the hourly measurement counts of each sensor of a network, streamed
+   * into the accumulator.
+   *
+   * @param <A>         type of the accumulator
+   * @param networkCode network code
+   * @param accumulator receives one row per sensor and hour
+   * @return the accumulator
+   */
+  public <A extends Consumer<HourlyCount>> A readSensorCountsOfNetwork(String networkCode, A accumulator) {
+    return shards.onShard(shards.shardOf(networkCode), () -> readCounts(
+        MeasurementSketch.SENSOR_COUNTS_BY_NETWORK, "networkCode", networkCode, accumulator));
+  }
+
+  /**
+   * Reads the hourly measurement counts of the gateways of a network, streamed
+   * into the accumulator one row per sensor and hour, with the gateway code.
+   *
+   * @param <A>         type of the accumulator
+   * @param networkCode network code
+   * @param accumulator receives one row per sensor and hour
+   * @return the accumulator
+   */
+  public <A extends Consumer<HourlyCount>> A readGatewayCountsOfNetwork(String networkCode, A accumulator) {
+    return shards.onShard(shards.shardOf(networkCode), () -> readCounts(
+        MeasurementSketch.GATEWAY_COUNTS_BY_NETWORK, "networkCode", networkCode, accumulator));
+  }
+
+  private <A extends Consumer<HourlyCount>> A readCounts(String queryName, String keyName, String key,
+      A accumulator) {
+    EntityManager em = PersistenceManager.getEntityManager();
+    //le righe sono lette in streaming: in memoria resta solo l'accumulatore
+    try (Stream<HourlyCount> rows = readOnlyQuery(em, queryName, HourlyCount.class)
+        .setParameter(keyName, key)
+        .getResultStream()) {
+      rows.forEach(accumulator);
+      return accumulator;
+    } finally {
+      PersistenceManager.closeEntityManager();
+    }
+  }
+
+}
@@ -0,0 +1,262 @@
+package com.weather.report.services;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.weather.report.model.AggregationGranularity;
+import com.weather.report.model.HourlyCount;
+import com.weather.report.model.entities.Measurement;
+import com.weather.report.model.entities.MeasurementSketch;
+import com.weather.report.persistence.Shards;
+import com.weather.report.reports.ActivitySketch;
+import com.weather.report.repositories.MeasurementSketchRepository;
+
+/**
+ * Approximate measurement counts, in memory bounded by the number of days of
+ * data rather than by the number of sensors, for the "most active" and "least
+ * active" queries on large fleets: the sensors of a gateway, and the gateways
+ * and sensors of a network, each in an {@link ActivitySketch}.
+ * <p>
+ * Every gateway and network has a timeline of sketches: one per hour for the
+ * last 48 hours of its data, and one per day before, into which the hours
+ * are merged as newer data arrives. A query merges the
+ * sketches starting within the interval, so its lower bound is widened to the
+ * start of its hour, or of its day once that day is older than the hourly
+ * part.
+ * <p>
+ * The timeline of a gateway or network is seeded by its first query from the
+ * counts of the hourly {@link MeasurementSketch}es, which are stored with the
+ * measurements and survive a snapshot restore, and is then updated by every
+ * imported batch once it is committed. Seeding is guarded by the generation
+ * of the {@link LiveStatisticsService}: a timeline read while a write was in
+ * progress answers that query only. As for the live counters, data written
+ * directly through the repositories after seeding is not tracked. Measurements
+ * rolled up by the retention policy keep being counted.
+ * <p>
+ * Error bounds, with {@code N} measurements in the interval:
+ * <ul>
+ * <li>sensors of a gateway: 64 exact counters, then Space-Saving error at most
+ * {@code N / 64} and Count-Min error at most {@code 0.01 N} with probability
+ * 99%;</li>
+ * <li>gateways of a network: the same as the sensors of a gateway;</li>
+ * <li>sensors of a network: 256 counters, Space-Saving error at most
+ * {@code N / 256} and Count-Min error at most {@code 0.001 N} with probability
+ * 99% (about 110 KB per sketch).</li>
+ * </ul>
+ */
+public class ActivityService {
+
+  private static final int HOURLY_HOURS = 48;
+
+  private final MeasurementSketchRepository sketchRepository;
+  private final LiveStatisticsService liveStatistics;
+  private final Map<String, Timeline> sensorsOfGateway = new HashMap<>();
+  private final Map<String, Timeline> gatewaysOfNetwork = new HashMap<>();
+  private final Map<String, Timeline> sensorsOfNetwork = new HashMap<>();
+
+  /**
+   * @param shards         databases the sketches are spread across
+   * @param liveStatistics generation of the writes, guarding the seeding
+   */
+  public ActivityService(Shards shards, LiveStatisticsService liveStatistics) {
+    this.sketchRepository = new MeasurementSketchRepository(shards);
+    this.liveStatistics = liveStatistics;
+  }
+
+  private static ActivitySketch smallSketch() {
+    return new ActivitySketch(64, 0.01, 0.01);
+  }
+
+  private static ActivitySketch largeSketch() {
+    return new ActivitySketch(256, 0.001, 0.01);
+  }
+
+  /**
+   * @param gatewayCode gateway code
+   * @param startDate   inclusive lower bound ({@code null} for no bound)
+   * @param endDate     inclusive upper bound ({@code null} for no bound)
+   * @return the approximate counts of the gateway sensors, empty if no
+   *         measurement of the gateway was imported in the interval
+   */
+  public ActivitySketch sensorsOfGateway(String gatewayCode, LocalDateTime startDate, LocalDateTime endDate) {
+    return query(sensorsOfGateway, gatewayCode, startDate, endDate, code -> {
+      Timeline timeline = new Timeline(ActivityService::smallSketch);
+      //uno stream per shard, fusi alla fine
+      sketchRepository.readSensorCountsOfGateway(code, () -> new Timeline(ActivityService::smallSketch))
+          .forEach(timeline::merge);
+      return timeline;
+    });
+  }
+
+  /**
+   * @param networkCode network code
+   * @param startDate   inclusive lower bound ({@code null} for no bound)
+   * @param endDate     inclusive upper bound ({@code null} for no bound)
+   * @return the approximate counts of the network gateways, empty if no
+   *         measurement of the network was imported in the interval
+   */
+  public ActivitySketch gatewaysOfNetwork(String networkCode, LocalDateTime startDate, LocalDateTime endDate) {
+    return query(gatewaysOfNetwork, networkCode, startDate, endDate,
+        code -> sketchRepository.readGatewayCountsOfNetwork(code, new Timeline(ActivityService::smallSketch)));
+  }
+
+  /**
+   * @param networkCode network code
+   * @param startDate   inclusive lower bound ({@code null} for no bound)
+   * @param endDate     inclusive upper bound ({@code null} for no bound)
+   * @return the approximate counts of the network sensors, empty if no
+   *         measurement of the network was imported in the interval
+   */
+  public ActivitySketch sensorsOfNetwork(String networkCode, LocalDateTime startDate, LocalDateTime endDate) {
+    return query(sensorsOfNetwork, networkCode, startDate, endDate,
+        code -> sketchRepository.readSensorCountsOfNetwork(code, new Timeline(ActivityService::largeSketch)));
+  }
+
+  private ActivitySketch query(Map<String, Timeline> timelines, String code, LocalDateTime startDate,
+      LocalDateTime endDate, Function<String, Timeline> seed) {
+    synchronized (this) {
+      Timeline timeline = timelines.get(code);
+      if (timeline != null) {
+        return timeline.window(startDate, endDate);
+      }
+    }
+    //la lettura dal database avviene fuori dal lock: le importazioni non aspettano il seeding
+    long generation = liveStatistics.generation();
+    Timeline timeline = seed.apply(code);
+    synchronized (this) {
+      if (liveStatistics.isUnchangedSince(generation)) {
+        timelines.putIfAbsent(code, timeline);
+      }
+      return timeline.window(startDate, endDate);
+    }
+  }
+
+  /**
+   * Adds a committed batch of measurements to the seeded timelines.
+   *
+   * @param batch stored measurements
+   */
+  public synchronized void record(List<Measurement> batch) {
+    for (Measurement m : batch) {
+      LocalDateTime hour = AggregationGranularity.HOUR.truncate(m.getTimestamp());
+      add(sensorsOfGateway, m.getGatewayCode(), hour, m.getSensorCode());
+      add(gatewaysOfNetwork, m.getNetworkCode(), hour, m.getGatewayCode());
+      add(sensorsOfNetwork, m.getNetworkCode(), hour, m.getSensorCode());
+    }
+  }
+
+  private static void add(Map<String, Timeline> timelines, String key, LocalDateTime hour, String code) {
+    Timeline timeline = timelines.get(key);
+    if (timeline != null) {
+      timeline.add(hour, code, 1);
+    }
+  }
+
+  /**
+   * Drops the timelines of the gateways and networks of a batch that could
+   * not be stored, since part of it may have been committed.
+   *
+   * @param batch measurements
+   */
+  public synchronized void discard(List<Measurement> batch) {
+    for (Measurement m : batch) {
+      sensorsOfGateway.remove(m.getGatewayCode());
+      gatewaysOfNetwork.remove(m.getNetworkCode());
+      sensorsOfNetwork.remove(m.getNetworkCode());
+    }
+  }
+
+  /**
+   * Drops every timeline, as after a snapshot is restored.
+   */
+  public synchronized void clear() {
+    sensorsOfGateway.clear();
+    gatewaysOfNetwork.clear();
+    sensorsOfNetwork.clear();
+  }
+
+  /**
+   * Sketches of one gateway or network: hourly for the last
+   * 48 hours before the latest one seen, daily before.
+   */
+  private static final class Timeline implements Consumer<HourlyCount> {
+
+    private final Supplier<ActivitySketch> factory;
+    private final NavigableMap<LocalDateTime, ActivitySketch> hours = new TreeMap<>();
+    private final NavigableMap<LocalDateTime, ActivitySketch> days = new TreeMap<>();
+    private LocalDateTime latest;
+
+    Timeline(Supplier<ActivitySketch> factory) {
+      this.factory = factory;
+    }
+
+    @Override
+    public void accept(HourlyCount count) {
+      add(count.hourStart(), count.code(), count.count());
+    }
+
+    void add(LocalDateTime hour, String code, long count) {
+      advance(hour);
+      bucketOf(hour).add(code, count);
+    }
+
+    //le righe lette per shard sono fuse ora per ora, come se fossero state importate insieme
+    Timeline merge(Timeline other) {
+      if (other.latest != null) {
+        advance(other.latest);
+      }
+      other.days.forEach((day, sketch) -> days.computeIfAbsent(day, d -> factory.get()).merge(sketch));
+      other.hours.forEach((hour, sketch) -> bucketOf(hour).merge(sketch));
+      return this;
+    }
+
+    ActivitySketch window(LocalDateTime startDate, LocalDateTime endDate) {
+      ActivitySketch result = factory.get();
+      LocalDateTime from = startDate != null ? startDate : LocalDateTime.MIN;
+      LocalDateTime to = endDate != null ? endDate : LocalDateTime.MAX;
+      if (from.isAfter(to)) {
+        return result;
+      }
+      //ogni ora sta in una sola mappa: un giorno e le sue ore non sono mai contati due volte
+      LocalDateTime dayFrom = from.equals(LocalDateTime.MIN) ? from : AggregationGranularity.DAY.truncate(from);
+      LocalDateTime hourFrom = from.equals(LocalDateTime.MIN) ? from : AggregationGranularity.HOUR.truncate(from);
+      days.subMap(dayFrom, true, to, true).values().forEach(result::merge);
+      hours.subMap(hourFrom, true, to, true).values().forEach(result::merge);
+      return result;
+    }
+
+    private ActivitySketch bucketOf(LocalDateTime hour) {
+      if (hour.isBefore(horizon())) {
+        return days.computeIfAbsent(AggregationGranularity.DAY.truncate(hour), d -> factory.get());
+      }
+      return hours.computeIfAbsent(hour, h -> factory.get());
+    }
+
+    private LocalDateTime horizon() {
+      return latest.minusHours(HOURLY_HOURS);
+    }
+
+    //le ore uscite dalla parte oraria confluiscono nel loro giorno
+    private void advance(LocalDateTime hour) {
+      if (latest != null && !hour.isAfter(latest)) {
+        return;
+      }
+      latest = hour;
+      LocalDateTime horizon = horizon();
+      while (!hours.isEmpty() && hours.firstKey().isBefore(horizon)) {
+        Map.Entry<LocalDateTime, ActivitySketch> oldest = hours.pollFirstEntry();
+        days.computeIfAbsent(AggregationGranularity.DAY.truncate(oldest.getKey()), d -> factory.get())
+            .merge(oldest.getValue());
+      }
+    }
+
+  }
+
+}
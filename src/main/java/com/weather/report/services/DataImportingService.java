@@ -6,11 +6,17 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.PatternSyntaxException;
 
 import com.weather.report.WeatherReport;
 import com.weather.report.model.entities.Measurement;
+import com.weather.report.model.entities.MeasurementSketch;
 import com.weather.report.model.entities.Sensor;
+import com.weather.report.persistence.PersistenceManager;
 import com.weather.report.repositories.CRUDRepository;
 import com.weather.report.repositories.MeasurementRepository;
 
@@ -21,20 +27,41 @@ import com.weather.report.repositories.MeasurementRepository;
  */
 public class DataImportingService {
 
-  private DataImportingService(){
-    // utility class
+  //numero di righe salvate nella stessa unit of work durante l'import
+  private static final int IMPORT_BATCH_SIZE = 500;
+
+  private final ReportServices services;
+
+  /**
+   * @param services in-memory state updated by the imported batches
+   */
+  public DataImportingService(ReportServices services) {
+    this.services = services;
   }
 
   /**
    * Reads measurements from CSV files, persists them through repositories and
-   * invokes {@link #checkMeasurement(Measurement)} after each insertion. 
+   * invokes {@link #checkMeasurement(Measurement)} on each of them once it is
+   * committed.
    * The time window format and CSV location are defined in the README.
+   * <p>
+   * Rows are stored in batches of {@value #IMPORT_BATCH_SIZE}: the rows of a
+   * batch going to the same shard share one unit of work (see
+   * {@link PersistenceManager#beginUnitOfWork()}), so they are written with a
+   * single commit, together with the hourly {@link MeasurementSketch}es of
+   * their sensors. Once
+   * committed, each batch advances the windows of the
+   * {@link RollingWindowService} and its measurements are checked in file
+   * order: a threshold violation is notified only for a measurement that is
+   * actually stored, after the whole batch (at most
+   * {@value #IMPORT_BATCH_SIZE} rows) has been written.
    *
    * @param filePath path to the CSV file to import
    */
   
-  public static void storeMeasurements(String filePath) {
-    MeasurementRepository repository = new MeasurementRepository();
+  public void storeMeasurements(String filePath) {
+    MeasurementRepository repository = new MeasurementRepository(services.getShards());
+    List<Measurement> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
     // use this try-with-resources for automatic close of file in case of error
     try (BufferedReader br = new BufferedReader(new FileReader(filePath.replace("%20", " ")))) {
       String line = br.readLine(); // Read header line to skip it
@@ -53,16 +80,17 @@ public class DataImportingService {
           String sensorCode = data[3].trim();
           Double value = Double.parseDouble(data[4]);
           // create measurement
-          Measurement newMeasurement = new Measurement(networkCode, gatewayCode, sensorCode, value, timestamp);
-          // save measurement
-          repository.create(newMeasurement);
-          // check measurement
-          checkMeasurement(newMeasurement);
+          batch.add(new Measurement(networkCode, gatewayCode, sensorCode, value, timestamp));
+          if (batch.size() == IMPORT_BATCH_SIZE) {
+            storeBatch(repository, batch);
+            batch.clear();
+          }
         } catch (DateTimeParseException | PatternSyntaxException | NumberFormatException e) {
           // in caso di errori ignoro e vado avanti
           System.err.println("Skipping invalid line: " + line);
         }
       }
+      storeBatch(repository, batch);
     } catch (FileNotFoundException e) {
       System.err.println("File not found: " + filePath);
     } catch (IOException e) {
@@ -70,6 +98,66 @@ public class DataImportingService {
     }
   }
 
+  /**
+   * Saves a batch of measurements with one unit of work per shard (see
+   * {@link com.weather.report.persistence.Shards#shardOf(String)}), then invokes
+   * {@link #checkMeasurement(Measurement)} for each of them.
+   *
+   * @param repository repository used to persist the measurements and their sketches
+   * @param batch      measurements to save
+   */
+  private void storeBatch(MeasurementRepository repository, List<Measurement> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    //i contatori in tempo reale dei gateway non vengono inizializzati mentre il batch è in scrittura
+    services.getLiveStatistics().beginWrite();
+    try {
+      // save measurements
+      repository.createAll(batch);
+      services.getLiveStatistics().record(batch);
+      services.getActivity().record(batch);
+    } catch (RuntimeException e) {
+      services.getLiveStatistics().discard(batch);
+      services.getActivity().discard(batch);
+      throw e;
+    } finally {
+      services.getLiveStatistics().endWrite();
+      invalidateReports(batch);
+    }
+    //le finestre mobili avanzano dopo l'invalidazione: i listener vedono già i report aggiornati
+    services.getRollingWindows().record(batch);
+    for (Measurement measurement : batch) {
+      // check measurement
+      checkMeasurement(measurement);
+    }
+  }
+
+  /**
+   * Evicts the cached reports touched by a stored batch: for each network,
+   * gateway and sensor of the batch only the reports overlapping its first and
+   * last imported timestamp.
+   *
+   * @param batch stored measurements
+   */
+  private void invalidateReports(List<Measurement> batch) {
+    Map<String, LocalDateTime[]> ranges = new HashMap<>();
+    for (Measurement measurement : batch) {
+      for (String code : List.of(measurement.getNetworkCode(), measurement.getGatewayCode(),
+          measurement.getSensorCode())) {
+        LocalDateTime timestamp = measurement.getTimestamp();
+        LocalDateTime[] range = ranges.computeIfAbsent(code, c -> new LocalDateTime[] { timestamp, timestamp });
+        if (timestamp.isBefore(range[0])) {
+          range[0] = timestamp;
+        }
+        if (timestamp.isAfter(range[1])) {
+          range[1] = timestamp;
+        }
+      }
+    }
+    ranges.forEach((code, range) -> services.getReportCache().invalidate(code, range[0], range[1]));
+  }
+
   /**
    * Validates the saved measurement against the threshold of the corresponding
    * sensor
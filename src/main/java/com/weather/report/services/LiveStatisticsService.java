@@ -0,0 +1,150 @@
+package com.weather.report.services;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.weather.report.model.entities.Measurement;
+import com.weather.report.reports.GatewayStatistics;
+
+/**
+ * Keeps the all-time {@link GatewayStatistics} of the gateways up to date, so
+ * that the report without interval bounds is assembled from counters instead of
+ * reading every measurement.
+ * <p>
+ * The counters of a gateway are seeded by the first all-time report, from the
+ * measurements it reads, and then updated by every imported batch once it is
+ * committed. A batch with measurements older than the last one of the gateway
+ * drops its counters, which are seeded again by the next report.
+ * <p>
+ * Writes are bracketed by {@link #beginWrite()} and {@link #endWrite()}: a
+ * report that read the measurements while a write was in progress, or before
+ * one completed, does not seed the counters, since it may or may not include
+ * the written rows. As for {@link ReportCache}, data written directly through
+ * the repositories is not tracked, and each system instance has its own
+ * counters (see {@link ReportServices}).
+ */
+public class LiveStatisticsService {
+
+  private final Map<String, GatewayStatistics> gateways = new HashMap<>();
+  private long generation;
+  private int pendingWrites;
+
+  /**
+   * Current generation, to be read before computing the counters passed to
+   * {@link #seed}.
+   *
+   * @return number of writes started or completed so far
+   */
+  public synchronized long generation() {
+    return generation;
+  }
+
+  /**
+   * Returns the live counters of a gateway.
+   *
+   * @param gatewayCode gateway code
+   * @return a copy of the counters, or {@code null} if not seeded
+   */
+  public synchronized GatewayStatistics get(String gatewayCode) {
+    GatewayStatistics statistics = gateways.get(gatewayCode);
+    return statistics == null ? null : statistics.copy();
+  }
+
+  /**
+   * Installs the all-time counters of a gateway, unless a write started after
+   * {@code generation} was read.
+   *
+   * @param gatewayCode gateway code
+   * @param statistics  counters computed from all the measurements of the
+   *                    gateway
+   * @param generation  value of {@link #generation()} read before reading the
+   *                    measurements
+   */
+  public synchronized void seed(String gatewayCode, GatewayStatistics statistics, long generation) {
+    if (isUnchangedSince(generation)) {
+      gateways.put(gatewayCode, statistics.copy());
+    }
+  }
+
+  /**
+   * Tells whether data read after {@code generation} can include part of a
+   * write: if no write is in progress and none started since, everything
+   * read meanwhile comes from the same state of the measurements.
+   *
+   * @param generation value of {@link #generation()} read before reading
+   * @return {@code true} if no write overlapped the reads
+   */
+  public synchronized boolean isUnchangedSince(long generation) {
+    return pendingWrites == 0 && generation == this.generation;
+  }
+
+  /**
+   * Marks the start of a write to the measurements.
+   */
+  public synchronized void beginWrite() {
+    pendingWrites++;
+    generation++;
+  }
+
+  /**
+   * Marks the end of a write started with {@link #beginWrite()}.
+   */
+  public synchronized void endWrite() {
+    pendingWrites--;
+    generation++;
+  }
+
+  /**
+   * Adds a committed batch of measurements to the counters of the seeded
+   * gateways.
+   *
+   * @param batch stored measurements
+   */
+  public synchronized void record(List<Measurement> batch) {
+    Map<String, List<Measurement>> byGateway = batch.stream()
+        .filter(m -> gateways.containsKey(m.getGatewayCode()))
+        .collect(Collectors.groupingBy(Measurement::getGatewayCode));
+    byGateway.forEach((gatewayCode, measurements) -> {
+      GatewayStatistics statistics = gateways.get(gatewayCode);
+      measurements.sort(Comparator.comparing(Measurement::getTimestamp));
+      for (Measurement measurement : measurements) {
+        if (!statistics.append(measurement.getSensorCode(), measurement.getValue(), measurement.getTimestamp())) {
+          //misurazione fuori ordine: i tempi di interarrivo vanno ricalcolati dal database
+          gateways.remove(gatewayCode);
+          return;
+        }
+      }
+    });
+  }
+
+  /**
+   * Drops the counters of the gateways of a batch that could not be stored.
+   *
+   * @param batch measurements
+   */
+  public synchronized void discard(List<Measurement> batch) {
+    batch.forEach(m -> gateways.remove(m.getGatewayCode()));
+  }
+
+  /**
+   * Drops the counters of a gateway.
+   *
+   * @param gatewayCode gateway code
+   */
+  public synchronized void invalidate(String gatewayCode) {
+    generation++;
+    gateways.remove(gatewayCode);
+  }
+
+  /**
+   * Drops the counters of all the gateways.
+   */
+  public synchronized void clear() {
+    generation++;
+    gateways.clear();
+  }
+
+}
@@ -0,0 +1,147 @@
+package com.weather.report.services;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of computed reports, keyed by report type, element code and
+ * the interval strings received as input.
+ * <p>
+ * Entries are evicted in least-recently-used order once the cache holds
+ * {@value #MAX_ENTRIES} reports. Writes invalidate only the entries they can
+ * affect: an import evicts the reports of the imported codes whose interval
+ * overlaps the imported timestamps, a parameter update evicts the reports of
+ * its gateway.
+ * <p>
+ * Every invalidation increases a generation counter: a report computed while
+ * an invalidation happened is not stored, since it may have read the data
+ * before the change (see {@link #put}).
+ * <p>
+ * Only writes going through the services and operations are tracked: data
+ * written directly through the repositories is not seen by the cache. Each
+ * system instance has its own cache, see {@link ReportServices}.
+ */
+public class ReportCache {
+
+  private static final int MAX_ENTRIES = 256;
+
+  private record Key(Class<?> type, String code, String startDate, String endDate) {
+  }
+
+  //intervallo già interpretato, usato per capire quali report sono toccati da un import
+  private record Entry(Object report, LocalDateTime start, LocalDateTime end) {
+  }
+
+  //ordine di accesso: il primo elemento è quello usato meno di recente
+  private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+      return size() > MAX_ENTRIES;
+    }
+  };
+
+  private long generation;
+
+  /**
+   * Current generation, to be read before computing a report that will be
+   * stored with {@link #put}.
+   *
+   * @return number of invalidations so far
+   */
+  public synchronized long generation() {
+    return generation;
+  }
+
+  /**
+   * Returns a cached report.
+   *
+   * @param <R>       report type
+   * @param type      report interface, such as {@code GatewayReport.class}
+   * @param code      element code
+   * @param startDate lower bound as received, or {@code null}
+   * @param endDate   upper bound as received, or {@code null}
+   * @return the cached report, or {@code null}
+   */
+  public synchronized <R> R get(Class<R> type, String code, String startDate, String endDate) {
+    Entry entry = entries.get(new Key(type, code, startDate, endDate));
+    return entry == null ? null : type.cast(entry.report());
+  }
+
+  /**
+   * Stores a report, unless some entry was invalidated after
+   * {@code generation} was read.
+   *
+   * @param <R>        report type
+   * @param type       report interface
+   * @param code       element code
+   * @param startDate  lower bound as received, or {@code null}
+   * @param endDate    upper bound as received, or {@code null}
+   * @param start      parsed lower bound, or {@code null}
+   * @param end        parsed upper bound, or {@code null}
+   * @param report     report to store
+   * @param generation value of {@link #generation()} read before computing the
+   *                   report
+   */
+  public synchronized <R> void put(Class<R> type, String code, String startDate, String endDate,
+      LocalDateTime start, LocalDateTime end, R report, long generation) {
+    if (generation == this.generation) {
+      entries.put(new Key(type, code, startDate, endDate), new Entry(report, start, end));
+    }
+  }
+
+  /**
+   * Evicts the reports of an element whose interval overlaps
+   * {@code [from, to]}.
+   *
+   * @param code element code
+   * @param from first changed timestamp, or {@code null} for no bound
+   * @param to   last changed timestamp, or {@code null} for no bound
+   */
+  public synchronized void invalidate(String code, LocalDateTime from, LocalDateTime to) {
+    generation++;
+    entries.entrySet().removeIf(e -> e.getKey().code().equals(code) && overlaps(e.getValue(), from, to));
+  }
+
+  /**
+   * Evicts all the reports of an element.
+   *
+   * @param code element code
+   */
+  public void invalidate(String code) {
+    invalidate(code, null, null);
+  }
+
+  /**
+   * Evicts the reports of any element whose interval starts before the given
+   * instant, as after a retention run.
+   *
+   * @param cutoff first instant not changed
+   */
+  public synchronized void invalidateBefore(LocalDateTime cutoff) {
+    generation++;
+    entries.values().removeIf(entry -> entry.start() == null || entry.start().isBefore(cutoff));
+  }
+
+  /**
+   * Evicts all the reports.
+   */
+  public synchronized void clear() {
+    generation++;
+    entries.clear();
+  }
+
+  /**
+   * @return number of cached reports
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  private static boolean overlaps(Entry entry, LocalDateTime from, LocalDateTime to) {
+    boolean startsBeforeEnd = entry.start() == null || to == null || !entry.start().isAfter(to);
+    boolean endsAfterStart = entry.end() == null || from == null || !entry.end().isBefore(from);
+    return startsBeforeEnd && endsAfterStart;
+  }
+
+}
@@ -0,0 +1,563 @@
+package com.weather.report.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeSet;
+
+import com.weather.report.WeatherReport;
+import com.weather.report.model.ExportFormat;
+import com.weather.report.model.entities.Measurement;
+import com.weather.report.persistence.Shards;
+import com.weather.report.reports.GatewayReport;
+import com.weather.report.reports.NetworkReport;
+import com.weather.report.reports.Report;
+import com.weather.report.reports.Report.Range;
+import com.weather.report.reports.SensorReport;
+import com.weather.report.repositories.MeasurementRepository;
+
+/**
+ * Service that writes reports and the measurements behind them to an
+ * {@link OutputStream} or a {@link WritableByteChannel}, as CSV or JSON (see
+ * {@link ExportFormat}).
+ * <p>
+ * Nothing is built in memory before being written: reports are encoded one
+ * at a time, in the order they are supplied, and measurements are read in
+ * chunks of {@value #CHUNK_SIZE}, each one encoded and released before the
+ * next is read. The encoded text goes through a single buffer of
+ * {@value #BUFFER_SIZE} bytes, drained to the destination whenever it fills
+ * up, so memory use does not depend on the size of the export. The
+ * destination is neither flushed more often than that nor closed: it belongs
+ * to the caller.
+ */
+public class ReportExportService {
+
+  //byte accumulati prima di ogni scrittura sulla destinazione
+  public static final int BUFFER_SIZE = 64 * 1024;
+  //misurazioni lette con ogni query
+  private static final int CHUNK_SIZE = 1000;
+  private static final String REPORT_HEADER = "code,section,key,value";
+  //stesse colonne dei file di import, così un export può essere importato di nuovo
+  private static final String MEASUREMENT_HEADER = "date,networkCode,gatewayCode,sensorCode,value";
+
+  private ReportExportService() {
+    // utility class
+  }
+
+  /**
+   * Writes the content of the given reports, in order. Gateway, sensor and
+   * network reports are supported; for any other {@link Report} only the
+   * common fields are written.
+   *
+   * @param reports reports to write, read one at a time
+   * @param format  encoding
+   * @param out     destination, flushed at the end but not closed
+   * @throws IOException if the destination cannot be written
+   */
+  public static void writeReports(Iterable<? extends Report<?>> reports, ExportFormat format, OutputStream out)
+      throws IOException {
+    writeReports(reports, format, Channels.newChannel(out));
+    out.flush();
+  }
+
+  /**
+   * Writes the content of the given reports, in order, see
+   * {@link #writeReports(Iterable, ExportFormat, OutputStream)}.
+   *
+   * @param reports reports to write, read one at a time
+   * @param format  encoding
+   * @param channel blocking destination, not closed
+   * @throws IOException if the destination cannot be written
+   */
+  public static void writeReports(Iterable<? extends Report<?>> reports, ExportFormat format,
+      WritableByteChannel channel) throws IOException {
+    ExportWriter writer = new ExportWriter(channel);
+    Encoder encoder = format == ExportFormat.CSV ? new CsvEncoder(writer) : new JsonEncoder(writer);
+    encoder.beginReports();
+    for (Report<?> report : reports) {
+      encoder.beginReport(report.getCode());
+      encoder.scalar("startDate", report.getStartDate());
+      encoder.scalar("endDate", report.getEndDate());
+      encoder.scalar("numberOfMeasurements", report.getNumberOfMeasurements());
+      //le sezioni sono lette solo qui: i report calcolati al primo accesso non le tengono pronte prima
+      if (report instanceof GatewayReport gateway) {
+        encoder.values("mostActiveSensors", gateway.getMostActiveSensors());
+        encoder.values("leastActiveSensors", gateway.getLeastActiveSensors());
+        encoder.entries("sensorsLoadRatio", gateway.getSensorsLoadRatio());
+        encoder.values("outlierSensors", gateway.getOutlierSensors());
+        encoder.scalar("batteryChargePercentage", gateway.getBatteryChargePercentage());
+        encoder.scalar("p50", gateway.getP50());
+        encoder.scalar("p90", gateway.getP90());
+        encoder.scalar("p99", gateway.getP99());
+      } else if (report instanceof SensorReport sensor) {
+        encoder.scalar("mean", sensor.getMean());
+        encoder.scalar("variance", sensor.getVariance());
+        encoder.scalar("stdDev", sensor.getStdDev());
+        encoder.scalar("minimumMeasuredValue", sensor.getMinimumMeasuredValue());
+        encoder.scalar("maximumMeasuredValue", sensor.getMaximumMeasuredValue());
+        encoder.scalar("p50", sensor.getP50());
+        encoder.scalar("p90", sensor.getP90());
+        encoder.scalar("p99", sensor.getP99());
+        encoder.measurements("outliers", sensor.getOutliers());
+      } else if (report instanceof NetworkReport network) {
+        encoder.values("mostActiveGateways", network.getMostActiveGateways());
+        encoder.values("leastActiveGateways", network.getLeastActiveGateways());
+        encoder.entries("gatewaysLoadRatio", network.getGatewaysLoadRatio());
+      }
+      encoder.histogram("histogram", report.getHistogram());
+      encoder.endReport();
+    }
+    encoder.endReports();
+    writer.flush();
+  }
+
+  /**
+   * Writes the measurements of the given gateways taken within the given
+   * interval, gateway after gateway. The measurements of each gateway are
+   * read from the shards holding its data one after the other, in chunks
+   * ordered by timestamp: with a single shard the whole gateway is in
+   * chronological order.
+   *
+   * @param services     state of the system, with the shards to read
+   * @param gatewayCodes gateway codes
+   * @param startDate    inclusive lower bound ({@code null} for no bound)
+   * @param endDate      inclusive upper bound ({@code null} for no bound)
+   * @param format       encoding
+   * @param out          destination, flushed at the end but not closed
+   * @return number of measurements written
+   * @throws IOException if the destination cannot be written
+   */
+  public static long writeMeasurements(ReportServices services, Collection<String> gatewayCodes,
+      LocalDateTime startDate, LocalDateTime endDate, ExportFormat format, OutputStream out) throws IOException {
+    long written = writeMeasurements(services, gatewayCodes, startDate, endDate, format, Channels.newChannel(out));
+    out.flush();
+    return written;
+  }
+
+  /**
+   * Writes the measurements of the given gateways taken within the given
+   * interval, see
+   * {@link #writeMeasurements(ReportServices, Collection, LocalDateTime, LocalDateTime, ExportFormat, OutputStream)}.
+   *
+   * @param services     state of the system, with the shards to read
+   * @param gatewayCodes gateway codes
+   * @param startDate    inclusive lower bound ({@code null} for no bound)
+   * @param endDate      inclusive upper bound ({@code null} for no bound)
+   * @param format       encoding
+   * @param channel      blocking destination, not closed
+   * @return number of measurements written
+   * @throws IOException if the destination cannot be written
+   */
+  public static long writeMeasurements(ReportServices services, Collection<String> gatewayCodes,
+      LocalDateTime startDate, LocalDateTime endDate, ExportFormat format, WritableByteChannel channel)
+      throws IOException {
+    Shards shards = services.getShards();
+    MeasurementRepository repository = new MeasurementRepository(shards);
+    ExportWriter writer = new ExportWriter(channel);
+    Encoder encoder = format == ExportFormat.CSV ? new CsvEncoder(writer) : new JsonEncoder(writer);
+    long written = 0;
+    encoder.beginMeasurements();
+    for (String gatewayCode : gatewayCodes) {
+      for (int shard : new TreeSet<>(shards.shardsOfGateway(gatewayCode))) {
+        //ogni chunk riparte dall'ultima misurazione del precedente
+        LocalDateTime afterTimestamp = startDate;
+        long afterId = -1;
+        List<Measurement> chunk;
+        do {
+          chunk = repository.readChunkByGateway(shard, gatewayCode, afterTimestamp, afterId, endDate, CHUNK_SIZE);
+          for (Measurement measurement : chunk) {
+            encoder.measurement(measurement);
+          }
+          if (!chunk.isEmpty()) {
+            Measurement last = chunk.get(chunk.size() - 1);
+            afterTimestamp = last.getTimestamp();
+            afterId = last.getId();
+            written += chunk.size();
+          }
+        } while (chunk.size() == CHUNK_SIZE);
+      }
+    }
+    encoder.endMeasurements();
+    writer.flush();
+    return written;
+  }
+
+  /**
+   * Text buffer of bounded size, encoded as UTF-8 and drained to the
+   * destination channel whenever it reaches {@value #BUFFER_SIZE} characters.
+   */
+  private static final class ExportWriter {
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder charsetEncoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final StringBuilder pending = new StringBuilder(BUFFER_SIZE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+    ExportWriter(WritableByteChannel channel) {
+      this.channel = channel;
+    }
+
+    ExportWriter append(String text) {
+      pending.append(text);
+      return this;
+    }
+
+    ExportWriter append(char c) {
+      pending.append(c);
+      return this;
+    }
+
+    //chiamato solo al termine di un record, così una coppia surrogata non viene mai spezzata
+    void endRecord() throws IOException {
+      if (pending.length() >= BUFFER_SIZE) {
+        flush();
+      }
+    }
+
+    void flush() throws IOException {
+      CharBuffer chars = CharBuffer.wrap(pending);
+      charsetEncoder.reset();
+      CoderResult result;
+      do {
+        result = charsetEncoder.encode(chars, bytes, true);
+        if (result.isOverflow()) {
+          drain();
+        }
+      } while (result.isOverflow());
+      while (charsetEncoder.flush(bytes).isOverflow()) {
+        drain();
+      }
+      drain();
+      pending.setLength(0);
+    }
+
+    private void drain() throws IOException {
+      bytes.flip();
+      while (bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+      bytes.clear();
+    }
+
+  }
+
+  /**
+   * Encoding of the report sections and measurements in one of the
+   * {@link ExportFormat}s.
+   */
+  private interface Encoder {
+
+    void beginReports() throws IOException;
+
+    void beginReport(String code) throws IOException;
+
+    void scalar(String section, Object value) throws IOException;
+
+    void values(String section, Collection<?> values) throws IOException;
+
+    void entries(String section, Map<?, ?> entries) throws IOException;
+
+    void histogram(String section, SortedMap<? extends Range<?>, Long> histogram) throws IOException;
+
+    void measurements(String section, Collection<Measurement> measurements) throws IOException;
+
+    void endReport() throws IOException;
+
+    void endReports() throws IOException;
+
+    void beginMeasurements() throws IOException;
+
+    void measurement(Measurement measurement) throws IOException;
+
+    void endMeasurements() throws IOException;
+
+  }
+
+  /**
+   * Reports as one {@value ReportExportService#REPORT_HEADER} row per entry,
+   * measurements with the columns of the import files.
+   */
+  private static final class CsvEncoder implements Encoder {
+
+    private final ExportWriter writer;
+    private String code;
+
+    CsvEncoder(ExportWriter writer) {
+      this.writer = writer;
+    }
+
+    @Override
+    public void beginReports() throws IOException {
+      writer.append(REPORT_HEADER).append('\n');
+    }
+
+    @Override
+    public void beginReport(String code) {
+      this.code = code;
+    }
+
+    @Override
+    public void scalar(String section, Object value) throws IOException {
+      row(section, null, value);
+    }
+
+    @Override
+    public void values(String section, Collection<?> values) throws IOException {
+      for (Object value : values) {
+        row(section, null, value);
+      }
+    }
+
+    @Override
+    public void entries(String section, Map<?, ?> entries) throws IOException {
+      for (Map.Entry<?, ?> entry : entries.entrySet()) {
+        row(section, entry.getKey(), entry.getValue());
+      }
+    }
+
+    @Override
+    public void histogram(String section, SortedMap<? extends Range<?>, Long> histogram) throws IOException {
+      for (Map.Entry<? extends Range<?>, Long> bucket : histogram.entrySet()) {
+        //intervallo nella notazione ISO 8601 inizio/fine
+        row(section, text(bucket.getKey().getStart()) + "/" + text(bucket.getKey().getEnd()), bucket.getValue());
+      }
+    }
+
+    @Override
+    public void measurements(String section, Collection<Measurement> measurements) throws IOException {
+      for (Measurement measurement : measurements) {
+        row(section, measurement.getTimestamp(), measurement.getValue());
+      }
+    }
+
+    private void row(String section, Object key, Object value) throws IOException {
+      writer.append(field(text(code))).append(',').append(section).append(',').append(field(text(key))).append(',')
+          .append(field(text(value))).append('\n');
+      writer.endRecord();
+    }
+
+    @Override
+    public void endReport() {
+      code = null;
+    }
+
+    @Override
+    public void endReports() {
+      // nessun terminatore
+    }
+
+    @Override
+    public void beginMeasurements() {
+      writer.append(MEASUREMENT_HEADER).append('\n');
+    }
+
+    @Override
+    public void measurement(Measurement measurement) throws IOException {
+      writer.append(text(measurement.getTimestamp())).append(',').append(field(measurement.getNetworkCode()))
+          .append(',').append(field(measurement.getGatewayCode())).append(',')
+          .append(field(measurement.getSensorCode())).append(',').append(String.valueOf(measurement.getValue()))
+          .append('\n');
+      writer.endRecord();
+    }
+
+    @Override
+    public void endMeasurements() {
+      // nessun terminatore
+    }
+
+    //RFC 4180: i campi con separatori, virgolette o a capo vanno tra virgolette
+    private static String field(String text) {
+      if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+        return text;
+      }
+      return '"' + text.replace("\"", "\"\"") + '"';
+    }
+
+  }
+
+  /**
+   * Reports and measurements as a JSON array of objects. Report sections are
+   * the fields of the object: collections become arrays, maps objects and
+   * histograms arrays of {@code start}, {@code end} and {@code count}.
+   */
+  private static final class JsonEncoder implements Encoder {
+
+    private final ExportWriter writer;
+    private boolean firstElement;
+
+    JsonEncoder(ExportWriter writer) {
+      this.writer = writer;
+    }
+
+    @Override
+    public void beginReports() {
+      writer.append('[');
+      firstElement = true;
+    }
+
+    @Override
+    public void beginReport(String code) {
+      element();
+      writer.append("{\"code\":").append(value(code));
+    }
+
+    @Override
+    public void scalar(String section, Object value) {
+      field(section).append(value(value));
+    }
+
+    @Override
+    public void values(String section, Collection<?> values) {
+      field(section).append('[');
+      String separator = "";
+      for (Object value : values) {
+        writer.append(separator).append(value(value));
+        separator = ",";
+      }
+      writer.append(']');
+    }
+
+    @Override
+    public void entries(String section, Map<?, ?> entries) {
+      field(section).append('{');
+      String separator = "";
+      for (Map.Entry<?, ?> entry : entries.entrySet()) {
+        writer.append(separator).append(string(text(entry.getKey()))).append(':').append(value(entry.getValue()));
+        separator = ",";
+      }
+      writer.append('}');
+    }
+
+    @Override
+    public void histogram(String section, SortedMap<? extends Range<?>, Long> histogram) {
+      field(section).append('[');
+      String separator = "";
+      for (Map.Entry<? extends Range<?>, Long> bucket : histogram.entrySet()) {
+        writer.append(separator).append("{\"start\":").append(value(bucket.getKey().getStart()))
+            .append(",\"end\":").append(value(bucket.getKey().getEnd()))
+            .append(",\"count\":").append(value(bucket.getValue())).append('}');
+        separator = ",";
+      }
+      writer.append(']');
+    }
+
+    @Override
+    public void measurements(String section, Collection<Measurement> measurements) {
+      field(section).append('[');
+      String separator = "";
+      for (Measurement measurement : measurements) {
+        writer.append(separator);
+        object(measurement);
+        separator = ",";
+      }
+      writer.append(']');
+    }
+
+    @Override
+    public void endReport() throws IOException {
+      writer.append('}');
+      writer.endRecord();
+    }
+
+    @Override
+    public void endReports() {
+      writer.append("]\n");
+    }
+
+    @Override
+    public void beginMeasurements() {
+      beginReports();
+    }
+
+    @Override
+    public void measurement(Measurement measurement) throws IOException {
+      element();
+      object(measurement);
+      writer.endRecord();
+    }
+
+    @Override
+    public void endMeasurements() {
+      endReports();
+    }
+
+    private void element() {
+      if (!firstElement) {
+        writer.append(',');
+      }
+      firstElement = false;
+      writer.append('\n');
+    }
+
+    private ExportWriter field(String name) {
+      return writer.append(",\"").append(name).append("\":");
+    }
+
+    private void object(Measurement measurement) {
+      writer.append("{\"date\":").append(value(measurement.getTimestamp()))
+          .append(",\"networkCode\":").append(value(measurement.getNetworkCode()))
+          .append(",\"gatewayCode\":").append(value(measurement.getGatewayCode()))
+          .append(",\"sensorCode\":").append(value(measurement.getSensorCode()))
+          .append(",\"value\":").append(value(measurement.getValue())).append('}');
+    }
+
+    private static String value(Object value) {
+      if (value == null) {
+        return "null";
+      }
+      if (value instanceof Number number) {
+        //NaN e infiniti non sono numeri JSON validi
+        return number instanceof Double d && !Double.isFinite(d) ? "null" : number.toString();
+      }
+      return string(text(value));
+    }
+
+    private static String string(String text) {
+      StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+      for (int i = 0; i < text.length(); i++) {
+        char c = text.charAt(i);
+        switch (c) {
+          case '"' -> quoted.append("\\\"");
+          case '\\' -> quoted.append("\\\\");
+          case '\n' -> quoted.append("\\n");
+          case '\r' -> quoted.append("\\r");
+          case '\t' -> quoted.append("\\t");
+          default -> {
+            if (c < 0x20) {
+              quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+              quoted.append(c);
+            }
+          }
+        }
+      }
+      return quoted.append('"').toString();
+    }
+
+  }
+
+  //date nel formato usato dal sistema, il resto con la rappresentazione standard (Duration in ISO 8601)
+  private static String text(Object value) {
+    if (value == null) {
+      return "";
+    }
+    if (value instanceof LocalDateTime timestamp) {
+      return timestamp.format(WeatherReport.DATE_TIME_FORMATTER);
+    }
+    return value.toString();
+  }
+
+}
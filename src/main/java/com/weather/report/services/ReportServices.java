@@ -0,0 +1,95 @@
+package com.weather.report.services;
+
+import com.weather.report.persistence.Shards;
+
+/**
+ * In-memory state kept next to the database by one
+ * {@link com.weather.report.WeatherReport}: the {@link Shards} the
+ * measurements are spread across, the {@link ReportCache} of the computed
+ * reports, the {@link LiveStatisticsService} counters of the gateways, the
+ * {@link ActivityService} sketches and the {@link RollingWindowService}
+ * windows.
+ * <p>
+ * The instance is created with the system and handed to the operations and
+ * services that read or update it, so two systems in the same process never
+ * share or clear each other's state.
+ */
+public class ReportServices implements AutoCloseable {
+
+  private final Shards shards;
+  private final ReportCache reportCache = new ReportCache();
+  private final LiveStatisticsService liveStatistics = new LiveStatisticsService();
+  private final RollingWindowService rollingWindows = new RollingWindowService();
+  private final ActivityService activity;
+
+  /**
+   * Creates the state of a system storing everything in the main database.
+   */
+  public ReportServices() {
+    this(1);
+  }
+
+  /**
+   * @param shardCount number of databases the measurements are spread across,
+   *                   at least 1
+   */
+  public ReportServices(int shardCount) {
+    this.shards = new Shards(shardCount);
+    this.activity = new ActivityService(shards, liveStatistics);
+  }
+
+  /**
+   * @return the databases the measurements are spread across
+   */
+  public Shards getShards() {
+    return shards;
+  }
+
+  /**
+   * @return the cache of the computed reports
+   */
+  public ReportCache getReportCache() {
+    return reportCache;
+  }
+
+  /**
+   * @return the live all-time counters of the gateways
+   */
+  public LiveStatisticsService getLiveStatistics() {
+    return liveStatistics;
+  }
+
+  /**
+   * @return the approximate activity of the gateways and networks
+   */
+  public ActivityService getActivity() {
+    return activity;
+  }
+
+  /**
+   * @return the rolling windows of the last imported measurements
+   */
+  public RollingWindowService getRollingWindows() {
+    return rollingWindows;
+  }
+
+  /**
+   * Drops everything derived from the previous content of the database, as
+   * after a snapshot is restored.
+   */
+  public void clear() {
+    reportCache.clear();
+    liveStatistics.clear();
+    rollingWindows.clear();
+    activity.clear();
+  }
+
+  /**
+   * Releases the shard databases and their thread pool.
+   */
+  @Override
+  public void close() {
+    shards.close();
+  }
+
+}
@@ -0,0 +1,50 @@
+package com.weather.report.services;
+
+import java.time.Duration;
+import java.util.Objects;
+
+import com.weather.report.model.AggregationGranularity;
+
+/**
+ * Configuration of the {@link RetentionService}: raw measurements older than
+ * {@code maxAge} are rolled up into aggregates of the given granularity and
+ * then deleted, {@code chunkSize} rows at a time.
+ */
+public class RetentionPolicy {
+
+  private final Duration maxAge;
+  private final AggregationGranularity granularity;
+  private final int chunkSize;
+
+  /**
+   * Builds a retention policy.
+   *
+   * @param maxAge      age after which raw measurements are rolled up, greater
+   *                    than zero
+   * @param granularity width of the aggregate buckets
+   * @param chunkSize   maximum number of raw rows handled per transaction
+   */
+  public RetentionPolicy(Duration maxAge, AggregationGranularity granularity, int chunkSize) {
+    Objects.requireNonNull(maxAge);
+    Objects.requireNonNull(granularity);
+    if (maxAge.isNegative() || maxAge.isZero() || chunkSize <= 0) {
+      throw new IllegalArgumentException("Retention age must be positive and chunk size greater than zero");
+    }
+    this.maxAge = maxAge;
+    this.granularity = granularity;
+    this.chunkSize = chunkSize;
+  }
+
+  public Duration getMaxAge() {
+    return maxAge;
+  }
+
+  public AggregationGranularity getGranularity() {
+    return granularity;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+}
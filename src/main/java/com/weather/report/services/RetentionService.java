@@ -0,0 +1,258 @@
+package com.weather.report.services;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.weather.report.model.AggregationGranularity;
+import com.weather.report.model.entities.Measurement;
+import com.weather.report.model.entities.MeasurementAggregate;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.persistence.UnitOfWork;
+import com.weather.report.repositories.MeasurementAggregateRepository;
+import com.weather.report.repositories.MeasurementRepository;
+
+/**
+ * Service applying the retention policy to the stored measurements: raw rows
+ * older than the configured age are rolled up into hourly or daily
+ * {@link MeasurementAggregate}s and then removed with bulk deletes, so that the
+ * measurement table only keeps recent data. Reports read the aggregates for the
+ * older part of their interval.
+ * <p>
+ * Work is always done in chunks of {@link RetentionPolicy#getChunkSize()}
+ * rows, each folded, deleted by id and committed in its own transaction, so
+ * locks and undo stay bounded and an interrupted run leaves consistent data.
+ * Time partitions that lie entirely before the cutoff are paged by partition
+ * key and id (see {@link MeasurementRepository#readPartition(LocalDate, long, int)}),
+ * which seeks straight to each chunk; only the partition containing the cutoff
+ * is paged by timestamp.
+ */
+public class RetentionService {
+
+  private static final Logger logger = LogManager.getLogger(RetentionService.class);
+
+  private final ReportServices services;
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * @param services in-memory state invalidated by the rolled up measurements
+   */
+  public RetentionService(ReportServices services) {
+    this.services = services;
+  }
+
+  /**
+   * Starts applying the policy periodically on a background thread, replacing
+   * any previous schedule. A {@link com.weather.report.WeatherReport} created
+   * with a retention policy starts it and stops it when closed.
+   *
+   * @param policy retention policy
+   * @param period time between two runs
+   */
+  public synchronized void start(RetentionPolicy policy, Duration period) {
+    stop();
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "measurement-retention");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        apply(policy);
+      } catch (RuntimeException e) {
+        logger.error("Retention run failed", e);
+      }
+    }, 0, period.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops the periodic retention, if started, waiting for a run in progress to
+   * complete so that no measurement is rolled up after this method returns.
+   */
+  public synchronized void stop() {
+    if (scheduler != null) {
+      //niente interrupt: una esecuzione in corso termina la propria transazione
+      scheduler.shutdown();
+      try {
+        if (!scheduler.awaitTermination(1, TimeUnit.MINUTES)) {
+          logger.warn("Retention run still in progress after stop");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      scheduler = null;
+    }
+  }
+
+  /**
+   * Applies the policy once, relative to the current time.
+   *
+   * @param policy retention policy
+   * @return number of raw measurements rolled up and deleted
+   */
+  public long apply(RetentionPolicy policy) {
+    return apply(policy, LocalDateTime.now());
+  }
+
+  /**
+   * Applies the policy once: rolls up every raw measurement older than
+   * {@code now - maxAge}, one chunk per transaction. Shards are handled in
+   * parallel.
+   * <p>
+   * The cutoff is truncated to the granularity, so a bucket is only rolled up
+   * once all of its measurements are old enough; measurements arriving later
+   * for an already rolled bucket are merged into the existing aggregate.
+   *
+   * @param policy retention policy
+   * @param now    reference instant
+   * @return number of raw measurements rolled up and deleted
+   */
+  public long apply(RetentionPolicy policy, LocalDateTime now) {
+    LocalDateTime cutoff = policy.getGranularity().truncate(now.minus(policy.getMaxAge()));
+    //ogni shard contiene misurazioni e aggregati delle proprie reti: la retention procede in parallelo
+    long rolledUp;
+    services.getLiveStatistics().beginWrite();
+    try {
+      rolledUp = services.getShards().onAllShards(() -> applyOnShard(policy, cutoff)).stream()
+          .mapToLong(Long::longValue).sum();
+    } finally {
+      services.getLiveStatistics().endWrite();
+    }
+
+    if (rolledUp > 0) {
+      //i report che includono misurazioni aggregate perdono i tempi di interarrivo di quelle misurazioni
+      services.getReportCache().invalidateBefore(cutoff);
+      services.getLiveStatistics().clear();
+      logger.info(String.format("Rolled up %d measurements older than %s into %s aggregates", rolledUp, cutoff,
+          policy.getGranularity()));
+    }
+    return rolledUp;
+  }
+
+  /**
+   * Applies the policy to the shard the current thread is working on.
+   *
+   * @return number of raw measurements rolled up and deleted
+   */
+  private long applyOnShard(RetentionPolicy policy, LocalDateTime cutoff) {
+    MeasurementRepository measurementRepository = new MeasurementRepository(services.getShards());
+    MeasurementAggregateRepository aggregateRepository = new MeasurementAggregateRepository(services.getShards());
+
+    long rolledUp = 0;
+    LocalDate cutoffPartition = PersistenceManager.getPartitionScheme().partitionOf(cutoff);
+    for (LocalDate partition : measurementRepository.readPartitionsBefore(cutoffPartition)) {
+      rolledUp += rollUpPartition(policy, partition, measurementRepository, aggregateRepository);
+    }
+
+    //nella partizione che contiene il cutoff solo una parte delle righe è scaduta
+    int chunk;
+    do {
+      chunk = rollUpChunk(policy, () -> measurementRepository.readOlderThan(cutoff, policy.getChunkSize()),
+          measurementRepository, aggregateRepository).size();
+      rolledUp += chunk;
+    } while (chunk == policy.getChunkSize());
+    return rolledUp;
+  }
+
+  /**
+   * Rolls up and deletes a whole expired partition, one chunk per transaction.
+   *
+   * @return number of measurements handled
+   */
+  private static long rollUpPartition(RetentionPolicy policy, LocalDate partition,
+      MeasurementRepository measurementRepository, MeasurementAggregateRepository aggregateRepository) {
+    long rolledUp = 0;
+    long lastId = Long.MIN_VALUE;
+    List<Measurement> measurements;
+    do {
+      //ogni chunk riparte dall'ultimo id del precedente, già cancellato
+      long afterId = lastId;
+      measurements = rollUpChunk(policy,
+          () -> measurementRepository.readPartition(partition, afterId, policy.getChunkSize()),
+          measurementRepository, aggregateRepository);
+      if (!measurements.isEmpty()) {
+        lastId = measurements.get(measurements.size() - 1).getId();
+        rolledUp += measurements.size();
+      }
+    } while (measurements.size() == policy.getChunkSize());
+    return rolledUp;
+  }
+
+  /**
+   * Rolls up and deletes one chunk of raw measurements in a single transaction.
+   *
+   * @param reader reads the next chunk, at most {@link RetentionPolicy#getChunkSize()} rows
+   * @return the measurements handled
+   */
+  private static List<Measurement> rollUpChunk(RetentionPolicy policy, Supplier<List<Measurement>> reader,
+      MeasurementRepository measurementRepository, MeasurementAggregateRepository aggregateRepository) {
+    try (UnitOfWork unitOfWork = PersistenceManager.beginUnitOfWork()) {
+      List<Measurement> measurements = reader.get();
+      if (measurements.isEmpty()) {
+        return measurements;
+      }
+
+      Map<String, Map<LocalDateTime, MeasurementAggregate>> chunkAggregates = new HashMap<>();
+      fold(measurements, policy.getGranularity(), chunkAggregates);
+      storeAggregates(chunkAggregates, policy.getGranularity(), aggregateRepository);
+
+      //cancello esattamente le righe aggregate: quelle salvate nel frattempo da altri restano al prossimo giro
+      measurementRepository.deleteByIds(measurements.stream().map(Measurement::getId).toList());
+
+      unitOfWork.commit();
+      return measurements;
+    }
+  }
+
+  /**
+   * Adds the measurements to the aggregates of their sensor and bucket.
+   *
+   * @param measurements measurements to fold
+   * @param granularity  width of the buckets
+   * @param aggregates   aggregates grouped by sensor code and bucket start
+   */
+  private static void fold(List<Measurement> measurements, AggregationGranularity granularity,
+      Map<String, Map<LocalDateTime, MeasurementAggregate>> aggregates) {
+    for (Measurement measurement : measurements) {
+      LocalDateTime bucketStart = granularity.truncate(measurement.getTimestamp());
+      aggregates.computeIfAbsent(measurement.getSensorCode(), sensorCode -> new HashMap<>())
+          .computeIfAbsent(bucketStart, start -> new MeasurementAggregate(measurement.getNetworkCode(),
+              measurement.getGatewayCode(), measurement.getSensorCode(), granularity, start))
+          .add(measurement.getValue());
+    }
+  }
+
+  /**
+   * Writes the aggregates, merging them with the buckets already stored.
+   *
+   * @param aggregates          aggregates grouped by sensor code and bucket start
+   * @param granularity         width of the buckets
+   * @param aggregateRepository repository of the aggregates
+   */
+  private static void storeAggregates(Map<String, Map<LocalDateTime, MeasurementAggregate>> aggregates,
+      AggregationGranularity granularity, MeasurementAggregateRepository aggregateRepository) {
+    //un bucket può essere già stato scritto da un chunk o da un'esecuzione precedente
+    for (Map<LocalDateTime, MeasurementAggregate> sensorAggregates : aggregates.values()) {
+      for (MeasurementAggregate aggregate : sensorAggregates.values()) {
+        MeasurementAggregate stored = aggregateRepository.readBucket(aggregate.getSensorCode(), granularity,
+            aggregate.getBucketStart());
+        if (stored == null) {
+          aggregateRepository.create(aggregate);
+        } else {
+          stored.merge(aggregate);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,286 @@
+package com.weather.report.services;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import com.weather.report.model.entities.Measurement;
+import com.weather.report.reports.MinuteRing;
+import com.weather.report.reports.RollingGatewayReport;
+import com.weather.report.reports.RollingSensorReport;
+import com.weather.report.reports.RunningStatistics;
+
+/**
+ * Keeps per-minute aggregates of the last imported measurements of every
+ * sensor and gateway, in a {@link MinuteRing} each, so that "last hour" or
+ * "last 24 hours" reports are assembled from at most one bucket per minute of
+ * the window instead of reading the measurements again.
+ * <p>
+ * Windows end with the minute of the latest imported measurement, and every
+ * imported batch advances them once it is committed. Measurements older than
+ * the longest window ({@link #setMaxWindow(Duration)}, 24 hours by default)
+ * are not kept. Each ring takes about 70 KB with the default, allocated when
+ * the first measurement of its sensor or gateway is imported. As for
+ * {@link LiveStatisticsService}, data written directly through the
+ * repositories is not tracked, and each system instance has its own windows
+ * and listeners (see {@link ReportServices}).
+ * <p>
+ * Listeners registered with {@link #subscribeToSensor} or
+ * {@link #subscribeToGateway} are called on the importing thread after each
+ * batch that changes their window. That happens when the batch contains
+ * measurements of their sensor or gateway, or when it moves the end of every
+ * window forward.
+ */
+public class RollingWindowService {
+
+  private static final long SECONDS_PER_MINUTE = 60;
+
+  private int capacity = (int) Duration.ofHours(24).toMinutes();
+  private final Map<String, MinuteRing> sensors = new HashMap<>();
+  private final Map<String, MinuteRing> gateways = new HashMap<>();
+  private final Map<String, Set<String>> sensorsByGateway = new HashMap<>();
+  private final List<Subscription<?>> subscriptions = new ArrayList<>();
+  //minuto dell'ultima misurazione importata, fine di tutte le finestre
+  private long lastMinute = Long.MIN_VALUE;
+
+  /**
+   * Registration of a listener, see {@link #subscribeToSensor} and
+   * {@link #subscribeToGateway}.
+   */
+  public interface Registration extends AutoCloseable {
+
+    /**
+     * Stops the notifications.
+     */
+    @Override
+    void close();
+
+  }
+
+  private record Subscription<R>(RollingWindowService service, String code, int minutes, boolean gateway,
+      Consumer<R> listener) implements Registration {
+
+    @Override
+    public void close() {
+      service.unsubscribe(this);
+    }
+
+    @SuppressWarnings("unchecked")
+    void deliver(Object report) {
+      listener.accept((R) report);
+    }
+
+  }
+
+  /**
+   * Sets the longest window that can be requested, dropping the aggregates
+   * kept so far.
+   *
+   * @param maxWindow whole number of minutes, at least one
+   */
+  public synchronized void setMaxWindow(Duration maxWindow) {
+    capacity = minutesOf(maxWindow, Integer.MAX_VALUE);
+    clear();
+  }
+
+  /**
+   * Adds a committed batch of measurements to the windows and notifies the
+   * listeners whose window changed.
+   *
+   * @param batch stored measurements
+   */
+  public void record(List<Measurement> batch) {
+    List<Subscription<?>> changed = new ArrayList<>();
+    List<Object> reports = new ArrayList<>();
+    synchronized (this) {
+      long previousLast = lastMinute;
+      Set<String> touched = new HashSet<>();
+      for (Measurement measurement : batch) {
+        lastMinute = Math.max(lastMinute, minuteOf(measurement.getTimestamp()));
+      }
+      for (Measurement measurement : batch) {
+        long minute = minuteOf(measurement.getTimestamp());
+        //le misurazioni più vecchie della finestra più lunga non possono entrare in nessuna finestra
+        if (minute <= lastMinute - capacity) {
+          continue;
+        }
+        sensors.computeIfAbsent(measurement.getSensorCode(), code -> new MinuteRing(capacity))
+            .add(minute, measurement.getValue());
+        gateways.computeIfAbsent(measurement.getGatewayCode(), code -> new MinuteRing(capacity))
+            .add(minute, measurement.getValue());
+        sensorsByGateway.computeIfAbsent(measurement.getGatewayCode(), code -> new LinkedHashSet<>())
+            .add(measurement.getSensorCode());
+        touched.add(measurement.getSensorCode());
+        touched.add(measurement.getGatewayCode());
+      }
+      //i report sono calcolati sotto il lock, i listener chiamati fuori
+      for (Subscription<?> subscription : subscriptions) {
+        if (lastMinute != previousLast || touched.contains(subscription.code())) {
+          changed.add(subscription);
+          reports.add(subscription.gateway() ? gatewayReport(subscription.code(), subscription.minutes())
+              : sensorReport(subscription.code(), subscription.minutes()));
+        }
+      }
+    }
+    for (int i = 0; i < changed.size(); i++) {
+      try {
+        changed.get(i).deliver(reports.get(i));
+      } catch (RuntimeException e) {
+        //un listener difettoso non deve interrompere l'import
+        System.err.println("Rolling window listener failed: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Statistics of a sensor over the last minutes of imported data.
+   *
+   * @param sensorCode sensor code
+   * @param window     length of the window, a whole number of minutes up to
+   *                   the longest window
+   * @return the report of the window, with no measurements if none of the
+   *         sensor falls in it
+   */
+  public synchronized RollingSensorReport getSensorReport(String sensorCode, Duration window) {
+    return sensorReport(sensorCode, minutesOf(window, capacity));
+  }
+
+  /**
+   * Activity of a gateway over the last minutes of imported data.
+   *
+   * @param gatewayCode gateway code
+   * @param window      length of the window, a whole number of minutes up to
+   *                    the longest window
+   * @return the report of the window, with no measurements if none of the
+   *         gateway falls in it
+   */
+  public synchronized RollingGatewayReport getGatewayReport(String gatewayCode, Duration window) {
+    return gatewayReport(gatewayCode, minutesOf(window, capacity));
+  }
+
+  /**
+   * Calls a listener with the new report of a sensor window after each import
+   * that changes it.
+   *
+   * @param sensorCode sensor code
+   * @param window     length of the window, as for {@link #getSensorReport}
+   * @param listener   listener, called on the importing thread
+   * @return the registration, to be closed to stop the notifications
+   */
+  public synchronized Registration subscribeToSensor(String sensorCode, Duration window,
+      Consumer<RollingSensorReport> listener) {
+    return subscribe(new Subscription<>(this, sensorCode, minutesOf(window, capacity), false, listener));
+  }
+
+  /**
+   * Calls a listener with the new report of a gateway window after each
+   * import that changes it.
+   *
+   * @param gatewayCode gateway code
+   * @param window      length of the window, as for {@link #getGatewayReport}
+   * @param listener    listener, called on the importing thread
+   * @return the registration, to be closed to stop the notifications
+   */
+  public synchronized Registration subscribeToGateway(String gatewayCode, Duration window,
+      Consumer<RollingGatewayReport> listener) {
+    return subscribe(new Subscription<>(this, gatewayCode, minutesOf(window, capacity), true, listener));
+  }
+
+  private Registration subscribe(Subscription<?> subscription) {
+    Objects.requireNonNull(subscription.code());
+    Objects.requireNonNull(subscription.listener());
+    subscriptions.add(subscription);
+    return subscription;
+  }
+
+  private synchronized void unsubscribe(Subscription<?> subscription) {
+    //confronto per identità: due sottoscrizioni uguali restano distinte
+    subscriptions.removeIf(s -> s == subscription);
+  }
+
+  /**
+   * Drops the aggregates of all the sensors and gateways. Listeners stay
+   * registered.
+   */
+  public synchronized void clear() {
+    sensors.clear();
+    gateways.clear();
+    sensorsByGateway.clear();
+    lastMinute = Long.MIN_VALUE;
+  }
+
+  private RollingSensorReport sensorReport(String sensorCode, int minutes) {
+    if (lastMinute == Long.MIN_VALUE) {
+      return new RollingSensorReport(sensorCode, null, null, 0, 0, 0, 0, 0, 0);
+    }
+    long first = lastMinute - minutes + 1;
+    MinuteRing ring = sensors.get(sensorCode);
+    RunningStatistics statistics = ring == null ? new RunningStatistics() : ring.summarize(first, lastMinute);
+    return new RollingSensorReport(sensorCode, timestampOf(first), timestampOf(lastMinute + 1), statistics.getCount(),
+        statistics.getMean(), statistics.getVariance(), statistics.getStdDev(), statistics.getMinimum(),
+        statistics.getMaximum());
+  }
+
+  private RollingGatewayReport gatewayReport(String gatewayCode, int minutes) {
+    if (lastMinute == Long.MIN_VALUE) {
+      return new RollingGatewayReport(gatewayCode, null, null, 0, 0, 0, 0, List.of(), List.of(), Map.of());
+    }
+    long first = lastMinute - minutes + 1;
+    MinuteRing ring = gateways.get(gatewayCode);
+    RunningStatistics statistics = ring == null ? new RunningStatistics() : ring.summarize(first, lastMinute);
+
+    Map<String, Long> counts = new HashMap<>();
+    for (String sensorCode : sensorsByGateway.getOrDefault(gatewayCode, Set.of())) {
+      long count = sensors.get(sensorCode).count(first, lastMinute);
+      if (count > 0) {
+        counts.put(sensorCode, count);
+      }
+    }
+    long maxCount = counts.values().stream().mapToLong(Long::longValue).max().orElse(0);
+    long minCount = counts.values().stream().mapToLong(Long::longValue).min().orElse(0);
+    List<String> mostActive = new ArrayList<>();
+    List<String> leastActive = new ArrayList<>();
+    Map<String, Double> loadRatio = new HashMap<>();
+    //i rapporti sono calcolati sulla somma dei sensori nella finestra, così sommano a 1
+    long total = counts.values().stream().mapToLong(Long::longValue).sum();
+    counts.forEach((sensorCode, count) -> {
+      if (count == maxCount) {
+        mostActive.add(sensorCode);
+      }
+      if (count == minCount) {
+        leastActive.add(sensorCode);
+      }
+      loadRatio.put(sensorCode, (double) count / total);
+    });
+    return new RollingGatewayReport(gatewayCode, timestampOf(first), timestampOf(lastMinute + 1),
+        statistics.getCount(), statistics.getMean(), statistics.getMinimum(), statistics.getMaximum(), mostActive,
+        leastActive, loadRatio);
+  }
+
+  private static int minutesOf(Duration window, int maxMinutes) {
+    if (window == null || window.isNegative() || window.isZero() || window.toSecondsPart() != 0
+        || window.toNanosPart() != 0 || window.toMinutes() > maxMinutes) {
+      throw new IllegalArgumentException("Window must be a whole number of minutes, between 1 and " + maxMinutes);
+    }
+    return (int) window.toMinutes();
+  }
+
+  //i timestamp sono UTC, come per le altre aggregazioni temporali
+  private static long minuteOf(LocalDateTime timestamp) {
+    return Math.floorDiv(timestamp.toEpochSecond(ZoneOffset.UTC), SECONDS_PER_MINUTE);
+  }
+
+  private static LocalDateTime timestampOf(long minute) {
+    return LocalDateTime.ofEpochSecond(minute * SECONDS_PER_MINUTE, 0, ZoneOffset.UTC);
+  }
+
+}
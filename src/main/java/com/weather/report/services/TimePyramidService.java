@@ -0,0 +1,210 @@
+package com.weather.report.services;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.weather.report.model.AggregationGranularity;
+import com.weather.report.model.MeasurementValue;
+import com.weather.report.model.entities.MeasurementCount;
+import com.weather.report.persistence.Shards;
+import com.weather.report.reports.CompactHistogram;
+import com.weather.report.reports.HistogramBuilder;
+import com.weather.report.repositories.MeasurementCountRepository;
+
+/**
+ * Hourly or daily histograms of the measurements of gateways over long
+ * intervals, read from the pyramid of minute, hour and day counts written with
+ * the measurements ({@link MeasurementCount}) instead of the raw rows.
+ * <p>
+ * The buckets are those of {@link HistogramBuilder#ofCalendarBuckets}: hourly
+ * up to 48 hours, daily beyond, the first and last truncated to the interval.
+ * Each bucket is covered by the coarsest whole units it contains: whole days,
+ * then whole hours, then whole minutes towards its edges, and consecutive
+ * units of the same level are read with one query for all the gateways
+ * sharing them. A yearly histogram thus reads one row per day plus a few hours
+ * and minutes at the bounds. Only the sub-minute remainders at the bounds, and
+ * the inclusive end, are counted on the raw measurements, which the report
+ * has already read. A missing bound is the first or last measurement of the
+ * gateway: nothing lies beyond it, so the bucket holding it is read whole from
+ * the pyramid.
+ * <p>
+ * Counts survive the retention policy, while the raw remainders do not: a
+ * bound falling inside a rolled-up minute loses the measurements of that
+ * partial minute, as the partial hours are left out of the other counters of
+ * the gateway report.
+ */
+public class TimePyramidService {
+
+  //livelli della piramide dal più grossolano al più fine
+  private static final AggregationGranularity[] LEVELS = { AggregationGranularity.DAY, AggregationGranularity.HOUR,
+      AggregationGranularity.MINUTE };
+
+  private final MeasurementCountRepository countRepository;
+
+  /**
+   * @param shards databases the measurements and their counts are spread
+   *               across
+   */
+  public TimePyramidService(Shards shards) {
+    this.countRepository = new MeasurementCountRepository(shards);
+  }
+
+  /**
+   * Builds the calendar histogram of the measurements of each gateway.
+   *
+   * @param gatewayCodes gateway codes
+   * @param start        inclusive lower bound, {@code null} for the earliest
+   *                     measurement of each gateway
+   * @param end          inclusive upper bound, {@code null} for the latest
+   *                     measurement of each gateway
+   * @param rawValues    raw measurements of the gateways in {@code [start, end]},
+   *                     only read at the given bounds
+   * @return histogram by gateway code, empty if a bound is missing and the
+   *         gateway has no measurements, or if {@code start} is after
+   *         {@code end}
+   */
+  public Map<String, CompactHistogram<LocalDateTime>> histograms(Collection<String> gatewayCodes,
+      LocalDateTime start, LocalDateTime end, Map<String, List<MeasurementValue>> rawValues) {
+    Map<String, CompactHistogram<LocalDateTime>> result = new HashMap<>();
+    //gli estremi effettivi servono solo se manca almeno un limite
+    Map<String, LocalDateTime[]> spans = start != null && end != null ? Map.of()
+        : countRepository.readSpans(gatewayCodes);
+    Map<String, Plan> plans = new HashMap<>();
+    Map<Piece, List<String>> runs = new LinkedHashMap<>();
+    for (String code : gatewayCodes) {
+      LocalDateTime[] span = spans.get(code);
+      LocalDateTime first = start != null ? start : span != null ? span[0] : null;
+      LocalDateTime last = end != null ? end : span != null ? span[1] : null;
+      if (first == null || last == null || first.isAfter(last)) {
+        result.put(code, CompactHistogram.ofTimestamps(new long[0], new long[0]));
+        continue;
+      }
+      Plan plan = new Plan(first, last, start == null, end == null);
+      plans.put(code, plan);
+      //gateway con gli stessi limiti condividono le stesse letture
+      plan.runs.forEach(run -> runs.computeIfAbsent(run, r -> new ArrayList<>()).add(code));
+    }
+
+    runs.forEach((run, codes) -> countRepository.readCounts(codes, run.level(), toDateTime(run.from()),
+        toDateTime(run.to())).forEach((code, counts) -> plans.get(code).addCounts(counts)));
+    plans.forEach((code, plan) -> {
+      plan.addRaw(rawValues.getOrDefault(code, List.of()));
+      result.put(code, CompactHistogram.ofTimestamps(plan.edges, plan.counts));
+    });
+    return result;
+  }
+
+  /**
+   * Part of the interval of a histogram, {@code [from, to)} in epoch seconds,
+   * counted from one level of the pyramid, or from the raw measurements of
+   * bucket {@code bucket} when {@code level} is {@code null}; a raw piece with
+   * {@code from == to} is the inclusive end.
+   */
+  private record Piece(AggregationGranularity level, long from, long to, int bucket) {
+  }
+
+  /**
+   * Buckets of the histogram of one gateway and the pieces covering them.
+   */
+  private static final class Plan {
+
+    private final long[] edges;
+    private final long[] counts;
+    private final long unit;
+    private final long firstUnit;
+    private final List<Piece> runs = new ArrayList<>();
+    private final List<Piece> raw = new ArrayList<>();
+
+    Plan(LocalDateTime first, LocalDateTime last, boolean openStart, boolean openEnd) {
+      edges = HistogramBuilder.calendarEdges(first, last);
+      unit = HistogramBuilder.granularityOf(first, last).getSeconds();
+      firstUnit = Math.floorDiv(edges[0], unit);
+      int buckets = edges.length - 1;
+      counts = new long[buckets];
+
+      List<Piece> pieces = new ArrayList<>();
+      for (int i = 0; i < buckets; i++) {
+        //oltre un limite mancante non ci sono misurazioni: il bucket si legge per intero
+        long from = i == 0 && openStart ? firstUnit * unit : edges[i];
+        long to = i == buckets - 1 && openEnd ? Math.floorDiv(edges[buckets], unit) * unit + unit : edges[i + 1];
+        cover(from, to, 0, i, pieces);
+      }
+      if (!openEnd) {
+        pieces.add(new Piece(null, edges[buckets], edges[buckets], buckets - 1));
+      }
+      for (Piece piece : pieces) {
+        if (piece.level() == null) {
+          raw.add(piece);
+        } else if (!runs.isEmpty() && runs.get(runs.size() - 1).level() == piece.level()
+            && runs.get(runs.size() - 1).to() == piece.from()) {
+          //unità consecutive dello stesso livello: una sola lettura, anche a cavallo di più bucket
+          Piece previous = runs.remove(runs.size() - 1);
+          runs.add(new Piece(piece.level(), previous.from(), piece.to(), 0));
+        } else {
+          runs.add(new Piece(piece.level(), piece.from(), piece.to(), 0));
+        }
+      }
+    }
+
+    /**
+     * Splits {@code [from, to)} into the whole units of the given level and of
+     * the finer ones, in chronological order.
+     */
+    private static void cover(long from, long to, int level, int bucket, List<Piece> pieces) {
+      if (from >= to) {
+        return;
+      }
+      if (level == LEVELS.length) {
+        pieces.add(new Piece(null, from, to, bucket));
+        return;
+      }
+      long width = LEVELS[level].getSeconds();
+      long low = Math.ceilDiv(from, width) * width;
+      long high = Math.floorDiv(to, width) * width;
+      if (low >= high) {
+        cover(from, to, level + 1, bucket, pieces);
+        return;
+      }
+      cover(from, low, level + 1, bucket, pieces);
+      pieces.add(new Piece(LEVELS[level], low, high, bucket));
+      cover(high, to, level + 1, bucket, pieces);
+    }
+
+    void addCounts(Map<LocalDateTime, Long> bucketCounts) {
+      //una riga della piramide cade tutta in un bucket: l'indice si ricava dal suo inizio
+      bucketCounts.forEach((bucketStart, count) -> counts[indexOf(toSeconds(bucketStart))] += count);
+    }
+
+    void addRaw(List<MeasurementValue> values) {
+      for (Piece piece : raw) {
+        for (MeasurementValue value : values) {
+          long seconds = toSeconds(value.timestamp());
+          boolean inside = piece.from() == piece.to() ? seconds == piece.to() : seconds < piece.to();
+          if (seconds >= piece.from() && inside) {
+            counts[piece.bucket()]++;
+          }
+        }
+      }
+    }
+
+    private int indexOf(long seconds) {
+      return (int) Math.max(0, Math.min(Math.floorDiv(seconds, unit) - firstUnit, counts.length - 1));
+    }
+
+  }
+
+  private static long toSeconds(LocalDateTime timestamp) {
+    return timestamp.toEpochSecond(ZoneOffset.UTC);
+  }
+
+  private static LocalDateTime toDateTime(long epochSeconds) {
+    return LocalDateTime.ofEpochSecond(epochSeconds, 0, ZoneOffset.UTC);
+  }
+
+}
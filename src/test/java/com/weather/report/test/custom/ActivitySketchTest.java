@@ -0,0 +1,220 @@
+package com.weather.report.test.custom;
+
+import static org.mockito.Mockito.mockConstruction;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.MockedConstruction;
+
+import com.weather.report.WeatherReport;
+import com.weather.report.exceptions.InvalidInputDataException;
+import com.weather.report.reports.ActivitySketch;
+import com.weather.report.repositories.CRUDRepository;
+import com.weather.report.test.base.BasePersistenceTest;
+
+public class ActivitySketchTest extends BasePersistenceTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void fewCodesShouldBeCountedExactly() {
+    ActivitySketch sketch = new ActivitySketch(8, 0.01, 0.01);
+    for (int i = 0; i < 8; i++) {
+      sketch.add("S" + i, i + 1);
+    }
+    sketch.add("S0", 7);
+    Assertions.assertEquals(0, sketch.getErrorBound());
+    Assertions.assertEquals(8, sketch.estimate("S0"));
+    Assertions.assertEquals(List.of("S0", "S7"), new ArrayList<>(sketch.getMostActive()).stream().sorted().toList());
+    Assertions.assertEquals(List.of("S1"), new ArrayList<>(sketch.getLeastActive(null)));
+    Assertions.assertEquals(List.of("unknown"), new ArrayList<>(sketch.getLeastActive(List.of("S1", "unknown"))));
+  }
+
+  //distribuzione di Zipf su 20000 codici: pochi codici molto attivi e una lunga coda
+  private static List<String> skewedStream(int length) {
+    Random random = new Random(3);
+    int codes = 20_000;
+    double[] cumulative = new double[codes];
+    double sum = 0;
+    for (int i = 0; i < codes; i++) {
+      sum += 1.0 / (i + 1);
+      cumulative[i] = sum;
+    }
+    List<String> stream = new ArrayList<>(length);
+    for (int n = 0; n < length; n++) {
+      int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+      stream.add("S" + (index >= 0 ? index : -index - 1));
+    }
+    return stream;
+  }
+
+  private static void assertWithinBounds(ActivitySketch sketch, Map<String, Long> exact) {
+    long bound = (long) (0.001 * sketch.getTotal());
+    int exceeding = 0;
+    for (Map.Entry<String, Long> entry : exact.entrySet()) {
+      long estimate = sketch.estimate(entry.getKey());
+      Assertions.assertTrue(estimate >= entry.getValue());
+      Assertions.assertTrue(sketch.lowerBound(entry.getKey()) <= entry.getValue());
+      if (estimate - entry.getValue() > bound) {
+        exceeding++;
+      }
+    }
+    //il limite del Count-Min può essere superato con probabilità al più dell'1%
+    Assertions.assertTrue(exceeding <= exact.size() / 100, "exceeding=" + exceeding);
+  }
+
+  @Test
+  void skewedStreamShouldStayWithinTheErrorBounds() {
+    ActivitySketch sketch = new ActivitySketch(64, 0.001, 0.01);
+    Map<String, Long> exact = new HashMap<>();
+    for (String code : skewedStream(200_000)) {
+      exact.merge(code, 1L, Long::sum);
+      sketch.add(code, 1);
+    }
+
+    Assertions.assertEquals(List.of("S0"), new ArrayList<>(sketch.getMostActive()));
+    Assertions.assertEquals(List.of("S0", "S1", "S2"), sketch.topK(3));
+    assertWithinBounds(sketch, exact);
+  }
+
+  @Test
+  void mergedSketchesShouldKeepTheErrorBounds() {
+    //quattro sketch, come le ore o gli shard di una finestra, fusi in uno
+    List<String> stream = skewedStream(200_000);
+    ActivitySketch merged = new ActivitySketch(64, 0.001, 0.01);
+    Map<String, Long> exact = new HashMap<>();
+    for (int part = 0; part < 4; part++) {
+      ActivitySketch sketch = new ActivitySketch(64, 0.001, 0.01);
+      for (String code : stream.subList(part * 50_000, (part + 1) * 50_000)) {
+        exact.merge(code, 1L, Long::sum);
+        sketch.add(code, 1);
+      }
+      merged.merge(sketch);
+    }
+
+    Assertions.assertEquals(200_000, merged.getTotal());
+    Assertions.assertEquals(List.of("S0", "S1", "S2"), merged.topK(3));
+    Assertions.assertTrue(merged.estimate("S0") - exact.get("S0") <= merged.getErrorBound());
+    assertWithinBounds(merged, exact);
+
+    //finché i codici stanno nei contatori la fusione resta esatta
+    ActivitySketch first = new ActivitySketch(8, 0.01, 0.01);
+    ActivitySketch second = new ActivitySketch(8, 0.01, 0.01);
+    first.add("S0", 3);
+    second.add("S0", 2);
+    second.add("S1", 4);
+    first.merge(second);
+    Assertions.assertEquals(0, first.getErrorBound());
+    Assertions.assertEquals(5, first.estimate("S0"));
+    Assertions.assertEquals(List.of("S0"), new ArrayList<>(first.getMostActive()));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> first.merge(new ActivitySketch(16, 0.01, 0.01)));
+  }
+
+  private void importMeasurements(String name, LocalDateTime start, int count, String frequentSensor,
+      String rareSensor) throws Exception {
+    List<String> lines = new ArrayList<>();
+    lines.add("date,networkCode,gatewayCode,sensorCode,value");
+    for (int i = 0; i < count; i++) {
+      String sensor = i % 3 == 0 ? rareSensor : frequentSensor;
+      lines.add(String.join(",", start.plusSeconds(60L * i).format(WeatherReport.DATE_TIME_FORMATTER), NET_01,
+          GW_0101, sensor, "1"));
+    }
+    Path file = Files.write(tempDir.resolve(name), lines);
+    try (@SuppressWarnings({ "rawtypes", "unused" })
+    MockedConstruction<CRUDRepository> mocked = mockConstruction(CRUDRepository.class,
+        (mock, context) -> when(mock.read()).thenReturn(Collections.emptyList()))) {
+      facade.importDataFromFile(file.toString());
+    }
+  }
+
+  @Test
+  void importShouldFeedTheApproximateMostActiveSensors() throws Exception {
+    facade.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    importMeasurements("measurements.csv", LocalDateTime.of(2025, 6, 1, 0, 0), 900, SENSOR_010101, SENSOR_010102);
+
+    Assertions.assertEquals(List.of(SENSOR_010101),
+        new ArrayList<>(facade.gateways().getApproximateMostActiveSensors(GW_0101, null, null)));
+    Assertions.assertEquals(List.of(SENSOR_010102),
+        new ArrayList<>(facade.gateways().getApproximateLeastActiveSensors(GW_0101, null, null, null)));
+    Assertions.assertEquals(
+        new ArrayList<>(facade.gateways().getGatewayReport(GW_0101, null, null).getMostActiveSensors()),
+        new ArrayList<>(facade.gateways().getApproximateMostActiveSensors(GW_0101, null, null)));
+  }
+
+  @Test
+  void approximateActivityShouldFollowTheWindowAndSurviveARestore() throws Exception {
+    facade.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    //a giugno prevale il primo sensore, a luglio il secondo
+    importMeasurements("june.csv", LocalDateTime.of(2025, 6, 1, 0, 0), 900, SENSOR_010101, SENSOR_010102);
+    importMeasurements("july.csv", LocalDateTime.of(2025, 7, 1, 0, 0), 300, SENSOR_010102, SENSOR_010101);
+    String juneStart = "2025-06-01 00:00:00";
+    String juneEnd = "2025-06-30 23:59:59";
+    String julyStart = "2025-07-01 00:00:00";
+
+    Assertions.assertEquals(List.of(SENSOR_010101),
+        new ArrayList<>(facade.gateways().getApproximateMostActiveSensors(GW_0101, juneStart, juneEnd)));
+    Assertions.assertEquals(List.of(SENSOR_010102),
+        new ArrayList<>(facade.gateways().getApproximateMostActiveSensors(GW_0101, julyStart, null)));
+    Assertions.assertEquals(List.of(SENSOR_010101),
+        new ArrayList<>(facade.gateways().getApproximateLeastActiveSensors(GW_0101, julyStart, null, null)));
+    Assertions.assertTrue(facade.gateways().getApproximateMostActiveSensors(GW_0101, null, "2025-05-31 23:59:59")
+        .isEmpty());
+    Assertions.assertThrows(InvalidInputDataException.class,
+        () -> facade.gateways().getApproximateMostActiveSensors(GW_0101, "not a date", null));
+
+    //i conteggi stanno nel database: dopo un restore le risposte non cambiano
+    Path snapshot = tempDir.resolve("activity.snapshot");
+    facade.saveSnapshot(snapshot.toString());
+    facade.restoreSnapshot(snapshot.toString());
+    Assertions.assertEquals(List.of(SENSOR_010102),
+        new ArrayList<>(facade.gateways().getApproximateMostActiveSensors(GW_0101, julyStart, null)));
+    Assertions.assertEquals(List.of(SENSOR_010101),
+        new ArrayList<>(facade.gateways().getApproximateMostActiveSensors(GW_0101, null, null)));
+  }
+
+  @Test
+  void importedBatchesShouldUpdateTheSeededCountsLikeARead() throws Exception {
+    facade.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    importMeasurements("june.csv", LocalDateTime.of(2025, 6, 1, 0, 0), 900, SENSOR_010101, SENSOR_010102);
+    //la prima richiesta legge i conteggi dal database, le importazioni successive li aggiornano in memoria
+    Assertions.assertEquals(List.of(SENSOR_010101),
+        new ArrayList<>(facade.gateways().getApproximateMostActiveSensors(GW_0101, null, null)));
+    //più di 48 ore: le ore più vecchie confluiscono nei giorni
+    importMeasurements("july.csv", LocalDateTime.of(2025, 7, 1, 0, 0), 3600, SENSOR_010102, SENSOR_010101);
+
+    List<String[]> windows = List.of(new String[] { null, null },
+        new String[] { "2025-07-01 00:00:00", null },
+        new String[] { "2025-07-03 10:00:00", "2025-07-03 11:59:59" },
+        new String[] { null, "2025-06-30 23:59:59" });
+    List<List<String>> maintained = new ArrayList<>();
+    for (String[] window : windows) {
+      maintained.add(new ArrayList<>(facade.gateways().getApproximateMostActiveSensors(GW_0101, window[0], window[1])));
+    }
+    Assertions.assertEquals(List.of(List.of(SENSOR_010102), List.of(SENSOR_010102), List.of(SENSOR_010102),
+        List.of(SENSOR_010101)), maintained);
+
+    //dopo un restore i conteggi sono letti di nuovo dal database e le risposte non cambiano
+    Path snapshot = tempDir.resolve("activity.snapshot");
+    facade.saveSnapshot(snapshot.toString());
+    facade.restoreSnapshot(snapshot.toString());
+    for (int i = 0; i < windows.size(); i++) {
+      Assertions.assertEquals(maintained.get(i), new ArrayList<>(
+          facade.gateways().getApproximateMostActiveSensors(GW_0101, windows.get(i)[0], windows.get(i)[1])));
+    }
+  }
+
+}
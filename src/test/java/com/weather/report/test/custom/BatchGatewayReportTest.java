@@ -0,0 +1,95 @@
+package com.weather.report.test.custom;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.weather.report.exceptions.ElementNotFoundException;
+import com.weather.report.model.entities.Measurement;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.reports.GatewayReport;
+import com.weather.report.repositories.MeasurementRepository;
+import com.weather.report.test.base.BasePersistenceTest;
+
+public class BatchGatewayReportTest extends BasePersistenceTest {
+
+  private static final LocalDateTime START = LocalDateTime.of(2025, 7, 1, 0, 0);
+  private static final List<String> GATEWAYS = List.of(GW_0001, GW_0002, GW_0003, GW_0004);
+  private static final String FROM = "2025-07-01 02:00:00";
+  private static final String TO = "2025-07-02 00:00:00";
+
+  private final MeasurementRepository measurementRepository = new MeasurementRepository();
+
+  @BeforeEach
+  void setUpGateways() throws Exception {
+    for (String gateway : GATEWAYS) {
+      facade.gateways().createGateway(gateway, gatewayName(gateway), desc(gateway), MAINTAINER_USERNAME);
+    }
+    PersistenceManager.inTransaction(() -> {
+      //GW_0004 resta senza misurazioni
+      for (int g = 0; g < GATEWAYS.size() - 1; g++) {
+        for (int i = 0; i < 200 * (g + 1); i++) {
+          String sensor = i % (g + 2) == 0 ? SENSOR_010102 : SENSOR_010101;
+          measurementRepository.create(new Measurement(NET_01, GATEWAYS.get(g), sensor, i % 17,
+              START.plusSeconds(37L * i + g)));
+        }
+      }
+    });
+  }
+
+  private static long measurementQueries(Statistics statistics) {
+    long executions = 0;
+    for (String query : statistics.getQueries()) {
+      if (query.contains("FROM Measurement m")) {
+        executions += statistics.getQueryStatistics(query).getExecutionCount();
+      }
+    }
+    return executions;
+  }
+
+  private static Statistics statistics() {
+    Statistics statistics = PersistenceManager.getEntityManager().getEntityManagerFactory()
+        .unwrap(SessionFactory.class).getStatistics();
+    PersistenceManager.closeEntityManager();
+    return statistics;
+  }
+
+  @Test
+  void batchReportsShouldMatchSingleReportsWithOneScan() throws Exception {
+    for (String[] interval : new String[][] { { null, null }, { FROM, TO } }) {
+      Statistics statistics = statistics();
+      statistics.clear();
+      Map<String, GatewayReport> reports = facade.gateways().getGatewayReports(GATEWAYS, interval[0], interval[1]);
+      Assertions.assertEquals(1, measurementQueries(statistics));
+      Assertions.assertEquals(GATEWAYS, new ArrayList<>(reports.keySet()));
+
+      facade.services().getReportCache().clear();
+      for (String gateway : GATEWAYS) {
+        GatewayReport expected = facade.gateways().getGatewayReport(gateway, interval[0], interval[1]);
+        GatewayReport actual = reports.get(gateway);
+        Assertions.assertEquals(expected.getNumberOfMeasurements(), actual.getNumberOfMeasurements());
+        Assertions.assertEquals(new HashSet<>(expected.getMostActiveSensors()),
+            new HashSet<>(actual.getMostActiveSensors()));
+        Assertions.assertEquals(expected.getSensorsLoadRatio(), actual.getSensorsLoadRatio());
+        Assertions.assertEquals(expected.getHistogram(), actual.getHistogram());
+        Assertions.assertEquals(interval[0], actual.getStartDate());
+      }
+      Assertions.assertEquals(0, reports.get(GW_0004).getNumberOfMeasurements());
+    }
+  }
+
+  @Test
+  void unknownGatewayShouldFailTheBatch() {
+    Assertions.assertThrows(ElementNotFoundException.class,
+        () -> facade.gateways().getGatewayReports(List.of(GW_0001, GW_UNKNOWN), null, null));
+  }
+
+}
@@ -0,0 +1,107 @@
+package com.weather.report.test.custom;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.weather.report.WeatherReport;
+import com.weather.report.model.UserType;
+import com.weather.report.persistence.BootstrapTimings;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.test.base.BasePersistenceTest;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+public class BootstrapTest extends BasePersistenceTest {
+
+  private static final int THREADS = 8;
+
+  @Test
+  void bootstrapShouldReportPhaseTimings() {
+    PersistenceManager.startBootstrap().join();
+
+    BootstrapTimings timings = PersistenceManager.getBootstrapTimings();
+    System.out.println("Bootstrap: " + timings);
+
+    Assertions.assertNotNull(timings);
+    Assertions.assertTrue(timings.getFactoryMillis() >= 0);
+    Assertions.assertTrue(timings.getMetamodelMillis() >= 0);
+    Assertions.assertTrue(timings.getQueriesMillis() >= 0);
+    Assertions.assertTrue(timings.getCachesMillis() >= 0);
+    Assertions.assertEquals(timings.getFactoryMillis() + timings.getMetamodelMillis() + timings.getQueriesMillis()
+        + timings.getCachesMillis(), timings.getTotalMillis());
+  }
+
+  @Test
+  void concurrentFirstRequestsShouldShareOneFactory() throws Exception {
+    PersistenceManager.close();
+    PersistenceManager.setTestMode();
+
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      CountDownLatch ready = new CountDownLatch(1);
+      List<Callable<EntityManagerFactory>> tasks = new ArrayList<>();
+      for (int i = 0; i < THREADS; i++) {
+        tasks.add(() -> {
+          ready.await();
+          EntityManager em = PersistenceManager.getEntityManager();
+          try {
+            return em.getEntityManagerFactory();
+          } finally {
+            PersistenceManager.closeEntityManager();
+          }
+        });
+      }
+      List<Future<EntityManagerFactory>> futures = new ArrayList<>();
+      for (Callable<EntityManagerFactory> task : tasks) {
+        futures.add(executor.submit(task));
+      }
+      ready.countDown();
+
+      Set<EntityManagerFactory> factories = new HashSet<>();
+      for (Future<EntityManagerFactory> future : futures) {
+        factories.add(future.get());
+      }
+      Assertions.assertEquals(1, factories.size());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void closeShouldWaitForRunningBootstrap() {
+    PersistenceManager.close();
+    PersistenceManager.setTestMode();
+
+    CompletableFuture<EntityManagerFactory> bootstrap = PersistenceManager.startBootstrap();
+    Assertions.assertSame(bootstrap, PersistenceManager.startBootstrap());
+    PersistenceManager.close();
+
+    Assertions.assertTrue(bootstrap.isDone());
+    Assertions.assertFalse(bootstrap.join().isOpen());
+  }
+
+  @Test
+  void facadeShouldBeUsableRightAfterConstruction() throws Exception {
+    PersistenceManager.close();
+    PersistenceManager.setTestMode();
+
+    WeatherReport report = new WeatherReport();
+    report.createUser(MAINTAINER_USERNAME, UserType.MAINTAINER);
+    report.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+
+    Assertions.assertEquals(1, report.gateways().getGateways().size());
+  }
+
+}
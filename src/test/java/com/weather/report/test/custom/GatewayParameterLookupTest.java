@@ -0,0 +1,77 @@
+package com.weather.report.test.custom;
+
+import java.util.Collection;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.weather.report.exceptions.WeatherReportException;
+import com.weather.report.model.entities.Gateway;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.test.base.BasePersistenceTest;
+
+public class GatewayParameterLookupTest extends BasePersistenceTest {
+
+  private static final int GATEWAYS = 4;
+  private static final int PARAMETERS_PER_GATEWAY = 250;
+
+  private static String gatewayCode(int i) {
+    return String.format("GW_%04d", 9000 + i);
+  }
+
+  private static Statistics statistics() {
+    Statistics statistics = PersistenceManager.getEntityManager().getEntityManagerFactory()
+        .unwrap(SessionFactory.class).getStatistics();
+    PersistenceManager.closeEntityManager();
+    return statistics;
+  }
+
+  private void createGateways() throws WeatherReportException {
+    for (int g = 0; g < GATEWAYS; g++) {
+      facade.gateways().createGateway(gatewayCode(g), gatewayName("" + g), desc("" + g), MAINTAINER_USERNAME);
+      for (int p = 0; p < PARAMETERS_PER_GATEWAY; p++) {
+        facade.gateways().createParameter(gatewayCode(g), "P_" + p, "Param " + p, "Desc " + p, p,
+            MAINTAINER_USERNAME);
+      }
+    }
+  }
+
+  @Test
+  void parametersShouldBeLoadedInBatchesAndLookedUpByCode() throws WeatherReportException {
+    createGateways();
+
+    PersistenceManager.evictCaches();
+    Statistics statistics = statistics();
+    statistics.clear();
+
+    Collection<Gateway> gateways = facade.gateways().getGateways();
+    long statements = statistics.getPrepareStatementCount();
+    System.out.println("Read " + gateways.size() + " gateways with " + statements + " statements");
+
+    //una query per i gateway e una sola per i parametri di tutti i gateway
+    Assertions.assertEquals(GATEWAYS, gateways.size());
+    Assertions.assertEquals(2, statements);
+
+    //i parametri restano accessibili per codice anche dopo la chiusura dell'EntityManager
+    for (Gateway gateway : gateways) {
+      for (int p = 0; p < PARAMETERS_PER_GATEWAY; p++) {
+        Assertions.assertEquals(p, gateway.getParameter("P_" + p).getValue(), 0.001);
+      }
+      Assertions.assertEquals(PARAMETERS_PER_GATEWAY, gateway.getParameters().size());
+      Assertions.assertNull(gateway.getParameter("MISSING"));
+    }
+  }
+
+  @Test
+  void singleGatewayShouldExposeParametersWhenDetached() throws WeatherReportException {
+    createGateways();
+
+    Gateway gateway = facade.gateways().getGateways(gatewayCode(0)).iterator().next();
+
+    Assertions.assertEquals(PARAMETERS_PER_GATEWAY, gateway.getParameters().size());
+    Assertions.assertEquals(10, gateway.getParameter("P_10").getValue(), 0.001);
+  }
+
+}
@@ -0,0 +1,237 @@
+package com.weather.report.test.custom;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.weather.report.reports.CompactHistogram;
+import com.weather.report.reports.HistogramBuilder;
+import com.weather.report.reports.RangeImplementation;
+import com.weather.report.reports.Report.Range;
+
+public class HistogramBuilderTest {
+
+  private static final int BUCKETS = 20;
+
+  /**
+   * Reference implementation: one filter over all values for every bucket.
+   */
+  private static <T extends Comparable<? super T>> SortedMap<Range<T>, Long> naive(List<T> values,
+      List<RangeImplementation<T>> buckets) {
+    SortedMap<Range<T>, Long> histogram = new TreeMap<>();
+    for (RangeImplementation<T> bucket : buckets) {
+      histogram.put(bucket, values.stream().filter(bucket::contains).count());
+    }
+    return histogram;
+  }
+
+  private static <T extends Comparable<? super T>> List<RangeImplementation<T>> equalWidth(T min, T max,
+      Function<Integer, T> start) {
+    List<RangeImplementation<T>> buckets = new ArrayList<>();
+    for (int i = 0; i < BUCKETS; i++) {
+      boolean isLast = i == BUCKETS - 1;
+      //i bucket di larghezza nulla non possono contenere valori e non compaiono nell'istogramma
+      if (!isLast && start.apply(i).compareTo(start.apply(i + 1)) == 0) {
+        continue;
+      }
+      buckets.add(new RangeImplementation<>(start.apply(i), isLast ? max : start.apply(i + 1), isLast));
+    }
+    return buckets;
+  }
+
+  @Test
+  void durationsShouldMatchBucketByBucketCount() {
+    Random random = new Random(42);
+    for (int round = 0; round < 50; round++) {
+      int count = 1 + random.nextInt(500);
+      long[] nanos = new long[count];
+      List<Duration> durations = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        //anche durate molto vicine, per coprire il caso di larghezza nulla
+        nanos[i] = round % 5 == 0 ? 1_000 + random.nextInt(10) : random.nextInt(3_600) * 1_000_000_000L;
+        durations.add(Duration.ofNanos(nanos[i]));
+      }
+      Duration min = durations.stream().min(Duration::compareTo).orElseThrow();
+      Duration max = durations.stream().max(Duration::compareTo).orElseThrow();
+      Duration width = max.minus(min).dividedBy(BUCKETS);
+
+      SortedMap<Range<Duration>, Long> expected = naive(durations,
+          equalWidth(min, max, i -> min.plus(width.multipliedBy(i))));
+      Assertions.assertEquals(expected, HistogramBuilder.ofDurations(nanos, count, BUCKETS));
+    }
+  }
+
+  @Test
+  void valuesShouldMatchBucketByBucketCount() {
+    Random random = new Random(7);
+    for (int round = 0; round < 50; round++) {
+      int count = 1 + random.nextInt(500);
+      double[] array = new double[count];
+      List<Double> values = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        //valori ripetuti e decimali per mettere alla prova gli arrotondamenti sui bordi
+        array[i] = round % 2 == 0 ? random.nextInt(40) * 0.1 : random.nextGaussian() * 15 + 20;
+        values.add(array[i]);
+      }
+      double min = values.stream().mapToDouble(Double::doubleValue).min().orElseThrow();
+      double max = values.stream().mapToDouble(Double::doubleValue).max().orElseThrow();
+      double width = (max - min) / BUCKETS;
+
+      SortedMap<Range<Double>, Long> expected = naive(values, equalWidth(min, max, i -> min + width * i));
+      Assertions.assertEquals(expected, HistogramBuilder.ofValues(array, count, BUCKETS));
+    }
+  }
+
+  @Test
+  void boundariesShouldMatchBucketByBucketCount() {
+    LocalDateTime start = LocalDateTime.of(2025, 1, 1, 10, 30);
+    LocalDateTime end = LocalDateTime.of(2025, 1, 2, 9, 15);
+    //ore di calendario troncate all'intervallo
+    List<LocalDateTime> bounds = new ArrayList<>();
+    bounds.add(start);
+    for (LocalDateTime hour = start.withMinute(0).plusHours(1); hour.isBefore(end); hour = hour.plusHours(1)) {
+      bounds.add(hour);
+    }
+    bounds.add(end);
+    long[] boundaries = bounds.stream().mapToLong(t -> t.toEpochSecond(ZoneOffset.UTC)).toArray();
+
+    Random random = new Random(3);
+    int count = 1_000;
+    long[] seconds = new long[count];
+    List<LocalDateTime> timestamps = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      LocalDateTime timestamp = start.minusHours(1).plusMinutes(random.nextInt(26 * 60));
+      seconds[i] = timestamp.toEpochSecond(ZoneOffset.UTC);
+      timestamps.add(timestamp);
+    }
+
+    List<RangeImplementation<LocalDateTime>> buckets = new ArrayList<>();
+    for (int i = 0; i < bounds.size() - 1; i++) {
+      buckets.add(new RangeImplementation<>(bounds.get(i), bounds.get(i + 1), i == bounds.size() - 2));
+    }
+    SortedMap<Range<LocalDateTime>, Long> expected = naive(timestamps, buckets);
+    Assertions.assertEquals(expected, HistogramBuilder.ofTimestamps(seconds, count, boundaries));
+  }
+
+  @Test
+  void calendarBucketsShouldMatchBucketByBucketCount() {
+    Random random = new Random(5);
+    LocalDateTime origin = LocalDateTime.of(2025, 3, 1, 6, 20, 15);
+    //intervalli da ore (bucket orari) e da giorni (bucket giornalieri), con e senza limiti espliciti
+    for (int spanMinutes : new int[] { 30 * 60, 48 * 60, 10 * 24 * 60 }) {
+      List<long[]> byGateway = new ArrayList<>();
+      List<LocalDateTime> timestamps = new ArrayList<>();
+      for (int gateway = 0; gateway < 4; gateway++) {
+        long[] seconds = new long[500];
+        for (int i = 0; i < seconds.length; i++) {
+          LocalDateTime timestamp = origin.plusSeconds(random.nextInt(spanMinutes * 60 + 1));
+          seconds[i] = timestamp.toEpochSecond(ZoneOffset.UTC);
+          timestamps.add(timestamp);
+        }
+        byGateway.add(seconds);
+      }
+      LocalDateTime first = timestamps.stream().min(LocalDateTime::compareTo).orElseThrow();
+      LocalDateTime last = timestamps.stream().max(LocalDateTime::compareTo).orElseThrow();
+      LocalDateTime start = origin.plusMinutes(7);
+      LocalDateTime end = origin.plusMinutes(spanMinutes - 7);
+
+      Assertions.assertEquals(naive(timestamps, calendarBuckets(first, last)),
+          HistogramBuilder.ofCalendarBuckets(byGateway, null, null));
+      Assertions.assertEquals(naive(timestamps, calendarBuckets(start, end)),
+          HistogramBuilder.ofCalendarBuckets(byGateway, start, end));
+      Assertions.assertEquals(naive(timestamps, calendarBuckets(first, end)),
+          HistogramBuilder.ofCalendarBuckets(byGateway, null, end));
+    }
+    Assertions.assertTrue(HistogramBuilder.ofCalendarBuckets(List.of(new long[0]), null, origin).isEmpty());
+  }
+
+  //ore o giorni di calendario troncati all'intervallo, costruiti con LocalDateTime
+  private static List<RangeImplementation<LocalDateTime>> calendarBuckets(LocalDateTime start, LocalDateTime end) {
+    boolean hourly = !start.plusHours(48).isBefore(end);
+    List<LocalDateTime> bounds = new ArrayList<>();
+    bounds.add(start);
+    LocalDateTime unit = hourly ? start.truncatedTo(ChronoUnit.HOURS).plusHours(1)
+        : start.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+    for (; unit.isBefore(end); unit = hourly ? unit.plusHours(1) : unit.plusDays(1)) {
+      bounds.add(unit);
+    }
+    bounds.add(end);
+    List<RangeImplementation<LocalDateTime>> buckets = new ArrayList<>();
+    for (int i = 0; i < bounds.size() - 1; i++) {
+      buckets.add(new RangeImplementation<>(bounds.get(i), bounds.get(i + 1), i == bounds.size() - 2));
+    }
+    return buckets;
+  }
+
+  @Test
+  void emptyInputShouldGiveEmptyHistogram() {
+    Assertions.assertTrue(HistogramBuilder.ofDurations(new long[0], 0, BUCKETS).isEmpty());
+    Assertions.assertTrue(HistogramBuilder.ofValues(new double[0], 0, BUCKETS).isEmpty());
+  }
+
+  @Test
+  void degenerateDurationsShouldGiveASingleBucket() {
+    long[] nanos = { 5, 5, 5 };
+    SortedMap<Range<Duration>, Long> histogram = HistogramBuilder.ofDurations(nanos, nanos.length, BUCKETS);
+
+    Assertions.assertEquals(1, histogram.size());
+    Range<Duration> only = histogram.firstKey();
+    Assertions.assertEquals(new RangeImplementation<>(Duration.ofNanos(5), Duration.ofNanos(5), true), only);
+    Assertions.assertEquals(3L, histogram.get(only));
+  }
+
+  @Test
+  void compactHistogramShouldBehaveAsASortedMap() {
+    double[] values = { 1, 2, 2, 3, 5, 8, 13, 21 };
+    CompactHistogram<Double> histogram = HistogramBuilder.ofValues(values, values.length, 4);
+    TreeMap<Range<Double>, Long> expected = new TreeMap<>(histogram);
+
+    Assertions.assertEquals(expected, histogram);
+    Assertions.assertEquals(histogram, expected);
+    Assertions.assertEquals(expected.hashCode(), histogram.hashCode());
+    Assertions.assertEquals(values.length, histogram.getTotal());
+
+    Range<Double> second = new RangeImplementation<>(6.0, 11.0, false);
+    Assertions.assertTrue(histogram.containsKey(second));
+    Assertions.assertEquals(1L, histogram.get(second));
+    //stesso inizio ma estremo diverso: non è una chiave
+    Assertions.assertFalse(histogram.containsKey(new RangeImplementation<>(6.0, 12.0, false)));
+    Assertions.assertNull(histogram.get(new RangeImplementation<>(7.0, 11.0, false)));
+
+    Assertions.assertEquals(expected.headMap(second), histogram.headMap(second));
+    Assertions.assertEquals(expected.tailMap(second), histogram.tailMap(second));
+    Assertions.assertEquals(expected.subMap(histogram.firstKey(), histogram.lastKey()),
+        histogram.subMap(histogram.firstKey(), histogram.lastKey()));
+    Assertions.assertEquals(expected.lastKey(), histogram.tailMap(second).lastKey());
+
+    Assertions.assertThrows(UnsupportedOperationException.class, () -> histogram.put(second, 2L));
+  }
+
+  @Test
+  void histogramsWithTheSameBucketsShouldMerge() {
+    long[] edges = LongStream.rangeClosed(0, 4).map(i -> i * 3_600).toArray();
+    CompactHistogram<LocalDateTime> first = CompactHistogram.ofTimestamps(edges, new long[] { 1, 0, 2, 3 });
+    CompactHistogram<LocalDateTime> second = CompactHistogram.ofTimestamps(edges.clone(), new long[] { 4, 5, 0, 1 });
+
+    CompactHistogram<LocalDateTime> merged = first.merge(second);
+    Assertions.assertEquals(first.keySet(), merged.keySet());
+    Assertions.assertEquals(List.of(5L, 5L, 2L, 4L), new ArrayList<>(merged.values()));
+    Assertions.assertEquals(first.getTotal() + second.getTotal(), merged.getTotal());
+
+    CompactHistogram<LocalDateTime> other = CompactHistogram.ofTimestamps(new long[] { 0, 60, 120 },
+        new long[] { 1, 1 });
+    Assertions.assertThrows(IllegalArgumentException.class, () -> first.merge(other));
+  }
+
+}
@@ -0,0 +1,83 @@
+package com.weather.report.test.custom;
+
+import java.time.LocalDateTime;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.weather.report.model.entities.Measurement;
+import com.weather.report.model.entities.Parameter;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.reports.GatewayReport;
+import com.weather.report.repositories.MeasurementRepository;
+import com.weather.report.test.base.BasePersistenceTest;
+
+public class LazyGatewayReportTest extends BasePersistenceTest {
+
+  private static final LocalDateTime START = LocalDateTime.of(2025, 8, 1, 0, 0);
+  private static final String FROM = "2025-08-01 00:00:00";
+  private static final String TO = "2025-08-02 00:00:00";
+
+  private final MeasurementRepository measurementRepository = new MeasurementRepository();
+
+  @BeforeEach
+  void setUpGateway() throws Exception {
+    facade.gateways().createGateway(GW_0001, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    facade.gateways().createParameter(GW_0001, Parameter.BATTERY_CHARGE_PERCENTAGE_CODE, "battery", null, 80,
+        MAINTAINER_USERNAME);
+    PersistenceManager.inTransaction(() -> {
+      for (int i = 0; i < 300; i++) {
+        String sensor = i % 3 == 0 ? SENSOR_010102 : SENSOR_010101;
+        measurementRepository.create(new Measurement(NET_01, GW_0001, sensor, i % 11, START.plusSeconds(53L * i)));
+      }
+    });
+  }
+
+  //esecuzioni delle query che leggono le misurazioni una per una, esclusi i conteggi
+  private static long scans(Statistics statistics) {
+    long executions = 0;
+    for (String query : statistics.getQueries()) {
+      if (query.contains("FROM Measurement m") && !query.contains("COUNT(m)")) {
+        executions += statistics.getQueryStatistics(query).getExecutionCount();
+      }
+    }
+    return executions;
+  }
+
+  private static Statistics statistics() {
+    Statistics statistics = PersistenceManager.getEntityManager().getEntityManagerFactory()
+        .unwrap(SessionFactory.class).getStatistics();
+    PersistenceManager.closeEntityManager();
+    return statistics;
+  }
+
+  @Test
+  void reportShouldReadOneSnapshotBeforeReturning() throws Exception {
+    Statistics statistics = statistics();
+    statistics.clear();
+    GatewayReport report = facade.gateways().getGatewayReport(GW_0001, FROM, TO);
+    //le misurazioni sono lette una volta sola, prima di restituire il report
+    Assertions.assertEquals(1, scans(statistics));
+
+    //le misurazioni scritte dopo non entrano nel report: tutte le sezioni descrivono la stessa lettura
+    PersistenceManager.inTransaction(() -> {
+      for (int i = 0; i < 60; i++) {
+        measurementRepository.create(new Measurement(NET_01, GW_0001, SENSOR_010102, 5, START.plusSeconds(7L * i)));
+      }
+    });
+    long queries = statistics.getQueryExecutionCount();
+
+    Assertions.assertEquals(80, report.getBatteryChargePercentage());
+    Assertions.assertEquals(300, report.getNumberOfMeasurements());
+    Assertions.assertEquals(100.0 / 300, report.getSensorsLoadRatio().get(SENSOR_010102), 1e-9);
+    Assertions.assertTrue(report.getMostActiveSensors().contains(SENSOR_010101));
+    Assertions.assertFalse(report.getHistogram().isEmpty());
+    report.getLeastActiveSensors();
+    report.getOutlierSensors();
+    Assertions.assertEquals(queries, statistics.getQueryExecutionCount());
+  }
+
+}
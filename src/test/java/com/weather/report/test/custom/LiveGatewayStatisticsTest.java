@@ -0,0 +1,107 @@
+package com.weather.report.test.custom;
+
+import static org.mockito.Mockito.mockConstruction;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.MockedConstruction;
+
+import com.weather.report.WeatherReport;
+import com.weather.report.model.entities.Parameter;
+import com.weather.report.reports.GatewayReport;
+import com.weather.report.repositories.CRUDRepository;
+import com.weather.report.test.base.BasePersistenceTest;
+
+public class LiveGatewayStatisticsTest extends BasePersistenceTest {
+
+  private static final LocalDateTime START = LocalDateTime.of(2025, 4, 1, 0, 0);
+  //intervallo che contiene tutte le misurazioni: il report viene sempre calcolato dal database
+  private static final String FROM = "2025-01-01 00:00:00";
+  private static final String TO = "2025-12-31 23:59:59";
+
+  @TempDir
+  Path tempDir;
+
+  private int files;
+
+  @BeforeEach
+  void setUpGateway() throws Exception {
+    facade.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    facade.gateways().createParameter(GW_0101, Parameter.EXPECTED_MEAN_CODE, "mean", null, 20, MAINTAINER_USERNAME);
+    facade.gateways().createParameter(GW_0101, Parameter.EXPECTED_STD_DEV_CODE, "std", null, 1, MAINTAINER_USERNAME);
+  }
+
+  private void importMeasurements(LocalDateTime start, int count) throws IOException {
+    List<String> lines = new ArrayList<>();
+    lines.add("date,networkCode,gatewayCode,sensorCode,value");
+    for (int i = 0; i < count; i++) {
+      //il secondo sensore misura meno spesso e con valori anomali
+      String sensor = i % 3 == 0 ? SENSOR_010102 : SENSOR_010101;
+      double value = i % 3 == 0 ? 30 : 20 + i % 2;
+      lines.add(String.join(",", start.plusSeconds(30L * i + i % 7).format(WeatherReport.DATE_TIME_FORMATTER),
+          NET_01, GW_0101, sensor, String.valueOf(value)));
+    }
+    Path file = Files.write(tempDir.resolve("measurements" + files++ + ".csv"), lines);
+    try (@SuppressWarnings({ "rawtypes", "unused" })
+    MockedConstruction<CRUDRepository> mocked = mockConstruction(CRUDRepository.class,
+        (mock, context) -> when(mock.read()).thenReturn(Collections.emptyList()))) {
+      facade.importDataFromFile(file.toString());
+    }
+  }
+
+  private void assertSameReport(GatewayReport expected, GatewayReport actual) {
+    Assertions.assertEquals(expected.getNumberOfMeasurements(), actual.getNumberOfMeasurements());
+    Assertions.assertEquals(new HashSet<>(expected.getMostActiveSensors()), new HashSet<>(actual.getMostActiveSensors()));
+    Assertions.assertEquals(new HashSet<>(expected.getLeastActiveSensors()),
+        new HashSet<>(actual.getLeastActiveSensors()));
+    Assertions.assertEquals(expected.getSensorsLoadRatio(), actual.getSensorsLoadRatio());
+    Assertions.assertEquals(new HashSet<>(expected.getOutlierSensors()), new HashSet<>(actual.getOutlierSensors()));
+    Assertions.assertEquals(expected.getHistogram(), actual.getHistogram());
+  }
+
+  @Test
+  void importsShouldKeepTheAllTimeReportUpToDate() throws Exception {
+    importMeasurements(START, 700);
+    Assertions.assertNull(facade.services().getLiveStatistics().get(GW_0101));
+
+    //la prima lettura delle misurazioni per un report senza date inizializza i contatori
+    facade.gateways().getGatewayReport(GW_0101, null, null).getMostActiveSensors();
+    Assertions.assertEquals(700, facade.services().getLiveStatistics().get(GW_0101).getNumberOfMeasurements());
+
+    importMeasurements(START.plusDays(1), 400);
+    Assertions.assertEquals(1_100, facade.services().getLiveStatistics().get(GW_0101).getNumberOfMeasurements());
+
+    GatewayReport live = facade.gateways().getGatewayReport(GW_0101, null, null);
+    GatewayReport scanned = facade.gateways().getGatewayReport(GW_0101, FROM, TO);
+    assertSameReport(scanned, live);
+    Assertions.assertEquals(List.of(SENSOR_010102), new ArrayList<>(live.getOutlierSensors()));
+  }
+
+  @Test
+  void outOfOrderImportShouldDropTheCounters() throws Exception {
+    importMeasurements(START.plusDays(1), 300);
+    facade.gateways().getGatewayReport(GW_0101, null, null).getMostActiveSensors();
+    Assertions.assertNotNull(facade.services().getLiveStatistics().get(GW_0101));
+
+    importMeasurements(START, 200);
+    Assertions.assertNull(facade.services().getLiveStatistics().get(GW_0101));
+
+    GatewayReport reseeded = facade.gateways().getGatewayReport(GW_0101, null, null);
+    reseeded.getMostActiveSensors();
+    Assertions.assertEquals(500, facade.services().getLiveStatistics().get(GW_0101).getNumberOfMeasurements());
+    assertSameReport(facade.gateways().getGatewayReport(GW_0101, FROM, TO), reseeded);
+  }
+
+}
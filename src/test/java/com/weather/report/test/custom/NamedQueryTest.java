@@ -0,0 +1,112 @@
+package com.weather.report.test.custom;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.weather.report.model.entities.Measurement;
+import com.weather.report.model.entities.User;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.repositories.CRUDRepository;
+import com.weather.report.repositories.MeasurementRepository;
+import com.weather.report.repositories.UserRepository;
+import com.weather.report.test.base.BasePersistenceTest;
+
+import jakarta.persistence.EntityManager;
+
+public class NamedQueryTest extends BasePersistenceTest {
+
+  private static final LocalDateTime START = LocalDateTime.of(2025, 3, 1, 0, 0);
+  private static final int MEASUREMENTS = 100;
+  private static final int WARMUP_CALLS = 2_000;
+  private static final int CALLS = 20_000;
+
+  private final MeasurementRepository measurementRepository = new MeasurementRepository();
+
+  private void storeMeasurements() {
+    PersistenceManager.inTransaction(() -> {
+      for (int i = 0; i < MEASUREMENTS; i++) {
+        measurementRepository.create(new Measurement(NET_01, GW_0101, SENSOR_010101, i, START.plusDays(i)));
+      }
+    });
+  }
+
+  @Test
+  void countQueriesShouldMatchLoadedRows() {
+    storeMeasurements();
+
+    Assertions.assertEquals(3, new UserRepository().count());
+    Assertions.assertEquals(MEASUREMENTS, measurementRepository.count());
+    Assertions.assertEquals(MEASUREMENTS, measurementRepository.countByGateway(GW_0101, null, null));
+    Assertions.assertEquals(0, measurementRepository.countByGateway(GW_0102, null, null));
+
+    LocalDateTime from = START.plusDays(10);
+    LocalDateTime to = START.plusDays(40);
+    Assertions.assertEquals(31, measurementRepository.countByGateway(GW_0101, from, to));
+    Assertions.assertEquals(measurementRepository.readByGateway(GW_0101, from, to).size(),
+        measurementRepository.countByGateway(GW_0101, from, to));
+    Assertions.assertEquals(MEASUREMENTS - 10, measurementRepository.readByGateway(GW_0101, from, null).size());
+    Assertions.assertEquals(41, measurementRepository.readByGateway(GW_0101, null, to).size());
+  }
+
+  @Test
+  void genericRepositoryShouldUseEntityNamedQueries() {
+    CRUDRepository<User, String> users = new CRUDRepository<>(User.class);
+
+    Assertions.assertEquals(3, users.read().size());
+    Assertions.assertEquals(3, users.count());
+  }
+
+  @Test
+  void namedQueriesShouldReduceCallOverhead() {
+    storeMeasurements();
+    LocalDateTime from = START.plusDays(10);
+    LocalDateTime to = START.plusDays(40);
+
+    //stessa lettura della versione precedente: stringa JPQL costruita e metadati letti a ogni chiamata
+    Runnable adHoc = () -> {
+      EntityManager em = PersistenceManager.getEntityManager();
+      try {
+        String entityName = Measurement.class.getAnnotation(jakarta.persistence.Entity.class).name().isEmpty()
+            ? Measurement.class.getSimpleName()
+            : Measurement.class.getAnnotation(jakarta.persistence.Entity.class).name();
+        StringBuilder jpql = new StringBuilder("SELECT COUNT(m) FROM " + entityName + " m WHERE m.gatewayCode = :gatewayCode");
+        jpql.append(" AND m.partitionStart >= :firstPartition AND m.timestamp >= :startDate");
+        jpql.append(" AND m.partitionStart <= :lastPartition AND m.timestamp <= :endDate");
+        em.createQuery(jpql.toString(), Long.class)
+            .setParameter("gatewayCode", GW_0101)
+            .setParameter("firstPartition", PersistenceManager.getPartitionScheme().partitionOf(from))
+            .setParameter("startDate", from)
+            .setParameter("lastPartition", PersistenceManager.getPartitionScheme().partitionOf(to))
+            .setParameter("endDate", to)
+            .getSingleResult();
+      } finally {
+        PersistenceManager.closeEntityManager();
+      }
+    };
+    Runnable named = () -> measurementRepository.countByGateway(GW_0101, from, to);
+
+    double adHocMicros = measure(adHoc);
+    double namedMicros = measure(named);
+    System.out.printf("countByGateway: ad-hoc JPQL %.1f us/call, named query %.1f us/call%n", adHocMicros,
+        namedMicros);
+
+    Assertions.assertEquals(31, measurementRepository.countByGateway(GW_0101, from, to));
+  }
+
+  private static double measure(Runnable call) {
+    //un'unica unit of work: si misura il costo della query, non quello di aprire gli EntityManager
+    return PersistenceManager.inTransaction(() -> {
+      for (int i = 0; i < WARMUP_CALLS; i++) {
+        call.run();
+      }
+      long start = System.nanoTime();
+      for (int i = 0; i < CALLS; i++) {
+        call.run();
+      }
+      return (System.nanoTime() - start) / 1e3 / CALLS;
+    });
+  }
+
+}
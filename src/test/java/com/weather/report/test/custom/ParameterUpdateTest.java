@@ -0,0 +1,60 @@
+package com.weather.report.test.custom;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.weather.report.exceptions.WeatherReportException;
+import com.weather.report.model.entities.Gateway;
+import com.weather.report.model.entities.Parameter;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.repositories.GatewayRepository;
+import com.weather.report.test.base.BasePersistenceTest;
+
+import jakarta.persistence.Cache;
+
+public class ParameterUpdateTest extends BasePersistenceTest {
+
+  private static final int OTHER_PARAMETERS = 50;
+
+  private static SessionFactory sessionFactory() {
+    SessionFactory sessionFactory = PersistenceManager.getEntityManager().getEntityManagerFactory()
+        .unwrap(SessionFactory.class);
+    PersistenceManager.closeEntityManager();
+    return sessionFactory;
+  }
+
+  @Test
+  void batteryChargeUpdateShouldNotLoadOrFlushTheGateway() throws WeatherReportException {
+    facade.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    facade.gateways().createParameter(GW_0101, Parameter.BATTERY_CHARGE_PERCENTAGE_CODE, "Battery", "Battery charge",
+        100.0, MAINTAINER_USERNAME);
+    for (int i = 0; i < OTHER_PARAMETERS; i++) {
+      facade.gateways().createParameter(GW_0101, "P_" + i, "Param " + i, "Desc " + i, i, MAINTAINER_USERNAME);
+    }
+    //gateway e parametri nella cache di secondo livello
+    facade.gateways().getGateways();
+    Cache cache = sessionFactory().getCache();
+    Assertions.assertTrue(cache.contains(Gateway.class, GW_0101));
+
+    Statistics statistics = sessionFactory().getStatistics();
+    statistics.clear();
+    facade.gateways().updateParameter(GW_0101, Parameter.BATTERY_CHARGE_PERCENTAGE_CODE, 42, UPDATER_USERNAME);
+
+    System.out.println("Parameter update: " + statistics.getPrepareStatementCount() + " statements");
+    //lettura del parametro, update del valore e update dei metadati del gateway
+    Assertions.assertEquals(3, statistics.getPrepareStatementCount());
+    Assertions.assertEquals(0, statistics.getEntityStatistics(Gateway.class.getName()).getLoadCount());
+    Assertions.assertEquals(0, statistics.getEntityUpdateCount());
+
+    //la voce in cache del gateway non è più valida e viene riletta dal database
+    Assertions.assertFalse(cache.contains(Gateway.class, GW_0101));
+
+    Gateway gateway = new GatewayRepository().read(GW_0101);
+    Assertions.assertEquals(42, gateway.getParameter(Parameter.BATTERY_CHARGE_PERCENTAGE_CODE).getValue(), 0.001);
+    Assertions.assertEquals(UPDATER_USERNAME, gateway.getModifiedBy());
+    Assertions.assertEquals(OTHER_PARAMETERS + 1, gateway.getParameters().size());
+  }
+
+}
@@ -0,0 +1,138 @@
+package com.weather.report.test.custom;
+
+import static org.mockito.Mockito.mockConstruction;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.MockedConstruction;
+
+import com.weather.report.WeatherReport;
+import com.weather.report.model.entities.Measurement;
+import com.weather.report.reports.GatewayReport;
+import com.weather.report.reports.QuantileSketch;
+import com.weather.report.repositories.CRUDRepository;
+import com.weather.report.repositories.MeasurementRepository;
+import com.weather.report.test.base.BasePersistenceTest;
+
+public class QuantileSketchTest extends BasePersistenceTest {
+
+  private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+  @TempDir
+  Path tempDir;
+
+  private static double exact(double[] sorted, double q) {
+    return sorted[(int) Math.min(sorted.length - 1, Math.floor(q * sorted.length))];
+  }
+
+  //errore misurato come distanza di rango, indipendente dalla scala dei valori
+  private static double rankError(double[] sorted, double q, double estimate) {
+    int rank = Arrays.binarySearch(sorted, estimate);
+    rank = rank >= 0 ? rank : -rank - 1;
+    return Math.abs((double) rank / sorted.length - q);
+  }
+
+  @Test
+  void quantilesShouldBeCloseToTheExactOnes() {
+    Random random = new Random(7);
+    double[] values = new double[100_000];
+    QuantileSketch sketch = new QuantileSketch();
+    for (int i = 0; i < values.length; i++) {
+      //distribuzione asimmetrica con coda lunga
+      values[i] = Math.exp(random.nextGaussian());
+      sketch.add(values[i]);
+    }
+    Arrays.sort(values);
+    Assertions.assertEquals(values.length, sketch.getCount());
+    for (double q : QUANTILES) {
+      Assertions.assertTrue(rankError(values, q, sketch.quantile(q)) < 0.005, "q=" + q);
+    }
+    Assertions.assertEquals(values[0], sketch.quantile(0));
+    Assertions.assertEquals(values[values.length - 1], sketch.quantile(1));
+    Assertions.assertEquals(0, new QuantileSketch().quantile(0.5));
+  }
+
+  @Test
+  void mergedAndDeserialisedSketchesShouldMatchTheWholeData() {
+    Random random = new Random(11);
+    double[] values = new double[50_000];
+    QuantileSketch merged = new QuantileSketch();
+    QuantileSketch part = new QuantileSketch();
+    for (int i = 0; i < values.length; i++) {
+      values[i] = random.nextDouble() * 100;
+      part.add(values[i]);
+      //uno sketch ogni mille valori, come quelli orari salvati dall'import
+      if (i % 1_000 == 999) {
+        merged.merge(QuantileSketch.fromBytes(part.toBytes()));
+        part = new QuantileSketch();
+      }
+    }
+    Arrays.sort(values);
+    Assertions.assertEquals(values.length, merged.getCount());
+    for (double q : QUANTILES) {
+      Assertions.assertEquals(exact(values, q), merged.quantile(q), 0.5, "q=" + q);
+    }
+  }
+
+  @Test
+  void gatewayReportShouldIncludeTheImportedPercentiles() throws Exception {
+    facade.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    List<String> lines = new ArrayList<>();
+    lines.add("date,networkCode,gatewayCode,sensorCode,value");
+    LocalDateTime start = LocalDateTime.of(2025, 5, 1, 0, 0);
+    for (int i = 0; i < 1_000; i++) {
+      //valori da 0 a 999 distribuiti su più ore e due sensori
+      lines.add(String.join(",", start.plusSeconds(17L * i).format(WeatherReport.DATE_TIME_FORMATTER), NET_01,
+          GW_0101, i % 2 == 0 ? SENSOR_010101 : SENSOR_010102, String.valueOf(i)));
+    }
+    Path file = Files.write(tempDir.resolve("measurements.csv"), lines);
+    try (@SuppressWarnings({ "rawtypes", "unused" })
+    MockedConstruction<CRUDRepository> mocked = mockConstruction(CRUDRepository.class,
+        (mock, context) -> when(mock.read()).thenReturn(Collections.emptyList()))) {
+      facade.importDataFromFile(file.toString());
+    }
+
+    GatewayReport report = facade.gateways().getGatewayReport(GW_0101, null, null);
+    Assertions.assertEquals(500, report.getP50(), 5);
+    Assertions.assertEquals(900, report.getP90(), 5);
+    Assertions.assertEquals(990, report.getP99(), 5);
+
+    //le ore fuori dall'intervallo non contribuiscono
+    GatewayReport firstHour = facade.gateways().getGatewayReport(GW_0101, "2025-05-01 00:00:00",
+        "2025-05-01 00:59:59");
+    Assertions.assertTrue(firstHour.getP99() < 3_600 / 17 + 1);
+  }
+
+  @Test
+  void partialHoursShouldOnlyCountTheValuesInsideTheInterval() throws Exception {
+    facade.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    MeasurementRepository repository = new MeasurementRepository();
+    LocalDateTime hour = LocalDateTime.of(2025, 5, 1, 10, 0);
+    for (int minute = 0; minute < 60; minute++) {
+      //i valori fuori dall'intervallo 10:20-10:39 sono molto più grandi di quelli interni
+      double value = minute >= 20 && minute < 40 ? minute : 1_000 + minute;
+      repository.create(new Measurement(NET_01, GW_0101, SENSOR_010101, value, hour.plusMinutes(minute)));
+    }
+
+    //le misurazioni scritte direttamente dal repository hanno i loro sketch
+    GatewayReport whole = facade.gateways().getGatewayReport(GW_0101, null, null);
+    Assertions.assertTrue(whole.getP99() > 1_000);
+
+    GatewayReport partial = facade.gateways().getGatewayReport(GW_0101, "2025-05-01 10:20:00",
+        "2025-05-01 10:39:59");
+    Assertions.assertEquals(29.5, partial.getP50(), 1);
+    Assertions.assertTrue(partial.getP99() < 40);
+  }
+
+}
@@ -0,0 +1,73 @@
+package com.weather.report.test.custom;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.weather.report.model.MeasurementValue;
+import com.weather.report.model.entities.Measurement;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.reports.GatewayReport;
+import com.weather.report.repositories.MeasurementRepository;
+import com.weather.report.test.base.BasePersistenceTest;
+
+public class ReadOnlyReportPathTest extends BasePersistenceTest {
+
+  private static final LocalDateTime START = LocalDateTime.of(2025, 5, 1, 8, 0);
+  private static final int MEASUREMENTS = 500;
+
+  private final MeasurementRepository measurementRepository = new MeasurementRepository();
+
+  private void storeMeasurements() {
+    PersistenceManager.inTransaction(() -> {
+      for (int i = 0; i < MEASUREMENTS; i++) {
+        String sensor = i % 2 == 0 ? SENSOR_010101 : SENSOR_010102;
+        measurementRepository.create(new Measurement(NET_01, GW_0101, sensor, i, START.plusMinutes(i)));
+      }
+    });
+  }
+
+  private static Statistics statistics() {
+    Statistics statistics = PersistenceManager.getEntityManager().getEntityManagerFactory()
+        .unwrap(SessionFactory.class).getStatistics();
+    PersistenceManager.closeEntityManager();
+    return statistics;
+  }
+
+  @Test
+  void projectionsShouldMatchEntitiesWithoutLoadingThem() {
+    storeMeasurements();
+    LocalDateTime to = START.plusMinutes(99);
+
+    Statistics statistics = statistics();
+    statistics.clear();
+    List<MeasurementValue> values = measurementRepository.readValuesByGateway(GW_0101, START, to);
+    Assertions.assertEquals(0, statistics.getEntityLoadCount());
+
+    List<Measurement> entities = measurementRepository.readByGateway(GW_0101, START, to);
+    Assertions.assertEquals(entities.size(), values.size());
+    Assertions.assertEquals(100, values.size());
+    for (MeasurementValue value : values) {
+      Assertions.assertTrue(entities.stream().anyMatch(m -> m.getSensorCode().equals(value.sensorCode())
+          && m.getValue() == value.value() && m.getTimestamp().equals(value.timestamp())));
+    }
+  }
+
+  @Test
+  void gatewayReportShouldNotLoadMeasurementEntities() throws Exception {
+    facade.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    storeMeasurements();
+
+    Statistics statistics = statistics();
+    statistics.clear();
+    GatewayReport report = facade.gateways().getGatewayReport(GW_0101, null, null);
+
+    Assertions.assertEquals(MEASUREMENTS, report.getNumberOfMeasurements());
+    Assertions.assertEquals(0, statistics.getEntityStatistics(Measurement.class.getName()).getLoadCount());
+  }
+
+}
@@ -0,0 +1,130 @@
+package com.weather.report.test.custom;
+
+import static org.mockito.Mockito.mockConstruction;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.MockedConstruction;
+
+import com.weather.report.WeatherReport;
+import com.weather.report.exceptions.ElementNotFoundException;
+import com.weather.report.model.entities.Parameter;
+import com.weather.report.reports.GatewayReport;
+import com.weather.report.repositories.CRUDRepository;
+import com.weather.report.services.ReportCache;
+import com.weather.report.test.base.BasePersistenceTest;
+
+public class ReportCacheTest extends BasePersistenceTest {
+
+  private static final LocalDateTime JANUARY = LocalDateTime.of(2025, 1, 10, 8, 0);
+  private static final LocalDateTime MARCH = LocalDateTime.of(2025, 3, 10, 8, 0);
+  private static final String JANUARY_START = "2025-01-01 00:00:00";
+  private static final String JANUARY_END = "2025-01-31 23:59:59";
+
+  @TempDir
+  Path tempDir;
+
+  @BeforeEach
+  void setUpGateway() throws Exception {
+    facade.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    facade.gateways().createParameter(GW_0101, Parameter.BATTERY_CHARGE_PERCENTAGE_CODE, "battery", null, 80,
+        MAINTAINER_USERNAME);
+    facade.gateways().createParameter(GW_0101, PARAMETER_P01, "other", null, 1, MAINTAINER_USERNAME);
+  }
+
+  private void importMeasurements(String name, LocalDateTime start, int count) throws IOException {
+    List<String> lines = new ArrayList<>();
+    lines.add("date,networkCode,gatewayCode,sensorCode,value");
+    for (int i = 0; i < count; i++) {
+      lines.add(String.join(",", start.plusMinutes(i).format(WeatherReport.DATE_TIME_FORMATTER), NET_01, GW_0101,
+          SENSOR_010101, String.valueOf(20 + i % 3)));
+    }
+    Path file = Files.write(tempDir.resolve(name), lines);
+    //i sensori non sono ancora persistiti: la lettura del controllo soglie restituisce una lista vuota
+    try (@SuppressWarnings({ "rawtypes", "unused" })
+    MockedConstruction<CRUDRepository> mocked = mockConstruction(CRUDRepository.class,
+        (mock, context) -> when(mock.read()).thenReturn(Collections.emptyList()))) {
+      facade.importDataFromFile(file.toString());
+    }
+  }
+
+  @Test
+  void importShouldEvictOnlyOverlappingReports() throws Exception {
+    importMeasurements("january.csv", JANUARY, 10);
+
+    GatewayReport january = facade.gateways().getGatewayReport(GW_0101, JANUARY_START, JANUARY_END);
+    GatewayReport allTime = facade.gateways().getGatewayReport(GW_0101, null, null);
+    Assertions.assertSame(january, facade.gateways().getGatewayReport(GW_0101, JANUARY_START, JANUARY_END));
+    Assertions.assertEquals(10, allTime.getNumberOfMeasurements());
+
+    importMeasurements("march.csv", MARCH, 5);
+
+    //l'import di marzo non tocca il report di gennaio
+    Assertions.assertSame(january, facade.gateways().getGatewayReport(GW_0101, JANUARY_START, JANUARY_END));
+    GatewayReport updated = facade.gateways().getGatewayReport(GW_0101, null, null);
+    Assertions.assertNotSame(allTime, updated);
+    Assertions.assertEquals(15, updated.getNumberOfMeasurements());
+  }
+
+  @Test
+  void onlyReportParametersShouldEvictTheGateway() throws Exception {
+    importMeasurements("january.csv", JANUARY, 10);
+    GatewayReport report = facade.gateways().getGatewayReport(GW_0101, null, null);
+
+    facade.gateways().updateParameter(GW_0101, PARAMETER_P01, 2, MAINTAINER_USERNAME);
+    Assertions.assertSame(report, facade.gateways().getGatewayReport(GW_0101, null, null));
+
+    facade.gateways().updateParameter(GW_0101, Parameter.BATTERY_CHARGE_PERCENTAGE_CODE, 40, MAINTAINER_USERNAME);
+    GatewayReport updated = facade.gateways().getGatewayReport(GW_0101, null, null);
+    Assertions.assertNotSame(report, updated);
+    Assertions.assertEquals(40, updated.getBatteryChargePercentage());
+  }
+
+  @Test
+  void unknownGatewayShouldBeReportedBeforeMalformedDates() {
+    Assertions.assertThrows(ElementNotFoundException.class,
+        () -> facade.gateways().getGatewayReport(GW_0102, "not a date", null));
+    Assertions.assertThrows(ElementNotFoundException.class,
+        () -> facade.gateways().getGatewayReports(List.of(GW_0101, GW_0102), null, "not a date"));
+  }
+
+  @Test
+  void cacheShouldBeBoundedAndSkipStaleResults() {
+    ReportCache cache = new ReportCache();
+    long generation = cache.generation();
+    for (int i = 0; i < 1_000; i++) {
+      cache.put(String.class, "GW_" + i, null, null, null, null, "report " + i, generation);
+    }
+    Assertions.assertTrue(cache.size() < 1_000);
+    Assertions.assertEquals("report 999", cache.get(String.class, "GW_999", null, null));
+    Assertions.assertNull(cache.get(String.class, "GW_0", null, null));
+
+    //un report calcolato prima di un'invalidazione non viene salvato
+    cache.invalidate(GW_0101);
+    cache.put(String.class, GW_0101, null, null, null, null, "stale", generation);
+    Assertions.assertNull(cache.get(String.class, GW_0101, null, null));
+  }
+
+  @Test
+  void cacheShouldBelongToOneSystem() throws Exception {
+    importMeasurements("january.csv", JANUARY, 10);
+    GatewayReport report = facade.gateways().getGatewayReport(GW_0101, null, null);
+
+    //una seconda istanza parte con la propria cache e non svuota quella della prima
+    WeatherReport other = new WeatherReport();
+    Assertions.assertEquals(0, other.services().getReportCache().size());
+    Assertions.assertSame(report, facade.gateways().getGatewayReport(GW_0101, null, null));
+  }
+
+}
@@ -0,0 +1,134 @@
+package com.weather.report.test.custom;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.weather.report.WeatherReport;
+import com.weather.report.model.ExportFormat;
+import com.weather.report.model.entities.Measurement;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.reports.GatewayReport;
+import com.weather.report.repositories.MeasurementRepository;
+import com.weather.report.services.ReportExportService;
+import com.weather.report.test.base.BasePersistenceTest;
+
+public class ReportExportTest extends BasePersistenceTest {
+
+  private static final LocalDateTime START = LocalDateTime.of(2025, 9, 1, 0, 0);
+  private static final int MEASUREMENTS = 20_000;
+  private static final double MIN_MEASUREMENTS_PER_SECOND = 5_000;
+
+  private final MeasurementRepository measurementRepository = new MeasurementRepository();
+
+  //destinazione che scarta i byte ricevuti, tenendo solo le dimensioni delle scritture
+  private static final class CountingChannel implements WritableByteChannel {
+    private long bytes;
+    private int writes;
+    private int largestWrite;
+
+    @Override
+    public int write(ByteBuffer source) {
+      int size = source.remaining();
+      source.position(source.limit());
+      bytes += size;
+      writes++;
+      largestWrite = Math.max(largestWrite, size);
+      return size;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+      // nessuna risorsa
+    }
+  }
+
+  @BeforeEach
+  void setUpMeasurements() throws Exception {
+    facade.gateways().createGateway(GW_0001, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    PersistenceManager.inTransaction(() -> {
+      for (int i = 0; i < MEASUREMENTS; i++) {
+        String sensor = i % 4 == 0 ? SENSOR_010102 : SENSOR_010101;
+        measurementRepository.create(new Measurement(NET_01, GW_0001, sensor, i % 23, START.plusSeconds(11L * i)));
+      }
+    });
+  }
+
+  @Test
+  void measurementsShouldBeStreamedInTheImportFormat() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LocalDateTime end = START.plusSeconds(11L * 99);
+    Assertions.assertEquals(100,
+        ReportExportService.writeMeasurements(facade.services(), List.of(GW_0001), START, end, ExportFormat.CSV, out));
+
+    String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+    Assertions.assertEquals(101, lines.length);
+    Assertions.assertEquals("date,networkCode,gatewayCode,sensorCode,value", lines[0]);
+    Assertions.assertEquals(String.join(",", START.format(WeatherReport.DATE_TIME_FORMATTER), NET_01, GW_0001,
+        SENSOR_010102, "0.0"), lines[1]);
+
+    out.reset();
+    ReportExportService.writeMeasurements(facade.services(), List.of(GW_0001), START, START, ExportFormat.JSON, out);
+    Assertions.assertEquals("[\n{\"date\":\"" + START.format(WeatherReport.DATE_TIME_FORMATTER) + "\",\"networkCode\":\""
+        + NET_01 + "\",\"gatewayCode\":\"" + GW_0001 + "\",\"sensorCode\":\"" + SENSOR_010102 + "\",\"value\":0.0}]\n",
+        out.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void reportsShouldBeWrittenSectionBySection() throws Exception {
+    GatewayReport report = facade.gateways().getGatewayReport(GW_0001, null, null);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ReportExportService.writeReports(List.of(report), ExportFormat.CSV, out);
+    String csv = out.toString(StandardCharsets.UTF_8);
+    Assertions.assertTrue(csv.startsWith("code,section,key,value\n"));
+    Assertions.assertTrue(csv.contains(GW_0001 + ",numberOfMeasurements,," + MEASUREMENTS + "\n"));
+    Assertions.assertTrue(csv.contains(GW_0001 + ",mostActiveSensors,," + SENSOR_010101 + "\n"));
+    Assertions.assertTrue(csv.contains(GW_0001 + ",sensorsLoadRatio," + SENSOR_010102 + ",0.25\n"));
+    Assertions.assertTrue(csv.contains(GW_0001 + ",histogram,"));
+
+    out.reset();
+    ReportExportService.writeReports(List.of(report), ExportFormat.JSON, out);
+    String json = out.toString(StandardCharsets.UTF_8);
+    Assertions.assertTrue(json.startsWith("[\n{\"code\":\"" + GW_0001 + "\",\"startDate\":null,\"endDate\":null,"
+        + "\"numberOfMeasurements\":" + MEASUREMENTS + ","));
+    Assertions.assertTrue(json.contains("\"sensorsLoadRatio\":{"));
+    Assertions.assertTrue(json.endsWith("}]\n"));
+  }
+
+  @Test
+  void exportThroughputWithBoundedBuffering() throws Exception {
+    for (ExportFormat format : ExportFormat.values()) {
+      //riscaldamento
+      ReportExportService.writeMeasurements(facade.services(), List.of(GW_0001), null, null, format,
+          new CountingChannel());
+
+      CountingChannel channel = new CountingChannel();
+      long start = System.nanoTime();
+      long written = ReportExportService.writeMeasurements(facade.services(), List.of(GW_0001), null, null, format,
+          channel);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      double perSecond = written / seconds;
+      System.out.printf("%s export: %d measurements, %d bytes in %d writes, %.3f s (%.0f measurements/s, %.1f MB/s)%n",
+          format, written, channel.bytes, channel.writes, seconds, perSecond, channel.bytes / seconds / 1e6);
+
+      Assertions.assertEquals(MEASUREMENTS, written);
+      Assertions.assertTrue(channel.largestWrite <= ReportExportService.BUFFER_SIZE);
+      Assertions.assertTrue(channel.writes > 1);
+      Assertions.assertTrue(perSecond >= MIN_MEASUREMENTS_PER_SECOND,
+          "Expected at least " + MIN_MEASUREMENTS_PER_SECOND + " measurements/s, measured " + perSecond);
+    }
+  }
+
+}
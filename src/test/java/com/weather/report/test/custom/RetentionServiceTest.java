@@ -0,0 +1,201 @@
+package com.weather.report.test.custom;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.weather.report.WeatherReport;
+import com.weather.report.exceptions.WeatherReportException;
+import com.weather.report.model.AggregationGranularity;
+import com.weather.report.model.PartitionScheme;
+import com.weather.report.model.entities.Measurement;
+import com.weather.report.model.entities.MeasurementAggregate;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.reports.GatewayReport;
+import com.weather.report.repositories.MeasurementAggregateRepository;
+import com.weather.report.repositories.MeasurementRepository;
+import com.weather.report.services.RetentionPolicy;
+import com.weather.report.services.RetentionService;
+import com.weather.report.test.base.BasePersistenceTest;
+
+import jakarta.persistence.EntityManager;
+
+public class RetentionServiceTest extends BasePersistenceTest {
+
+  private static final LocalDateTime NOW = LocalDateTime.of(2025, 11, 20, 12, 30);
+
+  private final MeasurementRepository measurementRepository = new MeasurementRepository();
+  private final MeasurementAggregateRepository aggregateRepository = new MeasurementAggregateRepository();
+
+  private void storeMeasurement(String sensorCode, LocalDateTime timestamp, double value) {
+    measurementRepository.create(new Measurement(NET_01, GW_0101, sensorCode, value, timestamp));
+  }
+
+  @Test
+  void applyShouldRollUpOnlyMeasurementsOlderThanMaxAge() {
+    LocalDateTime old = NOW.minusDays(3).withMinute(0);
+    storeMeasurement(SENSOR_010101, old.plusMinutes(5), 10.0);
+    storeMeasurement(SENSOR_010101, old.plusMinutes(20), 14.0);
+    storeMeasurement(SENSOR_010101, old.plusHours(1), 20.0);
+    storeMeasurement(SENSOR_010101, NOW.minusMinutes(10), 30.0);
+
+    long rolledUp = new RetentionService(facade.services()).apply(new RetentionPolicy(Duration.ofDays(1), AggregationGranularity.HOUR, 2), NOW);
+
+    Assertions.assertEquals(3, rolledUp);
+    Assertions.assertEquals(1, measurementRepository.read().size());
+    List<MeasurementAggregate> aggregates = aggregateRepository.readByGateway(GW_0101, null, null);
+    Assertions.assertEquals(2, aggregates.size());
+    MeasurementAggregate first = aggregateRepository.readBucket(SENSOR_010101, AggregationGranularity.HOUR, old);
+    Assertions.assertEquals(2, first.getCount());
+    Assertions.assertEquals(12.0, first.getMean(), 1e-9);
+    Assertions.assertEquals(8.0, first.getSumOfSquaredDeviations(), 1e-9);
+    Assertions.assertEquals(10.0, first.getMinimum(), 1e-9);
+    Assertions.assertEquals(14.0, first.getMaximum(), 1e-9);
+  }
+
+  private static long committedTransactions() {
+    EntityManager em = PersistenceManager.getEntityManager();
+    try {
+      return em.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics()
+          .getSuccessfulTransactionCount();
+    } finally {
+      PersistenceManager.closeEntityManager();
+    }
+  }
+
+  @Test
+  void policyShouldRejectZeroAge() {
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> new RetentionPolicy(Duration.ZERO, AggregationGranularity.HOUR, 100));
+  }
+
+  @Test
+  void systemShouldApplyItsPolicyUntilClosed() throws InterruptedException {
+    LocalDateTime old = LocalDateTime.now().minusDays(3);
+    storeMeasurement(SENSOR_010101, old, 10.0);
+    try (WeatherReport system = new WeatherReport(
+        new RetentionPolicy(Duration.ofDays(1), AggregationGranularity.HOUR, 100), Duration.ofMillis(50))) {
+      long deadline = System.currentTimeMillis() + 10_000;
+      while (!measurementRepository.read().isEmpty() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(20);
+      }
+      Assertions.assertTrue(measurementRepository.read().isEmpty());
+    }
+
+    //chiuso il sistema la retention non viene più applicata
+    storeMeasurement(SENSOR_010101, old, 12.0);
+    Thread.sleep(200);
+    Assertions.assertEquals(1, measurementRepository.read().size());
+  }
+
+  @Test
+  void lateMeasurementsShouldBeMergedIntoExistingAggregate() {
+    LocalDateTime old = NOW.minusDays(3).withMinute(0);
+    RetentionPolicy policy = new RetentionPolicy(Duration.ofDays(1), AggregationGranularity.DAY, 100);
+    storeMeasurement(SENSOR_010101, old, 10.0);
+    new RetentionService(facade.services()).apply(policy, NOW);
+    storeMeasurement(SENSOR_010101, old.plusHours(1), 20.0);
+    new RetentionService(facade.services()).apply(policy, NOW);
+
+    MeasurementAggregate aggregate = aggregateRepository.readBucket(SENSOR_010101, AggregationGranularity.DAY,
+        AggregationGranularity.DAY.truncate(old));
+    Assertions.assertEquals(2, aggregate.getCount());
+    Assertions.assertEquals(15.0, aggregate.getMean(), 1e-9);
+    Assertions.assertTrue(measurementRepository.read().isEmpty());
+  }
+
+  @Test
+  void expiredPartitionsShouldBeRolledUpAndDeleted() {
+    //partizioni mensili, come configurato nel persistence unit
+    Assertions.assertEquals(PartitionScheme.MONTH, PersistenceManager.getPartitionScheme());
+    storeMeasurement(SENSOR_010101, NOW.minusMonths(3), 10.0);
+    storeMeasurement(SENSOR_010101, NOW.minusMonths(2), 20.0);
+    storeMeasurement(SENSOR_010101, NOW.minusDays(25), 30.0);
+    storeMeasurement(SENSOR_010101, NOW.minusHours(1), 40.0);
+    Assertions.assertEquals(List.of(LocalDate.of(2025, 8, 1), LocalDate.of(2025, 9, 1)),
+        measurementRepository.readPartitionsBefore(LocalDate.of(2025, 10, 1)));
+
+    long rolledUp = new RetentionService(facade.services()).apply(new RetentionPolicy(Duration.ofDays(20), AggregationGranularity.HOUR, 1), NOW);
+
+    Assertions.assertEquals(3, rolledUp);
+    Assertions.assertEquals(List.of(40.0), measurementRepository.read().stream().map(Measurement::getValue).toList());
+    Assertions.assertEquals(3, aggregateRepository.readByGateway(GW_0101, null, null).size());
+  }
+
+  @Test
+  void expiredPartitionShouldBeCommittedOneChunkAtATime() {
+    LocalDateTime old = NOW.minusMonths(3);
+    storeMeasurement(SENSOR_010101, old, 10.0);
+    storeMeasurement(SENSOR_010101, old.plusDays(1), 20.0);
+    storeMeasurement(SENSOR_010101, old.plusDays(2), 30.0);
+    long before = committedTransactions();
+
+    long rolledUp = new RetentionService(facade.services()).apply(new RetentionPolicy(Duration.ofDays(20), AggregationGranularity.DAY, 1), NOW);
+
+    //una transazione per chunk, non una per l'intera partizione
+    Assertions.assertEquals(3, rolledUp);
+    Assertions.assertEquals(before + 3, committedTransactions());
+    Assertions.assertTrue(measurementRepository.read().isEmpty());
+    Assertions.assertEquals(3, aggregateRepository.readByGateway(GW_0101, null, null).size());
+  }
+
+  @Test
+  void readByGatewayShouldOnlyReturnMeasurementsInTheWindow() {
+    storeMeasurement(SENSOR_010101, NOW.minusMonths(2), 10.0);
+    storeMeasurement(SENSOR_010101, NOW.minusDays(1), 20.0);
+    storeMeasurement(SENSOR_010101, NOW, 30.0);
+
+    List<Measurement> measurements = measurementRepository.readByGateway(GW_0101, NOW.minusDays(2), NOW.minusHours(1));
+
+    Assertions.assertEquals(List.of(20.0), measurements.stream().map(Measurement::getValue).toList());
+    Assertions.assertEquals(NOW.withDayOfMonth(1).toLocalDate(), measurements.get(0).getPartitionStart());
+  }
+
+  @Test
+  void gatewayReportShouldCountAggregatedMeasurements() throws WeatherReportException {
+    facade.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    LocalDateTime old = NOW.minusDays(3);
+    storeMeasurement(SENSOR_010101, old, 10.0);
+    storeMeasurement(SENSOR_010101, old.plusMinutes(1), 12.0);
+    storeMeasurement(SENSOR_010102, old.plusMinutes(2), 11.0);
+    storeMeasurement(SENSOR_010102, NOW.minusMinutes(1), 11.0);
+    new RetentionService(facade.services()).apply(new RetentionPolicy(Duration.ofDays(1), AggregationGranularity.HOUR, 100), NOW);
+
+    GatewayReport report = facade.gateways().getGatewayReport(GW_0101, null, null);
+
+    Assertions.assertEquals(4, report.getNumberOfMeasurements());
+    Assertions.assertEquals(0.5, report.getSensorsLoadRatio().get(SENSOR_010101), 1e-9);
+    Assertions.assertEquals(0.5, report.getSensorsLoadRatio().get(SENSOR_010102), 1e-9);
+  }
+
+  @Test
+  void rangesShouldOnlyIncludeBucketsEntirelyInside() throws WeatherReportException {
+    facade.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    LocalDateTime hour = NOW.minusDays(3).withMinute(0);
+    storeMeasurement(SENSOR_010101, hour.plusMinutes(5), 10.0);
+    storeMeasurement(SENSOR_010101, hour.plusMinutes(50), 12.0);
+    storeMeasurement(SENSOR_010101, hour.plusHours(1).plusMinutes(10), 14.0);
+    new RetentionService(facade.services()).apply(new RetentionPolicy(Duration.ofDays(1), AggregationGranularity.HOUR, 100), NOW);
+
+    //l'intervallo inizia e finisce a metà di un'ora aggregata: nessuna delle due è inclusa
+    LocalDateTime start = hour.plusMinutes(30);
+    LocalDateTime end = hour.plusHours(1).plusMinutes(30);
+    Assertions.assertEquals(0, aggregateRepository.countByGateway(GW_0101, start, end));
+    Assertions.assertTrue(aggregateRepository.readByGateway(GW_0101, start, end).isEmpty());
+    //un limite superiore incluso copre tutto il suo secondo
+    LocalDateTime endOfHour = hour.plusMinutes(59).plusSeconds(59);
+    Assertions.assertEquals(2, aggregateRepository.countByGateway(GW_0101, hour, endOfHour));
+    Assertions.assertEquals(3, aggregateRepository.countByGateway(GW_0101, hour, endOfHour.plusHours(1)));
+
+    GatewayReport report = facade.gateways().getGatewayReport(GW_0101,
+        start.format(WeatherReport.DATE_TIME_FORMATTER), endOfHour.plusHours(1).format(WeatherReport.DATE_TIME_FORMATTER));
+    Assertions.assertEquals(1, report.getNumberOfMeasurements());
+    Assertions.assertEquals(List.of(SENSOR_010101), List.copyOf(report.getMostActiveSensors()));
+  }
+
+}
@@ -0,0 +1,116 @@
+package com.weather.report.test.custom;
+
+import static org.mockito.Mockito.mockConstruction;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.MockedConstruction;
+
+import com.weather.report.WeatherReport;
+import com.weather.report.exceptions.InvalidInputDataException;
+import com.weather.report.reports.GatewayReport;
+import com.weather.report.reports.RollingGatewayReport;
+import com.weather.report.reports.RollingSensorReport;
+import com.weather.report.repositories.CRUDRepository;
+import com.weather.report.services.RollingWindowService.Registration;
+import com.weather.report.test.base.BasePersistenceTest;
+
+public class RollingWindowTest extends BasePersistenceTest {
+
+  private static final LocalDateTime START = LocalDateTime.of(2025, 5, 1, 10, 0);
+
+  @TempDir
+  Path tempDir;
+
+  private int files;
+
+  @BeforeEach
+  void setUpGateway() throws Exception {
+    facade.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+  }
+
+  private void importMeasurements(LocalDateTime start, int count) throws IOException {
+    List<String> lines = new ArrayList<>();
+    lines.add("date,networkCode,gatewayCode,sensorCode,value");
+    for (int i = 0; i < count; i++) {
+      String sensor = i % 3 == 0 ? SENSOR_010102 : SENSOR_010101;
+      lines.add(String.join(",", start.plusSeconds(20L * i).format(WeatherReport.DATE_TIME_FORMATTER), NET_01,
+          GW_0101, sensor, String.valueOf(i % 13)));
+    }
+    Path file = Files.write(tempDir.resolve("measurements" + files++ + ".csv"), lines);
+    try (@SuppressWarnings({ "rawtypes", "unused" })
+    MockedConstruction<CRUDRepository> mocked = mockConstruction(CRUDRepository.class,
+        (mock, context) -> when(mock.read()).thenReturn(Collections.emptyList()))) {
+      facade.importDataFromFile(file.toString());
+    }
+  }
+
+  @Test
+  void windowsShouldMatchTheReportOfTheSameInterval() throws Exception {
+    //tre ore di misurazioni, una ogni 20 secondi
+    importMeasurements(START, 540);
+
+    RollingGatewayReport window = facade.gateways().getRollingGatewayReport(GW_0101, Duration.ofHours(1));
+    Assertions.assertEquals(START.plusHours(2), window.start());
+    Assertions.assertEquals(START.plusHours(3), window.end());
+    GatewayReport report = facade.gateways().getGatewayReport(GW_0101,
+        window.start().format(WeatherReport.DATE_TIME_FORMATTER),
+        window.end().minusSeconds(1).format(WeatherReport.DATE_TIME_FORMATTER));
+    Assertions.assertEquals(180, window.numberOfMeasurements());
+    Assertions.assertEquals(report.getNumberOfMeasurements(), window.numberOfMeasurements());
+    Assertions.assertEquals(List.of(SENSOR_010101), new ArrayList<>(window.mostActiveSensors()));
+    Assertions.assertEquals(List.of(SENSOR_010102), new ArrayList<>(window.leastActiveSensors()));
+    report.getSensorsLoadRatio().forEach(
+        (sensor, ratio) -> Assertions.assertEquals(ratio, window.sensorsLoadRatio().get(sensor), 1e-9));
+
+    RollingSensorReport sensor = facade.services().getRollingWindows().getSensorReport(SENSOR_010102,
+        Duration.ofMinutes(10));
+    //negli ultimi 10 minuti il secondo sensore ha misurato i valori i % 13, per i multiplo di 3 da 510 a 537
+    double[] values = IntStream.iterate(510, i -> i < 540, i -> i + 3).mapToDouble(i -> i % 13)
+        .toArray();
+    Assertions.assertEquals(values.length, sensor.numberOfMeasurements());
+    Assertions.assertEquals(Arrays.stream(values).average().orElseThrow(), sensor.mean(), 1e-9);
+    Assertions.assertEquals(Arrays.stream(values).min().orElseThrow(), sensor.minimumMeasuredValue());
+    Assertions.assertEquals(Arrays.stream(values).max().orElseThrow(), sensor.maximumMeasuredValue());
+
+    Assertions.assertThrows(InvalidInputDataException.class,
+        () -> facade.gateways().getRollingGatewayReport(GW_0101, Duration.ofSeconds(90)));
+    Assertions.assertThrows(InvalidInputDataException.class,
+        () -> facade.gateways().getRollingGatewayReport(GW_0101, Duration.ofHours(25)));
+  }
+
+  @Test
+  void subscribersShouldBeNotifiedWhenTheWindowMoves() throws Exception {
+    importMeasurements(START, 90);
+    List<RollingGatewayReport> updates = new ArrayList<>();
+    Registration registration = facade.gateways().subscribeToRollingGatewayReport(GW_0101, Duration.ofMinutes(30),
+        updates::add);
+
+    importMeasurements(START.plusMinutes(30), 90);
+    Assertions.assertFalse(updates.isEmpty());
+    RollingGatewayReport last = updates.get(updates.size() - 1);
+    Assertions.assertEquals(START.plusMinutes(60), last.end());
+    Assertions.assertEquals(90, last.numberOfMeasurements());
+    Assertions.assertEquals(facade.gateways().getRollingGatewayReport(GW_0101, Duration.ofMinutes(30)), last);
+
+    registration.close();
+    int received = updates.size();
+    importMeasurements(START.plusMinutes(60), 90);
+    Assertions.assertEquals(received, updates.size());
+  }
+
+}
@@ -0,0 +1,62 @@
+package com.weather.report.test.custom;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.weather.report.persistence.CacheStatistics;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.repositories.UserRepository;
+import com.weather.report.test.base.BasePersistenceTest;
+
+public class SecondLevelCacheTest extends BasePersistenceTest {
+
+  private final UserRepository userRepository = new UserRepository();
+
+  @Test
+  void repeatedFindShouldHitTheSecondLevelCache() {
+    PersistenceManager.evictCaches();
+
+    CacheStatistics before = PersistenceManager.getCacheStatistics();
+    Assertions.assertNotNull(userRepository.read(MAINTAINER_USERNAME));
+    CacheStatistics afterFirst = PersistenceManager.getCacheStatistics();
+    //dopo lo svuotamento la prima lettura va al database e popola la cache
+    Assertions.assertEquals(before.getSecondLevelCacheHits(), afterFirst.getSecondLevelCacheHits());
+    Assertions.assertEquals(before.getSecondLevelCacheMisses() + 1, afterFirst.getSecondLevelCacheMisses());
+    Assertions.assertTrue(afterFirst.getSecondLevelCachePuts() > before.getSecondLevelCachePuts());
+
+    Assertions.assertNotNull(userRepository.read(MAINTAINER_USERNAME));
+    CacheStatistics afterSecond = PersistenceManager.getCacheStatistics();
+    Assertions.assertEquals(afterFirst.getSecondLevelCacheHits() + 1, afterSecond.getSecondLevelCacheHits());
+    Assertions.assertEquals(afterFirst.getSecondLevelCacheMisses(), afterSecond.getSecondLevelCacheMisses());
+
+    PersistenceManager.evictCaches();
+    Assertions.assertNotNull(userRepository.read(MAINTAINER_USERNAME));
+    CacheStatistics afterEviction = PersistenceManager.getCacheStatistics();
+    Assertions.assertEquals(afterSecond.getSecondLevelCacheHits(), afterEviction.getSecondLevelCacheHits());
+    Assertions.assertEquals(afterSecond.getSecondLevelCacheMisses() + 1, afterEviction.getSecondLevelCacheMisses());
+  }
+
+  @Test
+  void repeatedReadAllShouldHitTheQueryCache() {
+    PersistenceManager.evictCaches();
+
+    CacheStatistics before = PersistenceManager.getCacheStatistics();
+    Assertions.assertEquals(3, userRepository.read().size());
+    CacheStatistics afterFirst = PersistenceManager.getCacheStatistics();
+    Assertions.assertEquals(before.getQueryCacheHits(), afterFirst.getQueryCacheHits());
+    Assertions.assertEquals(before.getQueryCacheMisses() + 1, afterFirst.getQueryCacheMisses());
+    Assertions.assertEquals(before.getQueryCachePuts() + 1, afterFirst.getQueryCachePuts());
+
+    Assertions.assertEquals(3, userRepository.read().size());
+    CacheStatistics afterSecond = PersistenceManager.getCacheStatistics();
+    Assertions.assertEquals(afterFirst.getQueryCacheHits() + 1, afterSecond.getQueryCacheHits());
+    Assertions.assertEquals(afterFirst.getQueryCacheMisses(), afterSecond.getQueryCacheMisses());
+
+    PersistenceManager.evictCaches();
+    Assertions.assertEquals(3, userRepository.read().size());
+    CacheStatistics afterEviction = PersistenceManager.getCacheStatistics();
+    Assertions.assertEquals(afterSecond.getQueryCacheHits(), afterEviction.getQueryCacheHits());
+    Assertions.assertEquals(afterSecond.getQueryCacheMisses() + 1, afterEviction.getQueryCacheMisses());
+  }
+
+}
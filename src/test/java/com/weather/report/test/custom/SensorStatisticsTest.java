@@ -0,0 +1,123 @@
+package com.weather.report.test.custom;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.weather.report.model.AggregationGranularity;
+import com.weather.report.model.entities.Measurement;
+import com.weather.report.model.entities.MeasurementAggregate;
+import com.weather.report.reports.RunningStatistics;
+import com.weather.report.reports.SensorReport;
+import com.weather.report.reports.SensorReportImplementation;
+
+public class SensorStatisticsTest {
+
+  private static final LocalDateTime START = LocalDateTime.of(2025, 3, 1, 0, 0);
+
+  private static double naiveMean(double[] values) {
+    double sum = 0;
+    for (double value : values) {
+      sum += value;
+    }
+    return sum / values.length;
+  }
+
+  private static double naiveVariance(double[] values) {
+    double mean = naiveMean(values);
+    double sum = 0;
+    for (double value : values) {
+      sum += (value - mean) * (value - mean);
+    }
+    return sum / (values.length - 1);
+  }
+
+  @Test
+  void oneAndTwoPassStatisticsShouldAgree() {
+    Random random = new Random(11);
+    //valori grandi e vicini: la formula con la somma dei quadrati perderebbe tutte le cifre
+    double[] values = random.doubles(200_000).map(v -> 1e9 + v).toArray();
+
+    RunningStatistics statistics = RunningStatistics.of(values, values.length);
+
+    Assertions.assertEquals(values.length, statistics.getCount());
+    Assertions.assertEquals(naiveMean(values), statistics.getMean(), 1e-4);
+    Assertions.assertEquals(naiveVariance(values), statistics.getVariance(), 1e-6);
+    Assertions.assertEquals(1.0 / 12, statistics.getVariance(), 1e-2);
+  }
+
+  @Test
+  void mergedPartitionsShouldMatchASinglePass() {
+    Random random = new Random(5);
+    double[] values = random.doubles(1_000).map(v -> v * 40 - 10).toArray();
+    RunningStatistics whole = new RunningStatistics().addAll(values, 0, values.length);
+
+    RunningStatistics merged = new RunningStatistics().addAll(values, 0, 300)
+        .merge(new RunningStatistics().addAll(values, 300, 301))
+        .merge(new RunningStatistics())
+        .merge(new RunningStatistics().addAll(values, 301, values.length));
+    MeasurementAggregate aggregate = new MeasurementAggregate(null, null, null, AggregationGranularity.HOUR, START);
+    for (double value : values) {
+      aggregate.add(value);
+    }
+    RunningStatistics fromAggregate = new RunningStatistics().merge(aggregate);
+
+    for (RunningStatistics statistics : List.of(merged, fromAggregate)) {
+      Assertions.assertEquals(whole.getCount(), statistics.getCount());
+      Assertions.assertEquals(whole.getMean(), statistics.getMean(), 1e-9);
+      Assertions.assertEquals(whole.getVariance(), statistics.getVariance(), 1e-9);
+      Assertions.assertEquals(whole.getMinimum(), statistics.getMinimum());
+      Assertions.assertEquals(whole.getMaximum(), statistics.getMaximum());
+    }
+  }
+
+  @Test
+  void reportShouldExcludeOutliersFromTheHistogram() {
+    List<Measurement> measurements = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      measurements.add(new Measurement("NET_01", "GW_0101", "S_010101", 20 + i % 5, START.plusMinutes(i)));
+    }
+    Measurement spike = new Measurement("NET_01", "GW_0101", "S_010101", 90, START.plusMinutes(100));
+    measurements.add(spike);
+
+    SensorReport report = SensorReportImplementation.of("S_010101", null, null, measurements);
+
+    Assertions.assertEquals(101, report.getNumberOfMeasurements());
+    Assertions.assertEquals(20, report.getMinimumMeasuredValue());
+    Assertions.assertEquals(90, report.getMaximumMeasuredValue());
+    Assertions.assertEquals(List.of(spike), report.getOutliers());
+    Assertions.assertEquals(100L, report.getHistogram().values().stream().mapToLong(Long::longValue).sum());
+    Assertions.assertEquals(24.0, report.getHistogram().lastKey().getEnd());
+  }
+
+  @Test
+  void emptyReportShouldHaveZeroStatistics() {
+    SensorReport report = SensorReportImplementation.of("S_010101", null, null, List.of());
+
+    Assertions.assertEquals(0, report.getNumberOfMeasurements());
+    Assertions.assertEquals(0.0, report.getMean());
+    Assertions.assertEquals(0.0, report.getStdDev());
+    Assertions.assertTrue(report.getOutliers().isEmpty());
+    Assertions.assertTrue(report.getHistogram().isEmpty());
+  }
+
+  @Test
+  void singleMeasurementShouldKeepItsMeanButNoSpread() {
+    Measurement only = new Measurement("NET_01", "GW_0101", "S_010101", 17.5, START);
+
+    SensorReport report = SensorReportImplementation.of("S_010101", null, null, List.of(only));
+
+    Assertions.assertEquals(1, report.getNumberOfMeasurements());
+    Assertions.assertEquals(17.5, report.getMean());
+    Assertions.assertEquals(0.0, report.getVariance());
+    Assertions.assertEquals(0.0, report.getStdDev());
+    Assertions.assertEquals(17.5, report.getMinimumMeasuredValue());
+    Assertions.assertEquals(17.5, report.getMaximumMeasuredValue());
+    Assertions.assertTrue(report.getOutliers().isEmpty());
+  }
+
+}
@@ -0,0 +1,170 @@
+package com.weather.report.test.custom;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.weather.report.WeatherReport;
+import com.weather.report.model.AggregationGranularity;
+import com.weather.report.model.MeasurementValue;
+import com.weather.report.model.entities.Measurement;
+import com.weather.report.persistence.Shards;
+import com.weather.report.reports.GatewayReport;
+import com.weather.report.repositories.MeasurementRepository;
+import com.weather.report.services.RetentionPolicy;
+import com.weather.report.services.RetentionService;
+import com.weather.report.test.base.BasePersistenceTest;
+
+public class ShardingTest extends BasePersistenceTest {
+
+  private static final int SHARDS = 3;
+  private static final int MEASUREMENTS_PER_NETWORK = 40;
+  private static final LocalDateTime START = LocalDateTime.of(2025, 6, 1, 0, 0);
+
+  @TempDir
+  Path tempDir;
+
+  private Shards shards;
+  private MeasurementRepository measurementRepository;
+  private final List<String> networks = new ArrayList<>();
+
+  @BeforeEach
+  void setUpShards() {
+    facade.close();
+    facade = new WeatherReport(SHARDS);
+    shards = facade.services().getShards();
+    measurementRepository = new MeasurementRepository(shards);
+    //una rete per ogni shard
+    Set<Integer> covered = new HashSet<>();
+    for (int i = 1; covered.size() < SHARDS; i++) {
+      String network = String.format("NET_%02d", i);
+      if (covered.add(shards.shardOf(network))) {
+        networks.add(network);
+      }
+    }
+  }
+
+  @AfterEach
+  void closeShards() {
+    facade.close();
+  }
+
+  private void storeMeasurements() {
+    for (String network : networks) {
+      for (int i = 0; i < MEASUREMENTS_PER_NETWORK; i++) {
+        measurementRepository.create(new Measurement(network, GW_0101, SENSOR_010101, i, START.plusMinutes(i)));
+      }
+    }
+  }
+
+  private long countOnShard(String network) {
+    return shards.onShard(shards.shardOf(network), measurementRepository::count);
+  }
+
+  @Test
+  void measurementsShouldBeStoredOnTheShardOfTheirNetwork() {
+    storeMeasurements();
+
+    for (String network : networks) {
+      long onShard = countOnShard(network);
+      Assertions.assertEquals(MEASUREMENTS_PER_NETWORK, onShard, "Shard of " + network);
+
+      List<MeasurementValue> values = measurementRepository.readValuesByNetwork(network, null, null);
+      Assertions.assertEquals(MEASUREMENTS_PER_NETWORK, values.size());
+    }
+  }
+
+  @Test
+  void gatewayQueriesShouldGatherAllShards() throws Exception {
+    facade.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    storeMeasurements();
+
+    long total = (long) networks.size() * MEASUREMENTS_PER_NETWORK;
+    Assertions.assertEquals(total, measurementRepository.readByGateway(GW_0101, null, null).size());
+    Assertions.assertEquals(total, measurementRepository.countByGateway(GW_0101, null, null));
+
+    GatewayReport report = facade.gateways().getGatewayReport(GW_0101, null, null);
+    Assertions.assertEquals(total, report.getNumberOfMeasurements());
+  }
+
+  @Test
+  void retentionShouldRunOnEveryShard() throws Exception {
+    facade.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    storeMeasurements();
+
+    long total = (long) networks.size() * MEASUREMENTS_PER_NETWORK;
+    long rolledUp = new RetentionService(facade.services()).apply(new RetentionPolicy(Duration.ofDays(1), AggregationGranularity.HOUR, 7),
+        START.plusDays(30));
+
+    Assertions.assertEquals(total, rolledUp);
+    Assertions.assertEquals(0, measurementRepository.countByGateway(GW_0101, null, null));
+    Assertions.assertEquals(total, facade.gateways().getGatewayReport(GW_0101, null, null).getNumberOfMeasurements());
+  }
+
+  @Test
+  void gatewayReadsShouldOnlyQueryTheShardsHoldingTheGateway() {
+    storeMeasurements();
+    String network = networks.get(0);
+    for (int i = 0; i < MEASUREMENTS_PER_NETWORK; i++) {
+      measurementRepository.create(new Measurement(network, GW_0102, SENSOR_010102, i, START.plusMinutes(i)));
+    }
+
+    Assertions.assertEquals(Set.of(shards.shardOf(network)), shards.shardsOfGateway(GW_0102));
+    Assertions.assertEquals(SHARDS, shards.shardsOfGateway(GW_0101).size());
+    Assertions.assertTrue(shards.shardsOfGateway(GW_UNKNOWN).isEmpty());
+    Assertions.assertEquals(MEASUREMENTS_PER_NETWORK, measurementRepository.countByGateway(GW_0102, null, null));
+    Assertions.assertEquals(0, measurementRepository.countByGateway(GW_UNKNOWN, null, null));
+
+    //dopo un ripristino l'elenco è ricostruito dagli sketch salvati negli shard
+    Path snapshot = tempDir.resolve("weather-report.snapshot");
+    facade.saveSnapshot(snapshot.toString());
+    facade.restoreSnapshot(snapshot.toString());
+    Assertions.assertEquals(Set.of(shards.shardOf(network)), shards.shardsOfGateway(GW_0102));
+    Assertions.assertEquals(SHARDS, shards.shardsOfGateway(GW_0101).size());
+  }
+
+  @Test
+  void failedRestoreShouldLeaveEveryShardAsItWas() throws Exception {
+    storeMeasurements();
+    Path snapshot = tempDir.resolve("weather-report.snapshot");
+    facade.saveSnapshot(snapshot.toString());
+    Path broken = tempDir.resolve("broken.snapshot");
+    Files.copy(snapshot, broken);
+    for (int shard = 1; shard < SHARDS; shard++) {
+      Files.copy(tempDir.resolve(snapshot.getFileName() + "." + shard),
+          tempDir.resolve(broken.getFileName() + "." + shard));
+    }
+    //l'ultimo shard non può essere caricato: i primi sono già stati sostituiti quando fallisce
+    Files.writeString(tempDir.resolve(broken.getFileName() + "." + (SHARDS - 1)), "not a snapshot");
+    facade.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    String network = networks.get(0);
+    measurementRepository.create(new Measurement(network, GW_0101, SENSOR_010101, 0, START));
+
+    Assertions.assertThrows(RuntimeException.class, () -> facade.restoreSnapshot(broken.toString()));
+    Assertions.assertEquals(1, facade.gateways().getGateways().size());
+    Assertions.assertEquals(MEASUREMENTS_PER_NETWORK + 1, countOnShard(network));
+
+    //un file mancante è rilevato prima di toccare qualsiasi shard
+    Files.delete(tempDir.resolve(broken.getFileName() + ".1"));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> facade.restoreSnapshot(broken.toString()));
+    Assertions.assertEquals(1, facade.gateways().getGateways().size());
+
+    facade.restoreSnapshot(snapshot.toString());
+    Assertions.assertTrue(facade.gateways().getGateways().isEmpty());
+    for (String restored : networks) {
+      Assertions.assertEquals(MEASUREMENTS_PER_NETWORK, countOnShard(restored), "Shard of " + restored);
+    }
+  }
+
+}
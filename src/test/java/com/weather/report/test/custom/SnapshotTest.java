@@ -0,0 +1,107 @@
+package com.weather.report.test.custom;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.weather.report.WeatherReport;
+import com.weather.report.exceptions.WeatherReportException;
+import com.weather.report.model.entities.Gateway;
+import com.weather.report.model.entities.Measurement;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.repositories.MeasurementRepository;
+import com.weather.report.test.base.BasePersistenceTest;
+
+public class SnapshotTest extends BasePersistenceTest {
+
+  private static final int MEASUREMENTS = 20_000;
+  private static final LocalDateTime START = LocalDateTime.of(2025, 1, 1, 0, 0);
+
+  @TempDir
+  Path tempDir;
+
+  private final MeasurementRepository measurementRepository = new MeasurementRepository();
+
+  private void storeMeasurements() {
+    PersistenceManager.inTransaction(() -> {
+      for (int i = 0; i < MEASUREMENTS; i++) {
+        measurementRepository.create(
+            new Measurement(NET_01, GW_0101, SENSOR_010101, i % 100, START.plusMinutes(i)));
+      }
+    });
+  }
+
+  /**
+   * Simulates a restart: the in-memory database is dropped together with its
+   * factory and the next one starts from an empty schema.
+   */
+  private void restart() {
+    PersistenceManager.close();
+    PersistenceManager.setTestMode();
+    facade = new WeatherReport();
+  }
+
+  @Test
+  void restoreShouldReloadEntitiesAndMeasurements() throws Exception {
+    facade.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    facade.gateways().createParameter(GW_0101, PARAMETER_P01, "Param", "Desc", 42.0, MAINTAINER_USERNAME);
+    storeMeasurements();
+
+    Path snapshot = tempDir.resolve("weather-report.snapshot");
+    long start = System.nanoTime();
+    facade.saveSnapshot(snapshot.toString());
+    double saveSeconds = (System.nanoTime() - start) / 1e9;
+
+    restart();
+    Assertions.assertTrue(facade.gateways().getGateways().isEmpty());
+
+    start = System.nanoTime();
+    facade.restoreSnapshot(snapshot.toString());
+    double restoreSeconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("Snapshot of %d measurements (%d bytes) saved in %.3f s, restored in %.3f s%n",
+        MEASUREMENTS, Files.size(snapshot), saveSeconds, restoreSeconds);
+
+    Gateway gateway = facade.gateways().getGateways(GW_0101).iterator().next();
+    Assertions.assertEquals(42.0, gateway.getParameter(PARAMETER_P01).getValue(), 0.001);
+    List<Measurement> measurements = measurementRepository.readByGateway(GW_0101, null, null);
+    Assertions.assertEquals(MEASUREMENTS, measurements.size());
+    Assertions.assertNotNull(measurements.get(0).getPartitionStart());
+
+    //gli utenti fanno parte della snapshot e le operazioni continuano a funzionare
+    facade.gateways().updateParameter(GW_0101, PARAMETER_P01, 7.0, UPDATER_USERNAME);
+    Assertions.assertEquals(7.0,
+        facade.gateways().getGateways(GW_0101).iterator().next().getParameter(PARAMETER_P01).getValue(), 0.001);
+  }
+
+  @Test
+  void measurementsStoredAfterRestoreShouldNotCollideWithRestoredIds() throws WeatherReportException {
+    storeMeasurements();
+    Path snapshot = tempDir.resolve("weather-report.snapshot");
+    facade.saveSnapshot(snapshot.toString());
+
+    restart();
+    facade.restoreSnapshot(snapshot.toString());
+    storeMeasurements();
+
+    Assertions.assertEquals(2 * MEASUREMENTS, measurementRepository.readByGateway(GW_0101, null, null).size());
+  }
+
+  @Test
+  void restoreShouldReplaceCurrentContent() throws WeatherReportException {
+    Path snapshot = tempDir.resolve("empty.snapshot");
+    facade.saveSnapshot(snapshot.toString());
+
+    facade.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    Assertions.assertEquals(1, facade.gateways().getGateways().size());
+
+    facade.restoreSnapshot(snapshot.toString());
+
+    Assertions.assertTrue(facade.gateways().getGateways().isEmpty());
+  }
+
+}
@@ -0,0 +1,103 @@
+package com.weather.report.test.custom;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.weather.report.reports.RunningStatistics;
+import com.weather.report.reports.StatisticsKernel;
+
+public class StatisticsKernelTest {
+
+  private static final int LARGE_SIZE = 100_003;
+
+  private static double[] randomValues(int count, long seed) {
+    Random random = new Random(seed);
+    double[] values = new double[count];
+    for (int i = 0; i < count; i++) {
+      //valori grandi e vicini tra loro: il caso in cui la somma dei quadrati perde precisione
+      values[i] = 1e6 + random.nextGaussian() * 3;
+    }
+    return values;
+  }
+
+  //riferimento scalare: un confronto con salto per ogni valore
+  private static int scalarOutliers(double[] values, double mean, double threshold) {
+    int outliers = 0;
+    for (double value : values) {
+      if (Math.abs(value - mean) >= threshold) {
+        outliers++;
+      }
+    }
+    return outliers;
+  }
+
+  @Test
+  void kernelShouldMatchTheScalarStatistics() {
+    for (int count : new int[] { 0, 1, 3, 4, 5, 63, 64, 65, 1001 }) {
+      double[] values = randomValues(count, count);
+      RunningStatistics expected = new RunningStatistics().addAll(values, 0, count);
+      RunningStatistics actual = StatisticsKernel.summarize(values, 0, count);
+      Assertions.assertEquals(expected.getCount(), actual.getCount());
+      Assertions.assertEquals(expected.getMean(), actual.getMean(), 1e-6);
+      Assertions.assertEquals(expected.getVariance(), actual.getVariance(), 1e-6);
+      Assertions.assertEquals(expected.getMinimum(), actual.getMinimum());
+      Assertions.assertEquals(expected.getMaximum(), actual.getMaximum());
+
+      long[] mask = new long[StatisticsKernel.maskLength(count)];
+      double mean = expected.getMean();
+      double threshold = 2 * expected.getStdDev();
+      int marked = StatisticsKernel.thresholdMask(values, 0, count, mean, threshold, mask);
+      Assertions.assertEquals(scalarOutliers(values, mean, threshold), marked);
+      for (int i = 0; i < count; i++) {
+        Assertions.assertEquals(Math.abs(values[i] - mean) >= threshold, StatisticsKernel.isSet(mask, i));
+      }
+    }
+  }
+
+  @Test
+  void kernelShouldUseTheVectorApiWhenAvailable() {
+    //surefire avvia la JVM con il modulo incubator: senza, i kernel usano i cicli scalari
+    boolean available = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    Assertions.assertEquals(available && !"false".equals(System.getProperty(StatisticsKernel.VECTOR_PROPERTY)),
+        StatisticsKernel.isVectorized());
+  }
+
+  @Test
+  void kernelShouldMatchTheScalarCodeOnUnalignedRanges() {
+    double[] values = randomValues(LARGE_SIZE, 42);
+    //gli estremi non allineati ai vettori passano anche dai cicli di coda
+    int from = 3;
+    int to = LARGE_SIZE - 5;
+
+    double sum = 0;
+    double sumOfSquares = 0;
+    double mean = 1e6;
+    for (int i = from; i < to; i++) {
+      sum += values[i];
+      sumOfSquares += (values[i] - mean) * (values[i] - mean);
+    }
+    Assertions.assertEquals(sum, StatisticsKernel.sum(values, from, to), Math.abs(sum) * 1e-12);
+    Assertions.assertEquals(sumOfSquares, StatisticsKernel.sumOfSquares(values, from, to, mean), sumOfSquares * 1e-12);
+
+    RunningStatistics expected = new RunningStatistics().addAll(values, from, to);
+    RunningStatistics actual = StatisticsKernel.summarize(values, from, to);
+    Assertions.assertEquals(expected.getCount(), actual.getCount());
+    Assertions.assertEquals(expected.getMean(), actual.getMean(), 1e-6);
+    Assertions.assertEquals(expected.getVariance(), actual.getVariance(), 1e-6);
+    Assertions.assertEquals(expected.getMinimum(), actual.getMinimum());
+    Assertions.assertEquals(expected.getMaximum(), actual.getMaximum());
+
+    double threshold = 2 * expected.getStdDev();
+    long[] mask = new long[StatisticsKernel.maskLength(to - from)];
+    Assertions.assertEquals(scalarOutliers(Arrays.copyOfRange(values, from, to), expected.getMean(), threshold),
+        StatisticsKernel.thresholdMask(values, from, to, expected.getMean(), threshold, mask));
+    for (int i = from; i < to; i++) {
+      Assertions.assertEquals(Math.abs(values[i] - expected.getMean()) >= threshold,
+          StatisticsKernel.isSet(mask, i - from));
+    }
+  }
+
+}
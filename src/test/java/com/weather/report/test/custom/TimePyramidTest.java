@@ -0,0 +1,117 @@
+package com.weather.report.test.custom;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.weather.report.WeatherReport;
+import com.weather.report.model.AggregationGranularity;
+import com.weather.report.model.entities.Measurement;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.reports.HistogramBuilder;
+import com.weather.report.repositories.MeasurementRepository;
+import com.weather.report.services.RetentionPolicy;
+import com.weather.report.services.RetentionService;
+import com.weather.report.test.base.BasePersistenceTest;
+
+public class TimePyramidTest extends BasePersistenceTest {
+
+  private static final LocalDateTime START = LocalDateTime.of(2025, 3, 1, 0, 0);
+
+  private final MeasurementRepository measurementRepository = new MeasurementRepository();
+  private final List<LocalDateTime> timestamps = new ArrayList<>();
+
+  @BeforeEach
+  void setUpMeasurements() throws Exception {
+    facade.gateways().createGateway(GW_0101, gatewayName("1"), desc("1"), MAINTAINER_USERNAME);
+    //circa sessanta giorni di misurazioni a istanti irregolari, con qualche secondo esatto sui confini
+    Random random = new Random(11);
+    LocalDateTime timestamp = START.plusSeconds(17);
+    List<Measurement> measurements = new ArrayList<>();
+    while (timestamp.isBefore(START.plusDays(60))) {
+      timestamps.add(timestamp);
+      measurements.add(new Measurement(NET_01, GW_0101, random.nextBoolean() ? SENSOR_010101 : SENSOR_010102,
+          random.nextDouble(), timestamp));
+      timestamp = timestamp.plusSeconds(random.nextInt(5) == 0 ? 3600 - timestamp.getMinute() * 60L
+          - timestamp.getSecond() : 60L * random.nextInt(90) + random.nextInt(60));
+    }
+    measurementRepository.createAll(measurements);
+  }
+
+  private static String format(LocalDateTime timestamp) {
+    return timestamp == null ? null : timestamp.format(WeatherReport.DATE_TIME_FORMATTER);
+  }
+
+  private void assertMatchesRawHistogram(LocalDateTime start, LocalDateTime end) throws Exception {
+    long[] seconds = timestamps.stream().mapToLong(t -> t.toEpochSecond(ZoneOffset.UTC)).toArray();
+    Assertions.assertEquals(HistogramBuilder.ofCalendarBuckets(List.of(seconds), start, end),
+        facade.gateways().getGatewayReport(GW_0101, format(start), format(end)).getTimeHistogram(),
+        format(start) + " - " + format(end));
+  }
+
+  @Test
+  void timeHistogramShouldMatchTheRawMeasurements() throws Exception {
+    LocalDateTime[][] intervals = {
+        { null, null },
+        { START.plusDays(3).plusHours(5).plusMinutes(7).plusSeconds(31), START.plusDays(41).plusMinutes(59) },
+        { START.plusDays(10).plusSeconds(59), null },
+        { null, START.plusDays(20).plusHours(23).plusMinutes(59).plusSeconds(59) },
+        { START.plusDays(5).plusHours(3).plusSeconds(1), START.plusDays(6).plusHours(22).plusSeconds(13) },
+        { START.plusDays(7), START.plusDays(7) },
+        { START.minusDays(2), START.plusDays(1) },
+        { START.plusDays(90), null } };
+    for (LocalDateTime[] interval : intervals) {
+      assertMatchesRawHistogram(interval[0], interval[1]);
+    }
+  }
+
+  private static Statistics statistics() {
+    Statistics statistics = PersistenceManager.getEntityManager().getEntityManagerFactory()
+        .unwrap(SessionFactory.class).getStatistics();
+    PersistenceManager.closeEntityManager();
+    return statistics;
+  }
+
+  @Test
+  void longIntervalsShouldReadWholeDaysFromThePyramid() throws Exception {
+    Statistics statistics = statistics();
+    statistics.clear();
+    LocalDateTime start = START.plusDays(1).plusHours(6).plusMinutes(30).plusSeconds(30);
+    LocalDateTime end = START.plusDays(50).plusHours(18).plusMinutes(15).plusSeconds(15);
+    Assertions.assertEquals(50, facade.gateways().getGatewayReport(GW_0101, format(start), format(end))
+        .getTimeHistogram().size());
+
+    long rows = 0;
+    for (String query : statistics.getQueries()) {
+      if (query.contains("FROM MeasurementCount c")) {
+        rows += statistics.getQueryStatistics(query).getExecutionRowCount();
+      }
+    }
+    //giorni interi, ore e minuti ai due estremi: mai una riga per misurazione
+    Assertions.assertTrue(rows > 0 && rows <= 49 + 2 * 24 + 2 * 60, "rows=" + rows);
+    Assertions.assertTrue(rows < timestamps.size() / 10, "rows=" + rows);
+  }
+
+  @Test
+  void rolledUpMeasurementsShouldKeepBeingCounted() throws Exception {
+    LocalDateTime now = START.plusDays(60);
+    new RetentionService(facade.services()).apply(new RetentionPolicy(Duration.ofDays(30),
+        AggregationGranularity.HOUR, 500), now);
+    facade.services().clear();
+    Assertions.assertTrue(measurementRepository.read().size() < timestamps.size());
+
+    //senza limiti e sui confini dei minuti la piramide non ha bisogno delle righe grezze
+    assertMatchesRawHistogram(null, null);
+    assertMatchesRawHistogram(START.plusDays(2).plusHours(1), START.plusDays(40).plusMinutes(30).minusSeconds(1));
+  }
+
+}
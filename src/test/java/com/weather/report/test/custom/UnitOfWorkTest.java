@@ -0,0 +1,103 @@
+package com.weather.report.test.custom;
+
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.weather.report.model.UserType;
+import com.weather.report.model.entities.User;
+import com.weather.report.persistence.PersistenceManager;
+import com.weather.report.persistence.UnitOfWork;
+import com.weather.report.repositories.UserRepository;
+import com.weather.report.test.base.BasePersistenceTest;
+
+import jakarta.persistence.EntityManager;
+
+public class UnitOfWorkTest extends BasePersistenceTest {
+
+  private static final String ALICE = "alice";
+  private static final String BOB = "bob";
+  private static final String CAROL = "carol";
+
+  private final UserRepository userRepository = new UserRepository();
+
+  private static long committedTransactions() {
+    EntityManager em = PersistenceManager.getEntityManager();
+    try {
+      return em.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics()
+          .getSuccessfulTransactionCount();
+    } finally {
+      PersistenceManager.closeEntityManager();
+    }
+  }
+
+  @Test
+  void innerScopeShouldJoinTheOuterOne() {
+    UnitOfWork outer = PersistenceManager.beginUnitOfWork();
+    try {
+      EntityManager em = PersistenceManager.getEntityManager();
+      userRepository.create(new User(ALICE, UserType.VIEWER));
+      try (UnitOfWork inner = PersistenceManager.beginUnitOfWork()) {
+        //lo scope interno usa lo stesso entity manager e vede le entità non ancora salvate
+        Assertions.assertSame(em, PersistenceManager.getEntityManager());
+        Assertions.assertNotNull(userRepository.read(ALICE));
+        userRepository.create(new User(BOB, UserType.VIEWER));
+        inner.commit();
+      }
+      //il commit interno non chiude l'unità di lavoro esterna
+      Assertions.assertTrue(PersistenceManager.isInTransaction());
+      Assertions.assertSame(em, PersistenceManager.getEntityManager());
+    } finally {
+      //l'esterno è chiuso senza commit: anche il lavoro dell'interno è annullato
+      outer.close();
+    }
+
+    Assertions.assertFalse(PersistenceManager.isInTransaction());
+    Assertions.assertNull(userRepository.read(ALICE));
+    Assertions.assertNull(userRepository.read(BOB));
+  }
+
+  @Test
+  void innerFailureShouldRollBackTheOuterScope() {
+    try (UnitOfWork outer = PersistenceManager.beginUnitOfWork()) {
+      userRepository.create(new User(ALICE, UserType.VIEWER));
+      Assertions.assertThrows(IllegalStateException.class, () -> {
+        UnitOfWork inner = PersistenceManager.beginUnitOfWork();
+        try {
+          userRepository.create(new User(BOB, UserType.VIEWER));
+          throw new IllegalStateException("inner failure");
+        } finally {
+          //chiuso senza commit per l'errore: la transazione esterna non può più essere salvata
+          inner.close();
+        }
+      });
+      Assertions.assertTrue(PersistenceManager.getEntityManager().getTransaction().getRollbackOnly());
+      outer.commit();
+    }
+
+    Assertions.assertFalse(PersistenceManager.isInTransaction());
+    Assertions.assertNull(userRepository.read(ALICE));
+    Assertions.assertNull(userRepository.read(BOB));
+  }
+
+  @Test
+  void batchShouldCommitOnce() {
+    long before = committedTransactions();
+    PersistenceManager.inTransaction(() -> {
+      userRepository.create(new User(ALICE, UserType.VIEWER));
+      userRepository.create(new User(BOB, UserType.VIEWER));
+      userRepository.create(new User(CAROL, UserType.VIEWER));
+    });
+    Assertions.assertEquals(before + 1, committedTransactions());
+
+    //senza unità di lavoro ogni scrittura ha la propria transazione
+    before = committedTransactions();
+    userRepository.delete(ALICE);
+    userRepository.delete(BOB);
+    Assertions.assertEquals(before + 2, committedTransactions());
+
+    Assertions.assertNull(userRepository.read(ALICE));
+    Assertions.assertNotNull(userRepository.read(CAROL));
+  }
+
+}